@@ -0,0 +1,222 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignerBenchmark.java
+ *
+ * Description: Alignment Engine Benchmarks
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the alignment engines and of the alignment formatting,
+ * over sequence lengths, kinds of pairs and cost tables.
+ *
+ * Besides the alignments per second, the compute benchmarks report the
+ * "cells" counter: the number of cells of the dynamic programming table
+ * filled per second (divide by 1e9 for GCUPS).  Run with "-prof gc" (as
+ * "make bench" does) to get the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlignerBenchmark {
+    /**
+     * The maximum number of cells of a table: the second sequence of the
+     * longest pairs is truncated, since the operations table takes one byte
+     * per cell.
+     */
+    private final static long MAX_CELLS = 100000000L;
+
+    /**
+     * The pair of sequences to align, and the costs.
+     */
+    @State(Scope.Benchmark)
+    public static class Pair {
+	/**
+	 * The length of the first sequence.
+	 */
+	@Param({ "100", "1000", "10000", "100000" })
+	public int length;
+
+	/**
+	 * The kind of pair: identical sequences, a sequence and a mutated
+	 * copy of it, or two unrelated random sequences.
+	 */
+	@Param({ "identical", "divergent", "random" })
+	public String kind;
+
+	/**
+	 * The cost table: the default one, or one with costs depending on the
+	 * residues (see CostsBenchmark.customCosts()).
+	 */
+	@Param({ "default", "custom" })
+	public String table;
+
+	/**
+	 * The sequences.
+	 */
+	String string1, string2;
+
+	/**
+	 * The compiled costs, and the kernel generated for them.
+	 */
+	CostMatrix costs;
+	Kernel kernel;
+
+	/**
+	 * Generate the pair, always the same for the same parameters.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+	    final WorkloadGenerator generator = new WorkloadGenerator();
+	    final SplittableRandom random = new SplittableRandom(length);
+	    final char[] chars1 = generator.random(random, length);
+	    char[] chars2;
+
+	    if (kind.equals("identical"))
+		chars2 = chars1;
+	    else if (kind.equals("divergent"))
+		chars2 = generator.mutate(random, chars1, null);
+	    else
+		chars2 = generator.random(random, length);
+
+	    string1 = new String(chars1);
+	    string2 = new String(chars2, 0, (int)Math.min(chars2.length,
+		MAX_CELLS / (length + 1) - 1));
+	    costs = table.equals("custom") ? CostsBenchmark.customCosts() :
+		    CostMatrix.compile(new Costs());
+	    kernel = Kernel.get(costs);
+	}
+    }
+
+    /**
+     * Counter of the computed cells, reported as a rate by JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Cells {
+	/**
+	 * The number of cells computed.
+	 */
+	public long cells;
+
+	/**
+	 * Reset the counter before each iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+	    cells = 0;
+	}
+    }
+
+    /**
+     * An aligner whose alignment has been computed.
+     */
+    @State(Scope.Thread)
+    public static class Aligned {
+	/**
+	 * The aligner.
+	 */
+	Aligner aligner;
+
+	/**
+	 * Compute the alignment.
+	 *
+	 * @param pair the pair to align.
+	 */
+	@Setup(Level.Trial)
+	public void setup(final Pair pair) {
+	    aligner = new Aligner(pair.string1, pair.string2);
+	    aligner.compute(pair.costs, new Workspace());
+	}
+    }
+
+    /**
+     * Align with the generic engine, in the thread workspace.
+     *
+     * @param pair  the pair to align.
+     * @param cells the cell counter.
+     *
+     * @return the cost.
+     */
+    @Benchmark
+    public double compute(final Pair pair, final Cells cells) {
+	final Aligner aligner = new Aligner(pair.string1, pair.string2);
+	final double cost = aligner.compute(pair.costs, Workspace.get());
+	cells.cells += aligner.getCellCount();
+	return cost;
+    }
+
+    /**
+     * Align with the kernel generated for the costs, in the thread workspace.
+     *
+     * @param pair  the pair to align.
+     * @param cells the cell counter.
+     *
+     * @return the cost.
+     */
+    @Benchmark
+    public double computeKernel(final Pair pair, final Cells cells) {
+	final Aligner aligner = new Aligner(pair.string1, pair.string2);
+	final double cost = aligner.compute(pair.kernel, Workspace.get());
+	cells.cells += aligner.getCellCount();
+	return cost;
+    }
+
+    /**
+     * Format a computed alignment (the traceback is only done once).
+     *
+     * @param aligned the computed alignment.
+     *
+     * @return the two-line alignment.
+     */
+    @Benchmark
+    public String format(final Aligned aligned) {
+	return aligned.aligner.toString();
+    }
+}
+
+// End of File
@@ -0,0 +1,170 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CostsBenchmark.java
+ *
+ * Description: Cost Lookup Benchmarks
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the cost lookups: the editable hash-based costs against
+ * the compiled cost table used by the alignment engines.  An operation is
+ * the lookup of the insertion, deletion and substitution costs of a pair of
+ * residues.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CostsBenchmark {
+    /**
+     * The number of residue pairs looked up per invocation.
+     */
+    private final static int LOOKUPS = 1024;
+
+    /**
+     * The cost table: the default one, or customCosts().
+     */
+    @Param({ "default", "custom" })
+    public String table;
+
+    /**
+     * The costs, editable and compiled.
+     */
+    private Costs costs;
+    private CostMatrix matrix;
+
+    /**
+     * The residue pairs.
+     */
+    private final char[] residues1 = new char[LOOKUPS];
+    private final char[] residues2 = new char[LOOKUPS];
+
+    /**
+     * Make costs depending on the residues: transitions (A/G, C/T) cost less
+     * than transversions, and gaps of C and G cost more.
+     *
+     * @return the editable costs.
+     */
+    static Costs makeCustomCosts() {
+	final String residues = WorkloadGenerator.DEFAULT_ALPHABET;
+	final Costs costs = new Costs();
+
+	for (int i = 0; i < residues.length(); i++) {
+	    final char chr1 = residues.charAt(i);
+	    final double gap = chr1 == 'C' || chr1 == 'G' ? 1.5 : 1.0;
+	    costs.setIns(chr1, gap);
+	    costs.setDel(chr1, gap);
+
+	    for (int j = 0; j < residues.length(); j++) {
+		final char chr2 = residues.charAt(j);
+		final boolean purine1 = chr1 == 'A' || chr1 == 'G';
+		final boolean purine2 = chr2 == 'A' || chr2 == 'G';
+		costs.setSub(chr1, chr2, chr1 == chr2 ? 0.0 :
+			     purine1 == purine2 ? 1.0 : 2.0);
+	    }
+	}
+	return costs;
+    }
+
+    /**
+     * Compile the custom costs.
+     *
+     * @return the compiled costs.
+     */
+    static CostMatrix customCosts() {
+	return CostMatrix.compile(makeCustomCosts());
+    }
+
+    /**
+     * Make the costs and draw the residue pairs.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+	costs = table.equals("custom") ? makeCustomCosts() : new Costs();
+	matrix = CostMatrix.compile(costs);
+
+	final SplittableRandom random = new SplittableRandom(LOOKUPS);
+	final WorkloadGenerator generator = new WorkloadGenerator();
+	System.arraycopy(generator.random(random, LOOKUPS), 0, residues1, 0,
+			 LOOKUPS);
+	System.arraycopy(generator.random(random, LOOKUPS), 0, residues2, 0,
+			 LOOKUPS);
+    }
+
+    /**
+     * Look the costs up in the editable costs.
+     *
+     * @return the sum of the costs.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public double costs() {
+	double sum = 0.0;
+	for (int i = 0; i < LOOKUPS; i++)
+	    sum += costs.getIns(residues2[i]) + costs.getDel(residues1[i]) +
+		   costs.getSub(residues1[i], residues2[i]);
+	return sum;
+    }
+
+    /**
+     * Look the costs up in the compiled cost table.
+     *
+     * @return the sum of the costs.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public double matrix() {
+	double sum = 0.0;
+	for (int i = 0; i < LOOKUPS; i++)
+	    sum += matrix.getIns(residues2[i]) + matrix.getDel(residues1[i]) +
+		   matrix.getSub(residues1[i], residues2[i]);
+	return sum;
+    }
+}
+
+// End of File
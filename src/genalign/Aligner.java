@@ -32,23 +32,21 @@
 
 package genalign;
 
-import java.awt.Component;
-import java.awt.Dimension;
-import java.awt.Point;
-import javax.swing.JScrollPane;
-import javax.swing.JTable;
-import javax.swing.table.AbstractTableModel;
-import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableColumn;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 /**
  * Implementation of the alignment algorithm.
+ *
+ * This class does not depend on AWT/Swing so that it can be used from the
+ * command line; the graphical view of the computed table is provided by
+ * {@link ComputedCostTable}.
  */
-public final class Aligner extends AbstractTableModel {
+public final class Aligner {
     /**
      * Operation opcodes (end, insertion, deletion, substitution).
      */
-    private final static byte OPR_END = 0, OPR_INS = 1,
+    final static byte OPR_END = 0, OPR_INS = 1,
 			      OPR_DEL = 2, OPR_SUB = 3;
 
     /**
@@ -57,35 +55,101 @@ public final class Aligner extends AbstractTableModel {
     private final char[] string1, string2;
 
     /**
-     * The table generated during the alignment computation.
+     * The table generated during the alignment computation, only kept when
+     * it is to be displayed.
      */
     private double[][] costTab = null;
 
+    /**
+     * The checkpoints the cost table is recomputed from, when it is not kept
+     * whole.
+     */
+    private CostCheckpoints checkpoints = null;
+
+    /**
+     * The minimum cost.
+     */
+    private double cost = 0.0;
+
     /**
      * The maximum value in costTab.
      */
     private double maxCost = 0.0;
 
+    /**
+     * The maximum value of the columns up to each one, when the cost table
+     * is kept (so that it can be reused by a later alignment).
+     */
+    private double[] maxCosts = null;
+
+    /**
+     * The costs the tables were computed with.
+     */
+    private CostMatrix costMatrix = null;
+
     /**
      * Operation path: each cell backlinks to the previous one according to its
-     * content (an opcode).
+     * content (an opcode).  Stored column by column (indexed by the position
+     * in the second string first) so that the inner loop of compute() writes
+     * to consecutive bytes.  Not kept with checkpoints: the operations are
+     * then found again from the recomputed costs.
      */
     private byte[][] operations = null;
 
     /**
-     * Not used, but eliminates a warning.
+     * The workspace the buffers are borrowed from.
+     */
+    private Workspace workspace = null;
+
+    /**
+     * The edit script of the optimal alignment, built on demand.
+     */
+    private EditScript script = null;
+
+    /**
+     * The engine which filled the operations table (for the events).
+     */
+    private String engine = AlignmentEvents.ENG_SCALAR;
+
+    /**
+     * Wether the computation has been cancelled from another thread.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * The number of columns of the table filled so far, read by other threads
+     * to report the progress.
      */
-    private final static long serialVersionUID = 1L;
+    private volatile int filled = 0;
 
     /**
-     * Constructor.
+     * Constructor.  The strings are copied, so that they can be modified
+     * while the alignment is computed.
      *
      * @param str1 the first string ("initial state").
      * @param str2 the second string ("target").
      */
-    public Aligner(final String str1, final String str2) {
-	string1 = str1.toCharArray();
-	string2 = str2.toCharArray();
+    public Aligner(final CharSequence str1, final CharSequence str2) {
+	string1 = toChars(str1);
+	string2 = toChars(str2);
+    }
+
+    /**
+     * Copy a character sequence into a new array, without going through a
+     * string.
+     *
+     * @param chars the character sequence.
+     *
+     * @return the characters.
+     */
+    private static char[] toChars(final CharSequence chars) {
+	if (chars instanceof String)
+	    return ((String)chars).toCharArray();
+
+	final char[] array = new char[chars.length()];
+	for (int i = 0; i < array.length; i++)
+	    array[i] = chars.charAt(i);
+	return array;
     }
 
     /**
@@ -102,255 +166,721 @@ public final class Aligner extends AbstractTableModel {
     }
 
     /**
-     * Compute the operations table.
+     * Compute the operations table, keeping the whole cost table for display.
+     * The costs are immutable, so the same instance can be used by several
+     * aligners running concurrently.
      *
-     * @param costs the operations costs.
+     * @param costs the compiled operations costs (see Costs.snapshot()).
      *
      * @return the minimum cost (side effect: fill the operations table).
+     *
+     * @throws CancellationException if cancel() has been called.
      */
-    public double compute(final Costs costs) {
-	costs.retrieveValues();
+    public double compute(final CostMatrix costs) {
+	return compute(costs, (Aligner)null);
+    }
 
+    /**
+     * Compute the operations and cost tables, reusing the tables of a
+     * previous alignment, with the same costs, of strings which were edited
+     * into these ones.  Only the cells which depend on the edits are
+     * recomputed: the columns after the first edited position of the second
+     * string, and if the first string was edited, the rows after its first
+     * edited position.  The previous alignment is left untouched.
+     *
+     * @param costs    the compiled operations costs (see Costs.snapshot()).
+     * @param previous the previous alignment, or null; it is only reused if
+     *                 it was computed by compute(CostMatrix) or
+     *                 compute(CostMatrix, Aligner) with the same costs.
+     *
+     * @return the minimum cost (side effect: fill the operations table).
+     *
+     * @throws CancellationException if cancel() has been called.
+     */
+    public double compute(final CostMatrix costs, final Aligner previous) {
 	costTab = new double[string1.length + 1][];
-	operations = new byte[string1.length + 1][];
-	for (int i = 0; i <= string1.length; i++) {
+	for (int i = 0; i <= string1.length; i++)
 	    costTab[i] = new double[string2.length + 1];
-	    operations[i] = new byte[string2.length + 1];
+	checkpoints = null;
+	AlignmentMetrics.get().addTableBytes(8L * getCellCount());
+
+	if (isReusable(previous, costs) && previous.costTab != null) {
+	    final int rows = commonPrefix(string1, previous.string1);
+	    final int columns = commonPrefix(string2, previous.string2);
+	    if (rows > 0 && columns > 0)
+		return fill(costs, new Workspace(), previous, rows, columns);
 	}
+	return fill(costs, new Workspace());
+    }
+
+    /**
+     * Compute the minimum cost, keeping only checkpoints of the cost table:
+     * one column every interval columns, from which the other columns are
+     * recomputed by blocks when they are read, keeping the last cacheSize
+     * blocks.  The operations table is not kept either: the edit script and
+     * the alignment path are traced back through the recomputed blocks.
+     * This allows aligning and displaying tables which would not fit in
+     * memory as a whole.
+     *
+     * @param costs     the compiled operations costs (see Costs.snapshot()).
+     * @param interval  the number of columns between two checkpoints.
+     * @param cacheSize the number of recomputed blocks to keep.
+     *
+     * @return the minimum cost (side effect: save the checkpoints).
+     *
+     * @throws CancellationException if cancel() has been called.
+     */
+    public double compute(final CostMatrix costs, final int interval,
+			  final int cacheSize) {
+	return compute(costs, interval, cacheSize, null);
+    }
 
-	costTab[0][0] = 0.0;
-	operations[0][0] = OPR_END;
+    /**
+     * Compute the minimum cost, keeping only checkpoints of the cost table
+     * (see compute(CostMatrix, int, int)), reusing the checkpoints of a
+     * previous alignment of the same first string and of a second string
+     * which was edited into this one: only the columns after the first
+     * edited position are recomputed.  The checkpoints are then kept at the
+     * interval of the previous alignment.
+     *
+     * @param costs     the compiled operations costs (see Costs.snapshot()).
+     * @param interval  the number of columns between two checkpoints.
+     * @param cacheSize the number of recomputed blocks to keep.
+     * @param previous  the previous alignment, or null; it is only reused if
+     *                  it was computed with checkpoints and the same costs.
+     *
+     * @return the minimum cost (side effect: save the checkpoints).
+     *
+     * @throws CancellationException if cancel() has been called.
+     */
+    public double compute(final CostMatrix costs, final int interval,
+			  final int cacheSize, final Aligner previous) {
+	costTab = null;
+
+	if (isReusable(previous, costs) && previous.checkpoints != null &&
+	    Arrays.equals(string1, previous.string1)) {
+	    final int columns = commonPrefix(string2, previous.string2);
+	    checkpoints = new CostCheckpoints(string1, string2, costs,
+		previous.checkpoints.getInterval(), cacheSize);
+	    if (columns > 0)
+		return fill(costs, new Workspace(), previous, string1.length,
+			    columns);
+	} else
+	    checkpoints = new CostCheckpoints(string1, string2, costs,
+					      interval, cacheSize);
+	return fill(costs, new Workspace());
+    }
+
+    /**
+     * Check wether the tables of a previous alignment can be reused.
+     *
+     * @param previous the previous alignment, or null.
+     * @param costs    the costs of this alignment.
+     *
+     * @return wether the previous alignment was completed, with the same
+     *         costs, and owns its tables.
+     */
+    private static boolean isReusable(final Aligner previous,
+				      final CostMatrix costs) {
+	return previous != null && previous.maxCosts != null &&
+	       previous.filled == previous.string2.length + 1 &&
+	       previous.costMatrix.equals(costs);
+    }
+
+    /**
+     * Get the length of the common prefix of two strings.
+     *
+     * @param a the first string.
+     * @param b the second string.
+     *
+     * @return the length of the common prefix.
+     */
+    private static int commonPrefix(final char[] a, final char[] b) {
+	final int mismatch = Arrays.mismatch(a, b);
+	return mismatch < 0 ? a.length : mismatch;
+    }
+
+    /**
+     * Compute the operations table in buffers borrowed from a workspace.
+     * Only the operations table is kept, not the cost table, and it remains
+     * valid until the workspace is used by another alignment.
+     *
+     * @param costs     the compiled operations costs (see Costs.snapshot()).
+     * @param workspace the workspace, usually Workspace.get().
+     *
+     * @return the minimum cost (side effect: fill the operations table).
+     */
+    public double compute(final CostMatrix costs, final Workspace workspace) {
+	costTab = null;
+	checkpoints = null;
+	return fill(costs, workspace);
+    }
+
+    /**
+     * Compute the operations table with a kernel specialised for the costs,
+     * in buffers borrowed from a workspace.  The result is the same as with
+     * compute(CostMatrix, Workspace), except that the maximum cost is not
+     * tracked.
+     *
+     * @param kernel    the kernel (see Kernel.get()).
+     * @param workspace the workspace, usually Workspace.get().
+     *
+     * @return the minimum cost (side effect: fill the operations table).
+     */
+    public double compute(final Kernel kernel, final Workspace workspace) {
+	final int length1 = string1.length;
+	final long start = System.nanoTime();
+	final AlignmentEvents.Fill event = new AlignmentEvents.Fill();
+	event.begin();
+
+	costTab = null;
+	checkpoints = null;
+	maxCosts = null;
+	this.workspace = workspace;
+	operations = workspace.getOperations(string2.length + 1, length1 + 1);
+	script = null;
 	maxCost = 0.0;
 
-	for (int i = 0; i < string1.length; i++) {
-	    final double value = costTab[i][0] + costs.getDel(string1[i]);
-	    costTab[i + 1][0] = value;
-	    operations[i + 1][0] = OPR_DEL;
+	cost = kernel.fill(string1, string2,
+			   workspace.getColumn(0, length1 + 1),
+			   workspace.getColumn(1, length1 + 1), operations);
+	filled = string2.length + 1;
+	engine = AlignmentEvents.ENG_KERNEL;
+
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	metrics.addCells(getCellCount());
+	metrics.addFill(System.nanoTime() - start);
+	metrics.addKernelPair();
+	commit(event);
+	return cost;
+    }
+
+    /**
+     * Start computing the minimum cost only, in memory linear in the length
+     * of the first string: neither the operations table nor the cost table
+     * are kept, so there is no edit script.  The columns of the cost table
+     * are then computed by computeColumns(), a block at a time, and the
+     * column between two blocks can be saved to resume the computation
+     * later, with another aligner of the same strings.
+     *
+     * @param costs the compiled operations costs (see Costs.snapshot()).
+     *
+     * @return the first column of the cost table.
+     */
+    public double[] getFirstColumn(final CostMatrix costs) {
+	final int length1 = string1.length;
+	final double[] column = new double[length1 + 1];
+
+	column[0] = 0.0;
+	for (int i = 0; i < length1; i++)
+	    column[i + 1] = column[i] + costs.getDel(string1[i]);
+	AlignmentMetrics.get().addCells(length1 + 1);
+	return column;
+    }
+
+    /**
+     * Compute a block of columns of the cost table, from the column before
+     * it (see getFirstColumn()).  Once the last column is computed, the
+     * minimum cost is available from getCost().
+     *
+     * @param costs  the compiled operations costs (see Costs.snapshot()).
+     * @param column the costs of the column before the block (input), then
+     *               of the last column of the block (output).
+     * @param from   the number of the column before the block.
+     * @param to     the number of the last column of the block.
+     *
+     * @return the cost of the last cell of the last column of the block.
+     *
+     * @throws CancellationException if cancel() has been called.
+     */
+    public double computeColumns(final CostMatrix costs, final double[] column,
+				 final int from, final int to) {
+	final int length1 = string1.length;
+	final long start = System.nanoTime();
+	final AlignmentEvents.Fill event = new AlignmentEvents.Fill();
+	event.begin();
+	double[] current = column;
+	double[] next = new double[length1 + 1];
+
+	costTab = null;
+	checkpoints = null;
+	maxCosts = null;
+	operations = null;
+	script = null;
+
+	for (int j = from; j < to; j++) {
+	    if (cancelled)
+		throw new CancellationException("alignment cancelled");
+
+	    final char chr2 = string2[j];
+	    final double insCost = costs.getIns(chr2);
+
+	    next[0] = current[0] + insCost;
+	    for (int i = 0; i < length1; i++)
+		next[i + 1] = min(current[i + 1] + insCost,
+				  next[i] + costs.getDel(string1[i]),
+				  current[i] + costs.getSub(string1[i], chr2));
+
+	    final double[] swap = current;
+	    current = next;
+	    next = swap;
+	    filled = j + 2;
+	}
+	if (current != column)
+	    System.arraycopy(current, 0, column, 0, length1 + 1);
+
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	metrics.addCells((long)(length1 + 1) * (to - from));
+	metrics.addFill(System.nanoTime() - start);
+	if (to == string2.length) {
+	    cost = column[length1];
+	    engine = AlignmentEvents.ENG_SCALAR;
+	    metrics.addScalarPair();
+	}
+	if (event.shouldCommit()) {
+	    event.set(length1, to - from, AlignmentEvents.ENG_SCALAR,
+		      (long)(length1 + 1) * (to - from));
+	    event.commit();
+	}
+	return column[length1];
+    }
+
+    /**
+     * Fill the operations table, or the checkpoints, and the cost table if
+     * there is one.
+     *
+     * @param costs     the compiled operations costs.
+     * @param workspace the workspace to borrow the buffers from.
+     *
+     * @return the minimum cost.
+     */
+    private double fill(final CostMatrix costs, final Workspace workspace) {
+	return fill(costs, workspace, null, 0, 0);
+    }
+
+    /**
+     * Fill the operations table, or the checkpoints, and the cost table if
+     * there is one, reusing the cells of a previous alignment which only
+     * depend on the common prefixes of the strings.  If the first string is
+     * the same, the common columns are reused whole (the operations or
+     * checkpoints are shared, the costs copied); otherwise, which needs the
+     * previous cost table, the common rows of the common columns are.
+     *
+     * @param costs     the compiled operations costs.
+     * @param workspace the workspace to borrow the buffers from.
+     * @param previous  the previous alignment, or null.
+     * @param rows      the length of the common prefix of the first strings.
+     * @param columns   the length of the common prefix of the second strings.
+     *
+     * @return the minimum cost.
+     */
+    private double fill(final CostMatrix costs, final Workspace workspace,
+			final Aligner previous, final int rows,
+			final int columns) {
+	final int length1 = string1.length, length2 = string2.length;
+	final long start = System.nanoTime();
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	final AlignmentEvents.Fill event = new AlignmentEvents.Fill();
+	event.begin();
+	double[] column = workspace.getColumn(0, length1 + 1);
+	double[] next = workspace.getColumn(1, length1 + 1);
+	final boolean wholeColumns =
+	    previous != null && length1 == previous.string1.length &&
+	    rows == length1;
+
+	this.workspace = workspace;
+	costMatrix = costs;
+	script = null;
+	maxCost = 0.0;
+	maxCosts = costTab != null || checkpoints != null ?
+	    new double[length2 + 1] : null;
+
+	// The operations of the previous alignment are never modified, so
+	// its columns can be shared, but not borrowed from a workspace; with
+	// checkpoints, the operations of each column are dropped at once
+	final byte[] scratch =
+	    checkpoints != null ? new byte[length1 + 1] : null;
+	if (checkpoints != null)
+	    operations = null;
+	else if (previous == null)
+	    operations = workspace.getOperations(length2 + 1, length1 + 1);
+	else {
+	    operations = new byte[length2 + 1][];
+	    for (int j = wholeColumns ? columns + 1 : 0; j <= length2; j++)
+		operations[j] = new byte[length1 + 1];
+	    metrics.addTableBytes((long)(length1 + 1) *
+				  (wholeColumns ? length2 - columns :
+				   length2 + 1));
+	}
 
-	    if (value > maxCost)
-		maxCost = value;
+	int first = 0;
+	double[] reusedMax = null;
+	if (wholeColumns) {
+	    reuseColumns(previous, columns, column);
+	    first = columns;
+	} else {
+	    if (previous != null)
+		reusedMax = reuseRows(previous, rows, columns);
+
+	    final byte[] ops = operations != null ? operations[0] : scratch;
+	    column[0] = 0.0;
+	    ops[0] = OPR_END;
+	    for (int i = 0; i < length1; i++) {
+		final double value = column[i] + costs.getDel(string1[i]);
+		column[i + 1] = value;
+		ops[i + 1] = OPR_DEL;
+
+		if (value > maxCost)
+		    maxCost = value;
+	    }
+	    if (costTab != null)
+		for (int i = 0; i <= length1; i++)
+		    costTab[i][0] = column[i];
+	    else if (checkpoints != null)
+		checkpoints.save(0, column);
+	    if (maxCosts != null)
+		maxCosts[0] = maxCost;
+	    metrics.addCells(length1 + 1);
 	}
+	filled = first + 1;
+
+	for (int j = first; j < length2; j++) {
+	    if (cancelled)
+		throw new CancellationException("alignment cancelled");
+
+	    final byte[] ops = operations != null ? operations[j + 1] : scratch;
+	    final char chr2 = string2[j];
+	    final double insCost = costs.getIns(chr2);
+	    int from = 0;
+
+	    if (j < columns && reusedMax != null) {
+		// Only the rows after the common prefix are recomputed
+		from = rows;
+		System.arraycopy(previous.operations[j + 1], 0, ops, 0,
+				 rows + 1);
+		next[rows] = previous.costTab[rows][j + 1];
+		if (j + 1 == columns)
+		    for (int i = 0; i < rows; i++)
+			next[i] = previous.costTab[i][j + 1];
+		if (reusedMax[j + 1] > maxCost)
+		    maxCost = reusedMax[j + 1];
+	    } else {
+		final double value = column[0] + insCost;
+		next[0] = value;
+		ops[0] = OPR_INS;
+
+		if (value > maxCost)
+		    maxCost = value;
+	    }
 
-	for (int j = 0; j < string2.length; j++) {
-	    final double value = costTab[0][j] + costs.getIns(string2[j]);
-	    costTab[0][j + 1] = value;
-	    operations[0][j + 1] = OPR_INS;
-
-	    if (value > maxCost)
-		maxCost = value;
-
-	    for (int i = 0; i < string1.length; i++) {
-		final double subVal = costTab[i][j] +
-				      costs.getSub(string1[i], string2[j]);
-		final double delVal = costTab[i][j + 1] +
-				      costs.getDel(string1[i]);
-		final double insVal = costTab[i + 1][j] +
-				      costs.getIns(string2[j]);
+	    for (int i = from; i < length1; i++) {
+		final double subVal = column[i] +
+				      costs.getSub(string1[i], chr2);
+		final double delVal = next[i] + costs.getDel(string1[i]);
+		final double insVal = column[i + 1] + insCost;
 		final double minVal = min(insVal, delVal, subVal);
 
 		if (minVal > maxCost)
 		    maxCost = minVal;
 
-		costTab[i + 1][j + 1] = minVal;
+		next[i + 1] = minVal;
 		if (minVal == insVal)
-		    operations[i + 1][j + 1] = OPR_INS;
+		    ops[i + 1] = OPR_INS;
 		else if (minVal == delVal)
-		    operations[i + 1][j + 1] = OPR_DEL;
+		    ops[i + 1] = OPR_DEL;
 		else
-		    operations[i + 1][j + 1] = OPR_SUB;
+		    ops[i + 1] = OPR_SUB;
 	    }
+
+	    if (costTab != null)
+		for (int i = from; i <= length1; i++)
+		    costTab[i][j + 1] = next[i];
+	    else if (checkpoints != null)
+		checkpoints.save(j + 1, next);
+	    if (maxCosts != null)
+		maxCosts[j + 1] = maxCost;
+
+	    final double[] swap = column;
+	    column = next;
+	    next = swap;
+	    filled = j + 2;
+	    metrics.addCells(length1 + 1 - from);
 	}
 
-	return costTab[string1.length][string2.length];
+	cost = column[length1];
+	engine = AlignmentEvents.ENG_SCALAR;
+	metrics.addFill(System.nanoTime() - start);
+	metrics.addScalarPair();
+	commit(event);
+	return cost;
     }
 
     /**
-     * Get a two-line string with the two input strings aligned.
+     * Reuse the first columns of a previous alignment of the same first
+     * string: share their operations and copy their costs, or share their
+     * checkpoints.
      *
-     * @return the string representation of the alignment.
+     * @param previous the previous alignment.
+     * @param columns  the number of columns to reuse after the first one.
+     * @param column   the costs of the last reused column (output).
      */
-    public String toString() {
-	if (operations == null)
-	    return new String();
+    private void reuseColumns(final Aligner previous, final int columns,
+			      final double[] column) {
+	final int length1 = string1.length;
+
+	if (costTab != null) {
+	    System.arraycopy(previous.operations, 0, operations, 0,
+			     columns + 1);
+	    for (int i = 0; i <= length1; i++) {
+		System.arraycopy(previous.costTab[i], 0, costTab[i], 0,
+				 columns + 1);
+		column[i] = previous.costTab[i][columns];
+	    }
+	} else {
+	    checkpoints.reuse(previous.checkpoints, columns);
+	    previous.checkpoints.getColumn(columns, column);
+	}
+
+	System.arraycopy(previous.maxCosts, 0, maxCosts, 0, columns + 1);
+	maxCost = maxCosts[columns];
+    }
+
+    /**
+     * Reuse the first rows of the first columns of a previous alignment:
+     * copy their costs, row by row, and compute their maximum in each
+     * column.  Their operations are copied column by column by fill().
+     *
+     * @param previous the previous alignment, with a cost table.
+     * @param rows     the number of rows to reuse after the first one.
+     * @param columns  the number of columns to reuse after the first one.
+     *
+     * @return the maximum cost of the reused cells of each column.
+     */
+    private double[] reuseRows(final Aligner previous, final int rows,
+			       final int columns) {
+	final double[] reusedMax = new double[columns + 1];
+
+	for (int i = 0; i <= rows; i++) {
+	    final double[] row = previous.costTab[i];
+	    System.arraycopy(row, 0, costTab[i], 0, columns + 1);
+	    for (int j = 0; j <= columns; j++)
+		if (row[j] > reusedMax[j])
+		    reusedMax[j] = row[j];
+	}
+	return reusedMax;
+    }
 
-	final int total = string1.length + string2.length;
-	final char[] str1 = new char[total + 1];
-	final char[] str2 = new char[total];
-	int pos = total, i = string1.length, j = string2.length;
+    /**
+     * Cancel the computation running in another thread: compute() then
+     * throws a CancellationException when it starts the next column of the
+     * table.
+     */
+    public void cancel() {
+	cancelled = true;
+    }
 
-	while (operations[i][j] != OPR_END) {
-	    pos--;
+    /**
+     * Get the progress of the computation, which can be polled from another
+     * thread.
+     *
+     * @return the fraction of the cells filled so far, from 0 to 1.
+     */
+    public double getProgress() {
+	return filled / (double)(string2.length + 1);
+    }
 
-	    switch (operations[i][j]) {
+    /**
+     * Get the minimum cost computed by compute().
+     *
+     * @return the alignment cost.
+     */
+    public double getCost() {
+	return cost;
+    }
+
+    /**
+     * Get the edit script of the optimal alignment, built by following the
+     * operation path back from the last cell.
+     *
+     * @return the edit script, or null if compute() has not been called.
+     *
+     * @throws CancellationException if cancel() has been called (the path
+     *                               is long to follow with checkpoints).
+     */
+    public EditScript getEditScript() {
+	if (!isComputed())
+	    return null;
+	if (script != null)
+	    return script;
+
+	final long start = System.nanoTime();
+	final AlignmentEvents.Traceback event =
+	    new AlignmentEvents.Traceback();
+	event.begin();
+	final EditScript result = workspace.getScript();
+	int i = string1.length, j = string2.length;
+	byte operation;
+
+	while ((operation = getOperation(i, j)) != OPR_END) {
+	    if (cancelled)
+		throw new CancellationException("alignment cancelled");
+
+	    switch (operation) {
 	    case OPR_INS:
-		str1[pos] = '-';
-		str2[pos] = string2[--j];
+		result.append(EditScript.OP_INSERT);
+		j--;
 		break;
 
 	    case OPR_DEL:
-		str1[pos] = string1[--i];
-		str2[pos] = '-';
+		result.append(EditScript.OP_DELETE);
+		i--;
 		break;
 
 	    case OPR_SUB:
-		str1[pos] = string1[--i];
-		str2[pos] = string2[--j];
+		i--;
+		j--;
+		result.append(string1[i] == string2[j] ?
+			      EditScript.OP_MATCH : EditScript.OP_MISMATCH);
 	    }
 	}
 
-	str1[total] = '\n';
-	return new String(str1, pos, total - pos + 1) +
-	       new String(str2, pos, total - pos);
+	result.reverse();
+	script = result;
+	AlignmentMetrics.get().addTraceback(System.nanoTime() - start);
+	commit(event);
+	return script;
     }
 
     /**
-     * Return the number of columns in the model.
+     * Get a two-line string with the two input strings aligned.
      *
-     * @return the number of columns in the model.
+     * @return the string representation of the alignment.
      */
-    public int getColumnCount() {
-	return string1.length + 2;
+    public String toString() {
+	if (!isComputed())
+	    return new String();
+
+	final EditScript edits = getEditScript();
+	final long start = System.nanoTime();
+	final AlignmentEvents.Render event = new AlignmentEvents.Render();
+	event.begin();
+	final String alignment = edits.toAlignment(string1, string2);
+	AlignmentMetrics.get().addOutput(System.nanoTime() - start);
+	event.format = "alignment";
+	commit(event);
+	return alignment;
     }
 
     /**
-     * Return the number of rows in the model.
+     * Commit an event of an alignment phase, if it is enabled.
      *
-     * @return the number of rows in the model.
+     * @param event the event, begun at the start of the phase.
      */
-    public int getRowCount() {
-	return string2.length + 1;
+    private void commit(final AlignmentEvents.Phase event) {
+	if (event.shouldCommit()) {
+	    event.set(string1.length, string2.length, engine, getCellCount());
+	    event.commit();
+	}
     }
 
     /**
-     * Return the value for the cell at (columnIndex, rowIndex).
+     * Check wether the operations table has been computed, or the whole
+     * table with checkpoints.
      *
-     * @param rowIndex    the row whose value is to be queried.
-     * @param columnIndex the column whose value is to be queried.
+     * @return wether compute() has been called.
+     */
+    public boolean isComputed() {
+	return operations != null ||
+	       checkpoints != null && filled == string2.length + 1;
+    }
+
+    /**
+     * Check wether the cost table can be displayed, either because it has been
+     * kept whole or because it can be recomputed from checkpoints.
      *
-     * @return the value Object at the specified cell.
+     * @return wether compute() has been called without a workspace.
      */
-    public Object getValueAt(int rowIndex, int columnIndex) {
-	if (columnIndex == 0) {
-	    if (rowIndex == 0)
-		return new String();
-	    return String.valueOf(string2[rowIndex - 1]);
-	}
+    public boolean hasCostTable() {
+	return costTab != null || checkpoints != null;
+    }
 
-	return new Double(costTab[columnIndex - 1][rowIndex]);
+    /**
+     * Get the first ("initial state") string.
+     *
+     * @return the first string characters.
+     */
+    char[] getString1() {
+	return string1;
     }
 
     /**
-     * Return a column name.
+     * Get the second ("target") string.
      *
-     * @param columnIndex the column number.
+     * @return the second string characters.
+     */
+    char[] getString2() {
+	return string2;
+    }
+
+    /**
+     * Get the number of cells computed by compute().
      *
-     * @return the column name.
+     * @return the size of the computed table.
      */
-    public String getColumnName(int columnIndex) {
-	if (columnIndex < 2)
-	    return new String();
-	return String.valueOf(string1[columnIndex - 2]);
+    public long getCellCount() {
+	return (long)(string1.length + 1) * (long)(string2.length + 1);
     }
 
     /**
-     * Return a column class.
+     * Get a cell of the computed cost table.
      *
-     * @param columnIndex the column number.
+     * @param i the position in the first string.
+     * @param j the position in the second string.
      *
-     * @return the column class.
+     * @return the cost of aligning the prefixes of length i and j.
      */
-    public Class getColumnClass(int columnIndex) {
-	if (columnIndex > 0)
-	    return new Double(0.0).getClass();
-	return new String().getClass();
+    double getCost(final int i, final int j) {
+	if (costTab == null)
+	    return checkpoints.getCost(i, j);
+	return costTab[i][j];
     }
 
     /**
-     * Initialize the column sizes of a given table.
+     * Get a column of the computed cost table.
      *
-     * @param table the table.
+     * @param j      the position in the second string.
+     * @param column the costs of aligning the prefixes of the first string
+     *               with the prefix of length j (output).
      */
-    private void initColumnSizes(final JTable table) {
-	final TableCellRenderer headerRenderer =
-	    table.getTableHeader().getDefaultRenderer();
-
-	final TableColumn column = table.getColumnModel().getColumn(0);
-	Component comp = headerRenderer.getTableCellRendererComponent(
-			     null, column.getHeaderValue(),
-			     false, false, 0, 0);
-
-	final int headerWidth = comp.getPreferredSize().width;
-	int cellWidth;
-
-	cellWidth = 0;
-	for (int j = 0; j < getRowCount(); j++) {
-	    comp = table.getDefaultRenderer(new String().getClass()).
-		   getTableCellRendererComponent(table,
-						 getValueAt(j, 0),
-						 false, false, 0, 0);
-	    final int thisCellWidth = comp.getPreferredSize().width;
-	    if (thisCellWidth > cellWidth)
-		cellWidth = thisCellWidth;
-	}
-	column.setPreferredWidth(Math.max(headerWidth, cellWidth));
-
-	final Double data = new Double(maxCost);
-	comp = table.getDefaultRenderer(data.getClass()).
-	       getTableCellRendererComponent(table, data,
-					     false, false, 0, 1);
-	cellWidth = comp.getPreferredSize().width + 2;
-	for (int i = 1; i < getColumnCount(); i++)
-	    table.getColumnModel().getColumn(i).setPreferredWidth(cellWidth);
-
-	int height = 0;
-	for(int row = 0; row < getRowCount(); row++)
-	    height += table.getRowHeight(row);
-	table.setPreferredScrollableViewportSize(new Dimension(
-		table.getPreferredScrollableViewportSize().width,
-		height
-	));
+    void getColumn(final int j, final double[] column) {
+	if (costTab == null)
+	    checkpoints.getColumn(j, column);
+	else
+	    for (int i = 0; i <= string1.length; i++)
+		column[i] = costTab[i][j];
     }
 
     /**
-     * Make a table from the computed cost table.
+     * Get the maximum value of the computed cost table.
      *
-     * @return the table, enclosed in a scroll pane.
+     * @return the maximum cost.
      */
-    public Component makeTable() {
-	if (costTab == null || operations == null)
-	    return null;
-
-	final JTable table = new JTable(this);
-	initColumnSizes(table);
-	table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-	table.setDefaultRenderer(new Object().getClass(),
-				 new CostTableCellRenderer());
-
-	final Point[] cells = new Point[string1.length + string2.length + 1];
-	int pos = 0, i = string1.length, j = string2.length;
-
-	while (operations[i][j] != OPR_END) {
-	    cells[pos++] = new Point(i, j);
-
-	    switch (operations[i][j]) {
-	    case OPR_INS:
-		j--;
-		break;
-
-	    case OPR_DEL:
-		i--;
-		break;
-
-	    case OPR_SUB:
-		i--;
-		j--;
-	    }
-	}
+    double getMaxCost() {
+	return maxCost;
+    }
 
-	cells[pos] = new Point(i, j);
-	table.setDefaultRenderer(new Double(0).getClass(),
-				 new CostTableCellRenderer(cells, maxCost));
-	return new JScrollPane(table);
+    /**
+     * Get the operation which led to a cell of the computed cost table.
+     *
+     * @param i the position in the first string.
+     * @param j the position in the second string.
+     *
+     * @return the operation opcode.
+     */
+    byte getOperation(final int i, final int j) {
+	if (operations == null)
+	    return checkpoints.getOperation(i, j);
+	return operations[j][i];
     }
 }
 
@@ -0,0 +1,196 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentEvents.java
+ *
+ * Description: Flight Recorder Events
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events of the alignment phases: parsing, cost compilation,
+ * table fill, traceback and rendering.
+ *
+ * The events are disabled by default: an event which is not enabled is
+ * removed by the JIT compiler, so they cost nothing unless a recording
+ * enables them, for instance with the genalign.jfc settings file:
+ *
+ *     java -XX:StartFlightRecording:settings=genalign.jfc,filename=run.jfr
+ *
+ * They then appear in the "GenAlign" category, next to the GC and CPU events
+ * of the same recording.
+ */
+final class AlignmentEvents {
+    /**
+     * Engine names.
+     */
+    final static String ENG_SCALAR = "scalar", ENG_KERNEL = "kernel",
+			ENG_SIMD = "simd";
+
+    /**
+     * Constructor (not instantiable).
+     */
+    private AlignmentEvents() {
+    }
+
+    /**
+     * An alignment phase: the fields describe the dynamic programming table.
+     */
+    @StackTrace(false)
+    abstract static class Phase extends Event {
+	@Label("First Length")
+	@Description("Length of the first (\"initial state\") sequence")
+	int length1;
+
+	@Label("Second Length")
+	@Description("Length of the second (\"target\") sequence")
+	int length2;
+
+	@Label("Engine")
+	@Description("Alignment engine: scalar, kernel or simd")
+	String engine;
+
+	@Label("Band Width")
+	@Description("Number of cells computed per column of the table")
+	int bandWidth;
+
+	@Label("Cells")
+	@Description("Number of cells of the table")
+	long cells;
+
+	@Label("Pairs")
+	@Description("Number of pairs processed together, padded to the " +
+		     "longest sequences")
+	int pairs;
+
+	/**
+	 * Set the fields of the event for a single pair.  The whole table is
+	 * always computed, so the band spans the whole first sequence.
+	 *
+	 * @param length1 the length of the first sequence.
+	 * @param length2 the length of the second sequence.
+	 * @param engine  the alignment engine.
+	 * @param cells   the number of cells.
+	 */
+	final void set(final int length1, final int length2,
+		       final String engine, final long cells) {
+	    this.length1 = length1;
+	    this.length2 = length2;
+	    this.engine = engine;
+	    this.bandWidth = length1 + 1;
+	    this.cells = cells;
+	    this.pairs = 1;
+	}
+    }
+
+    /**
+     * Parsing of a gene file.
+     */
+    @Name("genalign.Parse")
+    @Label("Gene Parsing")
+    @Description("Reading of the sequences of a gene file")
+    @Category("GenAlign")
+    @Enabled(false)
+    @StackTrace(false)
+    final static class Parse extends Event {
+	@Label("File")
+	String file;
+
+	@Label("Sequences")
+	@Description("Number of sequences read")
+	int sequences;
+
+	@Label("Residues")
+	@Description("Total length of the sequences read")
+	long residues;
+    }
+
+    /**
+     * Compilation of a cost table, or generation of its kernel.
+     */
+    @Name("genalign.CostCompilation")
+    @Label("Cost Compilation")
+    @Description("Compilation or loading of a cost table, or generation " +
+		 "of a specialised kernel")
+    @Category("GenAlign")
+    @Enabled(false)
+    @StackTrace(false)
+    final static class CostCompilation extends Event {
+	@Label("Kind")
+	@Description("What was compiled: costs, file or kernel")
+	String kind;
+
+	@Label("Alphabet Size")
+	int alphabetSize;
+    }
+
+    /**
+     * Fill of the dynamic programming table.
+     */
+    @Name("genalign.Fill")
+    @Label("Table Fill")
+    @Description("Computation of the cost and operations tables")
+    @Category("GenAlign")
+    @Enabled(false)
+    final static class Fill extends Phase {
+    }
+
+    /**
+     * Traceback of the optimal alignment.
+     */
+    @Name("genalign.Traceback")
+    @Label("Traceback")
+    @Description("Building of the edit script from the operations table")
+    @Category("GenAlign")
+    @Enabled(false)
+    final static class Traceback extends Phase {
+    }
+
+    /**
+     * Rendering of an alignment.
+     */
+    @Name("genalign.Render")
+    @Label("Rendering")
+    @Description("Formatting of an alignment result")
+    @Category("GenAlign")
+    @Enabled(false)
+    final static class Render extends Phase {
+	@Label("Format")
+	String format;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentMetrics.java
+ *
+ * Description: Alignment Metrics
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Alignment metrics: pairs, cells, time per phase, table allocations, engine
+ * usage and batch queue depth.
+ *
+ * The counters are striped (LongAdder), so that concurrent alignment threads
+ * do not contend on them, and are updated at most once per column of the
+ * dynamic programming table, never per cell: they are always on.  They are
+ * exposed over JMX once register() has been called, and can be printed
+ * periodically with startLog().
+ */
+public final class AlignmentMetrics implements AlignmentMetricsMBean {
+    /**
+     * The JMX name of the metrics.
+     */
+    public final static String OBJECT_NAME = "genalign:type=AlignmentMetrics";
+
+    /**
+     * The metrics of the program.
+     */
+    private final static AlignmentMetrics instance = new AlignmentMetrics();
+
+    /**
+     * Wether the metrics have been registered in the platform MBean server.
+     */
+    private static boolean registered = false;
+
+    /**
+     * The counters.
+     */
+    private final LongAdder pairs = new LongAdder(), cells = new LongAdder();
+    private final LongAdder fillNanos = new LongAdder(),
+			    tracebackNanos = new LongAdder(),
+			    outputNanos = new LongAdder();
+    private final LongAdder tableBytes = new LongAdder();
+    private final LongAdder scalar = new LongAdder(), kernel = new LongAdder(),
+			    simd = new LongAdder();
+    private final LongAdder queueDepth = new LongAdder();
+
+    /**
+     * Constructor, for the single instance.
+     */
+    private AlignmentMetrics() {}
+
+    /**
+     * Get the metrics of the program.
+     *
+     * @return the metrics.
+     */
+    public static AlignmentMetrics get() {
+	return instance;
+    }
+
+    /**
+     * Register the metrics in the platform MBean server.  This takes a while
+     * the first time (the JMX classes are loaded), so it is done by a
+     * background thread.
+     */
+    public static synchronized void register() {
+	if (registered)
+	    return;
+	registered = true;
+
+	final Thread thread = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    ManagementFactory.getPlatformMBeanServer().
+			registerMBean(instance, new ObjectName(OBJECT_NAME));
+		} catch (JMException exception) {
+		    System.err.println("genalign: cannot register the " +
+				       "metrics: " + exception.getMessage());
+		}
+	    }
+	}, "genalign-metrics");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * Print the metrics periodically, from a background thread.
+     *
+     * @param out    the stream to print to.
+     * @param period the period, in milliseconds.
+     */
+    public void startLog(final PrintStream out, final long period) {
+	final Timer timer = new Timer("genalign-metrics-log", true);
+	timer.scheduleAtFixedRate(new TimerTask() {
+	    public void run() {
+		out.println("metrics:    " + AlignmentMetrics.this);
+	    }
+	}, period, period);
+    }
+
+    /**
+     * Record a pair aligned by the scalar engine.
+     */
+    void addScalarPair() {
+	pairs.increment();
+	scalar.increment();
+    }
+
+    /**
+     * Record a pair aligned by a generated kernel.
+     */
+    void addKernelPair() {
+	pairs.increment();
+	kernel.increment();
+    }
+
+    /**
+     * Record pairs aligned by the SIMD batch aligner.
+     *
+     * @param count the number of pairs.
+     */
+    void addSimdPairs(final int count) {
+	pairs.add(count);
+	simd.add(count);
+    }
+
+    /**
+     * Record computed cells.
+     *
+     * @param count the number of cells.
+     */
+    void addCells(final long count) {
+	cells.add(count);
+    }
+
+    /**
+     * Record the time spent filling a table.
+     *
+     * @param nanos the time, in nanoseconds.
+     */
+    void addFill(final long nanos) {
+	fillNanos.add(nanos);
+    }
+
+    /**
+     * Record the time spent tracing an alignment back.
+     *
+     * @param nanos the time, in nanoseconds.
+     */
+    void addTraceback(final long nanos) {
+	tracebackNanos.add(nanos);
+    }
+
+    /**
+     * Record the time spent formatting and writing an alignment.
+     *
+     * @param nanos the time, in nanoseconds.
+     */
+    void addOutput(final long nanos) {
+	outputNanos.add(nanos);
+    }
+
+    /**
+     * Record the allocation of a table or of columns.
+     *
+     * @param bytes the number of bytes.
+     */
+    void addTableBytes(final long bytes) {
+	tableBytes.add(bytes);
+    }
+
+    /**
+     * Record that a batch job has been queued (1) or done (-1).
+     *
+     * @param delta the change of the queue depth.
+     */
+    void addQueued(final int delta) {
+	queueDepth.add(delta);
+    }
+
+    /**
+     * Get the number of pairs aligned.
+     *
+     * @return the number of pairs.
+     */
+    public long getPairs() {
+	return pairs.sum();
+    }
+
+    /**
+     * Get the number of dynamic programming cells computed.
+     *
+     * @return the number of cells.
+     */
+    public long getCells() {
+	return cells.sum();
+    }
+
+    /**
+     * Get the time spent filling the dynamic programming tables.
+     *
+     * @return the time, in milliseconds.
+     */
+    public double getFillMillis() {
+	return fillNanos.sum() / 1e6;
+    }
+
+    /**
+     * Get the time spent tracing the optimal alignments back.
+     *
+     * @return the time, in milliseconds.
+     */
+    public double getTracebackMillis() {
+	return tracebackNanos.sum() / 1e6;
+    }
+
+    /**
+     * Get the time spent formatting and writing the alignments.
+     *
+     * @return the time, in milliseconds.
+     */
+    public double getOutputMillis() {
+	return outputNanos.sum() / 1e6;
+    }
+
+    /**
+     * Get the number of bytes allocated for dynamic programming tables and
+     * columns.
+     *
+     * @return the number of bytes.
+     */
+    public long getTableBytes() {
+	return tableBytes.sum();
+    }
+
+    /**
+     * Get the number of pairs aligned by the scalar engine.
+     *
+     * @return the number of pairs.
+     */
+    public long getScalarAlignments() {
+	return scalar.sum();
+    }
+
+    /**
+     * Get the number of pairs aligned by a generated kernel.
+     *
+     * @return the number of pairs.
+     */
+    public long getKernelAlignments() {
+	return kernel.sum();
+    }
+
+    /**
+     * Get the number of pairs aligned by the SIMD batch aligner.
+     *
+     * @return the number of pairs.
+     */
+    public long getSimdAlignments() {
+	return simd.sum();
+    }
+
+    /**
+     * Get the number of batch jobs waiting for or being aligned by worker
+     * threads.
+     *
+     * @return the number of jobs.
+     */
+    public long getQueueDepth() {
+	return queueDepth.sum();
+    }
+
+    /**
+     * Reset the cumulative counters (not the queue depth).
+     */
+    public void reset() {
+	pairs.reset();
+	cells.reset();
+	fillNanos.reset();
+	tracebackNanos.reset();
+	outputNanos.reset();
+	tableBytes.reset();
+	scalar.reset();
+	kernel.reset();
+	simd.reset();
+    }
+
+    /**
+     * Get a one-line summary of the metrics.
+     *
+     * @return the summary.
+     */
+    public String toString() {
+	return getPairs() + " pairs (" + getScalarAlignments() + " scalar, " +
+	       getKernelAlignments() + " kernel, " + getSimdAlignments() +
+	       " simd), " + getCells() + " cells, fill " + getFillMillis() +
+	       " ms, traceback " + getTracebackMillis() + " ms, output " +
+	       getOutputMillis() + " ms, tables " + getTableBytes() +
+	       " bytes, queue " + getQueueDepth();
+    }
+}
+
+// End of File
@@ -0,0 +1,120 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentMetricsMBean.java
+ *
+ * Description: Alignment Metrics Management Interface
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+/**
+ * Management interface of the alignment metrics, exposed over JMX as
+ * "genalign:type=AlignmentMetrics".  All the counters are cumulative since
+ * the start of the program or the last reset.
+ * @see AlignmentMetrics
+ */
+public interface AlignmentMetricsMBean {
+    /**
+     * Get the number of pairs aligned.
+     *
+     * @return the number of pairs.
+     */
+    long getPairs();
+
+    /**
+     * Get the number of dynamic programming cells computed.
+     *
+     * @return the number of cells.
+     */
+    long getCells();
+
+    /**
+     * Get the time spent filling the dynamic programming tables.
+     *
+     * @return the time, in milliseconds.
+     */
+    double getFillMillis();
+
+    /**
+     * Get the time spent tracing the optimal alignments back.
+     *
+     * @return the time, in milliseconds.
+     */
+    double getTracebackMillis();
+
+    /**
+     * Get the time spent formatting and writing the alignments.
+     *
+     * @return the time, in milliseconds.
+     */
+    double getOutputMillis();
+
+    /**
+     * Get the number of bytes allocated for dynamic programming tables and
+     * columns.
+     *
+     * @return the number of bytes.
+     */
+    long getTableBytes();
+
+    /**
+     * Get the number of pairs aligned by the scalar engine.
+     *
+     * @return the number of pairs.
+     */
+    long getScalarAlignments();
+
+    /**
+     * Get the number of pairs aligned by a generated kernel.
+     *
+     * @return the number of pairs.
+     */
+    long getKernelAlignments();
+
+    /**
+     * Get the number of pairs aligned by the SIMD batch aligner.
+     *
+     * @return the number of pairs.
+     */
+    long getSimdAlignments();
+
+    /**
+     * Get the number of batch jobs waiting for or being aligned by worker
+     * threads.
+     *
+     * @return the number of jobs.
+     */
+    long getQueueDepth();
+
+    /**
+     * Reset the cumulative counters (not the queue depth).
+     */
+    void reset();
+}
+
+// End of File
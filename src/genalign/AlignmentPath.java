@@ -0,0 +1,142 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentPath.java
+ *
+ * Description: Optimal Alignment Path
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+/**
+ * The cells of the computed cost table on the optimal alignment path, in
+ * order from the first cell (0, 0) to the last one.
+ * @see Aligner
+ */
+final class AlignmentPath {
+    /**
+     * The positions in the first and second strings of each cell.
+     */
+    private final int[] positions1, positions2;
+
+    /**
+     * The number of cells.
+     */
+    private final int length;
+
+    /**
+     * Constructor.  The path is followed along the edit script of the
+     * alignment, which has already been traced back, rather than traced
+     * back again (which needs recomputing the whole table with checkpoints).
+     *
+     * @param aligner the aligner, which must already have been computed.
+     */
+    AlignmentPath(final Aligner aligner) {
+	final EditScript script = aligner.getEditScript();
+	int pos = 0, i = 0, j = 0;
+
+	length = script.getAlignmentLength() + 1;
+	positions1 = new int[length];
+	positions2 = new int[length];
+
+	for (int run = 0; run < script.getRunCount(); run++) {
+	    final char op = script.getOp(run);
+
+	    for (int k = script.getLength(run); k > 0; k--) {
+		positions1[pos] = i;
+		positions2[pos] = j;
+		pos++;
+
+		if (op != EditScript.OP_INSERT)
+		    i++;
+		if (op != EditScript.OP_DELETE)
+		    j++;
+	    }
+	}
+	positions1[pos] = i;
+	positions2[pos] = j;
+    }
+
+    /**
+     * Get the number of cells on the path.
+     *
+     * @return the path length.
+     */
+    int getLength() {
+	return length;
+    }
+
+    /**
+     * Get the position in the first string of a cell of the path.
+     *
+     * @param index the index of the cell on the path.
+     *
+     * @return the position in the first string (table column).
+     */
+    int getPosition1(final int index) {
+	return positions1[index];
+    }
+
+    /**
+     * Get the position in the second string of a cell of the path.
+     *
+     * @param index the index of the cell on the path.
+     *
+     * @return the position in the second string (table row).
+     */
+    int getPosition2(final int index) {
+	return positions2[index];
+    }
+
+    /**
+     * Find the first cell of the path at or past given positions in both
+     * strings.  Since the path only moves forward in both strings, this is
+     * a binary search.
+     *
+     * @param pos1 the position in the first string.
+     * @param pos2 the position in the second string.
+     *
+     * @return the index of the first cell whose positions are both at least
+     *         the given ones, or the path length if there is none.
+     */
+    int find(final int pos1, final int pos2) {
+	int low = 0, high = length;
+
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+
+	    if (positions1[middle] >= pos1 && positions2[middle] >= pos2)
+		high = middle;
+	    else
+		low = middle + 1;
+	}
+
+	return low;
+    }
+}
+
+// End of File
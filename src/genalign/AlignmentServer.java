@@ -0,0 +1,1117 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentServer.java
+ *
+ * Description: Alignment HTTP Service
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Alignment service: a long-lived server aligning the pairs posted over HTTP,
+ * so that a pipeline does not pay the JVM startup and JIT warm-up for each
+ * pair.  The server is only bound to the loopback interface.
+ *
+ * POST /align takes either a FASTA text, whose records are aligned two by
+ * two, and answers with tab-separated lines (as "-f cigar" on the command
+ * line), or a JSON object, either a single pair or a list of pairs:
+ *
+ *     {"name1": "a", "seq1": "ACGT", "name2": "b", "seq2": "AGT"}
+ *     {"pairs": [{"seq1": "ACGT", "seq2": "AGT"}, ...]}
+ *
+ * and answers with {"results": [{"name1": ..., "name2": ..., "cost": ...,
+ * "cigar": ...}, ...]}.  GET /status gives the queue usage and the metrics.
+ *
+ * The pairs of all the requests go through one queue, from which the
+ * alignment threads take batches: small concurrent requests are thus aligned
+ * together (one pair per SIMD lane with the simd engine).  The queue holds a
+ * bounded number of pairs: a request which does not fit is rejected with 429
+ * (Too Many Requests) instead of piling up, a pair whose table has more cells
+ * than a limit is rejected with 413 (Payload Too Large) before it is queued,
+ * and a request still waiting for its pairs after a timeout is answered with
+ * 503 (Service Unavailable).  Requests are handled by virtual threads when
+ * the JVM provides them (they only wait for their pairs), otherwise by a
+ * thread pool.  The results are cached, so that a pair which has already
+ * been aligned is answered without being queued.
+ */
+public final class AlignmentServer {
+    /**
+     * Engines.
+     */
+    private final static int ENG_SCALAR = 0, ENG_KERNEL = 1, ENG_SIMD = 2;
+    private final static String[] ENGINE_NAMES = {
+	AlignmentEvents.ENG_SCALAR, AlignmentEvents.ENG_KERNEL,
+	AlignmentEvents.ENG_SIMD
+    };
+
+    /**
+     * Default options.
+     */
+    private final static int DEFAULT_PORT = 8086, DEFAULT_QUEUE = 16384,
+			     DEFAULT_BATCH = 256, DEFAULT_WINDOW = 2,
+			     DEFAULT_TIMEOUT = 300;
+    private final static long DEFAULT_MAX_CELLS = 1L << 26;
+
+    /**
+     * The maximum size of a request body.
+     */
+    private final static int MAX_BODY = 64 << 20;
+
+    /**
+     * HTTP statuses.
+     */
+    private final static int HTTP_OK = 200, HTTP_BAD_REQUEST = 400,
+			     HTTP_NOT_FOUND = 404, HTTP_BAD_METHOD = 405,
+			     HTTP_TOO_LARGE = 413, HTTP_TOO_MANY = 429,
+			     HTTP_ERROR = 500, HTTP_UNAVAILABLE = 503;
+
+    /**
+     * Exit statuses.
+     */
+    private final static int EXIT_SUCCESS = 0, EXIT_FAILURE = 1,
+			     EXIT_USAGE = 2;
+
+    /**
+     * A request: its pairs and their results, filled by the alignment
+     * threads.
+     */
+    private final static class Request {
+	/**
+	 * The pairs.
+	 */
+	final Sequence[] seqs1, seqs2;
+
+	/**
+	 * The results.
+	 */
+	final double[] costs;
+	final String[] scripts;
+
+	/**
+	 * The keys of the pairs in the result cache.
+	 */
+	final ResultCache.Key[] keys;
+
+	/**
+	 * Counted down as the queued pairs are aligned.
+	 */
+	CountDownLatch done = null;
+
+	/**
+	 * The error which occurred while aligning a pair, if any.
+	 */
+	volatile Throwable failure = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param seqs1 the first ("initial state") sequences.
+	 * @param seqs2 the second ("target") sequences.
+	 */
+	Request(final List<Sequence> seqs1, final List<Sequence> seqs2) {
+	    this.seqs1 = seqs1.toArray(new Sequence[seqs1.size()]);
+	    this.seqs2 = seqs2.toArray(new Sequence[seqs2.size()]);
+	    costs = new double[this.seqs1.length];
+	    scripts = new String[this.seqs1.length];
+	    keys = new ResultCache.Key[this.seqs1.length];
+	}
+    }
+
+    /**
+     * A queued pair: a request and the index of the pair in the request.
+     */
+    private final static class Pair {
+	final Request request;
+	final int index;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param request the request.
+	 * @param index   the index of the pair.
+	 */
+	Pair(final Request request, final int index) {
+	    this.request = request;
+	    this.index = index;
+	}
+    }
+
+    /**
+     * Options.
+     */
+    private File costsFile = null;
+    private int port = DEFAULT_PORT;
+    private int engine = ENG_SCALAR;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int queueSize = DEFAULT_QUEUE, batchSize = DEFAULT_BATCH;
+    private int window = DEFAULT_WINDOW;
+    private File cacheFile = null;
+    private long maxCells = DEFAULT_MAX_CELLS;
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Compiled operation costs, and the kernel with the kernel engine.
+     */
+    private CostMatrix costs;
+    private Kernel kernel = null;
+
+    /**
+     * The cache of the results.
+     */
+    private ResultCache cache;
+
+    /**
+     * The queued pairs, and the free places in the queue.
+     */
+    private final LinkedBlockingQueue<Pair> queue =
+	new LinkedBlockingQueue<Pair>();
+    private Semaphore places;
+
+    /**
+     * Print the usage message.
+     *
+     * @param out the stream to print to.
+     */
+    private static void usage(final PrintStream out) {
+	out.println("Usage: java [--add-modules jdk.incubator.vector] " +
+		    "-cp genalign.jar");
+	out.println("            genalign.AlignmentServer [OPTION]...");
+	out.println("Serve alignments over HTTP on the loopback interface: " +
+		    "POST FASTA or JSON");
+	out.println("pairs to /align, get the queue usage and the metrics " +
+		    "from /status.");
+	out.println();
+	out.println("  -p PORT    listen on PORT (default: " + DEFAULT_PORT +
+		    ")");
+	out.println("  -c FILE    read operation costs from FILE");
+	out.println("  -e ENGINE  alignment engine: \"scalar\" (default), " +
+		    "\"kernel\" or \"simd\"");
+	out.println("  -j N       use N alignment threads (default: one " +
+		    "per processor)");
+	out.println("  -b PAIRS   align up to PAIRS pairs per batch " +
+		    "(default: " + DEFAULT_BATCH + ")");
+	out.println("  -w MILLIS  wait up to MILLIS ms for a batch to fill " +
+		    "(default: " + DEFAULT_WINDOW + ")");
+	out.println("  -q PAIRS   queue up to PAIRS pairs, rejecting " +
+		    "requests beyond (default: " + DEFAULT_QUEUE + ")");
+	out.println("  -m CELLS   reject the pairs whose table has more " +
+		    "than CELLS cells");
+	out.println("             (default: " + DEFAULT_MAX_CELLS + ")");
+	out.println("  -t SECONDS answer 503 after waiting SECONDS s for " +
+		    "the pairs (default: " + DEFAULT_TIMEOUT + ")");
+	out.println("  -r FILE    keep the cached results in FILE, across " +
+		    "restarts");
+	out.println("  -h         display this help and exit");
+    }
+
+    /**
+     * Parse the command-line arguments.
+     *
+     * @param args the command-line arguments.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    private void parseArguments(final String[] args) {
+	for (int i = 0; i < args.length; i++) {
+	    final String option = args[i];
+
+	    if (option.equals("-h")) {
+		usage(System.out);
+		System.exit(EXIT_SUCCESS);
+	    } else if (i + 1 >= args.length)
+		throw new IllegalArgumentException(option.startsWith("-") ?
+		    "missing argument for " + option :
+		    "unexpected argument: " + option);
+
+	    final String value = args[++i];
+	    if (option.equals("-p"))
+		port = Integer.parseInt(value);
+	    else if (option.equals("-c"))
+		costsFile = new File(value);
+	    else if (option.equals("-e")) {
+		engine = Arrays.asList(ENGINE_NAMES).indexOf(value);
+		if (engine < 0)
+		    throw new IllegalArgumentException("unknown engine: " +
+						       value);
+	    } else if (option.equals("-j"))
+		threadCount = Integer.parseInt(value);
+	    else if (option.equals("-b"))
+		batchSize = Integer.parseInt(value);
+	    else if (option.equals("-w"))
+		window = Integer.parseInt(value);
+	    else if (option.equals("-q"))
+		queueSize = Integer.parseInt(value);
+	    else if (option.equals("-m"))
+		maxCells = Long.parseLong(value);
+	    else if (option.equals("-t"))
+		timeout = Integer.parseInt(value);
+	    else if (option.equals("-r"))
+		cacheFile = new File(value);
+	    else
+		throw new IllegalArgumentException("unknown option: " + option);
+	}
+
+	if (port < 0 || port > 65535)
+	    throw new IllegalArgumentException("invalid port: " + port);
+	if (threadCount < 1 || batchSize < 1 || window < 0 || queueSize < 1 ||
+	    maxCells < 1 || timeout < 1)
+	    throw new IllegalArgumentException("invalid number");
+    }
+
+    /**
+     * Create the executor of the HTTP handlers: virtual threads if the JVM
+     * provides them (looked up by reflection, so that the program still
+     * builds and runs on JDK 17), otherwise a thread pool.
+     *
+     * @return the executor.
+     */
+    private static ExecutorService newHandlerExecutor() {
+	try {
+	    return (ExecutorService)Executors.class.
+		getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch (ReflectiveOperationException exception) {
+	    // Missing, or a preview feature which is not enabled
+	    return Executors.newCachedThreadPool();
+	}
+    }
+
+    /**
+     * Queue the pairs of a request for alignment and wait for the results,
+     * up to the timeout.  Only the pairs which are not cached are queued.
+     *
+     * @param request the request.
+     *
+     * @return wether there was room in the queue; otherwise the request has
+     *         not been aligned.
+     *
+     * @throws InterruptedException if the thread was interrupted while
+     *                              waiting for the results.
+     * @throws TimeoutException     if the results are not ready in time; the
+     *                              pairs are still aligned (and cached).
+     * @throws IllegalStateException if the alignment of a pair failed.
+     */
+    private boolean align(final Request request)
+	throws InterruptedException, TimeoutException {
+	final int count = request.seqs1.length;
+	final List<Pair> misses = new ArrayList<Pair>();
+	for (int p = 0; p < count; p++) {
+	    request.keys[p] = ResultCache.key(request.seqs1[p].getResidues(),
+					      request.seqs2[p].getResidues(),
+					      costs);
+	    final ResultCache.Result cached = cache.get(request.keys[p]);
+	    if (cached != null) {
+		request.costs[p] = cached.getCost();
+		request.scripts[p] = cached.getEditScript().toString();
+	    } else
+		misses.add(new Pair(request, p));
+	}
+	if (misses.isEmpty())
+	    return true;
+	if (!places.tryAcquire(misses.size()))
+	    return false;
+
+	request.done = new CountDownLatch(misses.size());
+	AlignmentMetrics.get().addQueued(misses.size());
+	queue.addAll(misses);
+	if (!request.done.await(timeout, TimeUnit.SECONDS))
+	    throw new TimeoutException("alignment timed out");
+
+	final Throwable failure = request.failure;
+	if (failure instanceof RuntimeException)
+	    throw (RuntimeException)failure;
+	if (failure != null)
+	    throw new IllegalStateException("alignment failed: " + failure,
+					    failure);
+	return true;
+    }
+
+    /**
+     * The loop of an alignment thread: take batches of pairs from the queue
+     * and align them.  After the first pair, the batch is filled with the
+     * pairs queued within the batch window.  Whatever happens while aligning
+     * a batch, even an error such as an OutOfMemoryError, its pairs are
+     * marked failed and released, so that their requests do not wait for
+     * them, and the thread drops its workspace and goes on with the next
+     * batch.
+     */
+    private void alignLoop() {
+	final List<Pair> batch = new ArrayList<Pair>(batchSize);
+	final Object batchAligner =
+	    engine == ENG_SIMD ? new BatchAligner(costs) : null;
+
+	try {
+	    while (true) {
+		batch.add(queue.take());
+		final long deadline = System.nanoTime() + window * 1000000L;
+		while (batch.size() < batchSize) {
+		    if (queue.drainTo(batch, batchSize - batch.size()) > 0)
+			continue;
+		    final Pair pair = queue.poll(deadline - System.nanoTime(),
+						 TimeUnit.NANOSECONDS);
+		    if (pair == null)
+			break;
+		    batch.add(pair);
+		}
+
+		try {
+		    if (batchAligner != null)
+			alignBatch(batch, batchAligner);
+		    else
+			alignPairs(batch);
+		} catch (Throwable exception) {
+		    // The buffers may have been left half grown
+		    Workspace.discard();
+		    for (Pair pair : batch)
+			pair.request.failure = exception;
+		} finally {
+		    AlignmentMetrics.get().addQueued(-batch.size());
+		    places.release(batch.size());
+		    for (Pair pair : batch)
+			pair.request.done.countDown();
+		    batch.clear();
+		}
+	    }
+	} catch (InterruptedException exception) {
+	    // Server stopped
+	}
+    }
+
+    /**
+     * Align a batch of pairs one by one, with the scalar or kernel engine.
+     *
+     * @param batch the pairs.
+     */
+    private void alignPairs(final List<Pair> batch) {
+	for (Pair pair : batch) {
+	    final Request request = pair.request;
+	    final Aligner aligner =
+		new Aligner(request.seqs1[pair.index].getResidues(),
+			    request.seqs2[pair.index].getResidues());
+	    if (kernel != null)
+		aligner.compute(kernel, Workspace.get());
+	    else
+		aligner.compute(costs, Workspace.get());
+	    setResult(pair, aligner.getCost(), aligner.getEditScript());
+	}
+    }
+
+    /**
+     * Align a batch of pairs at once with the SIMD batch aligner.
+     *
+     * @param batch        the pairs.
+     * @param batchAligner the batch aligner of the thread.
+     */
+    private void alignBatch(final List<Pair> batch,
+			    final Object batchAligner) {
+	final int count = batch.size();
+	final String[] strings1 = new String[count];
+	final String[] strings2 = new String[count];
+	final double[] results = new double[count];
+	final EditScript[] scripts = new EditScript[count];
+
+	for (int p = 0; p < count; p++) {
+	    final Pair pair = batch.get(p);
+	    strings1[p] = pair.request.seqs1[pair.index].getResidues();
+	    strings2[p] = pair.request.seqs2[pair.index].getResidues();
+	}
+
+	((BatchAligner)batchAligner).align(strings1, strings2, count, results,
+					   scripts);
+
+	for (int p = 0; p < count; p++)
+	    setResult(batch.get(p), results[p], scripts[p]);
+    }
+
+    /**
+     * Set the result of a pair, and cache it.  The result is still returned
+     * if it cannot be stored.
+     *
+     * @param pair   the pair.
+     * @param cost   the minimum cost.
+     * @param script the edit script.
+     */
+    private void setResult(final Pair pair, final double cost,
+			   final EditScript script) {
+	pair.request.costs[pair.index] = cost;
+	pair.request.scripts[pair.index] = script.toString();
+	try {
+	    cache.put(pair.request.keys[pair.index], cost, script);
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	}
+    }
+
+    /**
+     * Handler of the /align requests.
+     */
+    private final class AlignHandler implements HttpHandler {
+	/**
+	 * Handle a request.
+	 *
+	 * @param exchange the HTTP exchange.
+	 *
+	 * @throws IOException if the response cannot be sent.
+	 */
+	public void handle(final HttpExchange exchange) throws IOException {
+	    try {
+		if (!exchange.getRequestMethod().equals("POST")) {
+		    exchange.getResponseHeaders().set("Allow", "POST");
+		    respond(exchange, HTTP_BAD_METHOD, "POST expected\n");
+		    return;
+		}
+
+		final String body = readBody(exchange);
+		if (body == null) {
+		    respond(exchange, HTTP_TOO_LARGE, "request too large\n");
+		    return;
+		}
+
+		final List<Sequence> seqs1 = new ArrayList<Sequence>();
+		final List<Sequence> seqs2 = new ArrayList<Sequence>();
+		final String type =
+		    exchange.getRequestHeaders().getFirst("Content-Type");
+		final boolean json = type != null && type.contains("json") ||
+		    body.trim().startsWith("{");
+		try {
+		    if (json)
+			parseJson(body, seqs1, seqs2);
+		    else
+			parseFasta(body, seqs1, seqs2);
+		} catch (IllegalArgumentException exception) {
+		    respond(exchange, HTTP_BAD_REQUEST,
+			    exception.getMessage() + "\n");
+		    return;
+		}
+
+		if (seqs1.size() > queueSize) {
+		    respond(exchange, HTTP_TOO_LARGE, "more than " +
+			    queueSize + " pairs\n");
+		    return;
+		}
+		for (int p = 0; p < seqs1.size(); p++)
+		    if ((seqs1.get(p).length() + 1L) *
+			(seqs2.get(p).length() + 1L) > maxCells) {
+			respond(exchange, HTTP_TOO_LARGE, "pair " + (p + 1) +
+				" has more than " + maxCells + " cells\n");
+			return;
+		    }
+		final Request request = new Request(seqs1, seqs2);
+		if (!align(request)) {
+		    exchange.getResponseHeaders().set("Retry-After", "1");
+		    respond(exchange, HTTP_TOO_MANY, "queue full\n");
+		    return;
+		}
+
+		if (json) {
+		    exchange.getResponseHeaders().set("Content-Type",
+						      "application/json");
+		    respond(exchange, HTTP_OK, formatJson(request));
+		} else
+		    respond(exchange, HTTP_OK, formatText(request));
+	    } catch (InterruptedException exception) {
+		respond(exchange, HTTP_ERROR, "interrupted\n");
+	    } catch (TimeoutException exception) {
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		respond(exchange, HTTP_UNAVAILABLE, "alignment timed out\n");
+	    } catch (RuntimeException exception) {
+		respond(exchange, HTTP_ERROR, exception + "\n");
+	    } finally {
+		exchange.close();
+	    }
+	}
+    }
+
+    /**
+     * Handler of the /status requests.
+     */
+    private final class StatusHandler implements HttpHandler {
+	/**
+	 * Handle a request.
+	 *
+	 * @param exchange the HTTP exchange.
+	 *
+	 * @throws IOException if the response cannot be sent.
+	 */
+	public void handle(final HttpExchange exchange) throws IOException {
+	    try {
+		respond(exchange, HTTP_OK, "engine:  " +
+			ENGINE_NAMES[engine] + ", " + threadCount +
+			" threads\nqueue:   " + queue.size() + " / " +
+			queueSize + " pairs\nmetrics: " +
+			AlignmentMetrics.get() + "\ncache:   " + cache +
+			"\n");
+	    } finally {
+		exchange.close();
+	    }
+	}
+    }
+
+    /**
+     * Read the body of a request.
+     *
+     * @param exchange the HTTP exchange.
+     *
+     * @return the body, or null if it is larger than MAX_BODY.
+     *
+     * @throws IOException if the body cannot be read.
+     */
+    private static String readBody(final HttpExchange exchange)
+	throws IOException {
+	final InputStream input = exchange.getRequestBody();
+	final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	final byte[] buffer = new byte[8192];
+	int count;
+
+	while ((count = input.read(buffer)) > 0) {
+	    if (body.size() + count > MAX_BODY)
+		return null;
+	    body.write(buffer, 0, count);
+	}
+	return body.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param exchange the HTTP exchange.
+     * @param status   the HTTP status.
+     * @param text     the response body.
+     *
+     * @throws IOException if the response cannot be sent.
+     */
+    private static void respond(final HttpExchange exchange, final int status,
+				final String text) throws IOException {
+	final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+	if (!exchange.getResponseHeaders().containsKey("Content-Type"))
+	    exchange.getResponseHeaders().set("Content-Type",
+					      "text/plain; charset=utf-8");
+	exchange.sendResponseHeaders(status, bytes.length);
+	final OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    /**
+     * Parse a FASTA request: its records are aligned two by two.
+     *
+     * @param body  the request body.
+     * @param seqs1 the first sequences of the pairs (output).
+     * @param seqs2 the second sequences of the pairs (output).
+     *
+     * @throws IllegalArgumentException if the request is malformed.
+     */
+    private static void parseFasta(final String body,
+				   final List<Sequence> seqs1,
+				   final List<Sequence> seqs2) {
+	final List<Sequence> sequences;
+	try {
+	    sequences = GeneReader.readFasta(
+		new BufferedReader(new StringReader(body)));
+	} catch (IOException exception) {
+	    throw new IllegalArgumentException(exception.getMessage());
+	}
+
+	if (sequences.isEmpty())
+	    throw new IllegalArgumentException("no FASTA record");
+	if (sequences.size() % 2 != 0)
+	    throw new IllegalArgumentException("odd number of FASTA records");
+	for (int i = 0; i < sequences.size(); i += 2) {
+	    seqs1.add(sequences.get(i));
+	    seqs2.add(sequences.get(i + 1));
+	}
+    }
+
+    /**
+     * Parse a JSON request: a pair or a list of pairs.
+     *
+     * @param body  the request body.
+     * @param seqs1 the first sequences of the pairs (output).
+     * @param seqs2 the second sequences of the pairs (output).
+     *
+     * @throws IllegalArgumentException if the request is malformed.
+     */
+    private static void parseJson(final String body,
+				  final List<Sequence> seqs1,
+				  final List<Sequence> seqs2) {
+	final Object value = new JsonParser(body).parse();
+	if (!(value instanceof Map))
+	    throw new IllegalArgumentException("JSON object expected");
+	final Map<?, ?> object = (Map<?, ?>)value;
+
+	if (!object.containsKey("pairs")) {
+	    addPair(object, 0, seqs1, seqs2);
+	    return;
+	}
+	if (!(object.get("pairs") instanceof List))
+	    throw new IllegalArgumentException("\"pairs\" must be a list");
+	final List<?> pairs = (List<?>)object.get("pairs");
+	if (pairs.isEmpty())
+	    throw new IllegalArgumentException("no pair");
+	for (int p = 0; p < pairs.size(); p++) {
+	    if (!(pairs.get(p) instanceof Map))
+		throw new IllegalArgumentException("pair " + p +
+						   ": JSON object expected");
+	    addPair((Map<?, ?>)pairs.get(p), p, seqs1, seqs2);
+	}
+    }
+
+    /**
+     * Add a pair given as a JSON object.  The sequences are stripped like in
+     * the gene files, and the names default to the position of the pair.
+     *
+     * @param pair  the pair: "seq1", "seq2" and optionally "name1", "name2".
+     * @param index the index of the pair in the request.
+     * @param seqs1 the first sequences of the pairs (output).
+     * @param seqs2 the second sequences of the pairs (output).
+     *
+     * @throws IllegalArgumentException if the pair is malformed.
+     */
+    private static void addPair(final Map<?, ?> pair, final int index,
+				final List<Sequence> seqs1,
+				final List<Sequence> seqs2) {
+	final Object seq1 = pair.get("seq1"), seq2 = pair.get("seq2");
+	if (!(seq1 instanceof String) || !(seq2 instanceof String))
+	    throw new IllegalArgumentException("pair " + index +
+					       ": \"seq1\" and \"seq2\" " +
+					       "strings expected");
+	final Object name1 = pair.get("name1"), name2 = pair.get("name2");
+
+	seqs1.add(new Sequence(name1 != null ? name1.toString() :
+			       index + "/1",
+			       GeneReader.stripGene((String)seq1)));
+	seqs2.add(new Sequence(name2 != null ? name2.toString() :
+			       index + "/2",
+			       GeneReader.stripGene((String)seq2)));
+    }
+
+    /**
+     * Format the results of a request as tab-separated lines: names, cost
+     * and edit script.
+     *
+     * @param request the aligned request.
+     *
+     * @return the formatted results.
+     */
+    private static String formatText(final Request request) {
+	final StringBuilder text = new StringBuilder();
+	for (int p = 0; p < request.seqs1.length; p++)
+	    text.append(request.seqs1[p].getName()).append('\t').
+		append(request.seqs2[p].getName()).append('\t').
+		append(request.costs[p]).append('\t').
+		append(request.scripts[p]).append('\n');
+	return text.toString();
+    }
+
+    /**
+     * Format the results of a request in JSON.
+     *
+     * @param request the aligned request.
+     *
+     * @return the formatted results.
+     */
+    private static String formatJson(final Request request) {
+	final StringBuilder text = new StringBuilder("{\"results\": [");
+	for (int p = 0; p < request.seqs1.length; p++) {
+	    text.append(p == 0 ? "\n  " : ",\n  ");
+	    text.append("{\"name1\": ").
+		append(BenchmarkSuite.quote(request.seqs1[p].getName())).
+		append(", \"name2\": ").
+		append(BenchmarkSuite.quote(request.seqs2[p].getName())).
+		append(", \"cost\": ").append(request.costs[p]).
+		append(", \"cigar\": ").
+		append(BenchmarkSuite.quote(request.scripts[p])).append('}');
+	}
+	return text.append("\n]}\n").toString();
+    }
+
+    /**
+     * A minimal JSON parser: objects are parsed into maps, arrays into
+     * lists, numbers into doubles.
+     */
+    private final static class JsonParser {
+	/**
+	 * The text to parse, and the current position.
+	 */
+	private final String text;
+	private int pos = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text the text to parse.
+	 */
+	JsonParser(final String text) {
+	    this.text = text;
+	}
+
+	/**
+	 * Parse the text, which must hold a single value.
+	 *
+	 * @return the value.
+	 *
+	 * @throws IllegalArgumentException if the text is malformed.
+	 */
+	Object parse() {
+	    final Object value = parseValue();
+	    skipSpaces();
+	    if (pos != text.length())
+		throw error("end of text expected");
+	    return value;
+	}
+
+	/**
+	 * Parse a value.
+	 *
+	 * @return the value.
+	 */
+	private Object parseValue() {
+	    skipSpaces();
+	    if (pos == text.length())
+		throw error("value expected");
+
+	    switch (text.charAt(pos)) {
+	    case '{':
+		return parseObject();
+	    case '[':
+		return parseArray();
+	    case '"':
+		return parseString();
+	    case 't':
+		return parseLiteral("true", Boolean.TRUE);
+	    case 'f':
+		return parseLiteral("false", Boolean.FALSE);
+	    case 'n':
+		return parseLiteral("null", null);
+	    default:
+		return parseNumber();
+	    }
+	}
+
+	/**
+	 * Parse an object.
+	 *
+	 * @return the members of the object, in order.
+	 */
+	private Map<String, Object> parseObject() {
+	    final Map<String, Object> object =
+		new LinkedHashMap<String, Object>();
+	    pos++;
+	    skipSpaces();
+	    if (accept('}'))
+		return object;
+
+	    do {
+		skipSpaces();
+		if (pos == text.length() || text.charAt(pos) != '"')
+		    throw error("member name expected");
+		final String name = parseString();
+		skipSpaces();
+		expect(':');
+		object.put(name, parseValue());
+		skipSpaces();
+	    } while (accept(','));
+	    expect('}');
+	    return object;
+	}
+
+	/**
+	 * Parse an array.
+	 *
+	 * @return the elements of the array.
+	 */
+	private List<Object> parseArray() {
+	    final List<Object> array = new ArrayList<Object>();
+	    pos++;
+	    skipSpaces();
+	    if (accept(']'))
+		return array;
+
+	    do {
+		array.add(parseValue());
+		skipSpaces();
+	    } while (accept(','));
+	    expect(']');
+	    return array;
+	}
+
+	/**
+	 * Parse a string.
+	 *
+	 * @return the string, unescaped.
+	 */
+	private String parseString() {
+	    final StringBuilder string = new StringBuilder();
+	    pos++;
+
+	    while (true) {
+		if (pos == text.length())
+		    throw error("unterminated string");
+		final char chr = text.charAt(pos++);
+		if (chr == '"')
+		    return string.toString();
+		if (chr != '\\') {
+		    string.append(chr);
+		    continue;
+		}
+
+		if (pos == text.length())
+		    throw error("unterminated string");
+		final char escaped = text.charAt(pos++);
+		switch (escaped) {
+		case 'b':
+		    string.append('\b');
+		    break;
+		case 'f':
+		    string.append('\f');
+		    break;
+		case 'n':
+		    string.append('\n');
+		    break;
+		case 'r':
+		    string.append('\r');
+		    break;
+		case 't':
+		    string.append('\t');
+		    break;
+		case 'u':
+		    if (pos + 4 > text.length())
+			throw error("truncated escape");
+		    try {
+			string.append((char)Integer.parseInt(
+			    text.substring(pos, pos + 4), 16));
+		    } catch (NumberFormatException exception) {
+			throw error("invalid escape");
+		    }
+		    pos += 4;
+		    break;
+		default:
+		    string.append(escaped);
+		}
+	    }
+	}
+
+	/**
+	 * Parse a number.
+	 *
+	 * @return the number.
+	 */
+	private Double parseNumber() {
+	    final int start = pos;
+	    while (pos < text.length() &&
+		   "+-0123456789.eE".indexOf(text.charAt(pos)) != -1)
+		pos++;
+	    try {
+		return Double.valueOf(text.substring(start, pos));
+	    } catch (NumberFormatException exception) {
+		pos = start;
+		throw error("value expected");
+	    }
+	}
+
+	/**
+	 * Parse a literal.
+	 *
+	 * @param literal the expected literal.
+	 * @param value   its value.
+	 *
+	 * @return the value.
+	 */
+	private Object parseLiteral(final String literal, final Object value) {
+	    if (!text.startsWith(literal, pos))
+		throw error("value expected");
+	    pos += literal.length();
+	    return value;
+	}
+
+	/**
+	 * Skip the whitespace.
+	 */
+	private void skipSpaces() {
+	    while (pos < text.length() &&
+		   " \t\r\n".indexOf(text.charAt(pos)) != -1)
+		pos++;
+	}
+
+	/**
+	 * Skip a character if it is the next one.
+	 *
+	 * @param chr the character.
+	 *
+	 * @return wether the character was skipped.
+	 */
+	private boolean accept(final char chr) {
+	    if (pos < text.length() && text.charAt(pos) == chr) {
+		pos++;
+		return true;
+	    }
+	    return false;
+	}
+
+	/**
+	 * Skip a character which must be the next one.
+	 *
+	 * @param chr the character.
+	 *
+	 * @throws IllegalArgumentException if it is not the next one.
+	 */
+	private void expect(final char chr) {
+	    if (!accept(chr))
+		throw error("'" + chr + "' expected");
+	}
+
+	/**
+	 * Build a parse error.
+	 *
+	 * @param message the error message.
+	 *
+	 * @return the exception.
+	 */
+	private IllegalArgumentException error(final String message) {
+	    return new IllegalArgumentException("malformed JSON at offset " +
+						pos + ": " + message);
+	}
+    }
+
+    /**
+     * Start the server.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return the exit status; the server keeps running after a successful
+     *         start.
+     */
+    private int run(final String[] args) {
+	try {
+	    parseArguments(args);
+	} catch (IllegalArgumentException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    usage(System.err);
+	    return EXIT_USAGE;
+	}
+
+	if (engine == ENG_SIMD &&
+	    !ModuleLayer.boot().findModule("jdk.incubator.vector").
+	    isPresent()) {
+	    System.err.println("genalign: the simd engine needs the JVM " +
+			       "option --add-modules jdk.incubator.vector");
+	    return EXIT_FAILURE;
+	}
+	AlignmentMetrics.register();
+
+	final HttpServer server;
+	try {
+	    costs = costsFile == null ? CostMatrix.compile(new Costs()) :
+		    CostMatrix.read(costsFile);
+	    if (engine == ENG_KERNEL)
+		kernel = Kernel.get(costs);
+	    cache = cacheFile == null ?
+		new ResultCache(ResultCache.DEFAULT_MEMORY) :
+		new ResultCache(ResultCache.DEFAULT_MEMORY, cacheFile);
+	    server = HttpServer.create(new InetSocketAddress(
+		InetAddress.getLoopbackAddress(), port), 0);
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    return EXIT_FAILURE;
+	}
+
+	places = new Semaphore(queueSize);
+	final ExecutorService aligners =
+	    Executors.newFixedThreadPool(threadCount);
+	for (int t = 0; t < threadCount; t++)
+	    aligners.execute(new Runnable() {
+		public void run() {
+		    alignLoop();
+		}
+	    });
+
+	final ExecutorService handlers = newHandlerExecutor();
+	server.createContext("/align", new AlignHandler());
+	server.createContext("/status", new StatusHandler());
+	server.setExecutor(handlers);
+	server.start();
+
+	Runtime.getRuntime().addShutdownHook(new Thread() {
+	    public void run() {
+		server.stop(1);
+		handlers.shutdownNow();
+		aligners.shutdownNow();
+		try {
+		    cache.close();
+		} catch (IOException exception) {
+		    System.err.println("genalign: " + exception.getMessage());
+		}
+	    }
+	});
+	System.err.println("genalign: listening on http://" +
+			   server.getAddress().getHostString() + ":" +
+			   server.getAddress().getPort() + "/");
+	return EXIT_SUCCESS;
+    }
+
+    /**
+     * Main entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) {
+	final int status = new AlignmentServer().run(args);
+	if (status != EXIT_SUCCESS)
+	    System.exit(status);
+    }
+}
+
+// End of File
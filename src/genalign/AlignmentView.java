@@ -0,0 +1,368 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: AlignmentView.java
+ *
+ * Description: Paged Alignment Viewer
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.UIManager;
+
+/**
+ * Viewer of an alignment, wrapped into blocks of LINE_LENGTH columns: a
+ * ruler, the first string, match markers and the second string, with the
+ * positions of the first residue of each line in the margin.
+ *
+ * Nothing is laid out in advance: the visible blocks are rendered from the
+ * edit script when painted, so the memory used only depends on the viewport
+ * size (plus a sparse index into the edit script), not on the alignment
+ * length.
+ * @see EditScript
+ */
+public final class AlignmentView extends JComponent implements Scrollable {
+    /**
+     * The number of alignment columns per line.
+     */
+    private final static int LINE_LENGTH = 60;
+
+    /**
+     * The number of text lines per block (including a blank one).
+     */
+    private final static int BLOCK_LINES = 5;
+
+    /**
+     * The number of blocks between two index entries.
+     */
+    private final static int INDEX_STEP = 64;
+
+    /**
+     * Characters of the ruler (every 5 and 10 columns), of the match markers
+     * and of the gaps.
+     */
+    private final static char RULER = '.', RULER_5 = ':', RULER_10 = '|',
+			      MATCH = '|', MISMATCH = '.', GAP = '-';
+
+    /**
+     * The aligned strings and their edit script.
+     */
+    private final char[] string1, string2;
+    private final EditScript script;
+
+    /**
+     * The number of blocks.
+     */
+    private final int blockCount;
+
+    /**
+     * Index: the script position (run, offset in the run) and the string
+     * positions at the start of every INDEX_STEP blocks.
+     */
+    private final int[] indexRun, indexOffset, indexPos1, indexPos2;
+
+    /**
+     * The number of characters in the margin: enough for the alignment
+     * column numbers of the ruler and the string positions, which go up to
+     * the string length plus one once a string is used up.
+     */
+    private final int margin;
+
+    /**
+     * Position in the alignment, while rendering.
+     */
+    private final static class Cursor {
+	int run, offset, pos1, pos2;
+    }
+
+    /**
+     * Not used, but eliminates a warning.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param string1 the first string.
+     * @param string2 the second string.
+     * @param script  the edit script of their alignment.
+     */
+    public AlignmentView(final char[] string1, final char[] string2,
+			 final EditScript script) {
+	this.string1 = string1;
+	this.string2 = string2;
+	this.script = script;
+	blockCount = (script.getAlignmentLength() + LINE_LENGTH - 1) /
+		     LINE_LENGTH;
+	margin = String.valueOf(Math.max(script.getAlignmentLength(),
+					 Math.max(string1.length,
+						  string2.length) + 1)).
+		 length() + 1;
+
+	final int entries = (blockCount + INDEX_STEP - 1) / INDEX_STEP;
+	indexRun = new int[entries];
+	indexOffset = new int[entries];
+	indexPos1 = new int[entries];
+	indexPos2 = new int[entries];
+
+	final Cursor cursor = new Cursor();
+	for (int entry = 0; entry < entries; entry++) {
+	    indexRun[entry] = cursor.run;
+	    indexOffset[entry] = cursor.offset;
+	    indexPos1[entry] = cursor.pos1;
+	    indexPos2[entry] = cursor.pos2;
+	    advance(cursor, INDEX_STEP * LINE_LENGTH);
+	}
+
+	setFont(new Font("Monospaced", Font.PLAIN, 12));
+	setBackground(UIManager.getColor("TextArea.background"));
+	setForeground(UIManager.getColor("TextArea.foreground"));
+	setOpaque(true);
+    }
+
+    /**
+     * Move a cursor forward in the alignment.
+     *
+     * @param cursor  the cursor.
+     * @param columns the number of alignment columns to skip.
+     */
+    private void advance(final Cursor cursor, int columns) {
+	while (columns > 0 && cursor.run < script.getRunCount()) {
+	    final char op = script.getOp(cursor.run);
+	    final int step = Math.min(columns,
+				      script.getLength(cursor.run) -
+				      cursor.offset);
+
+	    if (op != EditScript.OP_INSERT)
+		cursor.pos1 += step;
+	    if (op != EditScript.OP_DELETE)
+		cursor.pos2 += step;
+	    columns -= step;
+	    cursor.offset += step;
+	    if (cursor.offset == script.getLength(cursor.run)) {
+		cursor.run++;
+		cursor.offset = 0;
+	    }
+	}
+    }
+
+    /**
+     * Get the height of a block.
+     *
+     * @return the block height, in pixels.
+     */
+    private int getBlockHeight() {
+	return getFontMetrics(getFont()).getHeight() * BLOCK_LINES;
+    }
+
+    /**
+     * Get the preferred size: all the blocks, one line long each.
+     *
+     * @return the preferred size.
+     */
+    public Dimension getPreferredSize() {
+	final FontMetrics metrics = getFontMetrics(getFont());
+	return new Dimension(metrics.charWidth('0') *
+			     (margin + LINE_LENGTH + 1),
+			     getBlockHeight() * blockCount);
+    }
+
+    /**
+     * Paint the visible blocks.
+     *
+     * @param g the graphics context.
+     */
+    protected void paintComponent(final Graphics g) {
+	final Rectangle clip = g.getClipBounds();
+	g.setColor(getBackground());
+	g.fillRect(clip.x, clip.y, clip.width, clip.height);
+	if (blockCount == 0)
+	    return;
+
+	final FontMetrics metrics = g.getFontMetrics(getFont());
+	final int lineHeight = metrics.getHeight();
+	final int blockHeight = lineHeight * BLOCK_LINES;
+	final int first = clip.y / blockHeight;
+	final int last = Math.min(blockCount - 1,
+				  (clip.y + clip.height - 1) / blockHeight);
+	if (first > last)
+	    return;
+
+	// Start from the closest index entry
+	final int entry = first / INDEX_STEP;
+	final Cursor cursor = new Cursor();
+	cursor.run = indexRun[entry];
+	cursor.offset = indexOffset[entry];
+	cursor.pos1 = indexPos1[entry];
+	cursor.pos2 = indexPos2[entry];
+	advance(cursor, (first - entry * INDEX_STEP) * LINE_LENGTH);
+
+	final char[][] lines = new char[BLOCK_LINES - 1][margin + LINE_LENGTH];
+	final int x = metrics.charWidth('0') / 2;
+	g.setFont(getFont());
+	g.setColor(getForeground());
+
+	for (int block = first; block <= last; block++) {
+	    final int length = renderBlock(block, cursor, lines);
+	    int y = block * blockHeight + metrics.getAscent();
+
+	    for (int line = 0; line < lines.length; line++, y += lineHeight)
+		g.drawChars(lines[line], 0, margin + length, x, y);
+	}
+    }
+
+    /**
+     * Render a block into text lines.
+     *
+     * @param block  the block number.
+     * @param cursor the position of the block in the alignment, moved to the
+     *               next block.
+     * @param lines  the ruler, first string, markers and second string lines.
+     *
+     * @return the number of alignment columns in the block.
+     */
+    private int renderBlock(final int block, final Cursor cursor,
+			    final char[][] lines) {
+	final char[] ruler = lines[0], top = lines[1], middle = lines[2],
+		     bottom = lines[3];
+
+	for (int line = 0; line < lines.length; line++)
+	    Arrays.fill(lines[line], 0, margin, ' ');
+	putNumber(ruler, block * LINE_LENGTH + 1);
+	putNumber(top, cursor.pos1 + 1);
+	putNumber(bottom, cursor.pos2 + 1);
+
+	int column = 0;
+	while (column < LINE_LENGTH && cursor.run < script.getRunCount()) {
+	    final char op = script.getOp(cursor.run);
+	    final int pos = margin + column;
+
+	    ruler[pos] = (block * LINE_LENGTH + column + 1) % 10 == 0 ?
+			 RULER_10 : (column + 1) % 5 == 0 ? RULER_5 : RULER;
+	    top[pos] = op == EditScript.OP_INSERT ? GAP :
+		       string1[cursor.pos1++];
+	    bottom[pos] = op == EditScript.OP_DELETE ? GAP :
+			  string2[cursor.pos2++];
+	    middle[pos] = op == EditScript.OP_MATCH ? MATCH :
+			  op == EditScript.OP_MISMATCH ? MISMATCH : ' ';
+
+	    column++;
+	    if (++cursor.offset == script.getLength(cursor.run)) {
+		cursor.run++;
+		cursor.offset = 0;
+	    }
+	}
+
+	return column;
+    }
+
+    /**
+     * Write a number right-aligned in the margin of a line.
+     *
+     * @param line   the line.
+     * @param number the number.
+     */
+    private void putNumber(final char[] line, final int number) {
+	final String text = String.valueOf(number);
+	text.getChars(0, text.length(), line, margin - 1 - text.length());
+    }
+
+    /**
+     * Get the preferred size of the viewport: two blocks.
+     *
+     * @return the preferred size.
+     */
+    public Dimension getPreferredScrollableViewportSize() {
+	return new Dimension(getPreferredSize().width,
+			     getBlockHeight() * Math.min(2, blockCount));
+    }
+
+    /**
+     * Get the unit scrolling increment: one text line.
+     *
+     * @param visibleRect the visible area.
+     * @param orientation the scrolling orientation.
+     * @param direction   the scrolling direction.
+     *
+     * @return the increment.
+     */
+    public int getScrollableUnitIncrement(final Rectangle visibleRect,
+					  final int orientation,
+					  final int direction) {
+	final FontMetrics metrics = getFontMetrics(getFont());
+	return orientation == SwingConstants.VERTICAL ? metrics.getHeight() :
+	       metrics.charWidth('0');
+    }
+
+    /**
+     * Get the block scrolling increment: whole blocks.
+     *
+     * @param visibleRect the visible area.
+     * @param orientation the scrolling orientation.
+     * @param direction   the scrolling direction.
+     *
+     * @return the increment.
+     */
+    public int getScrollableBlockIncrement(final Rectangle visibleRect,
+					   final int orientation,
+					   final int direction) {
+	if (orientation != SwingConstants.VERTICAL)
+	    return visibleRect.width;
+
+	final int blockHeight = getBlockHeight();
+	return Math.max(1, visibleRect.height / blockHeight) * blockHeight;
+    }
+
+    /**
+     * Wether the view width tracks the viewport width.
+     *
+     * @return false.
+     */
+    public boolean getScrollableTracksViewportWidth() {
+	return false;
+    }
+
+    /**
+     * Wether the view height tracks the viewport height.
+     *
+     * @return false.
+     */
+    public boolean getScrollableTracksViewportHeight() {
+	return false;
+    }
+}
+
+// End of File
@@ -75,11 +75,18 @@ public final class Application {
     }
 
     /**
-     * Application entry point.
+     * Application entry point.  With arguments, the headless batch aligner is
+     * run instead of the graphical interface.
      *
      * @param args the command line arguments.
      */
     public static void main(String[] args) {
+	if (args.length > 0) {
+	    CommandLine.main(args);
+	    return;
+	}
+
+	AlignmentMetrics.register();
 	SwingUtilities.invokeLater(new Runnable() {
 	    public void run() {
 		try {
@@ -0,0 +1,432 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: BatchAligner.java
+ *
+ * Description: Inter-Sequence SIMD Batch Aligner
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Alignment of many independent pairs at once, one pair per SIMD lane, with
+ * the Java Vector API.  Intended for short sequences, for which vectorizing
+ * within a single alignment does not fill the lanes well.
+ *
+ * The recurrence, its evaluation order and the operation priorities are the
+ * same as in Aligner, so the costs and edit scripts are identical.  Pairs are
+ * grouped by length to limit the cells wasted on padding.
+ *
+ * This class needs the jdk.incubator.vector module (the JVM must be started
+ * with "--add-modules jdk.incubator.vector"): check that it is present before
+ * loading this class.  An instance reuses its buffers from one batch to the
+ * next and must only be used by one thread at a time.
+ * @see Aligner
+ */
+public final class BatchAligner {
+    /**
+     * The vector species.  The operations table stores one bit per lane in
+     * each half of an int, hence at most 16 lanes.
+     */
+    private final static VectorSpecies<Double> SPECIES =
+	DoubleVector.SPECIES_PREFERRED.length() <= 16 ?
+	DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_512;
+
+    /**
+     * The number of pairs aligned at once.
+     */
+    private final static int LANES = SPECIES.length();
+
+    /**
+     * Shift of the deletion bits in the operations table.
+     */
+    private final static int DEL_SHIFT = 16;
+
+    /**
+     * The operations costs.
+     */
+    private final CostMatrix costs;
+
+    /**
+     * The characters of the current batch, and their codes.
+     */
+    private char[] alphabet = new char[16];
+    private int alphabetSize = 0;
+    private final int[] codes = new int[Character.MAX_VALUE + 1];
+
+    /**
+     * Per-lane buffers, interleaved (lane k of position i at i * LANES + k):
+     * the dynamic programming columns, the deletion costs and the
+     * substitution cost profile (one block per second string character
+     * code).
+     */
+    private double[] column = new double[0], next = new double[0];
+    private double[] delCosts = new double[0], profile = new double[0];
+
+    /**
+     * Per-column buffers: insertion costs and gather indexes in the profile.
+     */
+    private final double[] insCosts = new double[LANES];
+    private final int[] indexMap = new int[LANES];
+
+    /**
+     * Operations table: for each cell, one insertion bit and one deletion bit
+     * per lane (substitution otherwise).
+     */
+    private int[][] operations = new int[0][];
+
+    /**
+     * The pairs of the current batch.
+     */
+    private final String[] batch1 = new String[LANES];
+    private final String[] batch2 = new String[LANES];
+
+    /**
+     * Constructor.
+     *
+     * @param costs the compiled operations costs, shared by all the pairs.
+     */
+    public BatchAligner(final CostMatrix costs) {
+	this.costs = costs;
+	for (int i = 0; i < codes.length; i++)
+	    codes[i] = -1;
+    }
+
+    /**
+     * Get the number of pairs aligned at once.
+     *
+     * @return the number of SIMD lanes.
+     */
+    public static int getLaneCount() {
+	return LANES;
+    }
+
+    /**
+     * Align pairs of strings.  The pairs are sorted by length and aligned
+     * LANES at a time.
+     *
+     * @param strings1 the first ("initial state") strings.
+     * @param strings2 the second ("target") strings.
+     * @param count    the number of pairs.
+     * @param results  the minimum costs (output).
+     * @param scripts  the edit scripts (output), or null if only the costs
+     *                 are needed.
+     */
+    public void align(final String[] strings1, final String[] strings2,
+		      final int count, final double[] results,
+		      final EditScript[] scripts) {
+	final Integer[] order = new Integer[count];
+	for (int p = 0; p < count; p++)
+	    order[p] = Integer.valueOf(p);
+
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(final Integer a, final Integer b) {
+		final int p = a.intValue(), q = b.intValue();
+		if (strings1[p].length() != strings1[q].length())
+		    return strings1[p].length() - strings1[q].length();
+		return strings2[p].length() - strings2[q].length();
+	    }
+	});
+
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	long cells = 0;
+	for (int p = 0; p < count; p++)
+	    cells += (long)(strings1[p].length() + 1) *
+		     (long)(strings2[p].length() + 1);
+
+	final int[] lanes = new int[LANES];
+	for (int start = 0; start < count; start += LANES) {
+	    final int size = Math.min(LANES, count - start);
+	    for (int k = 0; k < size; k++) {
+		lanes[k] = order[start + k].intValue();
+		batch1[k] = strings1[lanes[k]];
+		batch2[k] = strings2[lanes[k]];
+	    }
+	    for (int k = size; k < LANES; k++) {
+		batch1[k] = "";
+		batch2[k] = "";
+	    }
+
+	    alignBatch(results, scripts, lanes, size);
+	}
+
+	Arrays.fill(batch1, null);
+	Arrays.fill(batch2, null);
+	metrics.addCells(cells);
+	metrics.addSimdPairs(count);
+    }
+
+    /**
+     * Get the code of a character, adding it to the batch alphabet if needed.
+     *
+     * @param chr the character.
+     *
+     * @return the code.
+     */
+    private int codeOf(final char chr) {
+	if (codes[chr] < 0) {
+	    if (alphabetSize == alphabet.length)
+		alphabet = Arrays.copyOf(alphabet, alphabetSize * 2);
+	    alphabet[alphabetSize] = chr;
+	    codes[chr] = alphabetSize++;
+	}
+	return codes[chr];
+    }
+
+    /**
+     * Align the current batch.
+     *
+     * @param results the minimum costs (output).
+     * @param scripts the edit scripts (output), or null.
+     * @param lanes   the index of the pair of each lane in the outputs.
+     * @param size    the number of used lanes.
+     */
+    private void alignBatch(final double[] results,
+			    final EditScript[] scripts, final int[] lanes,
+			    final int size) {
+	int length1 = 0, length2 = 0;
+	for (int k = 0; k < LANES; k++) {
+	    length1 = Math.max(length1, batch1[k].length());
+	    length2 = Math.max(length2, batch2[k].length());
+	    for (int j = 0; j < batch2[k].length(); j++)
+		codeOf(batch2[k].charAt(j));
+	}
+
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	final long start = System.nanoTime();
+	final AlignmentEvents.Fill fillEvent = new AlignmentEvents.Fill();
+	fillEvent.begin();
+	prepare(length1, length2);
+	fill(length1, length2, results, lanes, size);
+	final long filled = System.nanoTime();
+	metrics.addFill(filled - start);
+	commit(fillEvent, length1, length2, size);
+
+	if (scripts != null) {
+	    final AlignmentEvents.Traceback tracebackEvent =
+		new AlignmentEvents.Traceback();
+	    tracebackEvent.begin();
+	    for (int k = 0; k < size; k++)
+		scripts[lanes[k]] = traceback(k);
+	    metrics.addTraceback(System.nanoTime() - filled);
+	    commit(tracebackEvent, length1, length2, size);
+	}
+
+	for (int c = 0; c < alphabetSize; c++)
+	    codes[alphabet[c]] = -1;
+	alphabetSize = 0;
+    }
+
+    /**
+     * Commit an event of a batch phase, if it is enabled.  The lengths are
+     * those of the longest sequences, which all the lanes are padded to.
+     *
+     * @param event   the event, begun at the start of the phase.
+     * @param length1 the length of the longest first string.
+     * @param length2 the length of the longest second string.
+     * @param size    the number of used lanes.
+     */
+    private static void commit(final AlignmentEvents.Phase event,
+			       final int length1, final int length2,
+			       final int size) {
+	if (event.shouldCommit()) {
+	    event.set(length1, length2, AlignmentEvents.ENG_SIMD,
+		      (long)(length1 + 1) * (long)(length2 + 1) * LANES);
+	    event.pairs = size;
+	    event.commit();
+	}
+    }
+
+    /**
+     * Make sure the buffers are large enough and fill the per-lane costs of
+     * the first strings: deletion costs and substitution profile.
+     *
+     * @param length1 the length of the longest first string.
+     * @param length2 the length of the longest second string.
+     */
+    private void prepare(final int length1, final int length2) {
+	final int cells = (length1 + 1) * LANES;
+	final AlignmentMetrics metrics = AlignmentMetrics.get();
+	if (column.length < cells) {
+	    column = new double[cells];
+	    next = new double[cells];
+	    delCosts = new double[cells];
+	    metrics.addTableBytes(3 * 8L * cells);
+	}
+	if (profile.length < alphabetSize * cells) {
+	    profile = new double[alphabetSize * cells];
+	    metrics.addTableBytes(8L * profile.length);
+	}
+	if (operations.length < length2 + 1)
+	    operations = Arrays.copyOf(operations, length2 + 1);
+	for (int j = 1; j <= length2; j++)
+	    if (operations[j] == null || operations[j].length < length1 + 1) {
+		operations[j] = new int[length1 + 1];
+		metrics.addTableBytes(4L * (length1 + 1));
+	    }
+
+	for (int k = 0; k < LANES; k++) {
+	    final String string1 = batch1[k];
+	    for (int i = 0; i < length1; i++) {
+		final boolean used = i < string1.length();
+		final char chr1 = used ? string1.charAt(i) : 0;
+		delCosts[i * LANES + k] = used ? costs.getDel(chr1) : 0.0;
+		for (int c = 0; c < alphabetSize; c++)
+		    profile[(c * length1 + i) * LANES + k] =
+			used ? costs.getSub(chr1, alphabet[c]) : 0.0;
+	    }
+	}
+    }
+
+    /**
+     * Fill the dynamic programming table of the current batch, one column of
+     * all the lanes at a time.
+     *
+     * @param length1 the length of the longest first string.
+     * @param length2 the length of the longest second string.
+     * @param results the minimum costs (output).
+     * @param lanes   the index of the pair of each lane in the outputs.
+     * @param size    the number of used lanes.
+     */
+    private void fill(final int length1, final int length2,
+		      final double[] results, final int[] lanes,
+		      final int size) {
+	for (int k = 0; k < LANES; k++) {
+	    column[k] = 0.0;
+	    for (int i = 0; i < length1; i++)
+		column[(i + 1) * LANES + k] = column[i * LANES + k] +
+					      delCosts[i * LANES + k];
+	}
+	collect(column, 0, results, lanes, size);
+
+	for (int j = 0; j < length2; j++) {
+	    for (int k = 0; k < LANES; k++) {
+		final String string2 = batch2[k];
+		final boolean used = j < string2.length();
+		final char chr2 = used ? string2.charAt(j) : 0;
+		insCosts[k] = used ? costs.getIns(chr2) : 0.0;
+		indexMap[k] = (used ? codes[chr2] * length1 * LANES : 0) + k;
+	    }
+
+	    final int[] ops = operations[j + 1];
+	    final DoubleVector insCost =
+		DoubleVector.fromArray(SPECIES, insCosts, 0);
+	    DoubleVector diagonal = DoubleVector.fromArray(SPECIES, column, 0);
+	    DoubleVector upper = diagonal.add(insCost);
+	    upper.intoArray(next, 0);
+
+	    for (int i = 0; i < length1; i++) {
+		final int offset = i * LANES;
+		final DoubleVector left =
+		    DoubleVector.fromArray(SPECIES, column, offset + LANES);
+		final DoubleVector subVal = diagonal.add(
+		    DoubleVector.fromArray(SPECIES, profile, offset,
+					   indexMap, 0));
+		final DoubleVector delVal = upper.add(
+		    DoubleVector.fromArray(SPECIES, delCosts, offset));
+		final DoubleVector insVal = left.add(insCost);
+		final DoubleVector minVal = insVal.min(delVal).min(subVal);
+		minVal.intoArray(next, offset + LANES);
+
+		final VectorMask<Double> insMask = minVal.eq(insVal);
+		final VectorMask<Double> delMask =
+		    minVal.eq(delVal).andNot(insMask);
+		ops[i + 1] = (int)insMask.toLong() |
+			     (int)delMask.toLong() << DEL_SHIFT;
+
+		diagonal = left;
+		upper = minVal;
+	    }
+
+	    final double[] swap = column;
+	    column = next;
+	    next = swap;
+	    collect(column, j + 1, results, lanes, size);
+	}
+    }
+
+    /**
+     * Collect the minimum costs of the lanes whose second string ends at a
+     * given column.
+     *
+     * @param values  the column values.
+     * @param j       the column number.
+     * @param results the minimum costs (output).
+     * @param lanes   the index of the pair of each lane in the outputs.
+     * @param size    the number of used lanes.
+     */
+    private void collect(final double[] values, final int j,
+			 final double[] results, final int[] lanes,
+			 final int size) {
+	for (int k = 0; k < size; k++)
+	    if (batch2[k].length() == j)
+		results[lanes[k]] =
+		    values[batch1[k].length() * LANES + k];
+    }
+
+    /**
+     * Build the edit script of a lane by following its operation path back
+     * from its last cell.
+     *
+     * @param k the lane.
+     *
+     * @return the edit script.
+     */
+    private EditScript traceback(final int k) {
+	final String string1 = batch1[k], string2 = batch2[k];
+	final EditScript script = new EditScript(16);
+	int i = string1.length(), j = string2.length();
+
+	while (i > 0 || j > 0) {
+	    final int ops = i > 0 && j > 0 ? operations[j][i] : 0;
+
+	    if (i == 0 || (ops >> k & 1) != 0) {
+		script.append(EditScript.OP_INSERT);
+		j--;
+	    } else if (j == 0 || (ops >> (DEL_SHIFT + k) & 1) != 0) {
+		script.append(EditScript.OP_DELETE);
+		i--;
+	    } else {
+		i--;
+		j--;
+		script.append(string1.charAt(i) == string2.charAt(j) ?
+			      EditScript.OP_MATCH : EditScript.OP_MISMATCH);
+	    }
+	}
+
+	script.reverse();
+	return script;
+    }
+}
+
+// End of File
@@ -0,0 +1,660 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: BenchmarkSuite.java
+ *
+ * Description: End-to-End Benchmark Suite
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * End-to-end benchmark suite: fixed corpora are aligned by every available
+ * engine (costs and edit scripts), measuring the wall time, the cells per
+ * second, the peak memory and the garbage collection time.  The results of
+ * every engine are checked against those of the reference engine, which
+ * keeps the whole cost table (as the GUI does).  The other engines are the
+ * scalar one in a workspace, the specialised kernel, the SIMD batch aligner,
+ * the checkpointed cost table, and the linear memory computation of the
+ * costs only (whose missing edit scripts are not checked).  The report is
+ * written in JSON, for tracking the performance over time.
+ *
+ * The corpora are generated by WorkloadGenerator from a seed, so they are the
+ * same from one run to the next.  Alignments are computed by the calling
+ * thread only.
+ */
+public final class BenchmarkSuite {
+    /**
+     * Engines, the first one being the reference.
+     */
+    private final static String[] ENGINES = {
+	"table", "scalar", "kernel", "simd", "checkpoint", "linear"
+    };
+
+    /**
+     * The number of blocks of columns kept by the checkpoint engine.
+     */
+    private final static int CHECKPOINT_CACHE_SIZE = 8;
+
+    /**
+     * Corpora.
+     */
+    private final static String[] CORPORA = {
+	"one-vs-many", "all-vs-all", "long-pairs"
+    };
+
+    /**
+     * Exit statuses.
+     */
+    private final static int EXIT_SUCCESS = 0, EXIT_FAILURE = 1,
+			     EXIT_USAGE = 2;
+
+    /**
+     * The file giving the peak resident set size (Linux only), and the one
+     * resetting it.
+     */
+    private final static File PROC_STATUS = new File("/proc/self/status"),
+			      PROC_CLEAR_REFS = new File("/proc/self/clear_refs");
+
+    /**
+     * A corpus: the pairs to align.
+     */
+    private final static class Corpus {
+	/**
+	 * The corpus name.
+	 */
+	final String name;
+
+	/**
+	 * The pairs.
+	 */
+	final String[] strings1, strings2;
+
+	/**
+	 * The number of cells of all the pairs.
+	 */
+	final long cells;
+
+	/**
+	 * The reference costs and edit scripts.
+	 */
+	double[] costs = null;
+	String[] scripts = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name     the corpus name.
+	 * @param strings1 the first strings of the pairs.
+	 * @param strings2 the second strings of the pairs.
+	 */
+	Corpus(final String name, final String[] strings1,
+	       final String[] strings2) {
+	    this.name = name;
+	    this.strings1 = strings1;
+	    this.strings2 = strings2;
+
+	    long count = 0;
+	    for (int p = 0; p < strings1.length; p++)
+		count += (long)(strings1[p].length() + 1) *
+			 (long)(strings2[p].length() + 1);
+	    cells = count;
+	}
+    }
+
+    /**
+     * Options.
+     */
+    private File costsFile = null, outputFile = null;
+    private int runs = 3, warmups = 1;
+    private long seed = 1L;
+    private final List<String> engines = new ArrayList<String>();
+    private final List<String> corpora = new ArrayList<String>();
+
+    /**
+     * The costs, and the kernel generated for them.
+     */
+    private CostMatrix costs;
+    private Kernel kernel = null;
+
+    /**
+     * The SIMD batch aligner, typed as Object so that the BatchAligner class
+     * (and the Vector API) is only loaded when used.
+     */
+    private Object batchAligner = null;
+
+    /**
+     * The total number of results differing from the reference.
+     */
+    private int mismatches = 0;
+
+    /**
+     * Make a corpus.
+     *
+     * @param name the corpus name.
+     * @param seed the seed.
+     *
+     * @return the corpus.
+     */
+    private static Corpus makeCorpus(final String name, final long seed) {
+	final WorkloadGenerator generator = new WorkloadGenerator();
+	final SplittableRandom random = new SplittableRandom(seed);
+
+	if (name.equals("one-vs-many")) {
+	    // A query against mutated copies of it
+	    final char[] query = generator.random(random, 1000);
+	    final String[] strings1 = new String[100];
+	    final String[] strings2 = new String[strings1.length];
+	    for (int p = 0; p < strings1.length; p++) {
+		strings1[p] = new String(query);
+		strings2[p] = new String(generator.mutate(random, query, null));
+	    }
+	    return new Corpus(name, strings1, strings2);
+	} else if (name.equals("all-vs-all")) {
+	    // Every pair of a family of genes mutated from a common ancestor
+	    final char[] ancestor = generator.random(random, 250);
+	    final String[] family = new String[80];
+	    for (int i = 0; i < family.length; i++)
+		family[i] = new String(generator.mutate(random, ancestor, null));
+
+	    final int count = family.length * (family.length - 1) / 2;
+	    final String[] strings1 = new String[count];
+	    final String[] strings2 = new String[count];
+	    for (int i = 0, p = 0; i < family.length; i++)
+		for (int j = i + 1; j < family.length; j++, p++) {
+		    strings1[p] = family[i];
+		    strings2[p] = family[j];
+		}
+	    return new Corpus(name, strings1, strings2);
+	} else {
+	    // A few long related pairs
+	    final String[] strings1 = new String[2];
+	    final String[] strings2 = new String[strings1.length];
+	    for (int p = 0; p < strings1.length; p++) {
+		final char[] gene = generator.random(random, 8000);
+		strings1[p] = new String(gene);
+		strings2[p] = new String(generator.mutate(random, gene, null));
+	    }
+	    return new Corpus(name, strings1, strings2);
+	}
+    }
+
+    /**
+     * Align a corpus with an engine.
+     *
+     * @param engine  the engine name.
+     * @param corpus  the corpus.
+     * @param results where to store the costs.
+     * @param scripts where to store the edit scripts.
+     */
+    private void align(final String engine, final Corpus corpus,
+		       final double[] results, final String[] scripts) {
+	final int count = corpus.strings1.length;
+
+	if (engine.equals("simd")) {
+	    final EditScript[] edits = new EditScript[count];
+	    ((BatchAligner)batchAligner).align(corpus.strings1,
+		corpus.strings2, count, results, edits);
+	    for (int p = 0; p < count; p++)
+		scripts[p] = edits[p].toString();
+	    return;
+	}
+
+	final Workspace workspace = Workspace.get();
+	for (int p = 0; p < count; p++) {
+	    final Aligner aligner = new Aligner(corpus.strings1[p],
+						corpus.strings2[p]);
+	    final int length2 = corpus.strings2[p].length();
+
+	    if (engine.equals("linear")) {
+		results[p] = aligner.computeColumns(costs,
+		    aligner.getFirstColumn(costs), 0, length2);
+		scripts[p] = null;
+		continue;
+	    }
+
+	    if (engine.equals("table"))
+		results[p] = aligner.compute(costs);
+	    else if (engine.equals("checkpoint"))
+		results[p] = aligner.compute(costs,
+		    CostCheckpoints.getDefaultInterval(length2 + 1),
+		    CHECKPOINT_CACHE_SIZE);
+	    else if (engine.equals("kernel"))
+		results[p] = aligner.compute(kernel, workspace);
+	    else
+		results[p] = aligner.compute(costs, workspace);
+	    scripts[p] = aligner.getEditScript().toString();
+	}
+    }
+
+    /**
+     * Get the total garbage collection time.
+     *
+     * @return the time, in milliseconds.
+     */
+    private static long getGcTime() {
+	long time = 0;
+	for (GarbageCollectorMXBean bean :
+	     ManagementFactory.getGarbageCollectorMXBeans())
+	    time += Math.max(0L, bean.getCollectionTime());
+	return time;
+    }
+
+    /**
+     * Get the total number of garbage collections.
+     *
+     * @return the number of collections.
+     */
+    private static long getGcCount() {
+	long count = 0;
+	for (GarbageCollectorMXBean bean :
+	     ManagementFactory.getGarbageCollectorMXBeans())
+	    count += Math.max(0L, bean.getCollectionCount());
+	return count;
+    }
+
+    /**
+     * Reset the peak memory usage of the heap and, on Linux, of the process.
+     *
+     * @return wether the peak resident set size could be reset.
+     */
+    private static boolean resetPeaks() {
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getType() == MemoryType.HEAP)
+		pool.resetPeakUsage();
+
+	try {
+	    final Writer writer = new FileWriter(PROC_CLEAR_REFS);
+	    try {
+		writer.write("5");
+	    } finally {
+		writer.close();
+	    }
+	    return true;
+	} catch (IOException exception) {
+	    return false;
+	}
+    }
+
+    /**
+     * Get the peak heap usage since the last reset.
+     *
+     * @return the sum of the peaks of the heap pools, in bytes.
+     */
+    private static long getPeakHeap() {
+	long peak = 0;
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getType() == MemoryType.HEAP)
+		peak += pool.getPeakUsage().getUsed();
+	return peak;
+    }
+
+    /**
+     * Get the peak resident set size of the process (Linux only).
+     *
+     * @return the peak, in bytes, or -1 if it is not available.
+     */
+    private static long getPeakRss() {
+	try {
+	    final BufferedReader reader =
+		new BufferedReader(new FileReader(PROC_STATUS));
+	    try {
+		String line;
+		while ((line = reader.readLine()) != null)
+		    if (line.startsWith("VmHWM:"))
+			return Long.parseLong(line.substring(6).trim().
+					      split("\\s+")[0]) * 1024L;
+	    } finally {
+		reader.close();
+	    }
+	} catch (IOException exception) {
+	} catch (NumberFormatException exception) {
+	}
+	return -1L;
+    }
+
+    /**
+     * Benchmark an engine on a corpus and write its JSON report.
+     *
+     * @param engine the engine name.
+     * @param corpus the corpus.
+     * @param out    the report writer.
+     *
+     * @throws IOException if the report cannot be written.
+     */
+    private void benchmark(final String engine, final Corpus corpus,
+			   final Writer out) throws IOException {
+	final int count = corpus.strings1.length;
+	final double[] results = new double[count];
+	final String[] scripts = new String[count];
+	final double[] times = new double[runs];
+	long peakHeap = 0, peakRss = -1, gcTime = 0, gcCount = 0;
+	boolean rssReset = true;
+
+	for (int run = 0; run < warmups; run++)
+	    align(engine, corpus, results, scripts);
+
+	for (int run = 0; run < runs; run++) {
+	    System.gc();
+	    rssReset &= resetPeaks();
+	    final long gcTime0 = getGcTime(), gcCount0 = getGcCount();
+	    final long start = System.nanoTime();
+
+	    align(engine, corpus, results, scripts);
+
+	    times[run] = (System.nanoTime() - start) / 1e6;
+	    gcTime += getGcTime() - gcTime0;
+	    gcCount += getGcCount() - gcCount0;
+	    peakHeap = Math.max(peakHeap, getPeakHeap());
+	    peakRss = Math.max(peakRss, getPeakRss());
+	}
+
+	// Check the results against the reference engine
+	int costErrors = 0, scriptErrors = 0;
+	if (corpus.costs == null) {
+	    corpus.costs = results.clone();
+	    corpus.scripts = scripts.clone();
+	} else
+	    for (int p = 0; p < count; p++) {
+		if (results[p] != corpus.costs[p])
+		    costErrors++;
+		if (scripts[p] != null && !scripts[p].equals(corpus.scripts[p]))
+		    scriptErrors++;
+	    }
+	mismatches += costErrors + scriptErrors;
+
+	final double[] sorted = times.clone();
+	Arrays.sort(sorted);
+	final double median = sorted[runs / 2];
+
+	out.write("{\"engine\": " + quote(engine) +
+		  ", \"reference\": " + engine.equals(ENGINES[0]) +
+		  ",\n          \"wallMillis\": [");
+	for (int run = 0; run < runs; run++)
+	    out.write((run > 0 ? ", " : "") + times[run]);
+	out.write("],\n          \"bestWallMillis\": " + sorted[0] +
+		  ", \"medianWallMillis\": " + median +
+		  ",\n          \"cellsPerSecond\": " +
+		  (median > 0.0 ? corpus.cells / (median / 1e3) : 0.0) +
+		  ", \"pairsPerSecond\": " +
+		  (median > 0.0 ? count / (median / 1e3) : 0.0) +
+		  ",\n          \"peakHeapBytes\": " + peakHeap +
+		  ", \"peakRssBytes\": " + peakRss +
+		  ", \"peakRssPerRun\": " + rssReset +
+		  ",\n          \"gcMillis\": " + gcTime +
+		  ", \"gcCount\": " + gcCount +
+		  ",\n          \"costMismatches\": " + costErrors +
+		  ", \"scriptMismatches\": " + scriptErrors + "}");
+    }
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param string the string.
+     *
+     * @return the quoted string.
+     */
+    static String quote(final String string) {
+	final StringBuilder quoted = new StringBuilder(string.length() + 2);
+	quoted.append('"');
+	for (int i = 0; i < string.length(); i++) {
+	    final char chr = string.charAt(i);
+	    if (chr == '"' || chr == '\\')
+		quoted.append('\\').append(chr);
+	    else if (chr < ' ')
+		quoted.append(String.format("\\u%04x", (int)chr));
+	    else
+		quoted.append(chr);
+	}
+	return quoted.append('"').toString();
+    }
+
+    /**
+     * Print the usage message.
+     *
+     * @param out the stream to print to.
+     */
+    private static void usage(final PrintStream out) {
+	out.println("Usage: java [--add-modules jdk.incubator.vector] " +
+		    "-cp genalign.jar");
+	out.println("            genalign.BenchmarkSuite [OPTION]...");
+	out.println("Align fixed corpora with every engine, check that they " +
+		    "give the same results");
+	out.println("and write a JSON report of their performance.");
+	out.println();
+	out.println("  -c FILE    read operation costs from FILE");
+	out.println("  -o FILE    write the report to FILE instead of the " +
+		    "standard output");
+	out.println("  -e ENGINE  benchmark ENGINE (\"table\", \"scalar\", " +
+		    "\"kernel\", \"simd\",");
+	out.println("             \"checkpoint\" or \"linear\"), " +
+		    "repeatable; default: every available");
+	out.println("             engine; the table engine always runs, as " +
+		    "the reference");
+	out.println("  -k CORPUS  run CORPUS (\"one-vs-many\", \"all-vs-all\" " +
+		    "or \"long-pairs\"),");
+	out.println("             repeatable; default: every corpus");
+	out.println("  -n RUNS    measured runs per engine and corpus " +
+		    "(default: 3)");
+	out.println("  -w RUNS    warm-up runs per engine and corpus " +
+		    "(default: 1)");
+	out.println("  -r SEED    corpora seed (default: 1)");
+	out.println("  -h         display this help and exit");
+    }
+
+    /**
+     * Parse the command-line arguments.
+     *
+     * @param args the command-line arguments.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    private void parseArguments(final String[] args) {
+	for (int i = 0; i < args.length; i++) {
+	    final String option = args[i];
+
+	    if (option.equals("-h")) {
+		usage(System.out);
+		System.exit(EXIT_SUCCESS);
+	    } else if (i + 1 >= args.length)
+		throw new IllegalArgumentException(option.startsWith("-") ?
+		    "missing argument for " + option :
+		    "unexpected argument: " + option);
+
+	    final String value = args[++i];
+	    if (option.equals("-c"))
+		costsFile = new File(value);
+	    else if (option.equals("-o"))
+		outputFile = new File(value);
+	    else if (option.equals("-e")) {
+		if (!Arrays.asList(ENGINES).contains(value))
+		    throw new IllegalArgumentException("unknown engine: " +
+						       value);
+		engines.add(value);
+	    } else if (option.equals("-k")) {
+		if (!Arrays.asList(CORPORA).contains(value))
+		    throw new IllegalArgumentException("unknown corpus: " +
+						       value);
+		corpora.add(value);
+	    } else if (option.equals("-n"))
+		runs = Integer.parseInt(value);
+	    else if (option.equals("-w"))
+		warmups = Integer.parseInt(value);
+	    else if (option.equals("-r"))
+		seed = Long.parseLong(value);
+	    else
+		throw new IllegalArgumentException("unknown option: " + option);
+	}
+
+	if (runs < 1 || warmups < 0)
+	    throw new IllegalArgumentException("invalid number of runs");
+    }
+
+    /**
+     * Run the suite.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return the exit status.
+     */
+    private int run(final String[] args) {
+	try {
+	    parseArguments(args);
+	} catch (IllegalArgumentException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    usage(System.err);
+	    return EXIT_USAGE;
+	}
+
+	final boolean simd = ModuleLayer.boot().
+	    findModule("jdk.incubator.vector").isPresent();
+	if (engines.isEmpty()) {
+	    engines.addAll(Arrays.asList(ENGINES));
+	    if (!simd)
+		engines.remove("simd");
+	} else if (engines.contains("simd") && !simd) {
+	    System.err.println("genalign: the simd engine needs the JVM " +
+			       "option --add-modules jdk.incubator.vector");
+	    return EXIT_FAILURE;
+	}
+	// The reference engine always runs first
+	engines.remove(ENGINES[0]);
+	engines.add(0, ENGINES[0]);
+	if (corpora.isEmpty())
+	    corpora.addAll(Arrays.asList(CORPORA));
+
+	try {
+	    costs = costsFile == null ? CostMatrix.compile(new Costs()) :
+		    CostMatrix.read(costsFile);
+	    if (engines.contains("kernel"))
+		kernel = Kernel.get(costs);
+	    if (engines.contains("simd"))
+		batchAligner = new BatchAligner(costs);
+
+	    final Writer out = new OutputStreamWriter(outputFile == null ?
+		(OutputStream)System.out :
+		new FileOutputStream(outputFile), "UTF-8");
+	    try {
+		writeReport(out);
+	    } finally {
+		if (outputFile == null)
+		    out.flush();
+		else
+		    out.close();
+	    }
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    return EXIT_FAILURE;
+	}
+
+	if (mismatches > 0) {
+	    System.err.println("genalign: " + mismatches + " results differ " +
+			       "from the reference engine");
+	    return EXIT_FAILURE;
+	}
+	return EXIT_SUCCESS;
+    }
+
+    /**
+     * Run the benchmarks and write the report.
+     *
+     * @param out the report writer.
+     *
+     * @throws IOException if the report cannot be written.
+     */
+    private void writeReport(final Writer out) throws IOException {
+	final Runtime runtime = Runtime.getRuntime();
+
+	out.write("{\"suite\": \"genalign\", \"format\": 1,\n" +
+		  "  \"timestamp\": " + System.currentTimeMillis() +
+		  ", \"java\": " + quote(System.getProperty("java.version")) +
+		  ", \"vm\": " + quote(System.getProperty("java.vm.name")) +
+		  ",\n  \"os\": " + quote(System.getProperty("os.name") + " " +
+					 System.getProperty("os.arch")) +
+		  ", \"processors\": " + runtime.availableProcessors() +
+		  ", \"maxHeapBytes\": " + runtime.maxMemory() +
+		  ",\n  \"costs\": " + quote(costsFile == null ? "default" :
+					    costsFile.getPath()) +
+		  ", \"costsFingerprint\": " +
+		  quote(Long.toHexString(costs.getFingerprint())) +
+		  ", \"seed\": " + seed + ", \"runs\": " + runs +
+		  ", \"warmups\": " + warmups +
+		  (kernel == null ? "" : ",\n  \"kernel\": " +
+		   quote(kernel.toString())) +
+		  ",\n  \"corpora\": [");
+
+	for (int c = 0; c < corpora.size(); c++) {
+	    final String name = corpora.get(c);
+	    final Corpus corpus =
+		makeCorpus(name, seed + Arrays.asList(CORPORA).indexOf(name));
+
+	    out.write((c > 0 ? "," : "") + "\n    {\"name\": " + quote(name) +
+		      ", \"pairs\": " + corpus.strings1.length +
+		      ", \"cells\": " + corpus.cells + ",\n      \"engines\": [");
+	    for (int e = 0; e < engines.size(); e++) {
+		out.write(e > 0 ? ",\n        " : "\n        ");
+		benchmark(engines.get(e), corpus, out);
+		out.flush();
+	    }
+	    out.write("]}");
+	}
+
+	out.write("],\n  \"mismatches\": " + mismatches + "}\n");
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) {
+	final int status = new BenchmarkSuite().run(args);
+	if (status != EXIT_SUCCESS)
+	    System.exit(status);
+    }
+}
+
+// End of File
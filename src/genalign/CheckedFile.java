@@ -0,0 +1,182 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CheckedFile.java
+ *
+ * Description: Checksummed Binary File
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Binary files with a header and a checksum, such as the job checkpoints and
+ * the sketch files: a magic number and a format version, the body, then a
+ * CRC-32 of everything before it.
+ *
+ * A file is replaced atomically, by writing and syncing a temporary file in
+ * the same directory then renaming it, so that it is always either the
+ * previous or the new file, never a torn one.  The temporary file has a
+ * unique (random) name, so that several processes can replace the same file;
+ * it is created with the default permissions, unlike Files.createTempFile(),
+ * so that the file can still be shared.
+ */
+final class CheckedFile {
+    /**
+     * The size of the header (magic number and version) and of the checksum.
+     */
+    private final static int HEADER_SIZE = 8, CRC_SIZE = 4;
+
+    /**
+     * Constructor (not instantiable).
+     */
+    private CheckedFile() {
+    }
+
+    /**
+     * Read a file and check its header and checksum.
+     *
+     * @param file    the file to read.
+     * @param magic   the magic number of the files of this kind.
+     * @param version the supported format version.
+     * @param kind    the name of the files of this kind, for the messages.
+     *
+     * @return the body of the file (without the checksum).
+     *
+     * @throws java.nio.file.NoSuchFileException if the file does not exist.
+     * @throws IOException if the file cannot be read, or is not a valid file
+     *                     of this kind.
+     */
+    static DataInputStream readChecked(final File file, final int magic,
+				       final int version, final String kind)
+	throws IOException {
+	final byte[] bytes = Files.readAllBytes(file.toPath());
+	if (bytes.length < HEADER_SIZE + CRC_SIZE)
+	    throw new IOException(file + ": not a " + kind);
+
+	final int length = bytes.length - CRC_SIZE;
+	final DataInputStream input =
+	    new DataInputStream(new ByteArrayInputStream(bytes));
+	if (input.readInt() != magic)
+	    throw new IOException(file + ": not a " + kind);
+	if (input.readInt() != version)
+	    throw new IOException(file + ": unsupported " + kind + " version");
+
+	final CRC32 crc = new CRC32();
+	crc.update(bytes, 0, length);
+	input.skipBytes(length - HEADER_SIZE);
+	if (input.readInt() != (int)crc.getValue())
+	    throw new IOException(file + ": corrupted " + kind);
+
+	return new DataInputStream(new ByteArrayInputStream(
+	    bytes, HEADER_SIZE, length - HEADER_SIZE));
+    }
+
+    /**
+     * Write a file with a header and a checksum, replacing it atomically.
+     *
+     * @param file    the file to write.
+     * @param magic   the magic number of the files of this kind.
+     * @param version the format version.
+     * @param body    the body of the file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    static void writeAtomically(final File file, final int magic,
+				final int version, final byte[] body)
+	throws IOException {
+	final ByteArrayOutputStream bytes =
+	    new ByteArrayOutputStream(HEADER_SIZE + body.length + CRC_SIZE);
+	final DataOutputStream output = new DataOutputStream(bytes);
+
+	output.writeInt(magic);
+	output.writeInt(version);
+	output.write(body);
+	final CRC32 crc = new CRC32();
+	crc.update(bytes.toByteArray());
+	output.writeInt((int)crc.getValue());
+	output.close();
+
+	final Path target = file.getAbsoluteFile().toPath();
+	Path temporary;
+	FileChannel channel = null;
+	do {
+	    temporary = target.resolveSibling(file.getName() + "." +
+		Long.toHexString(ThreadLocalRandom.current().nextLong()) +
+		".tmp");
+	    try {
+		channel = FileChannel.open(temporary,
+					   StandardOpenOption.CREATE_NEW,
+					   StandardOpenOption.WRITE);
+	    } catch (FileAlreadyExistsException exception) {
+		// Taken by another process: draw another name
+	    }
+	} while (channel == null);
+
+	try {
+	    try {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		while (buffer.hasRemaining())
+		    channel.write(buffer);
+		channel.force(true);
+	    } finally {
+		channel.close();
+	    }
+
+	    try {
+		Files.move(temporary, target,
+			   StandardCopyOption.REPLACE_EXISTING,
+			   StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException exception) {
+		Files.move(temporary, target,
+			   StandardCopyOption.REPLACE_EXISTING);
+	    }
+	} finally {
+	    Files.deleteIfExists(temporary);
+	}
+    }
+}
+
+// End of File
@@ -0,0 +1,1137 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CommandLine.java
+ *
+ * Description: Headless Command-Line Batch Aligner
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Command-line batch aligner.  It only relies on classes which do not depend
+ * on AWT/Swing, so it can run on headless hosts without paying for the GUI
+ * toolkit initialization.
+ */
+public final class CommandLine {
+    /**
+     * Output formats.
+     */
+    private final static int FMT_ALIGNMENT = 0, FMT_COST = 1, FMT_CIGAR = 2;
+    private final static String[] FORMAT_NAMES = {
+	"alignment", "cost", "cigar"
+    };
+
+    /**
+     * Alignment engines.
+     */
+    private final static int ENG_SCALAR = 0, ENG_SIMD = 1, ENG_KERNEL = 2;
+    private final static String[] ENGINE_NAMES = {
+	AlignmentEvents.ENG_SCALAR, AlignmentEvents.ENG_SIMD,
+	AlignmentEvents.ENG_KERNEL
+    };
+
+    /**
+     * Number of pairs per job for each engine: the SIMD engine groups the
+     * pairs of a job by length, so larger jobs waste less lanes on padding.
+     */
+    private final static int[] BLOCK_SIZES = { 16, 256, 16 };
+
+    /**
+     * Number of cells per block of columns when only the cost is computed, in
+     * linear memory: a checkpoint can be saved between two blocks.
+     */
+    private final static int COST_BLOCK_CELLS = 1 << 24;
+
+    /**
+     * Default period of the checkpoints, in seconds.
+     */
+    private final static int DEFAULT_CHECKPOINT_PERIOD = 60;
+
+    /**
+     * Exit statuses.
+     */
+    private final static int EXIT_SUCCESS = 0, EXIT_FAILURE = 1,
+			     EXIT_USAGE = 2;
+
+    /**
+     * Command-line options.
+     */
+    private File costsFile = null, outputFile = null, compiledFile = null;
+    private File cacheFile = null, checkpointFile = null, sketchFile = null;
+    private int format = FMT_ALIGNMENT;
+    private boolean timing = false, pairwise = false;
+    private int threadCount = 1;
+    private int metricsPeriod = 0;
+    private int checkpointPeriod = DEFAULT_CHECKPOINT_PERIOD;
+    private double minSimilarity = 0.0;
+    private int kmerLength = Sketch.DEFAULT_KMER;
+    private int engine = ENG_SCALAR;
+    private File[] geneFiles;
+
+    /**
+     * Compiled operation costs, loaded once and shared by all alignments.
+     */
+    private CostMatrix costs;
+
+    /**
+     * The kernel specialised for the costs, with the kernel engine.
+     */
+    private Kernel kernel = null;
+
+    /**
+     * The cache of the results, if any.
+     */
+    private ResultCache cache = null;
+
+    /**
+     * The checkpoint of the job, if any, and the time the next one is due, in
+     * nanoseconds.
+     */
+    private JobCheckpoint checkpoint = null;
+    private long checkpointTime;
+
+    /**
+     * The pair whose cost was being computed when the resumed job was
+     * interrupted, the column it was interrupted at, and the costs of that
+     * column, or -1 and null.
+     */
+    private long resumedPair = -1;
+    private int resumedColumn = 0;
+    private double[] resumedBoundary = null;
+
+    /**
+     * The output file stream, whose length is saved in the checkpoints.
+     */
+    private FileOutputStream outputStream = null;
+
+    /**
+     * The number of pairs queued so far, and the number of pairs whose
+     * results were written before the job was resumed, which are skipped.
+     */
+    private long pairIndex = 0, skippedPairs = 0;
+
+    /**
+     * The index of the first pair whose result is not written yet: the
+     * results of the pairs before it have all been written, or the pairs
+     * were filtered out.
+     */
+    private long writtenPairs = 0;
+
+    /**
+     * The index of the first pair which is not aligned (-s option).
+     */
+    private long pairLimit = Long.MAX_VALUE;
+
+    /**
+     * The sketches of the sequences of both gene files (the same with one
+     * file), when the pairs are filtered by similarity.
+     */
+    private SketchIndex sketches1 = null, sketches2 = null;
+
+    /**
+     * The number of pairs per job.
+     */
+    private int blockSize;
+
+    /**
+     * The job being filled.
+     */
+    private Job current = null;
+
+    /**
+     * Worker threads and queued jobs, when several threads are used.
+     */
+    private ExecutorService executor = null;
+    private final LinkedList<Job> pending = new LinkedList<Job>();
+
+    /**
+     * The SIMD batch aligner of each thread.  Typed as Object so that the
+     * BatchAligner class (and the Vector API) is only loaded when used.
+     */
+    private final ThreadLocal<Object> batchAligner =
+	new ThreadLocal<Object>() {
+	    protected Object initialValue() {
+		return new BatchAligner(costs);
+	    }
+	};
+
+    /**
+     * Statistics.
+     */
+    private long pairCount = 0, cellCount = 0, filteredCount = 0;
+
+    /**
+     * Print the usage message.
+     *
+     * @param out the stream to print to.
+     */
+    private static void usage(final PrintStream out) {
+	out.println("Usage: genalign [OPTION]... FILE1 [FILE2]");
+	out.println("   or: genalign -c COSTS -w COMPILED");
+	out.println("   or: genalign -R CHECKPOINT");
+	out.println("Align every sequence of FILE1 with every sequence of " +
+		    "FILE2, or every");
+	out.println("pair of sequences of FILE1 if FILE2 is omitted.  " +
+		    "Without any argument,");
+	out.println("the graphical interface is started.");
+	out.println();
+	out.println("  -c FILE    read operation costs from FILE (text or " +
+		    "compiled)");
+	out.println("  -w FILE    write the compiled (binary) cost table to " +
+		    "FILE");
+	out.println("  -o FILE    write results to FILE instead of the " +
+		    "standard output");
+	out.println("  -f FORMAT  output format: \"alignment\" (default), " +
+		    "\"cost\" or \"cigar\"");
+	out.println("  -e ENGINE  alignment engine: \"scalar\" (default), " +
+		    "\"kernel\" (generated for");
+	out.println("             the cost table) or \"simd\" (short " +
+		    "pairs, needs --add-modules");
+	out.println("             jdk.incubator.vector)");
+	out.println("  -j THREADS align with THREADS worker threads " +
+		    "(default: 1)");
+	out.println("  -p         align the sequences of FILE1 and FILE2 " +
+		    "pairwise, in order");
+	out.println("  -a MIN     align only the pairs whose similarity " +
+		    "(Jaccard index of their");
+	out.println("             k-mers, estimated from MinHash sketches) " +
+		    "is at least MIN");
+	out.println("  -l LENGTH  length of the k-mers (default: " +
+		    Sketch.DEFAULT_KMER + "); shorter k-mers find");
+	out.println("             more distant pairs");
+	out.println("  -x FILE    keep the sketches of the last gene file in " +
+		    "FILE, so that it is");
+	out.println("             only sketched once");
+	out.println("  -s FIRST:COUNT");
+	out.println("             align only COUNT pairs, from the pair " +
+		    "number FIRST (from 0)");
+	out.println("  -r FILE    cache the results in FILE, reusing those " +
+		    "of previous runs");
+	out.println("  -m SECONDS print the alignment metrics to the standard " +
+		    "error every");
+	out.println("             SECONDS seconds (they are also exposed " +
+		    "over JMX)");
+	out.println("  -k FILE    save a checkpoint of the job to FILE " +
+		    "periodically (needs -o);");
+	out.println("             genalign -R FILE resumes the job from it");
+	out.println("  -K SECONDS save a checkpoint every SECONDS seconds " +
+		    "(default: " + DEFAULT_CHECKPOINT_PERIOD + ")");
+	out.println("  -t         print timing statistics to the standard " +
+		    "error");
+	out.println("  -h         display this help and exit");
+    }
+
+    /**
+     * Parse the command-line arguments.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return false if the arguments are invalid.
+     */
+    private boolean parseArguments(final String[] args) {
+	int i;
+
+	for (i = 0; i < args.length && args[i].startsWith("-") &&
+		    args[i].length() > 1; i++) {
+	    final String option = args[i];
+
+	    if (option.equals("--")) {
+		i++;
+		break;
+	    } else if (option.equals("-t"))
+		timing = true;
+	    else if (option.equals("-p"))
+		pairwise = true;
+	    else if (option.equals("-h")) {
+		usage(System.out);
+		System.exit(EXIT_SUCCESS);
+	    } else if (!option.equals("-c") && !option.equals("-o") &&
+		       !option.equals("-f") && !option.equals("-w") &&
+		       !option.equals("-j") && !option.equals("-e") &&
+		       !option.equals("-m") && !option.equals("-r") &&
+		       !option.equals("-k") && !option.equals("-K") &&
+		       !option.equals("-s") && !option.equals("-a") &&
+		       !option.equals("-x") && !option.equals("-l")) {
+		System.err.println("genalign: unknown option: " + option);
+		return false;
+	    } else if (i + 1 >= args.length) {
+		System.err.println("genalign: missing argument for " + option);
+		return false;
+	    } else if (option.equals("-c"))
+		costsFile = new File(args[++i]);
+	    else if (option.equals("-o"))
+		outputFile = new File(args[++i]);
+	    else if (option.equals("-w"))
+		compiledFile = new File(args[++i]);
+	    else if (option.equals("-r"))
+		cacheFile = new File(args[++i]);
+	    else if (option.equals("-k"))
+		checkpointFile = new File(args[++i]);
+	    else if (option.equals("-x"))
+		sketchFile = new File(args[++i]);
+	    else if (option.equals("-l")) {
+		final String length = args[++i];
+		try {
+		    kmerLength = Integer.parseInt(length);
+		} catch (NumberFormatException exception) {
+		    kmerLength = 0;
+		}
+		if (kmerLength < 1) {
+		    System.err.println("genalign: invalid k-mer length: " +
+				       length);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-a")) {
+		final String similarity = args[++i];
+		try {
+		    minSimilarity = Double.parseDouble(similarity);
+		} catch (NumberFormatException exception) {
+		    minSimilarity = 0.0;
+		}
+		if (!(minSimilarity > 0.0 && minSimilarity <= 1.0)) {
+		    System.err.println("genalign: invalid similarity: " +
+				       similarity);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-e")) {
+		final String name = args[++i];
+		if (name.equals("scalar"))
+		    engine = ENG_SCALAR;
+		else if (name.equals("simd"))
+		    engine = ENG_SIMD;
+		else if (name.equals("kernel"))
+		    engine = ENG_KERNEL;
+		else {
+		    System.err.println("genalign: unknown engine: " + name);
+		    return false;
+		}
+	    } else if (option.equals("-j")) {
+		final String count = args[++i];
+		try {
+		    threadCount = Integer.parseInt(count);
+		} catch (NumberFormatException exception) {
+		    threadCount = 0;
+		}
+		if (threadCount < 1) {
+		    System.err.println("genalign: invalid thread count: " +
+				       count);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-m")) {
+		final String period = args[++i];
+		try {
+		    metricsPeriod = Integer.parseInt(period);
+		} catch (NumberFormatException exception) {
+		    metricsPeriod = 0;
+		}
+		if (metricsPeriod < 1) {
+		    System.err.println("genalign: invalid metrics period: " +
+				       period);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-s")) {
+		final String range = args[++i];
+		final int colon = range.indexOf(':');
+		try {
+		    skippedPairs = Long.parseLong(range.substring(0, colon));
+		    pairLimit = skippedPairs +
+				Long.parseLong(range.substring(colon + 1));
+		} catch (RuntimeException exception) {
+		    pairLimit = -1;
+		}
+		if (skippedPairs < 0 || pairLimit < skippedPairs) {
+		    System.err.println("genalign: invalid pair range: " +
+				       range);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-K")) {
+		final String period = args[++i];
+		try {
+		    checkpointPeriod = Integer.parseInt(period);
+		} catch (NumberFormatException exception) {
+		    checkpointPeriod = 0;
+		}
+		if (checkpointPeriod < 1) {
+		    System.err.println("genalign: invalid checkpoint period: " +
+				       period);
+		    return false;
+		}
+	    }
+	    else if (option.equals("-f")) {
+		final String name = args[++i];
+		if (name.equals("alignment"))
+		    format = FMT_ALIGNMENT;
+		else if (name.equals("cost"))
+		    format = FMT_COST;
+		else if (name.equals("cigar"))
+		    format = FMT_CIGAR;
+		else {
+		    System.err.println("genalign: unknown format: " + name);
+		    return false;
+		}
+	    }
+	}
+
+	final int count = args.length - i;
+	if ((count < 1 && compiledFile == null) || count > 2) {
+	    System.err.println("genalign: one or two gene files expected");
+	    return false;
+	}
+	if (pairwise && count != 2) {
+	    System.err.println("genalign: two gene files expected with -p");
+	    return false;
+	}
+	if ((sketchFile != null || kmerLength != Sketch.DEFAULT_KMER) &&
+	    minSimilarity == 0.0) {
+	    System.err.println("genalign: -x and -l need -a");
+	    return false;
+	}
+	if (checkpointFile != null && (outputFile == null || count < 1)) {
+	    System.err.println("genalign: gene files and an output file " +
+			       "expected with -k");
+	    return false;
+	}
+
+	geneFiles = new File[count];
+	for (int j = 0; j < count; j++)
+	    geneFiles[j] = new File(args[i + j]);
+	return true;
+    }
+
+    /**
+     * An alignment job: a block of pairs, aligned by the calling thread or by
+     * a worker thread.
+     */
+    private final class Job implements Callable<String> {
+	/**
+	 * The pairs to align.
+	 */
+	private final Sequence[] seqs1 = new Sequence[blockSize];
+	private final Sequence[] seqs2 = new Sequence[blockSize];
+	private int count = 0;
+
+	/**
+	 * The index of the first pair among all the pairs of the run.
+	 */
+	private final long first;
+
+	/**
+	 * The index of the pair after the last pair, among all the pairs.
+	 */
+	private long end;
+
+	/**
+	 * The number of computed cells.
+	 */
+	private long cells = 0;
+
+	/**
+	 * The pending formatted result.
+	 */
+	private Future<String> future = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param first the index of the first pair among all the pairs.
+	 */
+	Job(final long first) {
+	    this.first = first;
+	}
+
+	/**
+	 * Add a pair to the job.
+	 *
+	 * @param seq1  the first ("initial state") sequence.
+	 * @param seq2  the second ("target") sequence.
+	 * @param index the index of the pair among all the pairs.
+	 *
+	 * @return wether the job is full.
+	 */
+	boolean add(final Sequence seq1, final Sequence seq2,
+		    final long index) {
+	    seqs1[count] = seq1;
+	    seqs2[count++] = seq2;
+	    end = index + 1;
+	    return count == blockSize;
+	}
+
+	/**
+	 * Align the pairs and write the results.  Only reads shared immutable
+	 * state, so jobs can run in any number of threads concurrently.
+	 *
+	 * @param out the output writer.
+	 *
+	 * @throws IOException if the results cannot be written.
+	 */
+	void run(final Writer out) throws IOException {
+	    if (engine == ENG_SIMD) {
+		runBatch(out);
+		return;
+	    }
+
+	    for (int p = 0; p < count; p++) {
+		final ResultCache.Key key = cache == null ? null :
+		    ResultCache.key(seqs1[p].getResidues(),
+				    seqs2[p].getResidues(), costs);
+		final ResultCache.Result cached =
+		    key == null ? null : cache.get(key);
+		if (cached != null) {
+		    write(seqs1[p], seqs2[p], cached.getCost(),
+			  format == FMT_COST ? null : cached.getEditScript(),
+			  out);
+		    continue;
+		}
+
+		final Aligner aligner = new Aligner(seqs1[p].getResidues(),
+						    seqs2[p].getResidues());
+		if (format == FMT_COST && kernel == null && key == null) {
+		    final double cost = alignCost(aligner, first + p, out);
+		    write(seqs1[p], seqs2[p], cost, null, out);
+		    cells += aligner.getCellCount();
+		    continue;
+		}
+		if (kernel != null)
+		    aligner.compute(kernel, Workspace.get());
+		else
+		    aligner.compute(costs, Workspace.get());
+		write(seqs1[p], seqs2[p], aligner.getCost(),
+		      format == FMT_COST ? null : aligner.getEditScript(), out);
+		cells += aligner.getCellCount();
+		if (key != null)
+		    cache.put(key, aligner.getCost(), aligner.getEditScript());
+	    }
+	}
+
+	/**
+	 * Align the pairs with the SIMD batch aligner and write the results.
+	 *
+	 * @param out the output writer.
+	 *
+	 * @throws IOException if the results cannot be written.
+	 */
+	private void runBatch(final Writer out) throws IOException {
+	    final String[] strings1 = new String[count];
+	    final String[] strings2 = new String[count];
+	    final double[] results = new double[count];
+	    final EditScript[] scripts = format == FMT_COST && cache == null ?
+		null : new EditScript[count];
+	    final ResultCache.Key[] keys = new ResultCache.Key[count];
+	    final int[] index = new int[count];
+	    int misses = 0;
+
+	    // Only the pairs which are not cached are aligned
+	    for (int p = 0; p < count; p++) {
+		final ResultCache.Result cached = cache == null ? null :
+		    cache.get(keys[p] = ResultCache.key(seqs1[p].getResidues(),
+							seqs2[p].getResidues(),
+							costs));
+		if (cached != null) {
+		    results[p] = cached.getCost();
+		    scripts[p] = cached.getEditScript();
+		    continue;
+		}
+
+		strings1[misses] = seqs1[p].getResidues();
+		strings2[misses] = seqs2[p].getResidues();
+		index[misses++] = p;
+		cells += (long)(seqs1[p].length() + 1) *
+			 (long)(seqs2[p].length() + 1);
+	    }
+
+	    if (misses > 0) {
+		final double[] missResults = new double[misses];
+		final EditScript[] missScripts =
+		    scripts == null ? null : new EditScript[misses];
+		((BatchAligner)batchAligner.get()).align(strings1, strings2,
+		    misses, missResults, missScripts);
+
+		for (int m = 0; m < misses; m++) {
+		    final int p = index[m];
+		    results[p] = missResults[m];
+		    if (scripts != null)
+			scripts[p] = missScripts[m];
+		    if (cache != null)
+			cache.put(keys[p], results[p], scripts[p]);
+		}
+	    }
+
+	    for (int p = 0; p < count; p++)
+		write(seqs1[p], seqs2[p], results[p],
+		      format == FMT_COST ? null : scripts[p], out);
+	}
+
+	/**
+	 * Align the pairs in a worker thread.  The results are formatted in
+	 * the thread workspace output buffer.
+	 *
+	 * @return the formatted results.
+	 *
+	 * @throws IOException never, output goes to a buffer.
+	 */
+	public String call() throws IOException {
+	    final CharArrayWriter buffer = Workspace.get().getOutput();
+	    run(buffer);
+	    return buffer.toString();
+	}
+    }
+
+    /**
+     * Queue a pair of sequences for alignment.  Pairs are aligned by blocks,
+     * either immediately or by the worker threads; results are written in
+     * order as they complete.  With -a, pairs whose sketches are not similar
+     * enough are filtered out; pairs with a sequence shorter than a k-mer
+     * are always aligned.
+     *
+     * @param seq1 the first ("initial state") sequence.
+     * @param seq2 the second ("target") sequence.
+     * @param i    the index of the first sequence in its gene file.
+     * @param j    the index of the second sequence in its gene file.
+     * @param out  the output writer.
+     *
+     * @throws IOException if a result cannot be written.
+     */
+    private void align(final Sequence seq1, final Sequence seq2, final int i,
+		       final int j, final Writer out) throws IOException {
+	final long index = pairIndex++;
+	if (index < skippedPairs || index >= pairLimit)
+	    return;
+
+	if (sketches1 != null && !sketches1.get(i).isEmpty() &&
+	    !sketches2.get(j).isEmpty() &&
+	    sketches1.similarity(i, sketches2, j) < minSimilarity) {
+	    filteredCount++;
+	    return;
+	}
+
+	if (current == null)
+	    current = new Job(index);
+	if (current.add(seq1, seq2, index))
+	    flush(out);
+    }
+
+    /**
+     * Run the current job, or hand it over to the worker threads.
+     *
+     * @param out the output writer.
+     *
+     * @throws IOException if a result cannot be written.
+     */
+    private void flush(final Writer out) throws IOException {
+	final Job job = current;
+	current = null;
+	if (job == null)
+	    return;
+
+	if (executor == null) {
+	    job.run(out);
+	    pairCount += job.count;
+	    cellCount += job.cells;
+	    writtenPairs = job.end;
+	    if (isCheckpointDue())
+		saveCheckpoint(writtenPairs, 0, null, out);
+	    return;
+	}
+
+	job.future = executor.submit(job);
+	pending.addLast(job);
+	AlignmentMetrics.get().addQueued(1);
+	if (pending.size() >= threadCount * 4)
+	    writePending(out);
+    }
+
+    /**
+     * Wait for the oldest job handed over to the worker threads and write
+     * its results.
+     *
+     * @param out the output writer.
+     *
+     * @throws IOException if the result cannot be written.
+     */
+    private void writePending(final Writer out) throws IOException {
+	final Job job = pending.removeFirst();
+
+	try {
+	    out.write(job.future.get());
+	    pairCount += job.count;
+	    cellCount += job.cells;
+	    writtenPairs = job.end;
+	    if (isCheckpointDue())
+		saveCheckpoint(writtenPairs, 0, null, out);
+	} catch (InterruptedException exception) {
+	    throw new InterruptedIOException("interrupted");
+	} catch (ExecutionException exception) {
+	    final Throwable cause = exception.getCause();
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException)cause;
+	    if (cause instanceof Error)
+		throw (Error)cause;
+	    throw new IOException(cause);
+	} finally {
+	    AlignmentMetrics.get().addQueued(-1);
+	}
+    }
+
+    /**
+     * Compute the minimum cost of a pair only, in memory linear in the length
+     * of its first sequence, by blocks of columns.  In the calling thread, a
+     * checkpoint is saved between two blocks when one is due, with the last
+     * column computed, so that a long pair resumes where it was interrupted.
+     *
+     * @param aligner the aligner of the pair.
+     * @param index   the index of the pair among all the pairs.
+     * @param out     the output writer.
+     *
+     * @return the minimum cost.
+     *
+     * @throws IOException if the checkpoint cannot be saved.
+     */
+    private double alignCost(final Aligner aligner, final long index,
+			     final Writer out) throws IOException {
+	final int length1 = aligner.getString1().length;
+	final int length2 = aligner.getString2().length;
+	final double[] column;
+	int from = 0;
+
+	if (index == resumedPair) {
+	    if (resumedBoundary.length != length1 + 1 ||
+		resumedColumn > length2)
+		throw new IOException("the checkpoint does not match the " +
+				      "gene files");
+	    column = resumedBoundary.clone();
+	    from = resumedColumn;
+	} else
+	    column = aligner.getFirstColumn(costs);
+
+	final int step = Math.max(1, COST_BLOCK_CELLS / (length1 + 1));
+	double cost;
+	do {
+	    final int to = (int)Math.min((long)from + step, length2);
+	    cost = aligner.computeColumns(costs, column, from, to);
+	    from = to;
+	    if (from < length2 && executor == null && isCheckpointDue())
+		saveCheckpoint(index, from, column, out);
+	} while (from < length2);
+
+	return cost;
+    }
+
+    /**
+     * Check wether a checkpoint is due.
+     *
+     * @return wether checkpoints are saved and the period has elapsed.
+     */
+    private boolean isCheckpointDue() {
+	return checkpoint != null && System.nanoTime() - checkpointTime >= 0;
+    }
+
+    /**
+     * Save a checkpoint: flush the output, to the disk, and replace the
+     * checkpoint file.  Only called from the thread which writes the output.
+     *
+     * @param pairs    the number of pairs whose results have been written.
+     * @param column   the number of the boundary column of the next pair.
+     * @param boundary the costs of the boundary column, or null.
+     * @param out      the output writer.
+     *
+     * @throws IOException if the output or the checkpoint cannot be written.
+     */
+    private void saveCheckpoint(final long pairs, final int column,
+				final double[] boundary, final Writer out)
+	throws IOException {
+	out.flush();
+	outputStream.getFD().sync();
+
+	checkpoint.pairs = pairs;
+	checkpoint.outputLength = outputStream.getChannel().size();
+	checkpoint.column = column;
+	checkpoint.boundary = boundary;
+	checkpoint.write(checkpointFile);
+	checkpointTime = System.nanoTime() + checkpointPeriod * 1000000000L;
+    }
+
+    /**
+     * Write the result of an alignment.
+     *
+     * @param seq1   the first ("initial state") sequence.
+     * @param seq2   the second ("target") sequence.
+     * @param cost   the minimum cost.
+     * @param script the edit script, or null for the "cost" format.
+     * @param out    the output writer.
+     *
+     * @throws IOException if the result cannot be written.
+     */
+    private void write(final Sequence seq1, final Sequence seq2,
+		       final double cost, final EditScript script,
+		       final Writer out) throws IOException {
+	final long start = System.nanoTime();
+	final AlignmentEvents.Render event = new AlignmentEvents.Render();
+	event.begin();
+
+	switch (format) {
+	case FMT_ALIGNMENT:
+	    out.write('>');
+	    out.write(seq1.getName());
+	    out.write(" / ");
+	    out.write(seq2.getName());
+	    out.write(" cost=");
+	    out.write(String.valueOf(cost));
+	    out.write('\n');
+	    script.writeAlignment(out, seq1.getResidues(), seq2.getResidues());
+	    out.write('\n');
+	    break;
+
+	case FMT_COST:
+	case FMT_CIGAR:
+	    out.write(seq1.getName());
+	    out.write('\t');
+	    out.write(seq2.getName());
+	    out.write('\t');
+	    out.write(String.valueOf(cost));
+	    if (format == FMT_CIGAR) {
+		out.write('\t');
+		script.write(out);
+	    }
+	    out.write('\n');
+	}
+	AlignmentMetrics.get().addOutput(System.nanoTime() - start);
+
+	if (event.shouldCommit()) {
+	    event.set(seq1.length(), seq2.length(), ENGINE_NAMES[engine],
+		      (long)(seq1.length() + 1) * (long)(seq2.length() + 1));
+	    event.format = FORMAT_NAMES[format];
+	    event.commit();
+	}
+    }
+
+    /**
+     * Sketch the sequences of the gene files, in parallel.  The sketches of
+     * the last file, the database, are read from the -x file if they are up
+     * to date, and written there otherwise.
+     *
+     * @param list1 the sequences of the first gene file.
+     * @param list2 the sequences of the second gene file, or null.
+     *
+     * @throws IOException if the sketch file cannot be read or written.
+     */
+    private void sketch(final List<Sequence> list1, final List<Sequence> list2)
+	throws IOException {
+	final File database = geneFiles[geneFiles.length - 1];
+	final List<Sequence> sequences = list2 == null ? list1 : list2;
+
+	sketches2 = sketchFile == null ? null :
+	    SketchIndex.read(sketchFile, database, kmerLength,
+			     Sketch.DEFAULT_SIZE);
+	if (sketches2 == null) {
+	    sketches2 = SketchIndex.compute(database, sequences,
+					    kmerLength, Sketch.DEFAULT_SIZE,
+					    threadCount);
+	    if (sketchFile != null)
+		sketches2.write(sketchFile);
+	} else if (sketches2.getCount() != sequences.size())
+	    throw new IOException(sketchFile + ": not the sketches of " +
+				  database);
+
+	sketches1 = list2 == null ? sketches2 :
+	    SketchIndex.compute(geneFiles[0], list1, kmerLength,
+				Sketch.DEFAULT_SIZE, threadCount);
+    }
+
+    /**
+     * Count the pairs a command line aligns, without aligning them, e.g. to
+     * shard the job (see ShardQueue).  The -s option is ignored.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return the number of pairs.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid.
+     * @throws IOException              if a gene file cannot be read.
+     */
+    static long countPairs(final String[] args) throws IOException {
+	final CommandLine commandLine = new CommandLine();
+	if (!commandLine.parseArguments(args) ||
+	    commandLine.geneFiles.length == 0)
+	    throw new IllegalArgumentException("invalid arguments");
+
+	final File[] files = commandLine.geneFiles;
+	final long count1 = GeneReader.readSequences(files[0]).size();
+	if (files.length == 1)
+	    return count1 * (count1 - 1) / 2;
+
+	final long count2 = GeneReader.readSequences(files[1]).size();
+	if (commandLine.pairwise && count1 != count2)
+	    throw new IOException("the gene files do not have the same " +
+				  "number of sequences");
+	return commandLine.pairwise ? count1 : count1 * count2;
+    }
+
+    /**
+     * Sketch the database of a command line into its -x file, unless the
+     * file is up to date, e.g. once before the command line is run by
+     * several processes sharing the file (see ShardQueue).
+     *
+     * @param args the command-line arguments.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid.
+     * @throws IOException              if the gene file cannot be read, or
+     *                                  the sketch file cannot be written.
+     */
+    static void sketchDatabase(final String[] args) throws IOException {
+	final CommandLine commandLine = new CommandLine();
+	if (!commandLine.parseArguments(args) ||
+	    commandLine.geneFiles.length == 0)
+	    throw new IllegalArgumentException("invalid arguments");
+	if (commandLine.sketchFile == null)
+	    return;
+
+	final File database =
+	    commandLine.geneFiles[commandLine.geneFiles.length - 1];
+	if (SketchIndex.read(commandLine.sketchFile, database,
+			     commandLine.kmerLength,
+			     Sketch.DEFAULT_SIZE) == null)
+	    SketchIndex.compute(database, GeneReader.readSequences(database),
+				commandLine.kmerLength, Sketch.DEFAULT_SIZE,
+				commandLine.threadCount).
+		write(commandLine.sketchFile);
+    }
+
+    /**
+     * Run the batch alignment.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return the exit status.
+     */
+    int run(final String[] args) {
+	final long start = System.nanoTime();
+	JobCheckpoint resumed = null;
+
+	// Resume a job with the arguments saved in its checkpoint
+	if (args.length == 2 && args[0].equals("-R")) {
+	    try {
+		resumed = JobCheckpoint.read(new File(args[1]));
+	    } catch (IOException exception) {
+		System.err.println("genalign: " + exception.getMessage());
+		return EXIT_FAILURE;
+	    }
+	}
+
+	if (!parseArguments(resumed == null ? args : resumed.args)) {
+	    usage(System.err);
+	    return EXIT_USAGE;
+	}
+	if (resumed != null && checkpointFile == null) {
+	    System.err.println("genalign: " + args[1] + ": no checkpoint file");
+	    return EXIT_FAILURE;
+	}
+	AlignmentMetrics.register();
+	if (metricsPeriod > 0)
+	    AlignmentMetrics.get().startLog(System.err, metricsPeriod * 1000L);
+
+	try {
+	    costs = costsFile == null ? CostMatrix.compile(new Costs()) :
+		    CostMatrix.read(costsFile);
+	    if (compiledFile != null) {
+		costs.write(compiledFile);
+		if (geneFiles.length == 0)
+		    return EXIT_SUCCESS;
+	    }
+
+	    if (resumed != null) {
+		resumed.check(geneFiles, costs.getFingerprint());
+		checkpoint = resumed;
+		skippedPairs = resumed.pairs;
+		if (resumed.boundary != null) {
+		    resumedPair = resumed.pairs;
+		    resumedColumn = resumed.column;
+		    resumedBoundary = resumed.boundary;
+		}
+	    } else if (checkpointFile != null)
+		checkpoint = new JobCheckpoint(args, geneFiles,
+					       costs.getFingerprint());
+	    checkpointTime = System.nanoTime() + checkpointPeriod * 1000000000L;
+
+	    final List<Sequence> list1 = GeneReader.readSequences(geneFiles[0]);
+	    final List<Sequence> list2 = geneFiles.length > 1 ?
+		GeneReader.readSequences(geneFiles[1]) : null;
+
+	    final OutputStream stream;
+	    if (outputFile == null)
+		stream = System.out;
+	    else if (resumed == null)
+		stream = outputStream = new FileOutputStream(outputFile);
+	    else {
+		// Drop what was written after the checkpoint
+		stream = outputStream = new FileOutputStream(outputFile, true);
+		if (outputStream.getChannel().size() < resumed.outputLength) {
+		    outputStream.close();
+		    throw new IOException(outputFile + ": shorter than " +
+					  "at the checkpoint");
+		}
+		outputStream.getChannel().truncate(resumed.outputLength);
+	    }
+	    final Writer out =
+		new BufferedWriter(new OutputStreamWriter(stream));
+	    writtenPairs = skippedPairs;
+	    if (checkpoint != null)
+		saveCheckpoint(skippedPairs, resumedColumn, resumedBoundary,
+			       out);
+	    if (engine == ENG_KERNEL)
+		kernel = Kernel.get(costs);
+	    if (cacheFile != null)
+		cache = new ResultCache(ResultCache.DEFAULT_MEMORY, cacheFile);
+	    if (minSimilarity > 0.0)
+		sketch(list1, list2);
+	    final long ready = System.nanoTime();
+
+	    if (engine == ENG_SIMD &&
+		!ModuleLayer.boot().findModule("jdk.incubator.vector").
+		isPresent())
+		throw new IOException("the simd engine needs the JVM option " +
+				      "--add-modules jdk.incubator.vector");
+	    blockSize = BLOCK_SIZES[engine];
+	    if (threadCount > 1)
+		executor = Executors.newFixedThreadPool(threadCount);
+
+	    try {
+		if (pairwise) {
+		    if (list1.size() != list2.size())
+			throw new IOException("the gene files do not have " +
+					      "the same number of sequences");
+		    for (int i = 0; i < list1.size(); i++)
+			align(list1.get(i), list2.get(i), i, i, out);
+		} else if (list2 != null) {
+		    for (int i = 0; i < list1.size(); i++)
+			for (int j = 0; j < list2.size(); j++)
+			    align(list1.get(i), list2.get(j), i, j, out);
+		} else {
+		    for (int i = 0; i < list1.size(); i++)
+			for (int j = i + 1; j < list1.size(); j++)
+			    align(list1.get(i), list1.get(j), i, j, out);
+		}
+		flush(out);
+		while (!pending.isEmpty())
+		    writePending(out);
+	    } finally {
+		if (executor != null)
+		    executor.shutdownNow();
+		if (cache != null)
+		    cache.close();
+		if (outputFile == null)
+		    out.flush();
+		else
+		    out.close();
+	    }
+
+	    // The job is complete, there is nothing left to resume
+	    if (checkpointFile != null)
+		checkpointFile.delete();
+	    if (timing)
+		printTiming(start, ready, System.nanoTime());
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    return EXIT_FAILURE;
+	}
+
+	return EXIT_SUCCESS;
+    }
+
+    /**
+     * Print timing statistics to the standard error.  Startup (JVM launch and
+     * input loading) is reported separately from the alignment throughput.
+     *
+     * @param start the time the command line was entered, in nanoseconds.
+     * @param ready the time the inputs were loaded, in nanoseconds.
+     * @param end   the time the alignments were done, in nanoseconds.
+     */
+    private void printTiming(final long start, final long ready,
+			     final long end) {
+	final long jvmStartup = System.currentTimeMillis() -
+	    ManagementFactory.getRuntimeMXBean().getStartTime() -
+	    (end - start) / 1000000L;
+	final double setup = (ready - start) / 1e6;
+	final double seconds = (end - ready) / 1e9;
+
+	System.err.println("startup:    " + jvmStartup + " ms (JVM), " +
+			   setup + " ms (inputs)");
+	if (kernel != null)
+	    System.err.println("kernel:     " + kernel);
+	System.err.println("alignment:  " + pairCount + " pairs, " +
+			   cellCount + " cells in " + seconds * 1000.0 +
+			   " ms");
+	if (seconds > 0.0)
+	    System.err.println("throughput: " + pairCount / seconds +
+			       " pairs/s, " + cellCount / seconds / 1e6 +
+			       " Mcells/s");
+	if (sketches1 != null)
+	    System.err.println("sketches:   " + filteredCount + " pairs " +
+			       "filtered out (similarity < " + minSimilarity +
+			       ")");
+	System.err.println("metrics:    " + AlignmentMetrics.get());
+	if (cache != null)
+	    System.err.println("cache:      " + cache);
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) {
+	final int status = new CommandLine().run(args);
+	if (status != EXIT_SUCCESS)
+	    System.exit(status);
+    }
+}
+
+// End of File
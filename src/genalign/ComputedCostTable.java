@@ -0,0 +1,205 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: ComputedCostTable.java
+ *
+ * Description: Computed Cost Table Model
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
+
+/**
+ * Table model for the cost table computed by an aligner.
+ * @see Aligner
+ */
+public final class ComputedCostTable extends AbstractTableModel {
+    /**
+     * The aligner holding the computed table.
+     */
+    private final Aligner aligner;
+
+    /**
+     * Input strings.
+     */
+    private final char[] string1, string2;
+
+    /**
+     * Not used, but eliminates a warning.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param aligner the aligner, which must already have been computed.
+     */
+    public ComputedCostTable(final Aligner aligner) {
+	this.aligner = aligner;
+	string1 = aligner.getString1();
+	string2 = aligner.getString2();
+    }
+
+    /**
+     * Return the number of columns in the model.
+     *
+     * @return the number of columns in the model.
+     */
+    public int getColumnCount() {
+	return string1.length + 2;
+    }
+
+    /**
+     * Return the number of rows in the model.
+     *
+     * @return the number of rows in the model.
+     */
+    public int getRowCount() {
+	return string2.length + 1;
+    }
+
+    /**
+     * Return the value for the cell at (columnIndex, rowIndex).
+     *
+     * @param rowIndex    the row whose value is to be queried.
+     * @param columnIndex the column whose value is to be queried.
+     *
+     * @return the value Object at the specified cell.
+     */
+    public Object getValueAt(int rowIndex, int columnIndex) {
+	if (columnIndex == 0) {
+	    if (rowIndex == 0)
+		return new String();
+	    return String.valueOf(string2[rowIndex - 1]);
+	}
+
+	return new Double(aligner.getCost(columnIndex - 1, rowIndex));
+    }
+
+    /**
+     * Return a column name.
+     *
+     * @param columnIndex the column number.
+     *
+     * @return the column name.
+     */
+    public String getColumnName(int columnIndex) {
+	if (columnIndex < 2)
+	    return new String();
+	return String.valueOf(string1[columnIndex - 2]);
+    }
+
+    /**
+     * Return a column class.
+     *
+     * @param columnIndex the column number.
+     *
+     * @return the column class.
+     */
+    public Class getColumnClass(int columnIndex) {
+	if (columnIndex > 0)
+	    return new Double(0.0).getClass();
+	return new String().getClass();
+    }
+
+    /**
+     * Initialize the column sizes of a given table.
+     *
+     * @param table the table.
+     */
+    private void initColumnSizes(final JTable table) {
+	final TableCellRenderer headerRenderer =
+	    table.getTableHeader().getDefaultRenderer();
+
+	final TableColumn column = table.getColumnModel().getColumn(0);
+	Component comp = headerRenderer.getTableCellRendererComponent(
+			     null, column.getHeaderValue(),
+			     false, false, 0, 0);
+
+	final int headerWidth = comp.getPreferredSize().width;
+	int cellWidth;
+
+	cellWidth = 0;
+	for (int j = 0; j < getRowCount(); j++) {
+	    comp = table.getDefaultRenderer(new String().getClass()).
+		   getTableCellRendererComponent(table,
+						 getValueAt(j, 0),
+						 false, false, 0, 0);
+	    final int thisCellWidth = comp.getPreferredSize().width;
+	    if (thisCellWidth > cellWidth)
+		cellWidth = thisCellWidth;
+	}
+	column.setPreferredWidth(Math.max(headerWidth, cellWidth));
+
+	final Double data = new Double(aligner.getMaxCost());
+	comp = table.getDefaultRenderer(data.getClass()).
+	       getTableCellRendererComponent(table, data,
+					     false, false, 0, 1);
+	cellWidth = comp.getPreferredSize().width + 2;
+	for (int i = 1; i < getColumnCount(); i++)
+	    table.getColumnModel().getColumn(i).setPreferredWidth(cellWidth);
+
+	int height = 0;
+	for(int row = 0; row < getRowCount(); row++)
+	    height += table.getRowHeight(row);
+	table.setPreferredScrollableViewportSize(new Dimension(
+		table.getPreferredScrollableViewportSize().width,
+		height
+	));
+    }
+
+    /**
+     * Make a table from the computed cost table.
+     *
+     * @return the table, enclosed in a scroll pane.
+     */
+    public Component makeTable() {
+	if (!aligner.hasCostTable())
+	    return null;
+
+	final JTable table = new JTable(this);
+	initColumnSizes(table);
+	table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+	table.setDefaultRenderer(new Object().getClass(),
+				 new CostTableCellRenderer());
+
+	table.setDefaultRenderer(new Double(0).getClass(),
+				 new CostTableCellRenderer(
+				     new AlignmentPath(aligner),
+				     aligner.getMaxCost()));
+	return new JScrollPane(table);
+    }
+}
+
+// End of File
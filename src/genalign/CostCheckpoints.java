@@ -0,0 +1,276 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CostCheckpoints.java
+ *
+ * Description: Checkpointed Cost Table
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cost table kept as sparse column checkpoints: only one column every
+ * interval columns is stored while aligning, and the costs of the other
+ * columns are recomputed on demand from the previous checkpoint, by blocks of
+ * interval columns.  The last recomputed blocks are kept in a small cache.
+ * The operations which led to the cells are not stored either, but found
+ * again from the costs of the cells, so that the memory used is the
+ * checkpoints (one column every interval) plus the cache, instead of the
+ * whole cost and operations tables.
+ *
+ * The columns are the ones of the alignment loop: column j holds the costs of
+ * aligning the prefixes of the first string with the prefix of length j of
+ * the second string.
+ * @see Aligner#compute(CostMatrix, int, int)
+ */
+final class CostCheckpoints {
+    /**
+     * Input strings and costs, to recompute the columns.
+     */
+    private final char[] string1, string2;
+    private final CostMatrix costs;
+
+    /**
+     * The number of columns between two checkpoints.
+     */
+    private final int interval;
+
+    /**
+     * The checkpoint columns.
+     */
+    private final double[][] checkpoints;
+
+    /**
+     * The recomputed blocks, by block number (least recently used first).
+     */
+    private final Map<Integer, double[][]> cache;
+
+    /**
+     * The last block accessed, which is looked up first.
+     */
+    private int lastNumber = -1;
+    private double[][] lastBlock = null;
+
+    /**
+     * Constructor.
+     *
+     * @param string1   the first string.
+     * @param string2   the second string.
+     * @param costs     the operations costs.
+     * @param interval  the number of columns between two checkpoints.
+     * @param cacheSize the number of recomputed blocks to keep (at least two
+     *                  are kept, for the operations of the first column of
+     *                  a block).
+     */
+    CostCheckpoints(final char[] string1, final char[] string2,
+		    final CostMatrix costs, final int interval,
+		    final int cacheSize) {
+	this.string1 = string1;
+	this.string2 = string2;
+	this.costs = costs;
+	this.interval = interval;
+	checkpoints = new double[string2.length / interval + 1][];
+	cache = new LinkedHashMap<Integer, double[][]>(16, 0.75f, true) {
+	    private final static long serialVersionUID = 1L;
+
+	    protected boolean removeEldestEntry(
+		final Map.Entry<Integer, double[][]> eldest) {
+		return size() > Math.max(2, cacheSize);
+	    }
+	};
+    }
+
+    /**
+     * Get a suitable interval between checkpoints: the square root of the
+     * number of columns, which balances the checkpoints and block sizes.
+     *
+     * @param columns the number of columns (second string length plus one).
+     *
+     * @return the interval.
+     */
+    static int getDefaultInterval(final int columns) {
+	return Math.max(1, (int)Math.ceil(Math.sqrt(columns)));
+    }
+
+    /**
+     * Get the number of columns between two checkpoints.
+     *
+     * @return the interval.
+     */
+    int getInterval() {
+	return interval;
+    }
+
+    /**
+     * Reuse the first checkpoints of the alignment of a second string with
+     * the same prefix, and the same interval.  The checkpoint columns are
+     * never modified, so they are shared.
+     *
+     * @param previous the checkpoints of the previous alignment.
+     * @param columns  the number of common columns after the first one.
+     */
+    void reuse(final CostCheckpoints previous, final int columns) {
+	System.arraycopy(previous.checkpoints, 0, checkpoints, 0,
+			 columns / interval + 1);
+    }
+
+    /**
+     * Save a column if it is a checkpoint.  Called by the alignment loop.
+     *
+     * @param j      the column number.
+     * @param column the column costs.
+     */
+    void save(final int j, final double[] column) {
+	if (j % interval == 0) {
+	    checkpoints[j / interval] = column.clone();
+	    AlignmentMetrics.get().addTableBytes(8L * column.length);
+	}
+    }
+
+    /**
+     * Get a cell of the cost table, recomputing its block if needed.
+     * Synchronized, since the table may be read from several threads (by the
+     * table view and the heatmap renderer).
+     *
+     * @param i the position in the first string.
+     * @param j the position in the second string (column number).
+     *
+     * @return the cost of aligning the prefixes of length i and j.
+     */
+    synchronized double getCost(final int i, final int j) {
+	return getBlock(j)[j % interval][i];
+    }
+
+    /**
+     * Get a column of the cost table, recomputing its block if needed.
+     *
+     * @param j      the column number.
+     * @param column the costs of the column (output).
+     */
+    synchronized void getColumn(final int j, final double[] column) {
+	System.arraycopy(getBlock(j)[j % interval], 0, column, 0,
+			 string1.length + 1);
+    }
+
+    /**
+     * Get the operation which led to a cell of the cost table, found again
+     * by comparing its cost to the ones of its three predecessors, with the
+     * same recurrence and the same order as Aligner.compute(): since the
+     * recomputed costs are the same, so are the operations.
+     *
+     * @param i the position in the first string.
+     * @param j the position in the second string (column number).
+     *
+     * @return the operation opcode.
+     */
+    synchronized byte getOperation(final int i, final int j) {
+	if (j == 0)
+	    return i == 0 ? Aligner.OPR_END : Aligner.OPR_DEL;
+	if (i == 0)
+	    return Aligner.OPR_INS;
+
+	final double[] column = getBlock(j - 1)[(j - 1) % interval];
+	final double[] next = getBlock(j)[j % interval];
+	final char chr1 = string1[i - 1], chr2 = string2[j - 1];
+	final double subVal = column[i - 1] + costs.getSub(chr1, chr2);
+	final double delVal = next[i - 1] + costs.getDel(chr1);
+	final double insVal = column[i] + costs.getIns(chr2);
+	final double minVal = Math.min(Math.min(insVal, delVal), subVal);
+
+	if (minVal == insVal)
+	    return Aligner.OPR_INS;
+	else if (minVal == delVal)
+	    return Aligner.OPR_DEL;
+	else
+	    return Aligner.OPR_SUB;
+    }
+
+    /**
+     * Get the block of a column, recomputing it if needed.
+     *
+     * @param j the column number.
+     *
+     * @return the columns of the block.
+     */
+    private double[][] getBlock(final int j) {
+	final int number = j / interval;
+
+	if (number != lastNumber) {
+	    final Integer key = Integer.valueOf(number);
+	    double[][] block = cache.get(key);
+	    if (block == null) {
+		block = recompute(number);
+		cache.put(key, block);
+	    }
+	    lastNumber = number;
+	    lastBlock = block;
+	}
+
+	return lastBlock;
+    }
+
+    /**
+     * Recompute a block of columns from its checkpoint, with the same
+     * recurrence as Aligner.compute().
+     *
+     * @param number the block number.
+     *
+     * @return the columns of the block.
+     */
+    private double[][] recompute(final int number) {
+	final int first = number * interval;
+	final int count = Math.min(interval, string2.length + 1 - first);
+	final int length1 = string1.length;
+	final double[][] block = new double[count][];
+	AlignmentMetrics.get().addTableBytes(8L * (count - 1) * (length1 + 1));
+
+	block[0] = checkpoints[number];
+	for (int k = 1; k < count; k++) {
+	    final double[] column = block[k - 1];
+	    final double[] next = new double[length1 + 1];
+	    final char chr2 = string2[first + k - 1];
+	    final double insCost = costs.getIns(chr2);
+
+	    next[0] = column[0] + insCost;
+	    for (int i = 0; i < length1; i++) {
+		final double subVal = column[i] +
+				      costs.getSub(string1[i], chr2);
+		final double delVal = next[i] + costs.getDel(string1[i]);
+		final double insVal = column[i + 1] + insCost;
+		next[i + 1] = Math.min(Math.min(insVal, delVal), subVal);
+	    }
+	    block[k] = next;
+	}
+
+	return block;
+    }
+}
+
+// End of File
@@ -0,0 +1,594 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CostHeatmap.java
+ *
+ * Description: Zoomable Cost Table Heatmap
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.text.NumberFormat;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+
+/**
+ * Zoomable heatmap of a computed cost table, with the optimal path
+ * overlaid.
+ *
+ * The heatmap is drawn from a {@link CostPyramid}: at each zoom level, the
+ * pyramid level with about one cell per pixel is rendered by tiles into
+ * images, in a background thread, and the tiles are kept in a small cache.
+ * The cell values are only written when the cells are large enough.
+ */
+public final class CostHeatmap extends JComponent implements Scrollable {
+    /**
+     * Some standard colors.
+     */
+    private final static Color NORMAL_BG =
+	UIManager.getColor("Table.background");
+    private final static Color NORMAL_FG =
+	UIManager.getColor("Table.foreground");
+    private final static Color SELECTED_BG =
+	UIManager.getColor("Table.selectionBackground");
+
+    /**
+     * The tile size, in pixels.
+     */
+    private final static int TILE_SIZE = 256;
+
+    /**
+     * The maximum number of cached tiles.
+     */
+    private final static int TILE_CACHE_SIZE = 96;
+
+    /**
+     * The maximum zoom (log2 of the pixels per cell), and the zoom from
+     * which the cell values are written.
+     */
+    private final static int MAX_ZOOM = 6, TEXT_ZOOM = 5;
+
+    /**
+     * The size the heatmap initially fits in, in pixels.
+     */
+    private final static int INITIAL_SIZE = 1024;
+
+    /**
+     * The number of colors of the cost gradient.
+     */
+    private final static int GRADIENT_SIZE = 256;
+
+    /**
+     * The thread rendering the tiles of all the heatmaps.
+     */
+    private final static ExecutorService renderer =
+	Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    public Thread newThread(final Runnable runnable) {
+		final Thread thread = new Thread(runnable, "heatmap renderer");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+
+    /**
+     * The cost table pyramid.
+     */
+    private final CostPyramid pyramid;
+
+    /**
+     * The cost gradient, from 0 to the maximum cost (RGB values).
+     */
+    private final int[] gradient = new int[GRADIENT_SIZE];
+
+    /**
+     * The current zoom: log2 of the number of pixels per cell.
+     */
+    private volatile int zoom = 0;
+
+    /**
+     * The rendered tiles (least recently used first), and the tiles being
+     * rendered.  Only accessed from the event dispatch thread.
+     */
+    private final Map<Long, BufferedImage> tiles =
+	new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+	    private final static long serialVersionUID = 1L;
+
+	    protected boolean removeEldestEntry(
+		final Map.Entry<Long, BufferedImage> eldest) {
+		return size() > TILE_CACHE_SIZE;
+	    }
+	};
+    private final Set<Long> requested = new HashSet<Long>();
+
+    /**
+     * The cell values formatter.
+     */
+    private final NumberFormat format = NumberFormat.getInstance();
+
+    /**
+     * Not used, but eliminates a warning.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param pyramid the cost table pyramid.
+     */
+    CostHeatmap(final CostPyramid pyramid) {
+	this.pyramid = pyramid;
+
+	final Color dark = NORMAL_BG.darker();
+	for (int k = 0; k < GRADIENT_SIZE; k++) {
+	    final double ratio = k / (double)(GRADIENT_SIZE - 1);
+	    gradient[k] = blend(dark, NORMAL_BG, ratio).getRGB() & 0xffffff;
+	}
+
+	final int size = Math.max(pyramid.getWidth(0), pyramid.getHeight(0));
+	zoom = MAX_ZOOM;
+	while (zoom > getMinZoom() && scaled(size, zoom) > INITIAL_SIZE)
+	    zoom--;
+
+	setBackground(NORMAL_BG);
+	setOpaque(true);
+	updateSize();
+
+	addMouseWheelListener(new MouseWheelListener() {
+	    public void mouseWheelMoved(final MouseWheelEvent e) {
+		if (e.isControlDown())
+		    setZoom(zoom - e.getWheelRotation(), e.getPoint());
+		else
+		    getParent().dispatchEvent(
+			SwingUtilities.convertMouseEvent(CostHeatmap.this, e,
+							 getParent()));
+	    }
+	});
+    }
+
+    /**
+     * Blend two colors.
+     *
+     * @param color1 the first color.
+     * @param color2 the second color.
+     * @param ratio  the blending ratio (1 for the first color).
+     *
+     * @return the resulting color.
+     */
+    private static Color blend(final Color color1, final Color color2,
+			       final double ratio) {
+	return new Color((int)(color1.getRed() * ratio +
+			       color2.getRed() * (1.0 - ratio) + 0.5),
+			 (int)(color1.getGreen() * ratio +
+			       color2.getGreen() * (1.0 - ratio) + 0.5),
+			 (int)(color1.getBlue() * ratio +
+			       color2.getBlue() * (1.0 - ratio) + 0.5));
+    }
+
+    /**
+     * Make a heatmap view: the heatmap in a scroll pane, with zoom buttons.
+     *
+     * @return the view.
+     */
+    public Component makeView() {
+	final JScrollPane scrollPane = new JScrollPane(this);
+	final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+	final JPanel view = new JPanel(new BorderLayout());
+
+	buttons.add(makeZoomButton("Zoom in", 1));
+	buttons.add(makeZoomButton("Zoom out", -1));
+	buttons.add(makeZoomButton("Fit", 0));
+	view.add(buttons, BorderLayout.NORTH);
+	view.add(scrollPane, BorderLayout.CENTER);
+	return view;
+    }
+
+    /**
+     * Make a zoom button.
+     *
+     * @param text  the button text.
+     * @param delta the zoom change, or 0 to fit the whole table.
+     *
+     * @return the button.
+     */
+    private JButton makeZoomButton(final String text, final int delta) {
+	final JButton button = new JButton(text);
+	button.addActionListener(new ActionListener() {
+	    public void actionPerformed(final ActionEvent e) {
+		final Rectangle visible = getVisibleRect();
+		if (delta != 0)
+		    setZoom(zoom + delta,
+			    new Point(visible.x + visible.width / 2,
+				      visible.y + visible.height / 2));
+		else
+		    fit(visible.width, visible.height);
+	    }
+	});
+	return button;
+    }
+
+    /**
+     * Zoom out until the whole table fits in a given size.
+     *
+     * @param width  the available width.
+     * @param height the available height.
+     */
+    private void fit(final int width, final int height) {
+	int fitZoom = MAX_ZOOM;
+	while (fitZoom > getMinZoom() &&
+	       (scaled(pyramid.getWidth(0), fitZoom) > width ||
+		scaled(pyramid.getHeight(0), fitZoom) > height))
+	    fitZoom--;
+	setZoom(fitZoom, new Point(0, 0));
+    }
+
+    /**
+     * Get the minimum zoom, at which the top level of the pyramid is shown
+     * with one pixel per cell.
+     *
+     * @return the minimum zoom.
+     */
+    private int getMinZoom() {
+	return 1 - pyramid.getLevelCount();
+    }
+
+    /**
+     * Scale a number of cells to a number of pixels.
+     *
+     * @param cells the number of cells.
+     * @param zoom  the zoom.
+     *
+     * @return the number of pixels.
+     */
+    private static int scaled(final int cells, final int zoom) {
+	if (zoom >= 0)
+	    return cells << zoom;
+	return (cells + (1 << -zoom) - 1) >> -zoom;
+    }
+
+    /**
+     * Change the zoom, keeping a point of the heatmap in place.
+     *
+     * @param newZoom the new zoom.
+     * @param anchor  the point to keep in place, in pixels.
+     */
+    private void setZoom(int newZoom, final Point anchor) {
+	newZoom = Math.max(getMinZoom(), Math.min(MAX_ZOOM, newZoom));
+	if (newZoom == zoom)
+	    return;
+
+	final int oldZoom = zoom;
+	zoom = newZoom;
+	tiles.clear();
+	requested.clear();
+	updateSize();
+
+	if (getParent() instanceof JViewport) {
+	    final JViewport viewport = (JViewport)getParent();
+	    final Point position = viewport.getViewPosition();
+	    final double factor = Math.pow(2.0, newZoom - oldZoom);
+	    position.x = Math.max(0, (int)((anchor.x * factor) -
+					   (anchor.x - position.x)));
+	    position.y = Math.max(0, (int)((anchor.y * factor) -
+					   (anchor.y - position.y)));
+	    viewport.setViewPosition(position);
+	}
+	repaint();
+    }
+
+    /**
+     * Update the component size for the current zoom.
+     */
+    private void updateSize() {
+	setPreferredSize(new Dimension(scaled(pyramid.getWidth(0), zoom),
+				       scaled(pyramid.getHeight(0), zoom)));
+	revalidate();
+    }
+
+    /**
+     * Paint the visible tiles, the path and, when zoomed in, the values.
+     *
+     * @param g the graphics context.
+     */
+    protected void paintComponent(final Graphics g) {
+	final Rectangle clip = g.getClipBounds();
+	g.setColor(getBackground());
+	g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+	for (int ty = clip.y / TILE_SIZE;
+	     ty <= (clip.y + clip.height - 1) / TILE_SIZE; ty++)
+	    for (int tx = clip.x / TILE_SIZE;
+		 tx <= (clip.x + clip.width - 1) / TILE_SIZE; tx++) {
+		final Long key = Long.valueOf(tileKey(zoom, tx, ty));
+		final BufferedImage tile = tiles.get(key);
+
+		if (tile != null)
+		    g.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+		else if (requested.add(key))
+		    requestTile(zoom, tx, ty, key);
+	    }
+
+	paintPath(g, clip);
+	if (zoom >= TEXT_ZOOM)
+	    paintValues(g, clip);
+    }
+
+    /**
+     * Get the cache key of a tile.
+     *
+     * @param zoom the zoom.
+     * @param tx   the tile column.
+     * @param ty   the tile row.
+     *
+     * @return the key.
+     */
+    private static long tileKey(final int zoom, final int tx, final int ty) {
+	return ((long)(zoom + 64) << 48) | ((long)tx << 24) | ty;
+    }
+
+    /**
+     * Render a tile in the background, then store it and repaint it.
+     *
+     * @param tileZoom the zoom of the tile.
+     * @param tx       the tile column.
+     * @param ty       the tile row.
+     * @param key      the tile key.
+     */
+    private void requestTile(final int tileZoom, final int tx, final int ty,
+			     final Long key) {
+	renderer.execute(new Runnable() {
+	    public void run() {
+		// The zoom may have changed since the tile was requested
+		if (zoom != tileZoom)
+		    return;
+
+		final BufferedImage tile = renderTile(tileZoom, tx, ty);
+		SwingUtilities.invokeLater(new Runnable() {
+		    public void run() {
+			if (zoom != tileZoom || !requested.remove(key))
+			    return;
+			tiles.put(key, tile);
+			repaint(tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE,
+				TILE_SIZE);
+		    }
+		});
+	    }
+	});
+    }
+
+    /**
+     * Render a tile.
+     *
+     * @param tileZoom the zoom of the tile.
+     * @param tx       the tile column.
+     * @param ty       the tile row.
+     *
+     * @return the tile image.
+     */
+    private BufferedImage renderTile(final int tileZoom, final int tx,
+				     final int ty) {
+	final BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+						     BufferedImage.TYPE_INT_RGB);
+	final int[] pixels =
+	    ((DataBufferInt)tile.getRaster().getDataBuffer()).getData();
+
+	// Pick the level with at least one pixel per cell
+	final int level = Math.max(0, -tileZoom);
+	final int shift = tileZoom + level;
+	final int width = pyramid.getWidth(level);
+	final int height = pyramid.getHeight(level);
+	final double max = pyramid.getMaxCost();
+	final double scale = max > 0.0 ? (GRADIENT_SIZE - 1) / max : 0.0;
+	final int background = NORMAL_BG.getRGB() & 0xffffff;
+
+	for (int py = 0; py < TILE_SIZE; py++) {
+	    final int y = (ty * TILE_SIZE + py) >> shift;
+	    int cached = -1, color = background;
+
+	    for (int px = 0; px < TILE_SIZE; px++) {
+		final int x = (tx * TILE_SIZE + px) >> shift;
+
+		if (x != cached) {
+		    cached = x;
+		    if (x >= width || y >= height)
+			color = background;
+		    else {
+			final int k = (int)(pyramid.getValue(level, x, y) *
+					    scale);
+			color = gradient[Math.max(0, Math.min(GRADIENT_SIZE - 1,
+							      k))];
+		    }
+		}
+		pixels[py * TILE_SIZE + px] = color;
+	    }
+	}
+
+	return tile;
+    }
+
+    /**
+     * Paint the optimal path over the heatmap.  Only the segment of the
+     * path whose cells can be in the clip is followed, as a tile repaint
+     * would otherwise go over the whole path of a large table.
+     *
+     * @param g    the graphics context.
+     * @param clip the area to paint.
+     */
+    private void paintPath(final Graphics g, final Rectangle clip) {
+	final AlignmentPath path = pyramid.getPath();
+	final int zoom = this.zoom;
+	final int cell = zoom >= 0 ? 1 << zoom : 1;
+	final int from = path.find(Math.max(0, toCell(clip.x - cell, zoom)),
+				   Math.max(0, toCell(clip.y - cell, zoom)));
+	final int to = Math.min(path.find(toCell(clip.x + clip.width + cell,
+						 zoom), 0),
+				path.find(0, toCell(clip.y + clip.height + cell,
+						    zoom)));
+
+	g.setColor(SELECTED_BG);
+	for (int k = from; k < to; k++) {
+	    final int x = zoom >= 0 ? path.getPosition1(k) << zoom :
+				      path.getPosition1(k) >> -zoom;
+	    final int y = zoom >= 0 ? path.getPosition2(k) << zoom :
+				      path.getPosition2(k) >> -zoom;
+
+	    if (x + cell >= clip.x && x <= clip.x + clip.width &&
+		y + cell >= clip.y && y <= clip.y + clip.height) {
+		if (cell > 2)
+		    g.drawRect(x, y, cell - 1, cell - 1);
+		else
+		    g.fillRect(x, y, cell, cell);
+	    }
+	}
+    }
+
+    /**
+     * Get the first table position shown at a pixel coordinate.
+     *
+     * @param pixel the pixel coordinate.
+     * @param zoom  the zoom.
+     *
+     * @return the table position.
+     */
+    private static int toCell(final int pixel, final int zoom) {
+	return zoom >= 0 ? pixel >> zoom : pixel << -zoom;
+    }
+
+    /**
+     * Write the full resolution cell values.
+     *
+     * @param g    the graphics context.
+     * @param clip the area to paint.
+     */
+    private void paintValues(final Graphics g, final Rectangle clip) {
+	final FontMetrics metrics = g.getFontMetrics();
+	final int cell = 1 << zoom;
+	final int x0 = clip.x >> zoom, y0 = clip.y >> zoom;
+	final int x1 = Math.min(pyramid.getWidth(0) - 1,
+				(clip.x + clip.width) >> zoom);
+	final int y1 = Math.min(pyramid.getHeight(0) - 1,
+				(clip.y + clip.height) >> zoom);
+
+	g.setColor(NORMAL_FG);
+	for (int y = y0; y <= y1; y++)
+	    for (int x = x0; x <= x1; x++) {
+		final String text = format.format(pyramid.getValue(0, x, y));
+		g.drawString(text,
+			     (x << zoom) + cell - 2 - metrics.stringWidth(text),
+			     (y << zoom) + (cell + metrics.getAscent()) / 2);
+	    }
+    }
+
+    /**
+     * Get the preferred size of the viewport.
+     *
+     * @return the preferred size.
+     */
+    public Dimension getPreferredScrollableViewportSize() {
+	return getPreferredSize();
+    }
+
+    /**
+     * Get the unit scrolling increment: one cell, or 16 pixels if the cells
+     * are smaller.
+     *
+     * @param visibleRect the visible area.
+     * @param orientation the scrolling orientation.
+     * @param direction   the scrolling direction.
+     *
+     * @return the increment.
+     */
+    public int getScrollableUnitIncrement(final Rectangle visibleRect,
+					  final int orientation,
+					  final int direction) {
+	return zoom >= 4 ? 1 << zoom : 16;
+    }
+
+    /**
+     * Get the block scrolling increment: most of the visible area.
+     *
+     * @param visibleRect the visible area.
+     * @param orientation the scrolling orientation.
+     * @param direction   the scrolling direction.
+     *
+     * @return the increment.
+     */
+    public int getScrollableBlockIncrement(final Rectangle visibleRect,
+					   final int orientation,
+					   final int direction) {
+	return (orientation == SwingConstants.VERTICAL ? visibleRect.height :
+		visibleRect.width) * 9 / 10;
+    }
+
+    /**
+     * Wether the heatmap width tracks the viewport width.
+     *
+     * @return false.
+     */
+    public boolean getScrollableTracksViewportWidth() {
+	return false;
+    }
+
+    /**
+     * Wether the heatmap height tracks the viewport height.
+     *
+     * @return false.
+     */
+    public boolean getScrollableTracksViewportHeight() {
+	return false;
+    }
+}
+
+// End of File
@@ -0,0 +1,495 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CostMatrix.java
+ *
+ * Description: Compiled Cost Table
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Compiled cost table: dense insertion and deletion cost vectors and
+ * substitution cost matrix over an alphabet, plus the default costs for the
+ * characters outside of it.
+ *
+ * A compiled table can be saved in a compact binary form which is memory
+ * mapped when read back, so that the costs are used directly from the file
+ * without any parsing.
+ *
+ * Instances are immutable: every field is final and the buffers are only read
+ * with absolute gets once built, so a cost matrix is safely published by its
+ * construction and can be shared by any number of alignment threads without
+ * locking.
+ * @see Costs
+ */
+public final class CostMatrix {
+    /**
+     * Binary file magic number ("GACM") and format version.
+     */
+    private final static int MAGIC = 0x4d434147, VERSION = 1;
+
+    /**
+     * Binary file header size: magic, version, alphabet size, padding and
+     * the four default costs.
+     */
+    private final static int HEADER_SIZE = 16 + 4 * 8;
+
+    /**
+     * Byte order of the binary files.
+     */
+    private final static ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Maximum alphabet size: the binary form is read and written through a
+     * single byte buffer, whose size is an int.
+     */
+    private final static int MAX_SIZE = 16000;
+
+    /**
+     * The alphabet, and the index of each character in it (or -1).
+     */
+    private final char[] alphabet;
+    private final int[] index;
+    private final int size;
+
+    /**
+     * The default costs, for characters outside of the alphabet.
+     */
+    private final double defaultIns, defaultDel,
+			 defaultSubSame, defaultSubDiff;
+
+    /**
+     * The cost vectors and the substitution matrix (row-major, indexed by the
+     * first string character then the second string character).
+     */
+    private final DoubleBuffer insertions, deletions, substitutions;
+
+    /**
+     * Fingerprint of the costs (see getFingerprint()).
+     */
+    private final long fingerprint;
+
+    /**
+     * Constructor.
+     *
+     * @param alphabet      the sorted alphabet.
+     * @param defaults      the default insertion, deletion, same character
+     *                      substitution and different character
+     *                      substitution costs.
+     * @param insertions    the insertion costs.
+     * @param deletions     the deletion costs.
+     * @param substitutions the substitution costs.
+     */
+    private CostMatrix(final char[] alphabet, final double[] defaults,
+		       final DoubleBuffer insertions,
+		       final DoubleBuffer deletions,
+		       final DoubleBuffer substitutions) {
+	this.alphabet = alphabet;
+	size = alphabet.length;
+	index = new int[size == 0 ? 0 : alphabet[size - 1] + 1];
+	for (int i = 0; i < index.length; i++)
+	    index[i] = -1;
+	for (int i = 0; i < size; i++)
+	    index[alphabet[i]] = i;
+
+	defaultIns = defaults[0];
+	defaultDel = defaults[1];
+	defaultSubSame = defaults[2];
+	defaultSubDiff = defaults[3];
+
+	this.insertions = insertions;
+	this.deletions = deletions;
+	this.substitutions = substitutions;
+	fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Compute the fingerprint of the costs: a 64-bit FNV-1a hash of the
+     * alphabet, default costs and cost values.
+     *
+     * @return the fingerprint.
+     */
+    private long computeFingerprint() {
+	long hash = 0xcbf29ce484222325L;
+
+	hash = (hash ^ size) * 0x100000001b3L;
+	for (int i = 0; i < size; i++)
+	    hash = (hash ^ alphabet[i]) * 0x100000001b3L;
+	hash = (hash ^ Double.doubleToLongBits(defaultIns)) * 0x100000001b3L;
+	hash = (hash ^ Double.doubleToLongBits(defaultDel)) * 0x100000001b3L;
+	hash = (hash ^ Double.doubleToLongBits(defaultSubSame)) *
+	       0x100000001b3L;
+	hash = (hash ^ Double.doubleToLongBits(defaultSubDiff)) *
+	       0x100000001b3L;
+	for (int i = 0; i < size; i++) {
+	    hash = (hash ^ Double.doubleToLongBits(insertions.get(i))) *
+		   0x100000001b3L;
+	    hash = (hash ^ Double.doubleToLongBits(deletions.get(i))) *
+		   0x100000001b3L;
+	}
+	for (int i = 0; i < size * size; i++)
+	    hash = (hash ^ Double.doubleToLongBits(substitutions.get(i))) *
+		   0x100000001b3L;
+	return hash;
+    }
+
+    /**
+     * Compile a cost table from editable costs.  Only the values already
+     * merged into the costs are taken into account.
+     *
+     * @param costs the costs.
+     *
+     * @return the compiled cost table.
+     */
+    public static CostMatrix compile(final Costs costs) {
+	final AlignmentEvents.CostCompilation event =
+	    new AlignmentEvents.CostCompilation();
+	event.begin();
+	final char[] alphabet = costs.getAlphabet();
+	final int size = alphabet.length;
+	if (size > MAX_SIZE)
+	    throw new IllegalArgumentException(size + " characters have " +
+					       "specific costs, at most " +
+					       MAX_SIZE + " are supported");
+	final double[] ins = new double[size];
+	final double[] del = new double[size];
+	final double[] sub = new double[size * size];
+
+	for (int i = 0; i < size; i++) {
+	    ins[i] = costs.getIns(alphabet[i]);
+	    del[i] = costs.getDel(alphabet[i]);
+	    for (int j = 0; j < size; j++)
+		sub[i * size + j] = costs.getSub(alphabet[i], alphabet[j]);
+	}
+
+	final double[] defaults = {
+	    costs.defaultIns, costs.defaultDel,
+	    costs.defaultSubSame, costs.defaultSubDiff
+	};
+	final CostMatrix matrix =
+	    new CostMatrix(alphabet, defaults, DoubleBuffer.wrap(ins),
+			   DoubleBuffer.wrap(del), DoubleBuffer.wrap(sub));
+	commit(event, "costs", size);
+	return matrix;
+    }
+
+    /**
+     * Commit a cost compilation event, if it is enabled.
+     *
+     * @param event        the event, begun at the start of the compilation.
+     * @param kind         what was compiled ("costs", "file" or "kernel").
+     * @param alphabetSize the size of the alphabet of the table.
+     */
+    static void commit(final AlignmentEvents.CostCompilation event,
+		       final String kind, final int alphabetSize) {
+	if (event.shouldCommit()) {
+	    event.kind = kind;
+	    event.alphabetSize = alphabetSize;
+	    event.commit();
+	}
+    }
+
+    /**
+     * Read a cost table file, either in the binary form (which is memory
+     * mapped) or in the text form (see Costs.read()).
+     *
+     * @param file the file to read.
+     *
+     * @return the compiled cost table.
+     *
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static CostMatrix read(final File file) throws IOException {
+	final DataInputStream input =
+	    new DataInputStream(new FileInputStream(file));
+	boolean binary;
+
+	try {
+	    binary = Integer.reverseBytes(input.readInt()) == MAGIC;
+	} catch (EOFException exception) {
+	    binary = false;
+	} finally {
+	    input.close();
+	}
+
+	if (binary)
+	    return map(file);
+
+	final Costs costs = new Costs();
+	costs.read(file);
+	return compile(costs);
+    }
+
+    /**
+     * Map a binary cost table file into memory.
+     *
+     * @param file the file to map.
+     *
+     * @return the compiled cost table, backed by the mapped file.
+     *
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static CostMatrix map(final File file) throws IOException {
+	final AlignmentEvents.CostCompilation event =
+	    new AlignmentEvents.CostCompilation();
+	event.begin();
+	final RandomAccessFile raf = new RandomAccessFile(file, "r");
+	final ByteBuffer buffer;
+
+	try {
+	    final FileChannel channel = raf.getChannel();
+	    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				 channel.size()).order(ORDER);
+	} finally {
+	    raf.close();
+	}
+
+	if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+	    throw new IOException(file + ": not a binary cost table");
+	if (buffer.getInt(4) != VERSION)
+	    throw new IOException(file + ": unsupported cost table version");
+
+	final int size = buffer.getInt(8);
+	if (size < 0 || size > MAX_SIZE)
+	    throw new IOException(file + ": invalid cost table size");
+	if (buffer.capacity() != getFileSize(size))
+	    throw new IOException(file + ": truncated cost table");
+	final int valuesSize = (int)(getFileSize(size) - HEADER_SIZE -
+				     size * 2L);
+
+	final double[] defaults = new double[4];
+	for (int i = 0; i < defaults.length; i++)
+	    defaults[i] = buffer.getDouble(16 + i * 8);
+
+	final char[] alphabet = new char[size];
+	for (int i = 0; i < size; i++)
+	    alphabet[i] = buffer.getChar(HEADER_SIZE + valuesSize + i * 2);
+	for (int i = 1; i < size; i++)
+	    if (alphabet[i] <= alphabet[i - 1])
+		throw new IOException(file + ": unsorted cost table alphabet");
+
+	final CostMatrix matrix =
+	    new CostMatrix(alphabet, defaults,
+			   slice(buffer, HEADER_SIZE, size),
+			   slice(buffer, HEADER_SIZE + size * 8, size),
+			   slice(buffer, HEADER_SIZE + size * 16, size * size));
+	commit(event, "file", size);
+	return matrix;
+    }
+
+    /**
+     * Get the size of the binary form of a cost table.
+     *
+     * @param size the alphabet size.
+     *
+     * @return the size of the file, in bytes.
+     */
+    private static long getFileSize(final int size) {
+	return HEADER_SIZE + (2L + size) * size * 8L + size * 2L;
+    }
+
+    /**
+     * Get a view of a part of a byte buffer as doubles.
+     *
+     * @param buffer the byte buffer.
+     * @param offset the offset of the first double, in bytes.
+     * @param count  the number of doubles.
+     *
+     * @return the double buffer.
+     */
+    private static DoubleBuffer slice(final ByteBuffer buffer,
+				      final int offset, final int count) {
+	final ByteBuffer view = buffer.duplicate().order(ORDER);
+	view.position(offset);
+	view.limit(offset + count * 8);
+	return view.slice().order(ORDER).asDoubleBuffer();
+    }
+
+    /**
+     * Write the cost table in its binary form.
+     *
+     * @param file the file to write.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(final File file) throws IOException {
+	final ByteBuffer buffer =
+	    ByteBuffer.allocate((int)getFileSize(size)).order(ORDER);
+
+	buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0);
+	buffer.putDouble(defaultIns).putDouble(defaultDel);
+	buffer.putDouble(defaultSubSame).putDouble(defaultSubDiff);
+	for (int i = 0; i < size; i++)
+	    buffer.putDouble(insertions.get(i));
+	for (int i = 0; i < size; i++)
+	    buffer.putDouble(deletions.get(i));
+	for (int i = 0; i < size * size; i++)
+	    buffer.putDouble(substitutions.get(i));
+	for (int i = 0; i < size; i++)
+	    buffer.putChar(alphabet[i]);
+	buffer.flip();
+
+	final FileOutputStream output = new FileOutputStream(file);
+	try {
+	    output.getChannel().write(buffer);
+	} finally {
+	    output.close();
+	}
+    }
+
+    /**
+     * Get a fingerprint of the costs: identical tables, wether compiled or
+     * mapped, have the same fingerprint, and different tables almost
+     * certainly have different ones.
+     *
+     * @return the 64-bit fingerprint.
+     */
+    public long getFingerprint() {
+	return fingerprint;
+    }
+
+    /**
+     * Check wether another cost table has exactly the same costs.
+     *
+     * @param object the other cost table.
+     *
+     * @return wether the tables are identical.
+     */
+    public boolean equals(final Object object) {
+	if (object == this)
+	    return true;
+	if (!(object instanceof CostMatrix))
+	    return false;
+
+	final CostMatrix other = (CostMatrix)object;
+	return fingerprint == other.fingerprint &&
+	       Arrays.equals(alphabet, other.alphabet) &&
+	       Double.compare(defaultIns, other.defaultIns) == 0 &&
+	       Double.compare(defaultDel, other.defaultDel) == 0 &&
+	       Double.compare(defaultSubSame, other.defaultSubSame) == 0 &&
+	       Double.compare(defaultSubDiff, other.defaultSubDiff) == 0 &&
+	       insertions.equals(other.insertions) &&
+	       deletions.equals(other.deletions) &&
+	       substitutions.equals(other.substitutions);
+    }
+
+    /**
+     * Get a hash code consistent with equals().
+     *
+     * @return the hash code, derived from the fingerprint.
+     */
+    public int hashCode() {
+	return (int)(fingerprint ^ fingerprint >>> 32);
+    }
+
+    /**
+     * Get the alphabet.  The array is shared and must not be modified.
+     *
+     * @return the sorted alphabet.
+     */
+    char[] getAlphabet() {
+	return alphabet;
+    }
+
+    /**
+     * Get the default costs, for the characters outside of the alphabet.
+     *
+     * @return the default insertion, deletion, same character substitution
+     *         and different character substitution costs.
+     */
+    double[] getDefaults() {
+	return new double[] {
+	    defaultIns, defaultDel, defaultSubSame, defaultSubDiff
+	};
+    }
+
+    /**
+     * Get the index of a character in the alphabet.
+     *
+     * @param chr the character.
+     *
+     * @return the index, or -1 if the character is not in the alphabet.
+     */
+    private int indexOf(final char chr) {
+	return chr < index.length ? index[chr] : -1;
+    }
+
+    /**
+     * Get the insertion cost for a specific character.
+     *
+     * @param chr the caracter.
+     *
+     * @return the insertion cost.
+     */
+    public double getIns(final char chr) {
+	final int i = indexOf(chr);
+	return i < 0 ? defaultIns : insertions.get(i);
+    }
+
+    /**
+     * Get the deletion cost for a specific character.
+     *
+     * @param chr the caracter.
+     *
+     * @return the deletion cost.
+     */
+    public double getDel(final char chr) {
+	final int i = indexOf(chr);
+	return i < 0 ? defaultDel : deletions.get(i);
+    }
+
+    /**
+     * Get the substitution cost for two specific characters.
+     *
+     * @param chr1 the first caracter.
+     * @param chr2 the second caracter.
+     *
+     * @return the substitution cost.
+     */
+    public double getSub(final char chr1, final char chr2) {
+	final int i = indexOf(chr1), j = indexOf(chr2);
+	if (i < 0 || j < 0)
+	    return chr1 == chr2 ? defaultSubSame : defaultSubDiff;
+	return substitutions.get(i * size + j);
+    }
+}
+
+// End of File
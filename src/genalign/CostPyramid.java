@@ -0,0 +1,248 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: CostPyramid.java
+ *
+ * Description: Multi-Resolution Cost Table
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Multi-resolution (mipmap) pyramid of a computed cost table: level 0 is the
+ * table itself, and each level above averages the 2x2 cells of the level
+ * below, until the whole table fits in a few pixels.
+ *
+ * The levels are built by streaming the columns of the table (the rows of
+ * level 0) up through the levels, which only keeps one pending row per
+ * level, so that a table recomputed from checkpoints is read once, block by
+ * block.  Only the levels with at most MAX_STORED_CELLS cells are stored;
+ * the values of the levels below them are averaged again when read.
+ *
+ * Built once, possibly in a worker thread, which is then cancelled by
+ * interrupting it; immutable afterwards.
+ * @see CostHeatmap
+ */
+final class CostPyramid {
+    /**
+     * The size under which no further level is built.
+     */
+    private final static int MIN_SIZE = 64;
+
+    /**
+     * The number of cells above which a level is not stored.
+     */
+    private final static int MAX_STORED_CELLS = 1 << 22;
+
+    /**
+     * The aligner holding the level 0 table.
+     */
+    private final Aligner aligner;
+
+    /**
+     * The levels above 0 (levels[k - 1] is level k), row by row, or null for
+     * the levels which are not stored.
+     */
+    private final float[][] levels;
+
+    /**
+     * The width (first string length plus one) and height (second string
+     * length plus one) of level 0.
+     */
+    private final int width, height;
+
+    /**
+     * The path of the optimal alignment.
+     */
+    private final AlignmentPath path;
+
+    /**
+     * Constructor.
+     *
+     * @param aligner the aligner, which must hold its computed cost table.
+     *
+     * @throws CancellationException if the thread is interrupted.
+     */
+    CostPyramid(final Aligner aligner) {
+	this.aligner = aligner;
+	width = aligner.getString1().length + 1;
+	height = aligner.getString2().length + 1;
+	path = new AlignmentPath(aligner);
+
+	int count = 0;
+	for (int size = Math.max(width, height); size > MIN_SIZE;
+	     size = (size + 1) / 2)
+	    count++;
+	levels = new float[count][];
+	for (int level = 1; level <= count; level++)
+	    if ((long)getWidth(level) * getHeight(level) <= MAX_STORED_CELLS)
+		levels[level - 1] = new float[getWidth(level) *
+					      getHeight(level)];
+
+	final double[][] pending = new double[count][];
+	for (int y = 0; y < height; y++) {
+	    if (Thread.currentThread().isInterrupted())
+		throw new CancellationException("heatmap cancelled");
+
+	    double[] row = new double[width];
+	    aligner.getColumn(y, row);
+	    for (int level = 1; level <= count && row != null; level++)
+		row = reduce(level, y >> (level - 1), row, pending);
+	}
+    }
+
+    /**
+     * Reduce a row of a level into the level above: an even row is kept
+     * until the next one is read, then both are averaged into a row of the
+     * level above, which is stored if the level is.
+     *
+     * @param level   the level above.
+     * @param y       the row number in the level below.
+     * @param below   the row of the level below.
+     * @param pending the pending even row of the level below each level.
+     *
+     * @return the completed row of the level above, or null.
+     */
+    private double[] reduce(final int level, final int y, final double[] below,
+			    final double[][] pending) {
+	if (y % 2 == 0 && y + 1 < getHeight(level - 1)) {
+	    pending[level - 1] = below;
+	    return null;
+	}
+
+	final int w = getWidth(level), belowW = getWidth(level - 1);
+	final double[] upper = y % 2 == 0 ? below : pending[level - 1];
+	final double[] lower = y % 2 == 0 ? null : below;
+	final float[] values = levels[level - 1];
+	final double[] row = new double[w];
+
+	for (int x = 0; x < w; x++) {
+	    double sum = 0.0;
+	    int n = 0;
+
+	    for (int dx = 0; dx < 2 && 2 * x + dx < belowW; dx++) {
+		sum += upper[2 * x + dx];
+		n++;
+	    }
+	    if (lower != null)
+		for (int dx = 0; dx < 2 && 2 * x + dx < belowW; dx++) {
+		    sum += lower[2 * x + dx];
+		    n++;
+		}
+
+	    final float value = (float)(sum / n);
+	    row[x] = value;
+	    if (values != null)
+		values[y / 2 * w + x] = value;
+	}
+	pending[level - 1] = null;
+	return row;
+    }
+
+    /**
+     * Get the number of levels, including level 0.
+     *
+     * @return the number of levels.
+     */
+    int getLevelCount() {
+	return levels.length + 1;
+    }
+
+    /**
+     * Get the width of a level.
+     *
+     * @param level the level.
+     *
+     * @return the number of cells per row.
+     */
+    int getWidth(final int level) {
+	return (width + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Get the height of a level.
+     *
+     * @param level the level.
+     *
+     * @return the number of rows.
+     */
+    int getHeight(final int level) {
+	return (height + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Get the value of a cell of a level.
+     *
+     * @param level the level.
+     * @param x     the column (position in the first string at level 0).
+     * @param y     the row (position in the second string at level 0).
+     *
+     * @return the cost, averaged over the cells it covers above level 0.
+     */
+    double getValue(final int level, final int x, final int y) {
+	if (level == 0)
+	    return aligner.getCost(x, y);
+
+	final float[] values = levels[level - 1];
+	if (values != null)
+	    return values[y * getWidth(level) + x];
+
+	// Not stored: average the cells of the level below again
+	final int belowW = getWidth(level - 1), belowH = getHeight(level - 1);
+	double sum = 0.0;
+	int n = 0;
+
+	for (int dy = 0; dy < 2 && 2 * y + dy < belowH; dy++)
+	    for (int dx = 0; dx < 2 && 2 * x + dx < belowW; dx++) {
+		sum += getValue(level - 1, 2 * x + dx, 2 * y + dy);
+		n++;
+	    }
+	return (float)(sum / n);
+    }
+
+    /**
+     * Get the maximum cost of the table.
+     *
+     * @return the maximum cost.
+     */
+    double getMaxCost() {
+	return aligner.getMaxCost();
+    }
+
+    /**
+     * Get the path of the optimal alignment.
+     *
+     * @return the path.
+     */
+    AlignmentPath getPath() {
+	return path;
+    }
+}
+
+// End of File
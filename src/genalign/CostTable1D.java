@@ -50,7 +50,7 @@ public final class CostTable1D extends AbstractTableModel {
      */
     private char[] chars;
     private double[] costs;
-    private final HashMap map;
+    private final HashMap<Character, Double> map;
     private JTable table = null;
 
     /**
@@ -65,16 +65,16 @@ public final class CostTable1D extends AbstractTableModel {
      * @param init        the initial cost hast table.
      * @param defaultCost the default cost.
      */
-    public CostTable1D(final char[] chars, final HashMap init,
+    public CostTable1D(final char[] chars,
+		       final HashMap<Character, Double> init,
 		       final double defaultCost) {
 	this.chars = chars;
 	costs = new double[chars.length];
 	map = init;
 
 	for (int i = 0; i < chars.length; i++) {
-	    final Object object = map.get(new Character(chars[i]));
-	    costs[i] = object == null ? defaultCost :
-		       ((Double)object).doubleValue();
+	    final Double value = map.get(chars[i]);
+	    costs[i] = value == null ? defaultCost : value.doubleValue();
 	}
     }
 
@@ -94,8 +94,17 @@ public final class CostTable1D extends AbstractTableModel {
      * Merge input values with the cost hash table.
      */
     public void mergeValues() {
+	mergeValues(map);
+    }
+
+    /**
+     * Merge input values with a given cost hash table.
+     *
+     * @param map the cost hash table.
+     */
+    public void mergeValues(final HashMap<Character, Double> map) {
 	for (int i = 0; i < chars.length; i++)
-	    map.put(new Character(chars[i]), new Double(costs[i]));
+	    map.put(chars[i], costs[i]);
     }
 
     /**
@@ -50,7 +50,7 @@ public final class CostTable2D extends AbstractTableModel {
      */
     private char[] chars1, chars2;
     private double[][] costs;
-    private final HashMap map;
+    private final HashMap<Character, HashMap<Character, Double>> map;
     private JTable table = null;
 
     /**
@@ -68,7 +68,8 @@ public final class CostTable2D extends AbstractTableModel {
      * @param defaultDiff the default cost for different characters.
      */
     public CostTable2D(final char[] chars1, final char[] chars2,
-		       final HashMap init,
+		       final HashMap<Character,
+				     HashMap<Character, Double>> init,
 		       final double defaultSame, final double defaultDiff) {
 	this.chars1 = chars1;
 	this.chars2 = chars2;
@@ -78,13 +79,13 @@ public final class CostTable2D extends AbstractTableModel {
 	for (int i = 0; i < chars1.length; i++) {
 	    costs[i] = new double[chars2.length];
 	    for (int j = 0; j < chars2.length; j++) {
-		Object object = map.get(new Character(chars1[i]));
-		if (object != null)
-		    object = ((HashMap)object).get(new Character(chars2[j]));
-		costs[i][j] = object == null ?
+		final HashMap<Character, Double> submap = map.get(chars1[i]);
+		final Double value = submap == null ? null :
+				     submap.get(chars2[j]);
+		costs[i][j] = value == null ?
 			      (chars1[i] == chars2[j] ?
 			       defaultSame : defaultDiff) :
-			      ((Double)object).doubleValue();
+			      value.doubleValue();
 	    }
 	}
     }
@@ -107,14 +108,24 @@ public final class CostTable2D extends AbstractTableModel {
      * Merge input values with the cost hash table.
      */
     public void mergeValues() {
+	mergeValues(map);
+    }
+
+    /**
+     * Merge input values with a given cost hash table.
+     *
+     * @param map the cost hash table (a hash table of hash tables).
+     */
+    public void mergeValues(
+	final HashMap<Character, HashMap<Character, Double>> map) {
 	for (int i = 0; i < chars1.length; i++) {
-	    final Object object = map.get(new Character(chars1[i]));
-	    final HashMap submap = object == null ? new HashMap(chars2.length) :
-				   (HashMap)object;
+	    HashMap<Character, Double> submap = map.get(chars1[i]);
+	    if (submap == null)
+		submap = new HashMap<Character, Double>(chars2.length);
 
 	    for (int j = 0; j < chars2.length; j++)
-		submap.put(new Character(chars2[j]), new Double(costs[i][j]));
-	    map.put(new Character(chars1[i]), submap);
+		submap.put(chars2[j], costs[i][j]);
+	    map.put(chars1[i], submap);
 	}
     }
 
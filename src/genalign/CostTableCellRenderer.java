@@ -62,6 +62,11 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
     private final static Color HEADER_FG =
 	UIManager.getColor("TableHeader.foreground");
 
+    /**
+     * The number of colors of the background and highlight gradients.
+     */
+    private final static int GRADIENT_SIZE = 256;
+
     /**
      * Common type classes.
      */
@@ -73,9 +78,14 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
     private final BevelBorder bevel;
 
     /**
-     * List of the highlighted cells positions.
+     * Index of the highlighted cells, which form a path: in each table
+     * column, the highlighted rows are consecutive, from pathTop to
+     * pathBottom, and their positions in the highlighted cells list follow
+     * each other from pathPosition (the position of the top cell) by
+     * pathStep.
      */
-    private final Point[] hlCells;
+    private final int[] pathTop, pathBottom, pathPosition;
+    private final byte[] pathStep;
     private final int hlCellCount;
 
     /**
@@ -83,6 +93,17 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
      */
     private final double max;
 
+    /**
+     * The background and highlight colors, precomputed.
+     */
+    private final Color[] backgrounds = new Color[GRADIENT_SIZE];
+    private final Color[] highlights = new Color[GRADIENT_SIZE];
+
+    /**
+     * The cell values formatter.
+     */
+    private final NumberFormat format = NumberFormat.getInstance();
+
     /**
      * Not used, but eliminates a warning.
      */
@@ -91,10 +112,50 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
     /**
      * Constructor.
      *
-     * @param highlighted the positions of the highlighted cells.
+     * @param highlighted the positions of the highlighted cells, which must
+     *                    form a path (see pathTop), followed by nulls if
+     *                    the array is larger.
      * @param max         the maximum value of the table.
      */
     public CostTableCellRenderer(final Point[] highlighted, final double max) {
+	this(getCoordinates(highlighted, true),
+	     getCoordinates(highlighted, false), max);
+    }
+
+    /**
+     * Constructor for an alignment path.  As with the cell list built by
+     * ComputedCostTable, the highlight gradient starts at the last cell.
+     *
+     * @param path the alignment path to highlight.
+     * @param max  the maximum value of the table.
+     */
+    CostTableCellRenderer(final AlignmentPath path, final double max) {
+	this(getCoordinates(path, true), getCoordinates(path, false), max);
+    }
+
+    /**
+     * Constructor for a renderer without maximum value.
+     */
+    public CostTableCellRenderer(final Point[] highlighted) {
+	this(highlighted, Double.NaN);
+    }
+
+    /**
+     * Constructor for a renderer without highlighted cells and maximum value.
+     */
+    public CostTableCellRenderer() {
+	this(new Point[0]);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param xs  the position in the first string of each highlighted cell.
+     * @param ys  the position in the second string of each highlighted cell.
+     * @param max the maximum value of the table.
+     */
+    private CostTableCellRenderer(final int[] xs, final int[] ys,
+				  final double max) {
 	Class numberClass = null, doubleClass = null;
 
 	try {
@@ -110,28 +171,85 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
 				temp.getHighlightOuterColor(), HEADER_BG,
 				temp.getShadowOuterColor(), HEADER_BG);
 
-	int i;
-	for (i = 0; i < highlighted.length; i++)
-	    if (highlighted[i] == null)
-		break;
-	hlCells = highlighted;
-	hlCellCount = i;
+	// Index the highlighted cells by column
+	int columns = 0;
+	for (int k = 0; k < xs.length; k++)
+	    columns = Math.max(columns, xs[k] + 1);
+	pathTop = new int[columns];
+	pathBottom = new int[columns];
+	pathPosition = new int[columns];
+	pathStep = new byte[columns];
+	for (int x = 0; x < columns; x++) {
+	    pathTop[x] = Integer.MAX_VALUE;
+	    pathBottom[x] = -1;
+	}
+	final int[] bottomPosition = new int[columns];
+	for (int k = 0; k < xs.length; k++) {
+	    final int x = xs[k], y = ys[k];
+	    if (y < pathTop[x]) {
+		pathTop[x] = y;
+		pathPosition[x] = k;
+	    }
+	    if (y > pathBottom[x]) {
+		pathBottom[x] = y;
+		bottomPosition[x] = k;
+	    }
+	}
+	for (int x = 0; x < columns; x++)
+	    pathStep[x] = (byte)(bottomPosition[x] < pathPosition[x] ? -1 : 1);
+	hlCellCount = xs.length;
 
 	this.max = max;
+
+	for (int k = 0; k < GRADIENT_SIZE; k++) {
+	    final double ratio = k / (double)(GRADIENT_SIZE - 1);
+	    backgrounds[k] = blendColors(NORMAL_BG.darker(), NORMAL_BG, ratio);
+	    highlights[k] = blendColors(SELECTED_BG, SELECTED_BG.darker(),
+					ratio);
+	}
     }
 
     /**
-     * Constructor for a renderer without maximum value.
+     * Get the coordinates of a list of highlighted cells.
+     *
+     * @param highlighted the positions of the highlighted cells, possibly
+     *                    followed by nulls.
+     * @param first       true for the positions in the first string, false
+     *                    for the positions in the second string.
+     *
+     * @return the coordinates.
      */
-    public CostTableCellRenderer(final Point[] highlighted) {
-	this(highlighted, Double.NaN);
+    private static int[] getCoordinates(final Point[] highlighted,
+					final boolean first) {
+	int count;
+	for (count = 0; count < highlighted.length; count++)
+	    if (highlighted[count] == null)
+		break;
+
+	final int[] coordinates = new int[count];
+	for (int k = 0; k < count; k++)
+	    coordinates[k] = first ? highlighted[k].x : highlighted[k].y;
+	return coordinates;
     }
 
     /**
-     * Constructor for a renderer without highlighted cells and maximum value.
+     * Get the coordinates of the cells of an alignment path, from the last
+     * one to the first one.
+     *
+     * @param path  the alignment path.
+     * @param first true for the positions in the first string, false for the
+     *              positions in the second string.
+     *
+     * @return the coordinates.
      */
-    public CostTableCellRenderer() {
-	this(new Point[0]);
+    private static int[] getCoordinates(final AlignmentPath path,
+					final boolean first) {
+	final int length = path.getLength();
+	final int[] coordinates = new int[length];
+	for (int k = 0; k < length; k++)
+	    coordinates[k] = first ? path.getPosition1(length - 1 - k) :
+				     path.getPosition2(length - 1 - k);
+	return coordinates;
     }
 
     /**
@@ -159,20 +277,20 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
     }
 
     /**
-     * Blend two colors given a value within an interval.
+     * Get a color from a precomputed gradient.
      *
-     * @param color1 the first color.
-     * @param color2 the second color.
-     * @param min    the minimum the value can get.
-     * @param max    the maximum the value can get.
-     * @param value  the value.
+     * @param gradient the gradient.
+     * @param ratio    the position in the gradient, from 0 to 1.
      *
-     * @return the resulting color.
+     * @return the color.
      */
-    private static Color blendColors(final Color color1, final Color color2,
-				     final double min, final double max,
-				     final double value) {
-	return blendColors(color1, color2, (value - min) / (max - min));
+    private static Color getGradientColor(final Color[] gradient,
+					  final double ratio) {
+	if (!(ratio > 0.0))
+	    return gradient[0];
+	if (ratio >= 1.0)
+	    return gradient[GRADIENT_SIZE - 1];
+	return gradient[(int)(ratio * (GRADIENT_SIZE - 1) + 0.5)];
     }
 
     /**
@@ -185,7 +303,7 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
     private Color getBlendedBackground(final double value) {
 	if (max < 0.0)
 	    return NORMAL_BG;
-	return blendColors(NORMAL_BG.darker(), NORMAL_BG, 0.0, max, value);
+	return getGradientColor(backgrounds, value / max);
     }
 
     /**
@@ -196,8 +314,23 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
      * @return the resulting color.
      */
     private Color getBlendedHighlight(final int position) {
-	return blendColors(SELECTED_BG, SELECTED_BG.darker(),
-			   (double)position / (double)hlCellCount);
+	return getGradientColor(highlights,
+				(double)position / (double)hlCellCount);
+    }
+
+    /**
+     * Get the position of a cell in the highlighted cells list.
+     *
+     * @param x the position in the first string.
+     * @param y the position in the second string.
+     *
+     * @return the position, or -1 if the cell is not highlighted.
+     */
+    private int getHighlightPosition(final int x, final int y) {
+	if (x < 0 || x >= pathTop.length || y < pathTop[x] ||
+	    y > pathBottom[x])
+	    return -1;
+	return pathPosition[x] + pathStep[x] * (y - pathTop[x]);
     }
 
     /**
@@ -224,24 +357,17 @@ public final class CostTableCellRenderer extends DefaultTableCellRenderer {
 	if (numberClass.isInstance(value))
 	    setHorizontalAlignment(JLabel.RIGHT);
 	if (doubleClass.isInstance(value) && value != null)
-	    setText(NumberFormat.getInstance().format(value));
+	    setText(format.format(value));
 
 	if (column == 0) {
 	    setBackground(HEADER_BG);
 	    setForeground(HEADER_FG);
 	    setBorder(bevel);
 	} else {
-	    boolean isHighlighted = false;
-	    int i;
-
-	    for (i = 0; i < hlCellCount; i++)
-		if (column == hlCells[i].x + 1 && row == hlCells[i].y) {
-		    isHighlighted = true;
-		    break;
-		}
+	    final int position = getHighlightPosition(column - 1, row);
 
-	    if (isHighlighted) {
-		setBackground(getBlendedHighlight(i));
+	    if (position >= 0) {
+		setBackground(getBlendedHighlight(position));
 		setForeground(SELECTED_FG);
 	    } else {
 		if (doubleClass.isInstance(value) && value != null)
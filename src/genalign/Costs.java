@@ -36,6 +36,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.LineNumberReader;
 import java.awt.Container;
 
 /**
@@ -54,9 +60,12 @@ public final class Costs {
     /**
      * Cost hash maps for each operation.
      */
-    private HashMap insertions = new HashMap();
-    private HashMap deletions = new HashMap();
-    private HashMap substitutions = new HashMap();
+    private HashMap<Character, Double> insertions =
+	new HashMap<Character, Double>();
+    private HashMap<Character, Double> deletions =
+	new HashMap<Character, Double>();
+    private HashMap<Character, HashMap<Character, Double>> substitutions =
+	new HashMap<Character, HashMap<Character, Double>>();
 
     public double defaultIns = DEFAULT_INS, defaultDel = DEFAULT_DEL,
 		  defaultSubSame = DEFAULT_SUB_SAME,
@@ -76,8 +85,8 @@ public final class Costs {
      * @return the insertion cost.
      */
     public double getIns(final char chr) {
-	final Object object = insertions.get(new Character(chr));
-	return object == null ? defaultIns : ((Double)object).doubleValue();
+	final Double value = insertions.get(chr);
+	return value == null ? defaultIns : value.doubleValue();
     }
 
     /**
@@ -88,8 +97,8 @@ public final class Costs {
      * @return the deletion cost.
      */
     public double getDel(final char chr) {
-	final Object object = deletions.get(new Character(chr));
-	return object == null ? defaultDel : ((Double)object).doubleValue();
+	final Double value = deletions.get(chr);
+	return value == null ? defaultDel : value.doubleValue();
     }
 
     /**
@@ -101,12 +110,187 @@ public final class Costs {
      * @return the substitution cost.
      */
     public double getSub(final char chr1, final char chr2) {
-	Object object = substitutions.get(new Character(chr1));
-	if (object != null)
-	    object = ((HashMap)object).get(new Character(chr2));
-	return object == null ? (chr1 == chr2 ?
-				 defaultSubSame : defaultSubDiff) :
-	       ((Double)object).doubleValue();
+	final HashMap<Character, Double> submap = substitutions.get(chr1);
+	final Double value = submap == null ? null : submap.get(chr2);
+	return value == null ? (chr1 == chr2 ?
+				defaultSubSame : defaultSubDiff) :
+	       value.doubleValue();
+    }
+
+    /**
+     * Set the insertion cost for a specific character.
+     *
+     * @param chr   the caracter.
+     * @param value the insertion cost.
+     */
+    public void setIns(final char chr, final double value) {
+	insertions.put(chr, value);
+    }
+
+    /**
+     * Set the deletion cost for a specific character.
+     *
+     * @param chr   the caracter.
+     * @param value the deletion cost.
+     */
+    public void setDel(final char chr, final double value) {
+	deletions.put(chr, value);
+    }
+
+    /**
+     * Set the substitution cost for two specific characters.
+     *
+     * @param chr1  the first caracter.
+     * @param chr2  the second caracter.
+     * @param value the substitution cost.
+     */
+    public void setSub(final char chr1, final char chr2, final double value) {
+	HashMap<Character, Double> submap = substitutions.get(chr1);
+	if (submap == null) {
+	    submap = new HashMap<Character, Double>();
+	    substitutions.put(chr1, submap);
+	}
+	submap.put(chr2, value);
+    }
+
+    /**
+     * Parse a cost value from a cost file.
+     *
+     * @param token  the token to parse.
+     * @param file   the file being read (for error messages).
+     * @param reader the reader (for error messages).
+     *
+     * @return the cost value.
+     *
+     * @throws IOException if the token is not a number.
+     */
+    private static double parseCost(final String token, final File file,
+				    final LineNumberReader reader)
+	throws IOException {
+	try {
+	    return Double.parseDouble(token);
+	} catch (NumberFormatException exception) {
+	    throw new IOException(file + ":" + reader.getLineNumber() +
+				  ": invalid cost: " + token);
+	}
+    }
+
+    /**
+     * Check wether a cost file line is a matrix header, i.e. only contains
+     * single characters.
+     *
+     * @param keyword the first token of the line.
+     * @param args    the other tokens of the line.
+     *
+     * @return wether the line is a matrix header.
+     */
+    private static boolean isHeader(final String keyword,
+				    final String[] args) {
+	if (keyword.length() != 1)
+	    return false;
+	for (int i = 0; i < args.length; i++)
+	    if (args[i].length() != 1)
+		return false;
+	return true;
+    }
+
+    /**
+     * Read costs from a text file.  Each non-empty line which does not start
+     * with '#' is one of the following:
+     * <pre>
+     *   ins COST             default insertion cost
+     *   ins CHAR COST        insertion cost of CHAR
+     *   del COST             default deletion cost
+     *   del CHAR COST        deletion cost of CHAR
+     *   sub SAME DIFF        default substitution costs
+     *   sub CHAR1 CHAR2 COST cost of substituting CHAR2 for CHAR1
+     * </pre>
+     * Substitution costs can also be given as a matrix in the BLOSUM/PAM
+     * layout: a header line listing the target characters (CHAR2), then one
+     * line per initial character (CHAR1) starting with that character and
+     * followed by one cost per column.  After such a header, "ins" and "del"
+     * lines with one cost per column give the indel cost vectors:
+     * <pre>
+     *      A   C   G   T
+     *   A  0   3   2   3
+     *   C  3   0   3   2
+     *   G  2   3   0   3
+     *   T  3   2   3   0
+     *   ins 1  1   1   1
+     *   del 1  1   1   1
+     * </pre>
+     * Note that these are costs, which are minimized, not similarity scores.
+     *
+     * @param file the file to read.
+     *
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public void read(final File file) throws IOException {
+	final LineNumberReader reader =
+	    new LineNumberReader(new FileReader(file));
+
+	try {
+	    String line;
+	    String[] columns = null;
+
+	    while ((line = reader.readLine()) != null) {
+		final StringTokenizer tokenizer = new StringTokenizer(line);
+		if (!tokenizer.hasMoreTokens())
+		    continue;
+
+		final String keyword = tokenizer.nextToken();
+		if (keyword.charAt(0) == '#')
+		    continue;
+
+		final String[] args = new String[tokenizer.countTokens()];
+		for (int i = 0; i < args.length; i++)
+		    args[i] = tokenizer.nextToken();
+
+		final boolean isVector = columns != null &&
+					 args.length == columns.length &&
+					 columns.length > 1;
+
+		if (columns != null && keyword.length() == 1 &&
+		    args.length == columns.length) {
+		    for (int i = 0; i < args.length; i++)
+			setSub(keyword.charAt(0), columns[i].charAt(0),
+			       parseCost(args[i], file, reader));
+		} else if (isHeader(keyword, args)) {
+		    columns = new String[args.length + 1];
+		    columns[0] = keyword;
+		    System.arraycopy(args, 0, columns, 1, args.length);
+		} else if (keyword.equals("ins") && isVector) {
+		    for (int i = 0; i < args.length; i++)
+			setIns(columns[i].charAt(0),
+			       parseCost(args[i], file, reader));
+		} else if (keyword.equals("del") && isVector) {
+		    for (int i = 0; i < args.length; i++)
+			setDel(columns[i].charAt(0),
+			       parseCost(args[i], file, reader));
+		} else if (keyword.equals("ins") && args.length == 1)
+		    defaultIns = parseCost(args[0], file, reader);
+		else if (keyword.equals("ins") && args.length == 2 &&
+			 args[0].length() == 1)
+		    setIns(args[0].charAt(0), parseCost(args[1], file, reader));
+		else if (keyword.equals("del") && args.length == 1)
+		    defaultDel = parseCost(args[0], file, reader);
+		else if (keyword.equals("del") && args.length == 2 &&
+			 args[0].length() == 1)
+		    setDel(args[0].charAt(0), parseCost(args[1], file, reader));
+		else if (keyword.equals("sub") && args.length == 2) {
+		    defaultSubSame = parseCost(args[0], file, reader);
+		    defaultSubDiff = parseCost(args[1], file, reader);
+		} else if (keyword.equals("sub") && args.length == 3 &&
+			   args[0].length() == 1 && args[1].length() == 1)
+		    setSub(args[0].charAt(0), args[1].charAt(0),
+			   parseCost(args[2], file, reader));
+		else
+		    throw new IOException(file + ":" + reader.getLineNumber() +
+					  ": syntax error");
+	    }
+	} finally {
+	    reader.close();
+	}
     }
 
     /**
@@ -116,15 +300,46 @@ public final class Costs {
      *
      * @return the character array.
      */
-    private char[] uniqueChars(final String string) {
-	final HashSet set = new HashSet();
-	for (int i = 0; i < string.length(); i++)
-	    set.add(new Character(string.charAt(i)));
+    private char[] uniqueChars(final CharSequence string) {
+	final boolean[] present = new boolean[Character.MAX_VALUE + 1];
+	int count = 0;
+	for (int i = 0; i < string.length(); i++) {
+	    final char chr = string.charAt(i);
+	    if (!present[chr]) {
+		present[chr] = true;
+		count++;
+	    }
+	}
+
+	// Scanning the table in order sorts the characters
+	final char[] chars = new char[count];
+	for (int chr = 0, i = 0; i < count; chr++)
+	    if (present[chr])
+		chars[i++] = (char)chr;
+	return chars;
+    }
+
+    /**
+     * Get the characters which have a specific cost, i.e. which do not only
+     * rely on the default costs.
+     *
+     * @return the sorted characters.
+     */
+    char[] getAlphabet() {
+	final HashSet<Character> set = new HashSet<Character>();
+	set.addAll(insertions.keySet());
+	set.addAll(deletions.keySet());
+	set.addAll(substitutions.keySet());
+
+	final Iterator<HashMap<Character, Double>> submaps =
+	    substitutions.values().iterator();
+	while (submaps.hasNext())
+	    set.addAll(submaps.next().keySet());
 
 	final char[] chars = new char[set.size()];
-	final Iterator iterator = set.iterator();
+	final Iterator<Character> iterator = set.iterator();
 	for (int i = 0; i < chars.length; i++)
-	    chars[i] = ((Character)iterator.next()).charValue();
+	    chars[i] = iterator.next().charValue();
 
 	Arrays.sort(chars);
 	return chars;
@@ -139,7 +354,8 @@ public final class Costs {
      * @param deleteCont AWT/Swing container for the deletions table.
      * @param substCont  AWT/Swing container for the substitutions table.
      */
-    public void makeTables(final String string1, final String string2,
+    public void makeTables(final CharSequence string1,
+			   final CharSequence string2,
 			   final Container insertCont,
 			   final Container deleteCont,
 			   final Container substCont) {
@@ -179,6 +395,44 @@ public final class Costs {
 	}
     }
 
+    /**
+     * Take an immutable snapshot of the costs, including the values currently
+     * being edited.  Unlike retrieveValues(), the costs and the editing tables
+     * are left untouched.  Must be called from the thread which edits the
+     * costs (the event dispatch thread for the GUI); the result can then be
+     * used by any number of alignment threads.
+     *
+     * @return the compiled costs.
+     */
+    public CostMatrix snapshot() {
+	final Costs copy = new Costs();
+	copy.insertions.putAll(insertions);
+	copy.deletions.putAll(deletions);
+
+	final Iterator<Map.Entry<Character, HashMap<Character, Double>>>
+	    entries = substitutions.entrySet().iterator();
+	while (entries.hasNext()) {
+	    final Map.Entry<Character, HashMap<Character, Double>> entry =
+		entries.next();
+	    copy.substitutions.put(entry.getKey(),
+		new HashMap<Character, Double>(entry.getValue()));
+	}
+
+	copy.defaultIns = defaultIns;
+	copy.defaultDel = defaultDel;
+	copy.defaultSubSame = defaultSubSame;
+	copy.defaultSubDiff = defaultSubDiff;
+
+	if (insertCosts != null)
+	    insertCosts.mergeValues(copy.insertions);
+	if (deleteCosts != null)
+	    deleteCosts.mergeValues(copy.deletions);
+	if (substCosts != null)
+	    substCosts.mergeValues(copy.substitutions);
+
+	return CostMatrix.compile(copy);
+    }
+
     /**
      * Initialize the insertions table to a given value.
      *
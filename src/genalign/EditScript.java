@@ -0,0 +1,281 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: EditScript.java
+ *
+ * Description: Run-Length Encoded Edit Script
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Run-length encoded edit script transforming the first ("initial state")
+ * string into the second ("target") one, in a CIGAR-like form: each run is a
+ * count followed by an operation character.
+ */
+public final class EditScript {
+    /**
+     * Operation characters: match, mismatch (substitution of a different
+     * character), insertion of a target character, deletion of an initial
+     * character.
+     */
+    public final static char OP_MATCH = '=', OP_MISMATCH = 'X',
+			     OP_INSERT = 'I', OP_DELETE = 'D';
+
+    /**
+     * Gap character used in the two-line representation.
+     */
+    private final static char GAP = '-';
+
+    /**
+     * The runs: operation characters and their lengths.
+     */
+    private char[] ops;
+    private int[] lengths;
+    private int runCount = 0;
+
+    /**
+     * Constructor for an empty script.
+     *
+     * @param capacity the initial number of runs which can be stored.
+     */
+    EditScript(final int capacity) {
+	ops = new char[Math.max(capacity, 4)];
+	lengths = new int[ops.length];
+    }
+
+    /**
+     * Empty the script, keeping its storage for reuse.
+     */
+    void clear() {
+	runCount = 0;
+    }
+
+    /**
+     * Append an operation to the script, extending the last run if possible.
+     *
+     * @param op the operation character.
+     */
+    void append(final char op) {
+	append(op, 1);
+    }
+
+    /**
+     * Append a run of operations to the script, extending the last run if
+     * possible.
+     *
+     * @param op     the operation character.
+     * @param length the number of operations.
+     */
+    void append(final char op, final int length) {
+	if (runCount > 0 && ops[runCount - 1] == op) {
+	    lengths[runCount - 1] += length;
+	    return;
+	}
+
+	if (runCount == ops.length) {
+	    final char[] newOps = new char[ops.length * 2];
+	    final int[] newLengths = new int[ops.length * 2];
+	    System.arraycopy(ops, 0, newOps, 0, runCount);
+	    System.arraycopy(lengths, 0, newLengths, 0, runCount);
+	    ops = newOps;
+	    lengths = newLengths;
+	}
+
+	ops[runCount] = op;
+	lengths[runCount++] = length;
+    }
+
+    /**
+     * Copy the script, e.g. to keep it after the workspace it was built in is
+     * reused.
+     *
+     * @return a copy of the script, of the exact size.
+     */
+    EditScript copy() {
+	final EditScript copy = new EditScript(runCount);
+	System.arraycopy(ops, 0, copy.ops, 0, runCount);
+	System.arraycopy(lengths, 0, copy.lengths, 0, runCount);
+	copy.runCount = runCount;
+	return copy;
+    }
+
+    /**
+     * Reverse the order of the runs.  Used when the script has been built
+     * backwards, from a traceback.
+     */
+    void reverse() {
+	for (int i = 0, j = runCount - 1; i < j; i++, j--) {
+	    final char op = ops[i];
+	    final int length = lengths[i];
+	    ops[i] = ops[j];
+	    lengths[i] = lengths[j];
+	    ops[j] = op;
+	    lengths[j] = length;
+	}
+    }
+
+    /**
+     * Get the number of runs.
+     *
+     * @return the number of runs.
+     */
+    public int getRunCount() {
+	return runCount;
+    }
+
+    /**
+     * Get the operation of a run.
+     *
+     * @param run the run index.
+     *
+     * @return the operation character.
+     */
+    public char getOp(final int run) {
+	return ops[run];
+    }
+
+    /**
+     * Get the length of a run.
+     *
+     * @param run the run index.
+     *
+     * @return the number of times the operation is repeated.
+     */
+    public int getLength(final int run) {
+	return lengths[run];
+    }
+
+    /**
+     * Get the length of the alignment, i.e. the number of columns of its
+     * two-line representation.
+     *
+     * @return the alignment length.
+     */
+    public int getAlignmentLength() {
+	int total = 0;
+	for (int i = 0; i < runCount; i++)
+	    total += lengths[i];
+	return total;
+    }
+
+    /**
+     * Write the script in its compact form (e.g. "3=1X2I4=1D").
+     *
+     * @param out the writer.
+     *
+     * @throws IOException if an output error occurs.
+     */
+    public void write(final Writer out) throws IOException {
+	for (int i = 0; i < runCount; i++) {
+	    out.write(Integer.toString(lengths[i]));
+	    out.write(ops[i]);
+	}
+    }
+
+    /**
+     * Write one line of the two-line representation of the alignment.
+     *
+     * @param out     the writer.
+     * @param string  the aligned string.
+     * @param gapOp   the operation which leaves a gap in this line.
+     *
+     * @throws IOException if an output error occurs.
+     */
+    private void writeLine(final Writer out, final String string,
+			   final char gapOp) throws IOException {
+	int pos = 0;
+
+	for (int i = 0; i < runCount; i++) {
+	    if (ops[i] == gapOp) {
+		for (int k = 0; k < lengths[i]; k++)
+		    out.write(GAP);
+	    } else {
+		out.write(string, pos, lengths[i]);
+		pos += lengths[i];
+	    }
+	}
+    }
+
+    /**
+     * Write the two-line representation of the alignment, without the final
+     * line feed.
+     *
+     * @param out     the writer.
+     * @param string1 the first ("initial state") string.
+     * @param string2 the second ("target") string.
+     *
+     * @throws IOException if an output error occurs.
+     */
+    public void writeAlignment(final Writer out, final String string1,
+			       final String string2) throws IOException {
+	writeLine(out, string1, OP_INSERT);
+	out.write('\n');
+	writeLine(out, string2, OP_DELETE);
+    }
+
+    /**
+     * Get the two-line representation of the alignment.
+     *
+     * @param string1 the first ("initial state") string.
+     * @param string2 the second ("target") string.
+     *
+     * @return the two lines, separated by a line feed.
+     */
+    public String toAlignment(final char[] string1, final char[] string2) {
+	final int total = getAlignmentLength();
+	final char[] chars = new char[total * 2 + 1];
+	int pos1 = 0, pos2 = 0, out = 0;
+
+	for (int i = 0; i < runCount; i++)
+	    for (int k = 0; k < lengths[i]; k++, out++) {
+		chars[out] = ops[i] == OP_INSERT ? GAP : string1[pos1++];
+		chars[total + 1 + out] = ops[i] == OP_DELETE ? GAP :
+					 string2[pos2++];
+	    }
+
+	chars[total] = '\n';
+	return new String(chars);
+    }
+
+    /**
+     * Get the compact form of the script.
+     *
+     * @return the script (e.g. "3=1X2I4=1D").
+     */
+    public String toString() {
+	final StringBuilder buffer = new StringBuilder(runCount * 3);
+	for (int i = 0; i < runCount; i++)
+	    buffer.append(lengths[i]).append(ops[i]);
+	return buffer.toString();
+    }
+}
+
+// End of File
@@ -0,0 +1,400 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: GeneReader.java
+ *
+ * Description: Gene File Reader
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+
+/**
+ * Gene file reading.  FASTA, GenBank and plain text files are supported.
+ *
+ * This class does not depend on AWT/Swing so that it can be used from the
+ * command line.
+ */
+public final class GeneReader {
+    /**
+     * The file reader state.
+     */
+    private final static int FR_BEGIN = 0, FR_UNKNOWN = 1,
+			     FR_FASTA = 2, FR_GENBANK = 3, FR_TEXT = 4;
+
+    /**
+     * Characters stripped from the genes.
+     */
+    private final static String STRIPPED = " \t\n\r-";
+
+    /**
+     * The number of residues appended at once by readGene().
+     */
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Input stream counting the bytes read from it.
+     */
+    private final static class CountingInputStream extends FilterInputStream {
+	/**
+	 * The counter of bytes read.
+	 */
+	private final AtomicLong count;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in    the underlying stream.
+	 * @param count the counter to add the bytes read to.
+	 */
+	CountingInputStream(final InputStream in, final AtomicLong count) {
+	    super(in);
+	    this.count = count;
+	}
+
+	/**
+	 * Read a byte.
+	 *
+	 * @return the byte, or -1 at the end of the stream.
+	 *
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public int read() throws IOException {
+	    final int value = super.read();
+	    if (value >= 0)
+		count.incrementAndGet();
+	    return value;
+	}
+
+	/**
+	 * Read bytes.
+	 *
+	 * @param buffer the buffer to read to.
+	 * @param offset the offset in the buffer.
+	 * @param length the maximum number of bytes to read.
+	 *
+	 * @return the number of bytes read, or -1 at the end of the stream.
+	 *
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public int read(final byte[] buffer, final int offset,
+			final int length) throws IOException {
+	    final int read = super.read(buffer, offset, length);
+	    if (read > 0)
+		count.addAndGet(read);
+	    return read;
+	}
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private GeneReader() {}
+
+    /**
+     * Strip characters from a string.
+     *
+     * @param string the string to strip.
+     * @param chars  the characters to be stripped.
+     *
+     * @return the stripped string.
+     */
+    private static String stripChars(final String string, final String chars) {
+	final char[] stripped = new char[string.length()];
+	int pos = 0;
+
+	for (int i = 0; i < string.length(); i++)
+	    if (chars.indexOf(string.charAt(i)) == -1)
+		stripped[pos++] = string.charAt(i);
+
+	return new String(stripped, 0, pos);
+    }
+
+    /**
+     * Strip a gene string from unwanted characters.
+     *
+     * @param string the string to strip.
+     *
+     * @return the stripped gene string.
+     */
+    public static String stripGene(final String gene) {
+	return stripChars(gene, STRIPPED);
+    }
+
+    /**
+     * Read a gene file in a single pass.  The format is detected from the
+     * first line: FASTA (only the first record is read), GenBank (the ORIGIN
+     * section is read) or plain text (the whole file is read).  The residues
+     * are stripped of whitespace and gaps and appended by chunks, so that a
+     * large gene never has to be held in one string.
+     *
+     * @param file     the file to read.
+     * @param gene     where to append the gene residues.
+     * @param progress the counter of bytes read, updated as the file is read
+     *                 so that another thread can poll it, or null.
+     *
+     * @return the number of residues read.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public static long readGene(final File file, final Appendable gene,
+				final AtomicLong progress) throws IOException {
+	final AlignmentEvents.Parse event = new AlignmentEvents.Parse();
+	event.begin();
+	final InputStream stream = new FileInputStream(file);
+	final BufferedReader reader = new BufferedReader(new InputStreamReader(
+	    progress == null ? stream : new CountingInputStream(stream,
+								progress)));
+	final char[] chunk = new char[CHUNK_SIZE];
+	int length = 0;
+	long count = 0;
+
+	try {
+	    int state = FR_BEGIN;
+	    String line;
+
+	    while ((line = reader.readLine()) != null) {
+		int start = 0;
+
+		switch (state) {
+		case FR_BEGIN:
+		    if (line.trim().length() == 0)
+			continue;
+		    if (line.charAt(0) == '>') {
+			state = FR_FASTA;
+			continue;
+		    }
+		    if (line.startsWith("LOCUS") || line.startsWith("ORIGIN")) {
+			state = line.startsWith("ORIGIN") ? FR_GENBANK :
+				FR_UNKNOWN;
+			continue;
+		    }
+		    state = FR_TEXT;
+		    break;
+
+		case FR_UNKNOWN:
+		    if (line.startsWith("ORIGIN"))
+			state = FR_GENBANK;
+		    continue;
+
+		case FR_FASTA:
+		    if (line.startsWith(">"))
+			return commit(event, file, 1,
+				      count + flush(gene, chunk, length));
+		    break;
+
+		case FR_GENBANK:
+		    // Skip the position before the residues
+		    final String trimmed = line.trim();
+		    while (start < trimmed.length() &&
+			   !Character.isWhitespace(trimmed.charAt(start)))
+			start++;
+		    line = trimmed;
+		}
+
+		for (int i = start; i < line.length(); i++) {
+		    final char chr = line.charAt(i);
+		    if (STRIPPED.indexOf(chr) != -1)
+			continue;
+
+		    if (length == chunk.length) {
+			count += flush(gene, chunk, length);
+			length = 0;
+		    }
+		    chunk[length++] = chr;
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+
+	return commit(event, file, 1, count + flush(gene, chunk, length));
+    }
+
+    /**
+     * Commit a parsing event, if it is enabled.
+     *
+     * @param event     the event, begun before the file was opened.
+     * @param file      the file read.
+     * @param sequences the number of sequences read.
+     * @param residues  the number of residues read.
+     *
+     * @return the number of residues read.
+     */
+    private static long commit(final AlignmentEvents.Parse event,
+			       final File file, final int sequences,
+			       final long residues) {
+	if (event.shouldCommit()) {
+	    event.file = file.getPath();
+	    event.sequences = sequences;
+	    event.residues = residues;
+	    event.commit();
+	}
+	return residues;
+    }
+
+    /**
+     * Append a chunk of residues.
+     *
+     * @param gene   where to append the residues.
+     * @param chunk  the residues buffer.
+     * @param length the number of residues in the buffer.
+     *
+     * @return the number of residues appended.
+     *
+     * @throws IOException if the residues cannot be appended.
+     */
+    private static int flush(final Appendable gene, final char[] chunk,
+			     final int length) throws IOException {
+	if (length > 0)
+	    gene.append(CharBuffer.wrap(chunk, 0, length));
+	return length;
+    }
+
+    /**
+     * Read a gene or a text file (see readGene()).
+     *
+     * @param file the file to read.
+     *
+     * @return the gene string, or null if none could be read.
+     */
+    public static String readFile(final File file) {
+	final StringBuilder gene = new StringBuilder();
+
+	try {
+	    readGene(file, gene, null);
+	} catch (IOException exception) {
+	    return null;
+	}
+	return gene.length() == 0 ? null : gene.toString();
+    }
+
+    /**
+     * Read all the sequences of a file.  Each record of a multi-record FASTA
+     * file gives a sequence named after its header; any other file gives a
+     * single sequence named after the file.
+     *
+     * @param file the file to read.
+     *
+     * @return the sequences contained in the file.
+     *
+     * @throws IOException if the file cannot be read or contains no gene.
+     */
+    public static List<Sequence> readSequences(final File file)
+	throws IOException {
+	final AlignmentEvents.Parse event = new AlignmentEvents.Parse();
+	event.begin();
+	final BufferedReader reader = new BufferedReader(new FileReader(file));
+	final List<Sequence> sequences;
+
+	try {
+	    sequences = readFasta(reader);
+	} finally {
+	    reader.close();
+	}
+
+	// Not a FASTA file: the parsing event is then committed by readGene()
+	if (sequences.isEmpty()) {
+	    final String gene = readFile(file);
+	    if (gene == null)
+		throw new IOException(file + ": no gene found");
+	    sequences.add(new Sequence(file.getName(), gene));
+	} else if (event.shouldCommit()) {
+	    long residues = 0;
+	    for (Sequence sequence : sequences)
+		residues += sequence.length();
+	    commit(event, file, sequences.size(), residues);
+	}
+
+	return sequences;
+    }
+
+    /**
+     * Read the records of a multi-record FASTA text, each one giving a
+     * sequence named after its header.
+     *
+     * @param reader the text to read.
+     *
+     * @return the sequences, empty if the text is not in the FASTA format.
+     *
+     * @throws IOException if the text cannot be read.
+     */
+    static List<Sequence> readFasta(final BufferedReader reader)
+	throws IOException {
+	final List<Sequence> sequences = new ArrayList<Sequence>();
+
+	String line = reader.readLine();
+	while (line != null && line.trim().length() == 0)
+	    line = reader.readLine();
+
+	if (line != null && line.startsWith(">")) {
+	    String name = line.substring(1).trim();
+	    StringBuilder gene = new StringBuilder();
+
+	    while ((line = reader.readLine()) != null) {
+		if (line.startsWith(">")) {
+		    addSequence(sequences, name, gene);
+		    name = line.substring(1).trim();
+		    gene = new StringBuilder();
+		} else
+		    gene.append(line);
+	    }
+	    addSequence(sequences, name, gene);
+	}
+
+	return sequences;
+    }
+
+    /**
+     * Add a FASTA record to a sequence list, unless it is empty.
+     *
+     * @param sequences the sequence list.
+     * @param name      the record name.
+     * @param gene      the record contents.
+     */
+    private static void addSequence(final List<Sequence> sequences,
+				    final String name,
+				    final CharSequence gene) {
+	final String stripped = stripGene(gene.toString());
+	if (stripped.length() > 0)
+	    sequences.add(new Sequence(name, stripped));
+    }
+}
+
+// End of File
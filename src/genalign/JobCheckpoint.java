@@ -0,0 +1,216 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: JobCheckpoint.java
+ *
+ * Description: Batch Job Checkpoint
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checkpoint of a command-line batch job, from which an interrupted job is
+ * resumed: the command line, the identity of the inputs, the number of pairs
+ * whose results have been written and the length of the output at that
+ * point, and optionally the boundary column of the cost table of the next
+ * pair, when its cost is computed in linear memory.
+ *
+ * The file is binary: a header (magic number and version), the fields, and
+ * a CRC-32 of everything before it.  It is replaced atomically (see
+ * CheckedFile), so that it is always either the previous or the new
+ * checkpoint, never a torn one.
+ */
+final class JobCheckpoint {
+    /**
+     * File magic number ("GAJC") and format version.
+     */
+    private final static int MAGIC = 0x47414a43, VERSION = 1;
+
+    /**
+     * The command-line arguments of the job.
+     */
+    final String[] args;
+
+    /**
+     * The gene files, with their sizes and modification times when the job
+     * started, and the fingerprint of the costs.
+     */
+    final String[] inputs;
+    final long[] sizes, times;
+    final long fingerprint;
+
+    /**
+     * The number of pairs whose results have been written, and the length
+     * of the output file in bytes at that point.
+     */
+    long pairs = 0, outputLength = 0;
+
+    /**
+     * The number of the boundary column of the next pair, and its costs, or
+     * null.
+     */
+    int column = 0;
+    double[] boundary = null;
+
+    /**
+     * Constructor for the checkpoint of a new job.
+     *
+     * @param args        the command-line arguments.
+     * @param geneFiles   the gene files.
+     * @param fingerprint the fingerprint of the costs.
+     */
+    JobCheckpoint(final String[] args, final File[] geneFiles,
+		  final long fingerprint) {
+	this.args = args.clone();
+	this.fingerprint = fingerprint;
+	inputs = new String[geneFiles.length];
+	sizes = new long[geneFiles.length];
+	times = new long[geneFiles.length];
+	for (int i = 0; i < geneFiles.length; i++) {
+	    inputs[i] = geneFiles[i].getPath();
+	    sizes[i] = geneFiles[i].length();
+	    times[i] = geneFiles[i].lastModified();
+	}
+    }
+
+    /**
+     * Constructor for a checkpoint read from a stream.
+     *
+     * @param input the stream, positioned after the header.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    private JobCheckpoint(final DataInputStream input) throws IOException {
+	args = new String[input.readInt()];
+	for (int i = 0; i < args.length; i++)
+	    args[i] = input.readUTF();
+
+	inputs = new String[input.readInt()];
+	sizes = new long[inputs.length];
+	times = new long[inputs.length];
+	for (int i = 0; i < inputs.length; i++) {
+	    inputs[i] = input.readUTF();
+	    sizes[i] = input.readLong();
+	    times[i] = input.readLong();
+	}
+	fingerprint = input.readLong();
+
+	pairs = input.readLong();
+	outputLength = input.readLong();
+	column = input.readInt();
+	final int length = input.readInt();
+	if (length >= 0) {
+	    boundary = new double[length];
+	    for (int i = 0; i < length; i++)
+		boundary[i] = input.readDouble();
+	}
+    }
+
+    /**
+     * Read a checkpoint file.
+     *
+     * @param file the file to read.
+     *
+     * @return the checkpoint.
+     *
+     * @throws IOException if the file cannot be read, or is not a valid
+     *                     checkpoint.
+     */
+    static JobCheckpoint read(final File file) throws IOException {
+	final DataInputStream input =
+	    CheckedFile.readChecked(file, MAGIC, VERSION, "checkpoint");
+	try {
+	    return new JobCheckpoint(input);
+	} catch (EOFException exception) {
+	    throw new IOException(file + ": truncated checkpoint");
+	}
+    }
+
+    /**
+     * Write the checkpoint, replacing the file atomically.
+     *
+     * @param file the file to write.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    void write(final File file) throws IOException {
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	final DataOutputStream output = new DataOutputStream(bytes);
+
+	output.writeInt(args.length);
+	for (int i = 0; i < args.length; i++)
+	    output.writeUTF(args[i]);
+	output.writeInt(inputs.length);
+	for (int i = 0; i < inputs.length; i++) {
+	    output.writeUTF(inputs[i]);
+	    output.writeLong(sizes[i]);
+	    output.writeLong(times[i]);
+	}
+	output.writeLong(fingerprint);
+	output.writeLong(pairs);
+	output.writeLong(outputLength);
+	output.writeInt(column);
+	output.writeInt(boundary == null ? -1 : boundary.length);
+	if (boundary != null)
+	    for (int i = 0; i < boundary.length; i++)
+		output.writeDouble(boundary[i]);
+	output.close();
+
+	CheckedFile.writeAtomically(file, MAGIC, VERSION, bytes.toByteArray());
+    }
+
+    /**
+     * Check that the inputs of the job have not changed since it started.
+     *
+     * @param geneFiles   the gene files.
+     * @param fingerprint the fingerprint of the costs.
+     *
+     * @throws IOException if an input has changed.
+     */
+    void check(final File[] geneFiles, final long fingerprint)
+	throws IOException {
+	if (fingerprint != this.fingerprint)
+	    throw new IOException("the costs have changed since the " +
+				  "checkpoint");
+	for (int i = 0; i < geneFiles.length; i++)
+	    if (geneFiles[i].length() != sizes[i] ||
+		geneFiles[i].lastModified() != times[i])
+		throw new IOException(geneFiles[i] + ": changed since the " +
+				      "checkpoint");
+    }
+}
+
+// End of File
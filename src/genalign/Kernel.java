@@ -0,0 +1,202 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: Kernel.java
+ *
+ * Description: Specialised Alignment Kernel
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Alignment kernel specialised for one compiled cost table.
+ *
+ * The generic engine looks every cost up in the cost table for every cell.
+ * A kernel is a class generated at run time for a given table (see
+ * {@link KernelGenerator}), in which the uniform costs are folded into
+ * constants and the zero costs are not added at all, so that only the costs
+ * which really depend on the characters are looked up.  Kernels are cached
+ * by table fingerprint, so a table is only compiled once per run.
+ *
+ * Kernels are immutable and can be shared by any number of threads.
+ * @see Aligner#compute(Kernel, Workspace)
+ */
+public abstract class Kernel {
+    /**
+     * Generated kernels, by cost table fingerprint.
+     */
+    private final static Map<Long, Kernel> cache =
+	new ConcurrentHashMap<Long, Kernel>();
+
+    /**
+     * The cost table the kernel was generated for.
+     */
+    final CostMatrix costs;
+
+    /**
+     * Index of each character in the tables below: characters outside of the
+     * alphabet all share the last entry.
+     */
+    final int[] index;
+
+    /**
+     * Insertion, deletion and same character substitution costs, and
+     * different character substitution costs (indexed by the second string
+     * character index times the alphabet size plus one, plus the first string
+     * character index).
+     */
+    final double[] insertions, deletions, same, different;
+
+    /**
+     * Description of the specialisation.
+     */
+    private final String description;
+
+    /**
+     * Constructor, only called by the generated subclasses.
+     *
+     * @param costs       the cost table.
+     * @param description the description of the specialisation.
+     */
+    Kernel(final CostMatrix costs, final String description) {
+	final double[][] tables = tables(costs);
+
+	this.costs = costs;
+	this.description = description;
+	index = index(costs);
+	insertions = tables[0];
+	deletions = tables[1];
+	same = tables[2];
+	different = tables[3];
+    }
+
+    /**
+     * Get the kernel specialised for a cost table, generating it unless a
+     * kernel has already been generated for an identical table.
+     *
+     * @param costs the cost table.
+     *
+     * @return the kernel.
+     */
+    public static Kernel get(final CostMatrix costs) {
+	final Long fingerprint = Long.valueOf(costs.getFingerprint());
+	Kernel kernel = cache.get(fingerprint);
+
+	if (kernel == null) {
+	    kernel = KernelGenerator.generate(costs);
+	    final Kernel previous = cache.putIfAbsent(fingerprint, kernel);
+	    if (previous != null)
+		kernel = previous;
+	}
+
+	// Fingerprint collision: do not evict the cached kernel
+	if (!kernel.costs.equals(costs))
+	    return KernelGenerator.generate(costs);
+	return kernel;
+    }
+
+    /**
+     * Build the character index of a cost table.
+     *
+     * @param costs the cost table.
+     *
+     * @return the index of every character in the kernel tables.
+     */
+    static int[] index(final CostMatrix costs) {
+	final char[] alphabet = costs.getAlphabet();
+	final int[] index = new int[Character.MAX_VALUE + 1];
+
+	Arrays.fill(index, alphabet.length);
+	for (int i = 0; i < alphabet.length; i++)
+	    index[alphabet[i]] = i;
+	return index;
+    }
+
+    /**
+     * Build the kernel tables of a cost table.
+     *
+     * @param costs the cost table.
+     *
+     * @return the insertion, deletion, same character substitution and
+     *         different character substitution tables.
+     */
+    static double[][] tables(final CostMatrix costs) {
+	final char[] alphabet = costs.getAlphabet();
+	final double[] defaults = costs.getDefaults();
+	final int size = alphabet.length, stride = size + 1;
+	final double[] ins = new double[stride], del = new double[stride];
+	final double[] same = new double[stride];
+	final double[] different = new double[stride * stride];
+
+	for (int i = 0; i < size; i++) {
+	    ins[i] = costs.getIns(alphabet[i]);
+	    del[i] = costs.getDel(alphabet[i]);
+	    same[i] = costs.getSub(alphabet[i], alphabet[i]);
+	    for (int j = 0; j < size; j++)
+		different[j * stride + i] =
+		    costs.getSub(alphabet[i], alphabet[j]);
+	    different[size * stride + i] = defaults[3];
+	    different[i * stride + size] = defaults[3];
+	}
+	ins[size] = defaults[0];
+	del[size] = defaults[1];
+	same[size] = defaults[2];
+	different[size * stride + size] = defaults[3];
+
+	return new double[][] { ins, del, same, different };
+    }
+
+    /**
+     * Fill the operations table (see Aligner.compute()).
+     *
+     * @param string1    the first string.
+     * @param string2    the second string.
+     * @param column     a column buffer of at least string1.length + 1.
+     * @param next       a column buffer of at least string1.length + 1.
+     * @param operations the operations table, of at least string2.length + 1
+     *                   columns of string1.length + 1.
+     *
+     * @return the minimum cost.
+     */
+    abstract double fill(char[] string1, char[] string2, double[] column,
+			 double[] next, byte[][] operations);
+
+    /**
+     * Get a description of the specialisation.
+     *
+     * @return how each cost is computed by the kernel.
+     */
+    public String toString() {
+	return description;
+    }
+}
+
+// End of File
@@ -0,0 +1,972 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: KernelGenerator.java
+ *
+ * Description: Alignment Kernel Class Generator
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generator of the alignment kernels: emits the class file of a subclass of
+ * {@link Kernel} whose fill() method is the alignment loop of
+ * Aligner.compute() with the costs of one table folded in, and defines it as
+ * a hidden class.
+ *
+ * The class files use version 49 so that the verifier infers the types
+ * itself and no stack map frames have to be emitted; only the few
+ * instructions used by the loop are supported.
+ */
+final class KernelGenerator {
+    /**
+     * Class file version (Java 5, the last one without stack map frames).
+     */
+    private final static int CLASS_VERSION = 49;
+
+    /**
+     * Class and method names and descriptors.
+     */
+    private final static String KERNEL = "genalign/Kernel",
+				GENERATED = "genalign/SpecialisedKernel",
+				INIT_DESC = "(Lgenalign/CostMatrix;" +
+					    "Ljava/lang/String;)V",
+				FILL_DESC = "([C[C[D[D[[B)D";
+
+    /**
+     * Access flags.
+     */
+    private final static int ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    /**
+     * Constant pool tags.
+     */
+    private final static int CONSTANT_Utf8 = 1, CONSTANT_Integer = 3,
+			     CONSTANT_Double = 6, CONSTANT_Class = 7,
+			     CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10,
+			     CONSTANT_NameAndType = 12;
+
+    /**
+     * Opcodes.
+     */
+    private final static int ICONST_0 = 0x03, DCONST_0 = 0x0e,
+			     DCONST_1 = 0x0f, BIPUSH = 0x10, SIPUSH = 0x11,
+			     LDC_W = 0x13, LDC2_W = 0x14, ILOAD = 0x15,
+			     DLOAD = 0x18, ALOAD = 0x19, IALOAD = 0x2e,
+			     DALOAD = 0x31, AALOAD = 0x32, CALOAD = 0x34,
+			     ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a,
+			     DASTORE = 0x52, BASTORE = 0x54, IADD = 0x60,
+			     DADD = 0x63, IMUL = 0x68, IINC = 0x84,
+			     DCMPL = 0x97, IFNE = 0x9a, IF_ICMPNE = 0xa0,
+			     IF_ICMPGE = 0xa2, GOTO = 0xa7, DRETURN = 0xaf,
+			     RETURN = 0xb1, GETFIELD = 0xb4,
+			     INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+			     ARRAYLENGTH = 0xbe;
+
+    /**
+     * Local variables of fill() (doubles take two slots).
+     */
+    private final static int STRING1 = 1, STRING2 = 2, COLUMN = 3, NEXT = 4,
+			     OPERATIONS = 5, LENGTH1 = 6, LENGTH2 = 7, I = 8,
+			     J = 9, OPS = 10, CHR1 = 11, CHR2 = 12, CODE2 = 13,
+			     INS_COST = 14, UP = 16, DEL_VAL = 18,
+			     INS_VAL = 20, MIN_VAL = 22, SWAP = 24,
+			     INDEX = 25, INSERTIONS = 26, DELETIONS = 27,
+			     SAME = 28, DIFFERENT = 29, LOCALS = 30, STACK = 8;
+
+    /**
+     * Cost tables (see Kernel.tables()) and alignment size plus one.
+     */
+    private final double[] insertions, deletions, same, different;
+    private final int stride;
+
+    /**
+     * Wether each cost is the same for all characters.
+     */
+    private final boolean insUniform, delUniform, sameUniform, diffUniform;
+
+    /**
+     * Constant pool.
+     */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final Map<String, Integer> constants =
+	new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    /**
+     * Code of the method being emitted.
+     */
+    private byte[] code = new byte[1024];
+    private int length = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param costs the cost table to generate a kernel for.
+     */
+    private KernelGenerator(final CostMatrix costs) {
+	final double[][] tables = Kernel.tables(costs);
+
+	insertions = tables[0];
+	deletions = tables[1];
+	same = tables[2];
+	different = tables[3];
+	stride = insertions.length;
+
+	insUniform = isUniform(insertions, 0, 1);
+	delUniform = isUniform(deletions, 0, 1);
+	sameUniform = isUniform(same, 0, 1);
+
+	// The same character entries of the different table are never used
+	final double diff = different[different.length - 1];
+	boolean uniform = true;
+	for (int j = 0; j < stride; j++)
+	    for (int i = 0; i < stride; i++)
+		if ((i != j || i == stride - 1) &&
+		    !isSame(different[j * stride + i], diff))
+		    uniform = false;
+	diffUniform = uniform;
+    }
+
+    /**
+     * Generate and instantiate the kernel of a cost table.
+     *
+     * @param costs the cost table.
+     *
+     * @return the kernel.
+     */
+    static Kernel generate(final CostMatrix costs) {
+	final AlignmentEvents.CostCompilation event =
+	    new AlignmentEvents.CostCompilation();
+	event.begin();
+	final KernelGenerator generator = new KernelGenerator(costs);
+	final byte[] bytes = generator.emitClass();
+
+	try {
+	    final MethodHandles.Lookup lookup =
+		MethodHandles.lookup().defineHiddenClass(bytes, true);
+	    final Kernel kernel = (Kernel)lookup.findConstructor(
+		lookup.lookupClass(), MethodType.methodType(void.class,
+		CostMatrix.class, String.class)).
+		invoke(costs, generator.describe());
+	    CostMatrix.commit(event, "kernel", costs.getAlphabet().length);
+	    return kernel;
+	} catch (RuntimeException exception) {
+	    throw exception;
+	} catch (Error error) {
+	    throw error;
+	} catch (Throwable throwable) {
+	    throw new IllegalStateException("cannot define kernel", throwable);
+	}
+    }
+
+    /**
+     * Check wether two costs are identical (including their sign and NaNs).
+     *
+     * @param a the first cost.
+     * @param b the second cost.
+     *
+     * @return wether folding one in place of the other changes nothing.
+     */
+    private static boolean isSame(final double a, final double b) {
+	return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    /**
+     * Check wether a cost is a positive zero, which can be left out of the
+     * additions.
+     *
+     * @param cost the cost.
+     *
+     * @return wether the cost is +0.0.
+     */
+    private static boolean isZero(final double cost) {
+	return Double.doubleToRawLongBits(cost) == 0L;
+    }
+
+    /**
+     * Check wether all the entries of a part of a table are identical.
+     *
+     * @param table  the table.
+     * @param offset the offset of the first entry.
+     * @param step   the distance between the entries.
+     *
+     * @return wether the entries are uniform.
+     */
+    private static boolean isUniform(final double[] table, final int offset,
+				     final int step) {
+	for (int i = offset + step; i < table.length; i += step)
+	    if (!isSame(table[i], table[offset]))
+		return false;
+	return true;
+    }
+
+    /**
+     * Describe the specialisation.
+     *
+     * @return how each cost is computed by the kernel.
+     */
+    private String describe() {
+	return "ins " + describe(insUniform, insertions[0]) +
+	       ", del " + describe(delUniform, deletions[0]) +
+	       ", sub " + (isSubConstant() ? describe(true, same[0]) :
+			   describe(sameUniform, same[0]) + "/" +
+			   describe(diffUniform, different[different.length -
+							   1]));
+    }
+
+    /**
+     * Describe how a cost is computed.
+     *
+     * @param uniform wether the cost is uniform.
+     * @param value   the cost if it is.
+     *
+     * @return the description.
+     */
+    private static String describe(final boolean uniform,
+				   final double value) {
+	return uniform ? isZero(value) ? "skipped" : String.valueOf(value) :
+	       "table";
+    }
+
+    /**
+     * Check wether the substitution cost does not depend on the characters at
+     * all.
+     *
+     * @return wether the substitution cost is constant.
+     */
+    private boolean isSubConstant() {
+	return sameUniform && diffUniform &&
+	       isSame(same[0], different[different.length - 1]);
+    }
+
+    /**
+     * Emit the kernel class file.
+     *
+     * @return the class file bytes.
+     */
+    private byte[] emitClass() {
+	final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	final int thisClass = classRef(GENERATED);
+	final int superClass = classRef(KERNEL);
+	final byte[] init = emitInit();
+	final byte[] fill = emitFill();
+
+	putInt(out, 0xcafebabe);
+	putShort(out, 0);
+	putShort(out, CLASS_VERSION);
+	putShort(out, poolCount);
+	out.write(pool.toByteArray(), 0, pool.size());
+	putShort(out, ACC_FINAL | ACC_SUPER);
+	putShort(out, thisClass);
+	putShort(out, superClass);
+	putShort(out, 0);			// Interfaces
+	putShort(out, 0);			// Fields
+	putShort(out, 2);			// Methods
+	out.write(init, 0, init.length);
+	out.write(fill, 0, fill.length);
+	putShort(out, 0);			// Attributes
+	return out.toByteArray();
+    }
+
+    /**
+     * Emit the constructor, which only calls the Kernel one.
+     *
+     * @return the method structure.
+     */
+    private byte[] emitInit() {
+	length = 0;
+	local(ALOAD, 0);
+	local(ALOAD, 1);
+	local(ALOAD, 2);
+	op(INVOKESPECIAL);
+	u2(methodRef(KERNEL, "<init>", INIT_DESC));
+	op(RETURN);
+	return method(0, "<init>", INIT_DESC, 3, 3);
+    }
+
+    /**
+     * Emit the fill() method: the loop of Aligner.compute() with the costs
+     * folded in.
+     *
+     * @return the method structure.
+     */
+    private byte[] emitFill() {
+	final boolean subConstant = isSubConstant();
+	final boolean needChr1 = !delUniform || !subConstant;
+	final boolean needChr2 = !insUniform || !subConstant;
+
+	length = 0;
+	local(ALOAD, STRING1);
+	op(ARRAYLENGTH);
+	local(ISTORE, LENGTH1);
+	local(ALOAD, STRING2);
+	op(ARRAYLENGTH);
+	local(ISTORE, LENGTH2);
+
+	// Only load the tables which are looked up
+	if (!insUniform || !delUniform || !subConstant)
+	    getField("index", "[I", INDEX);
+	if (!insUniform)
+	    getField("insertions", "[D", INSERTIONS);
+	if (!delUniform)
+	    getField("deletions", "[D", DELETIONS);
+	if (!subConstant && !sameUniform)
+	    getField("same", "[D", SAME);
+	if (!subConstant && !diffUniform)
+	    getField("different", "[D", DIFFERENT);
+
+	// First column: deletions only
+	local(ALOAD, COLUMN);
+	op(ICONST_0);
+	op(DCONST_0);
+	op(DASTORE);
+	local(ALOAD, OPERATIONS);
+	op(ICONST_0);
+	op(AALOAD);
+	local(ASTORE, OPS);
+	local(ALOAD, OPS);
+	op(ICONST_0);
+	pushInt(Aligner.OPR_END);
+	op(BASTORE);
+
+	clear(I);
+	final int first = length;
+	local(ILOAD, I);
+	local(ILOAD, LENGTH1);
+	final int firstEnd = jump(IF_ICMPGE);
+	if (needChr1)
+	    loadChar(STRING1, I, CHR1);
+	local(ALOAD, COLUMN);
+	loadNextIndex();
+	local(ALOAD, COLUMN);
+	local(ILOAD, I);
+	op(DALOAD);
+	addDel();
+	op(DASTORE);
+	local(ALOAD, OPS);
+	loadNextIndex();
+	pushInt(Aligner.OPR_DEL);
+	op(BASTORE);
+	iinc(I);
+	jumpBack(first);
+	land(firstEnd);
+
+	// Other columns
+	clear(J);
+	final int outer = length;
+	local(ILOAD, J);
+	local(ILOAD, LENGTH2);
+	final int outerEnd = jump(IF_ICMPGE);
+	local(ALOAD, OPERATIONS);
+	local(ILOAD, J);
+	pushInt(1);
+	op(IADD);
+	op(AALOAD);
+	local(ASTORE, OPS);
+	if (needChr2)
+	    loadChar(STRING2, J, CHR2);
+	if (!subConstant && !diffUniform) {
+	    loadCode(CHR2);
+	    pushInt(stride);
+	    op(IMUL);
+	    local(ISTORE, CODE2);
+	}
+	if (!insUniform) {
+	    local(ALOAD, INSERTIONS);
+	    loadCode(CHR2);
+	    op(DALOAD);
+	    local(DSTORE, INS_COST);
+	}
+	local(ALOAD, COLUMN);
+	op(ICONST_0);
+	op(DALOAD);
+	addIns();
+	local(DSTORE, UP);
+	local(ALOAD, NEXT);
+	op(ICONST_0);
+	local(DLOAD, UP);
+	op(DASTORE);
+	local(ALOAD, OPS);
+	op(ICONST_0);
+	pushInt(Aligner.OPR_INS);
+	op(BASTORE);
+
+	clear(I);
+	final int inner = length;
+	local(ILOAD, I);
+	local(ILOAD, LENGTH1);
+	final int innerEnd = jump(IF_ICMPGE);
+	if (needChr1)
+	    loadChar(STRING1, I, CHR1);
+
+	// delVal = next[i] + del, insVal = column[i + 1] + ins
+	local(DLOAD, UP);
+	addDel();
+	local(DSTORE, DEL_VAL);
+	local(ALOAD, COLUMN);
+	loadNextIndex();
+	op(DALOAD);
+	addIns();
+	local(DSTORE, INS_VAL);
+
+	// minVal = min(min(insVal, delVal), column[i] + sub)
+	local(DLOAD, INS_VAL);
+	local(DLOAD, DEL_VAL);
+	invokeMin();
+	local(ALOAD, COLUMN);
+	local(ILOAD, I);
+	op(DALOAD);
+	addSub(subConstant);
+	invokeMin();
+	local(DSTORE, MIN_VAL);
+	local(ALOAD, NEXT);
+	loadNextIndex();
+	local(DLOAD, MIN_VAL);
+	op(DASTORE);
+	local(DLOAD, MIN_VAL);
+	local(DSTORE, UP);
+
+	// ops[i + 1] = opcode, with the same priorities as Aligner
+	local(ALOAD, OPS);
+	loadNextIndex();
+	local(DLOAD, MIN_VAL);
+	local(DLOAD, INS_VAL);
+	op(DCMPL);
+	final int notIns = jump(IFNE);
+	pushInt(Aligner.OPR_INS);
+	final int insDone = jump(GOTO);
+	land(notIns);
+	local(DLOAD, MIN_VAL);
+	local(DLOAD, DEL_VAL);
+	op(DCMPL);
+	final int notDel = jump(IFNE);
+	pushInt(Aligner.OPR_DEL);
+	final int delDone = jump(GOTO);
+	land(notDel);
+	pushInt(Aligner.OPR_SUB);
+	land(insDone);
+	land(delDone);
+	op(BASTORE);
+	iinc(I);
+	jumpBack(inner);
+	land(innerEnd);
+
+	// Swap the columns
+	local(ALOAD, COLUMN);
+	local(ASTORE, SWAP);
+	local(ALOAD, NEXT);
+	local(ASTORE, COLUMN);
+	local(ALOAD, SWAP);
+	local(ASTORE, NEXT);
+	iinc(J);
+	jumpBack(outer);
+	land(outerEnd);
+
+	local(ALOAD, COLUMN);
+	local(ILOAD, LENGTH1);
+	op(DALOAD);
+	op(DRETURN);
+	return method(ACC_FINAL, "fill", FILL_DESC, STACK, LOCALS);
+    }
+
+    /**
+     * Emit the addition of the insertion cost of the current second string
+     * character to the value on the stack.
+     */
+    private void addIns() {
+	if (!insUniform) {
+	    local(DLOAD, INS_COST);
+	    op(DADD);
+	} else if (!isZero(insertions[0])) {
+	    pushDouble(insertions[0]);
+	    op(DADD);
+	}
+    }
+
+    /**
+     * Emit the addition of the deletion cost of the current first string
+     * character to the value on the stack.
+     */
+    private void addDel() {
+	if (!delUniform) {
+	    local(ALOAD, DELETIONS);
+	    loadCode(CHR1);
+	    op(DALOAD);
+	    op(DADD);
+	} else if (!isZero(deletions[0])) {
+	    pushDouble(deletions[0]);
+	    op(DADD);
+	}
+    }
+
+    /**
+     * Emit the addition of the substitution cost of the current characters to
+     * the value on the stack.
+     *
+     * @param constant wether the substitution cost is constant.
+     */
+    private void addSub(final boolean constant) {
+	if (constant) {
+	    if (!isZero(same[0])) {
+		pushDouble(same[0]);
+		op(DADD);
+	    }
+	    return;
+	}
+
+	local(ILOAD, CHR1);
+	local(ILOAD, CHR2);
+	final int differ = jump(IF_ICMPNE);
+	if (sameUniform)
+	    pushDouble(same[0]);
+	else {
+	    local(ALOAD, SAME);
+	    loadCode(CHR1);
+	    op(DALOAD);
+	}
+	final int done = jump(GOTO);
+	land(differ);
+	if (diffUniform)
+	    pushDouble(different[different.length - 1]);
+	else {
+	    local(ALOAD, DIFFERENT);
+	    local(ILOAD, CODE2);
+	    loadCode(CHR1);
+	    op(IADD);
+	    op(DALOAD);
+	}
+	land(done);
+	op(DADD);
+    }
+
+    /**
+     * Emit the loading of a field of the kernel into a local variable.
+     *
+     * @param name       the field name.
+     * @param descriptor the field descriptor.
+     * @param local      the local variable.
+     */
+    private void getField(final String name, final String descriptor,
+			  final int local) {
+	local(ALOAD, 0);
+	op(GETFIELD);
+	u2(fieldRef(KERNEL, name, descriptor));
+	local(ASTORE, local);
+    }
+
+    /**
+     * Emit the loading of a string character into a local variable.
+     *
+     * @param string   the string local variable.
+     * @param position the position local variable.
+     * @param local    the character local variable.
+     */
+    private void loadChar(final int string, final int position,
+			  final int local) {
+	local(ALOAD, string);
+	local(ILOAD, position);
+	op(CALOAD);
+	local(ISTORE, local);
+    }
+
+    /**
+     * Emit the push of the table index of a character.
+     *
+     * @param chr the character local variable.
+     */
+    private void loadCode(final int chr) {
+	local(ALOAD, INDEX);
+	local(ILOAD, chr);
+	op(IALOAD);
+    }
+
+    /**
+     * Emit the push of i + 1.
+     */
+    private void loadNextIndex() {
+	local(ILOAD, I);
+	pushInt(1);
+	op(IADD);
+    }
+
+    /**
+     * Emit a call to Math.min(double, double).
+     */
+    private void invokeMin() {
+	op(INVOKESTATIC);
+	u2(methodRef("java/lang/Math", "min", "(DD)D"));
+    }
+
+    /**
+     * Emit a local variable load or store.
+     *
+     * @param opcode the instruction.
+     * @param index  the local variable.
+     */
+    private void local(final int opcode, final int index) {
+	op(opcode);
+	u1(index);
+    }
+
+    /**
+     * Emit the initialisation of an integer local variable to zero.
+     *
+     * @param local the local variable.
+     */
+    private void clear(final int local) {
+	op(ICONST_0);
+	local(ISTORE, local);
+    }
+
+    /**
+     * Emit the increment of an integer local variable.
+     *
+     * @param local the local variable.
+     */
+    private void iinc(final int local) {
+	op(IINC);
+	u1(local);
+	u1(1);
+    }
+
+    /**
+     * Emit the push of an integer constant.
+     *
+     * @param value the constant.
+     */
+    private void pushInt(final int value) {
+	if (value >= 0 && value <= 5)
+	    op(ICONST_0 + value);
+	else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+	    op(BIPUSH);
+	    u1(value);
+	} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+	    op(SIPUSH);
+	    u2(value);
+	} else {
+	    op(LDC_W);
+	    u2(integerConstant(value));
+	}
+    }
+
+    /**
+     * Emit the push of a double constant.
+     *
+     * @param value the constant.
+     */
+    private void pushDouble(final double value) {
+	if (isZero(value))
+	    op(DCONST_0);
+	else if (isSame(value, 1.0))
+	    op(DCONST_1);
+	else {
+	    op(LDC2_W);
+	    u2(doubleConstant(value));
+	}
+    }
+
+    /**
+     * Emit a forward jump, to be resolved by land().
+     *
+     * @param opcode the jump instruction.
+     *
+     * @return the position of the instruction.
+     */
+    private int jump(final int opcode) {
+	final int position = length;
+	op(opcode);
+	u2(0);
+	return position;
+    }
+
+    /**
+     * Resolve a forward jump to the current position.
+     *
+     * @param position the position of the jump instruction.
+     */
+    private void land(final int position) {
+	final int offset = length - position;
+	code[position + 1] = (byte)(offset >> 8);
+	code[position + 2] = (byte)offset;
+    }
+
+    /**
+     * Emit a backward jump.
+     *
+     * @param target the position to jump to.
+     */
+    private void jumpBack(final int target) {
+	final int position = length;
+	op(GOTO);
+	u2(target - position);
+    }
+
+    /**
+     * Emit an instruction.
+     *
+     * @param opcode the opcode.
+     */
+    private void op(final int opcode) {
+	u1(opcode);
+    }
+
+    /**
+     * Emit a byte of code.
+     *
+     * @param value the byte.
+     */
+    private void u1(final int value) {
+	if (length == code.length) {
+	    final byte[] bigger = new byte[code.length * 2];
+	    System.arraycopy(code, 0, bigger, 0, length);
+	    code = bigger;
+	}
+	code[length++] = (byte)value;
+    }
+
+    /**
+     * Emit two bytes of code.
+     *
+     * @param value the big-endian short.
+     */
+    private void u2(final int value) {
+	u1(value >> 8);
+	u1(value);
+    }
+
+    /**
+     * Build a method structure from the emitted code.
+     *
+     * @param access     the access flags.
+     * @param name       the method name.
+     * @param descriptor the method descriptor.
+     * @param maxStack   the maximum stack depth.
+     * @param maxLocals  the number of local variable slots.
+     *
+     * @return the method structure.
+     */
+    private byte[] method(final int access, final String name,
+			  final String descriptor, final int maxStack,
+			  final int maxLocals) {
+	final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	putShort(out, access);
+	putShort(out, utf8(name));
+	putShort(out, utf8(descriptor));
+	putShort(out, 1);			// Attributes
+	putShort(out, utf8("Code"));
+	putInt(out, 12 + length);
+	putShort(out, maxStack);
+	putShort(out, maxLocals);
+	putInt(out, length);
+	out.write(code, 0, length);
+	putShort(out, 0);			// Exception table
+	putShort(out, 0);			// Attributes
+	return out.toByteArray();
+    }
+
+    /**
+     * Add a constant to the pool, unless it is already there.
+     *
+     * @param key   the constant key (tag and value).
+     * @param tag   the constant tag.
+     * @param first the first reference or value, or -1.
+     * @param other the second reference, or -1.
+     *
+     * @return the constant index.
+     */
+    private int constant(final String key, final int tag, final int first,
+			 final int other) {
+	final Integer known = constants.get(key);
+	if (known != null)
+	    return known.intValue();
+
+	pool.write(tag);
+	if (first >= 0)
+	    putShort(pool, first);
+	if (other >= 0)
+	    putShort(pool, other);
+
+	final int index = poolCount++;
+	constants.put(key, Integer.valueOf(index));
+	return index;
+    }
+
+    /**
+     * Add a UTF-8 (ASCII) string constant.
+     *
+     * @param value the string.
+     *
+     * @return the constant index.
+     */
+    private int utf8(final String value) {
+	final Integer known = constants.get("U" + value);
+	if (known != null)
+	    return known.intValue();
+
+	pool.write(CONSTANT_Utf8);
+	putShort(pool, value.length());
+	for (int i = 0; i < value.length(); i++)
+	    pool.write(value.charAt(i));
+
+	final int index = poolCount++;
+	constants.put("U" + value, Integer.valueOf(index));
+	return index;
+    }
+
+    /**
+     * Add an integer constant.
+     *
+     * @param value the integer.
+     *
+     * @return the constant index.
+     */
+    private int integerConstant(final int value) {
+	final Integer known = constants.get("I" + value);
+	if (known != null)
+	    return known.intValue();
+
+	pool.write(CONSTANT_Integer);
+	putInt(pool, value);
+
+	final int index = poolCount++;
+	constants.put("I" + value, Integer.valueOf(index));
+	return index;
+    }
+
+    /**
+     * Add a double constant (which takes two constant pool entries).
+     *
+     * @param value the double.
+     *
+     * @return the constant index.
+     */
+    private int doubleConstant(final double value) {
+	final long bits = Double.doubleToRawLongBits(value);
+	final Integer known = constants.get("D" + bits);
+	if (known != null)
+	    return known.intValue();
+
+	pool.write(CONSTANT_Double);
+	putInt(pool, (int)(bits >>> 32));
+	putInt(pool, (int)bits);
+
+	final int index = poolCount;
+	poolCount += 2;
+	constants.put("D" + bits, Integer.valueOf(index));
+	return index;
+    }
+
+    /**
+     * Add a class reference constant.
+     *
+     * @param name the internal class name.
+     *
+     * @return the constant index.
+     */
+    private int classRef(final String name) {
+	return constant("C" + name, CONSTANT_Class, utf8(name), -1);
+    }
+
+    /**
+     * Add a field reference constant.
+     *
+     * @param owner      the internal name of the class of the field.
+     * @param name       the field name.
+     * @param descriptor the field descriptor.
+     *
+     * @return the constant index.
+     */
+    private int fieldRef(final String owner, final String name,
+			 final String descriptor) {
+	return constant("F" + owner + "." + name + descriptor,
+			CONSTANT_Fieldref, classRef(owner),
+			nameAndType(name, descriptor));
+    }
+
+    /**
+     * Add a method reference constant.
+     *
+     * @param owner      the internal name of the class of the method.
+     * @param name       the method name.
+     * @param descriptor the method descriptor.
+     *
+     * @return the constant index.
+     */
+    private int methodRef(final String owner, final String name,
+			  final String descriptor) {
+	return constant("M" + owner + "." + name + descriptor,
+			CONSTANT_Methodref, classRef(owner),
+			nameAndType(name, descriptor));
+    }
+
+    /**
+     * Add a name and type constant.
+     *
+     * @param name       the member name.
+     * @param descriptor the member descriptor.
+     *
+     * @return the constant index.
+     */
+    private int nameAndType(final String name, final String descriptor) {
+	return constant("N" + name + descriptor, CONSTANT_NameAndType,
+			utf8(name), utf8(descriptor));
+    }
+
+    /**
+     * Write a big-endian short.
+     *
+     * @param out   the output.
+     * @param value the short.
+     */
+    private static void putShort(final ByteArrayOutputStream out,
+				 final int value) {
+	out.write(value >> 8);
+	out.write(value);
+    }
+
+    /**
+     * Write a big-endian int.
+     *
+     * @param out   the output.
+     * @param value the int.
+     */
+    private static void putInt(final ByteArrayOutputStream out,
+			       final int value) {
+	putShort(out, value >>> 16);
+	putShort(out, value);
+    }
+}
+
+// End of File
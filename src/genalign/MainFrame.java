@@ -32,12 +32,6 @@
 
 package genalign;
 
-import java.util.StringTokenizer;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.LineNumberReader;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
@@ -45,6 +39,12 @@ import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -58,34 +58,41 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.ChangeEvent;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
 
 /**
  * The main application frame.
  */
 public final class MainFrame extends JFrame {
     /**
-     * The file reader state.
+     * The length of a generated random string.
      */
-    private final static int FR_BEGIN = 0, FR_UNKNOWN = 1,
-			     FR_FASTA = 2, FR_GENBANK = 3;
+    private final static int RANDOM_LENGTH = 200;
 
     /**
-     * Characters used for the random string generation.
+     * The alignment progress polling period, in milliseconds.
      */
-    private final static char[] RANDOM_CHARS = { 'A', 'T', 'G', 'C' };
+    private final static int PROGRESS_PERIOD = 100;
 
     /**
-     * The length of a generated random string.
+     * The number of cells up to which the computed cost table is kept whole;
+     * larger tables are recomputed from checkpoints when displayed, keeping
+     * CHECKPOINT_CACHE_SIZE blocks of columns.
      */
-    private final static int RANDOM_LENGTH = 200;
+    private final static long MAX_TABLE_CELLS = 1L << 22;
+    private final static int CHECKPOINT_CACHE_SIZE = 8;
 
     /**
-     * Probabilities for events to occur for the second string generation.
+     * The generator of random and mutated strings, and its random generator.
      */
-    private final static double PROBA_INS = 0.1, PROBA_DEL = 0.1,
-				PROBA_SUB = 0.05;
+    private final WorkloadGenerator generator = new WorkloadGenerator();
+    private final SplittableRandom random = new SplittableRandom();
 
     /**
      * Operation costs.
@@ -97,6 +104,56 @@ public final class MainFrame extends JFrame {
      */
     private final JFileChooser chooser = new JFileChooser();
 
+    /**
+     * The alignment running in the background, and its aligner, if any.
+     */
+    private SwingWorker<EditScript, Void> alignment = null;
+    private Aligner alignmentAligner = null;
+
+    /**
+     * The results of the previous alignments, and the key of the displayed
+     * one, if any.
+     */
+    private final ResultCache results =
+	new ResultCache(ResultCache.DEFAULT_MEMORY);
+    private ResultCache.Key displayedKey = null;
+
+    /**
+     * The aligner of the displayed alignment, whose tables are reused when
+     * the genes are edited.
+     */
+    private Aligner displayedAligner = null;
+
+    /**
+     * The computation of the tables of the displayed alignment, if it was
+     * found in the cache: it is only run when the table or heatmap tab is
+     * opened.
+     */
+    private Runnable pendingTables = null;
+
+    /**
+     * The aligner whose cost heatmap is built when its tab is opened, and the
+     * worker building it, if any, which is cancelled by interrupting it.
+     */
+    private Aligner heatmapAligner = null;
+    private SwingWorker<CostPyramid, Void> heatmapBuilder = null;
+
+    /**
+     * The gene files being loaded in the background, if any.
+     */
+    private GeneLoader gene1Loader = null, gene2Loader = null;
+
+    /**
+     * The timer polling the progress of the running alignment and file
+     * loadings.
+     */
+    private final Timer progressTimer = new Timer(PROGRESS_PERIOD,
+	new ActionListener() {
+	    public void actionPerformed(ActionEvent e) {
+		progressTimer_actionPerformed(e);
+	    }
+	});
+
     /**
      * Spinner models.
      */
@@ -116,9 +173,9 @@ public final class MainFrame extends JFrame {
     private JPanel contentPanel;
     private BorderLayout contentBorderLayout = new BorderLayout();
     private JTabbedPane contentTabbedPane = new JTabbedPane();
-    private JTextArea gene1Text = new JTextArea();
+    private JTextArea gene1Text = new JTextArea(new SequenceDocument());
     private JPanel alignmentTabPanel = new JPanel();
-    private JTextArea gene2Text = new JTextArea();
+    private JTextArea gene2Text = new JTextArea(new SequenceDocument());
     private BorderLayout alignmentTabBorderLayout = new BorderLayout();
     private JPanel genesPanel = new JPanel();
     private JPanel gene1Panel = new JPanel();
@@ -129,6 +186,8 @@ public final class MainFrame extends JFrame {
     private GridLayout genesGridLayout = new GridLayout();
     private FlowLayout ButtonsFlowLayout = new FlowLayout();
     private JButton alignButton = new JButton();
+    private JButton cancelButton = new JButton();
+    private JProgressBar alignProgressBar = new JProgressBar();
     private JButton quitButton = new JButton();
     private JPanel gene1ButtonsPanel = new JPanel();
     private JPanel gene2ButtonsPanel = new JPanel();
@@ -164,8 +223,10 @@ public final class MainFrame extends JFrame {
     private JPanel gene2ActionPanel = new JPanel();
     private BorderLayout gene1ButtonsBorderLayout = new BorderLayout();
     private JPanel gene1LoadPanel = new JPanel();
+    private JProgressBar gene1ProgressBar = new JProgressBar();
     private BorderLayout gene2ButtonsBorderLayout = new BorderLayout();
     private JPanel gene2LoadPanel = new JPanel();
+    private JProgressBar gene2ProgressBar = new JProgressBar();
     private JButton gene1UppercaseButton = new JButton();
     private JButton gene2UppercaseButton = new JButton();
     private JPanel bottomPanel = new JPanel();
@@ -194,6 +255,123 @@ public final class MainFrame extends JFrame {
     private JButton substitutionsButton = new JButton();
     private JPanel tablePanel = new JPanel();
     private BorderLayout tableBorderLayout = new BorderLayout();
+    private JPanel heatmapPanel = new JPanel();
+    private BorderLayout heatmapBorderLayout = new BorderLayout();
+
+    /**
+     * Background loading of a gene file into a text area.  The gene is read
+     * into a new document, by chunks, which replaces the text area document
+     * once the whole file has been read.
+     */
+    private final class GeneLoader extends SwingWorker<SequenceDocument, Void> {
+	/**
+	 * The file to load, and its size.
+	 */
+	private final File file;
+	private final long size;
+
+	/**
+	 * The components showing the gene and the loading.
+	 */
+	private final JTextArea text;
+	private final JButton button;
+	private final JProgressBar progressBar;
+
+	/**
+	 * The number of bytes read so far.
+	 */
+	private final AtomicLong read = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file        the file to load.
+	 * @param text        the text area to load it to.
+	 * @param button      the load button, disabled during the loading.
+	 * @param progressBar the progress bar to show during the loading.
+	 */
+	GeneLoader(final File file, final JTextArea text, final JButton button,
+		   final JProgressBar progressBar) {
+	    this.file = file;
+	    this.text = text;
+	    this.button = button;
+	    this.progressBar = progressBar;
+	    size = file.length();
+
+	    button.setEnabled(false);
+	    progressBar.setValue(0);
+	    progressBar.setVisible(true);
+	    progressTimer.start();
+	}
+
+	/**
+	 * Read the file, in a worker thread.
+	 *
+	 * @return the document containing the gene.
+	 *
+	 * @throws IOException if the file cannot be read.
+	 */
+	protected SequenceDocument doInBackground() throws IOException {
+	    final SequenceDocument document = new SequenceDocument();
+
+	    // The document is not shown yet, so it can be filled here
+	    GeneReader.readGene(file, new Appendable() {
+		public Appendable append(final CharSequence chars)
+		    throws IOException {
+		    try {
+			document.insertString(document.getLength(),
+					      chars.toString(), null);
+		    } catch (BadLocationException exception) {
+			throw new IOException(exception);
+		    }
+		    return this;
+		}
+
+		public Appendable append(final CharSequence chars,
+					 final int start, final int end)
+		    throws IOException {
+		    return append(chars.subSequence(start, end));
+		}
+
+		public Appendable append(final char chr) throws IOException {
+		    return append(String.valueOf(chr));
+		}
+	    }, read);
+	    return document;
+	}
+
+	/**
+	 * Show the gene once the file is read, unless it contains none.
+	 */
+	protected void done() {
+	    if (text == gene1Text)
+		gene1Loader = null;
+	    else
+		gene2Loader = null;
+	    button.setEnabled(true);
+	    progressBar.setVisible(false);
+	    stopProgressTimer();
+
+	    try {
+		final SequenceDocument document = get();
+		if (document.getLength() > 0)
+		    text.setDocument(document);
+	    } catch (InterruptedException exception) {
+	    } catch (ExecutionException exception) {
+		JOptionPane.showMessageDialog(MainFrame.this,
+		    exception.getCause().getMessage(), "Cannot load the file",
+		    JOptionPane.ERROR_MESSAGE);
+	    }
+	}
+
+	/**
+	 * Update the progress bar from the number of bytes read.
+	 */
+	void showProgress() {
+	    if (size > 0)
+		progressBar.setValue((int)(read.get() * 100 / size));
+	}
+    }
 
     /**
      * Constructor.
@@ -256,6 +434,19 @@ public final class MainFrame extends JFrame {
 		alignButton_actionPerformed(e);
 	    }
 	});
+	cancelButton.setText("Cancel");
+	cancelButton.setEnabled(false);
+	cancelButton.addActionListener(new ActionListener() {
+	    public void actionPerformed(ActionEvent e) {
+		cancelButton_actionPerformed(e);
+	    }
+	});
+	alignProgressBar.setStringPainted(true);
+	alignProgressBar.setVisible(false);
+	gene1ProgressBar.setStringPainted(true);
+	gene1ProgressBar.setVisible(false);
+	gene2ProgressBar.setStringPainted(true);
+	gene2ProgressBar.setVisible(false);
 	quitButton.setText("Quit");
 	quitButton.addActionListener(new ActionListener() {
 	    public void actionPerformed(ActionEvent e) {
@@ -309,9 +500,9 @@ public final class MainFrame extends JFrame {
 	    }
 	});
 	alignmentScrollPane.setHorizontalScrollBarPolicy(JScrollPane.
-	    HORIZONTAL_SCROLLBAR_ALWAYS);
+	    HORIZONTAL_SCROLLBAR_AS_NEEDED);
 	alignmentScrollPane.setVerticalScrollBarPolicy(JScrollPane.
-	    VERTICAL_SCROLLBAR_NEVER);
+	    VERTICAL_SCROLLBAR_AS_NEEDED);
 	geneBottomPanel.setLayout(geneBottomBorderLayout);
 	randomButton.setText("Random");
 	randomButton.addActionListener(new ActionListener() {
@@ -371,10 +562,13 @@ public final class MainFrame extends JFrame {
 	sameSpinner.setModel(subSameModel);
 	diffSpinner.setModel(subDiffModel);
 	tablePanel.setLayout(tableBorderLayout);
+	heatmapPanel.setLayout(heatmapBorderLayout);
 	contentPanel.add(contentTabbedPane, java.awt.BorderLayout.CENTER);
 	contentTabbedPane.add(alignmentTabPanel, "Alignment");
 	genesPanel.add(gene1Panel);
+	buttonsPanel.add(alignProgressBar);
 	buttonsPanel.add(alignButton);
+	buttonsPanel.add(cancelButton);
 	buttonsPanel.add(quitButton);
 	authorPanel.add(authorLabel);
 	gene1Panel.add(gene1ScrollPane, java.awt.BorderLayout.CENTER);
@@ -397,9 +591,11 @@ public final class MainFrame extends JFrame {
 	alignmentTabPanel.add(geneBottomPanel, java.awt.BorderLayout.SOUTH);
 	gene1ActionPanel.add(gene1UppercaseButton);
 	gene1ActionPanel.add(randomButton);
+	gene1LoadPanel.add(gene1ProgressBar);
 	gene1LoadPanel.add(gene1LoadButton);
 	gene2ActionPanel.add(gene2UppercaseButton);
 	gene2ActionPanel.add(generateButton);
+	gene2LoadPanel.add(gene2ProgressBar);
 	gene2LoadPanel.add(gene2LoadButton);
 	gene1ButtonsPanel.add(gene1ActionPanel, java.awt.BorderLayout.WEST);
 	gene2ButtonsPanel.add(gene2ActionPanel, java.awt.BorderLayout.WEST);
@@ -429,155 +625,38 @@ public final class MainFrame extends JFrame {
 	deletionsPanel.add(deletionsButtonsPanel, java.awt.BorderLayout.WEST);
 	insertionsPanel.add(insertionsButtonsPanel, java.awt.BorderLayout.WEST);
 	contentTabbedPane.add(tablePanel, "Computed cost table");
+	contentTabbedPane.add(heatmapPanel, "Cost heatmap");
     }
 
     /**
-     * Strip characters from a string.
-     *
-     * @param string the string to strip.
-     * @param chars  the characters to be stripped.
-     *
-     * @return the stripped string.
-     */
-    private static String stripChars(final String string, final String chars) {
-	final char[] stripped = new char[string.length()];
-	int pos = 0;
-
-	for (int i = 0; i < string.length(); i++)
-	    if (chars.indexOf(string.charAt(i)) == -1)
-		stripped[pos++] = string.charAt(i);
-
-	return new String(stripped, 0, pos);
-    }
-
-    /**
-     * Strip a gene string from unwanted characters.
-     *
-     * @param string the string to strip.
+     * Choose a gene or a text file to open.
      *
-     * @return the stripped gene string.
+     * @return the chosen file, or null.
      */
-    private static String stripGene(final String gene) {
-	return stripChars(gene, " \t\n\r-");
-    }
-
-    /**
-     * Read a gene as a plain text file, stripping whitespace.
-     *
-     * @param file the file to read.
-     *
-     * @return the gene string contained in the file.
-     */
-    private static String readTextFile(final File file) {
-	FileReader fileReader;
-	try {
-	    fileReader = new FileReader(file);
-	} catch (FileNotFoundException exception) {
+    private File openFile() {
+	if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
 	    return null;
-	}
-	final LineNumberReader reader = new LineNumberReader(fileReader);
 
-	String gene = "";
-
-	while (true) {
-	    String line;
-	    try {
-		line = reader.readLine();
-	    } catch (IOException exception) {
-		line = null;
-	    }
-
-	    if (line == null)
-		break;
-	    gene += line;
-	}
-
-	gene = stripGene(gene);
-	if (gene.length() == 0)
-	    return null;
-	return gene;
+	return chooser.getSelectedFile();
     }
 
     /**
-     * Open a gene file.  FASTA and GenBank are supported.
+     * Get the document of a gene text area.
      *
-     * @param file the file to read.
+     * @param text the text area.
      *
-     * @return the string contained in the file.
+     * @return its document.
      */
-    private static String readGeneFile(final File file) {
-	FileReader fileReader;
-	try {
-	    fileReader = new FileReader(file);
-	} catch (FileNotFoundException exception) {
-	    return null;
-	}
-	final LineNumberReader reader = new LineNumberReader(fileReader);
-
-	int state = FR_BEGIN;
-	String gene = "";
-
-	while (true) {
-	    String line;
-	    try {
-		line = reader.readLine();
-	    } catch (IOException exception) {
-		line = null;
-	    }
-	    if (line == null)
-		break;
-
-	    switch (state) {
-	    case FR_BEGIN:
-		if (line.charAt(0) == '>')
-		    state = FR_FASTA;
-		else if (line.startsWith("ORIGIN"))
-		    state = FR_GENBANK;
-		else
-		    state = FR_UNKNOWN;
-		break;
-
-	    case FR_UNKNOWN:
-		if (line.startsWith("ORIGIN"))
-		    state = FR_GENBANK;
-		break;
-
-	    case FR_FASTA:
-		gene += line;
-		break;
-
-	    case FR_GENBANK:
-		final StringTokenizer tokenizer =
-		      new StringTokenizer(line.trim());
-		if (tokenizer.countTokens() < 2)
-		    break;
-
-		tokenizer.nextToken();
-		while (tokenizer.hasMoreTokens())
-		    gene += tokenizer.nextToken();
-	    }
-	}
-
-	gene = stripGene(gene);
-	if (gene.length() == 0)
-	    return null;
-	return gene;
+    private static SequenceDocument getGene(final JTextArea text) {
+	return (SequenceDocument)text.getDocument();
     }
 
     /**
-     * Open a gene or a text file.
-     *
-     * @return the read file.
+     * Stop the progress timer if nothing runs in the background anymore.
      */
-    private String openFile() {
-	if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
-	    return null;
-
-	final File file = chooser.getSelectedFile();
-	String gene = readGeneFile(file);
-	if (gene == null)
-	    gene = readTextFile(file);
-	return gene;
+    private void stopProgressTimer() {
+	if (alignment == null && gene1Loader == null && gene2Loader == null)
+	    progressTimer.stop();
     }
 
     /**
@@ -592,7 +671,8 @@ public final class MainFrame extends JFrame {
 	    subSameModel.setValue(new Double(costs.defaultSubSame));
 	    subDiffModel.setValue(new Double(costs.defaultSubDiff));
 
-	    costs.makeTables(gene1Text.getText(), gene2Text.getText(),
+	    costs.makeTables(getGene(gene1Text).getSequence(),
+			     getGene(gene2Text).getSequence(),
 			     insertionsContainerPanel, deletionsContainerPanel,
 			     substitutionsContainerPanel);
 	} else {
@@ -607,6 +687,17 @@ public final class MainFrame extends JFrame {
 		       ((Double)subSameModel.getValue()).doubleValue();
 	    costs.defaultSubDiff =
 		       ((Double)subDiffModel.getValue()).doubleValue();
+
+	    // The tables are only computed once they are shown
+	    if (contentTabbedPane.getSelectedComponent() == tablePanel ||
+		contentTabbedPane.getSelectedComponent() == heatmapPanel) {
+		if (pendingTables != null) {
+		    if (alignment == null)
+			pendingTables.run();
+		} else if (contentTabbedPane.getSelectedComponent() ==
+			   heatmapPanel)
+		    buildHeatmap();
+	    }
 	}
     }
 
@@ -616,11 +707,7 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void randomButton_actionPerformed(ActionEvent e) {
-	final char[] string = new char[RANDOM_LENGTH];
-	for (int i = 0; i < string.length; i++)
-	    string[i] = RANDOM_CHARS[(int)(Math.random() *
-					   RANDOM_CHARS.length)];
-	gene1Text.setText(new String(string));
+	gene1Text.setText(new String(generator.random(random, RANDOM_LENGTH)));
     }
 
     /**
@@ -629,26 +716,8 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void generateButton_actionPerformed(ActionEvent e) {
-	final String from = gene1Text.getText();
-	String str = new String();
-	int pos = 0;
-
-	while (true) {
-	    final double rand = Math.random();
-	    if (rand < PROBA_INS)
-		str += from.charAt((int)(Math.random() * from.length()));
-	    else if (rand < PROBA_INS + PROBA_DEL)
-		pos++;
-	    else if (rand < PROBA_INS + PROBA_DEL + PROBA_SUB) {
-		str += from.charAt((int)(Math.random() * from.length()));
-		pos++;
-	    } else if (pos < from.length())
-		str += from.charAt(pos++);
-	    else
-		break;
-	}
-
-	gene2Text.setText(str);
+	gene2Text.setText(new String(generator.mutate(random,
+	    getGene(gene1Text).toCharArray(), null)));
     }
 
     /**
@@ -657,7 +726,7 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void gene1UppercaseButton_actionPerformed(ActionEvent e) {
-	gene1Text.setText(gene1Text.getText().toUpperCase());
+	getGene(gene1Text).toUpperCase();
     }
 
     /**
@@ -666,7 +735,7 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void gene2UppercaseButton_actionPerformed(ActionEvent e) {
-	gene2Text.setText(gene2Text.getText().toUpperCase());
+	getGene(gene2Text).toUpperCase();
     }
 
     /**
@@ -675,9 +744,12 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void gene1LoadButton_actionPerformed(ActionEvent e) {
-	final String string = openFile();
-	if (string != null)
-	    gene1Text.setText(string);
+	final File file = openFile();
+	if (file != null) {
+	    gene1Loader = new GeneLoader(file, gene1Text, gene1LoadButton,
+					 gene1ProgressBar);
+	    gene1Loader.execute();
+	}
     }
 
     /**
@@ -686,9 +758,12 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void gene2LoadButton_actionPerformed(ActionEvent e) {
-	final String string = openFile();
-	if (string != null)
-	    gene2Text.setText(string);
+	final File file = openFile();
+	if (file != null) {
+	    gene2Loader = new GeneLoader(file, gene2Text, gene2LoadButton,
+					 gene2ProgressBar);
+	    gene2Loader.execute();
+	}
     }
 
     /**
@@ -725,21 +800,236 @@ public final class MainFrame extends JFrame {
      * @param e the event.
      */
     private void alignButton_actionPerformed(ActionEvent e) {
-	gene1Text.setText(stripGene(gene1Text.getText()));
-	gene2Text.setText(stripGene(gene2Text.getText()));
+	final SequenceDocument gene1 = getGene(gene1Text);
+	final SequenceDocument gene2 = getGene(gene2Text);
+	gene1.strip();
+	gene2.strip();
 
-	if (gene1Text.getText().length() == 0 &&
-	    gene2Text.getText().length() == 0)
+	if (gene1.getLength() == 0 && gene2.getLength() == 0)
 	    return;
 
 	contentTabbedPane.setSelectedIndex(0);
-	final Aligner aligner = new Aligner(gene1Text.getText(),
-					    gene2Text.getText());
-	aligner.compute(costs);
+	final CostMatrix snapshot = costs.snapshot();
+	final ResultCache.Key key = ResultCache.key(gene1.getSequence(),
+						    gene2.getSequence(),
+						    snapshot);
+	if (key.equals(displayedKey))
+	    return;
+
+	// A cached alignment is shown at once, and its tables are only
+	// computed if their tabs are opened
+	final ResultCache.Result cached = results.get(key);
+	if (cached != null) {
+	    final char[] string1 = gene1.toCharArray();
+	    final char[] string2 = gene2.toCharArray();
+	    alignmentScrollPane.setViewportView(new AlignmentView(
+		string1, string2, cached.getEditScript()));
+	    displayedKey = key;
+	    showTables(null);
+	    pendingTables = new Runnable() {
+		public void run() {
+		    startAlignment(new Aligner(new String(string1),
+					       new String(string2)),
+				   snapshot, key);
+		}
+	    };
+	    return;
+	}
+
+	pendingTables = null;
+	startAlignment(new Aligner(gene1.getSequence(), gene2.getSequence()),
+		       snapshot, key);
+    }
+
+    /**
+     * Start an alignment in the background, with its tables.
+     *
+     * @param aligner  the aligner of the genes.
+     * @param snapshot the compiled costs.
+     * @param key      the key of the result in the cache.
+     */
+    private void startAlignment(final Aligner aligner,
+				final CostMatrix snapshot,
+				final ResultCache.Key key) {
+	final Aligner previous = displayedAligner;
+
+	alignment = new SwingWorker<EditScript, Void>() {
+	    protected EditScript doInBackground() {
+		if (aligner.getCellCount() <= MAX_TABLE_CELLS)
+		    aligner.compute(snapshot, previous);
+		else
+		    aligner.compute(snapshot, CostCheckpoints.getDefaultInterval(
+					aligner.getString2().length + 1),
+				    CHECKPOINT_CACHE_SIZE, previous);
+		return aligner.getEditScript();
+	    }
+
+	    protected void done() {
+		alignmentFinished(this, aligner, key);
+	    }
+	};
+	alignmentAligner = aligner;
+	progressTimer.start();
+	alignProgressBar.setValue(0);
+	alignProgressBar.setVisible(true);
+	alignButton.setEnabled(false);
+	cancelButton.setEnabled(true);
+	alignment.execute();
+    }
+
+    /**
+     * Update the alignment progress bar.  Called periodically by the
+     * progress timer while an alignment is running.
+     *
+     * @param e the event.
+     */
+    private void progressTimer_actionPerformed(ActionEvent e) {
+	if (alignmentAligner != null)
+	    alignProgressBar.setValue((int)(alignmentAligner.getProgress() *
+					    100.0));
+	if (gene1Loader != null)
+	    gene1Loader.showProgress();
+	if (gene2Loader != null)
+	    gene2Loader.showProgress();
+    }
+
+    /**
+     * Publish the result of a finished alignment, unless it was cancelled.
+     *
+     * @param worker  the finished alignment worker.
+     * @param aligner the aligner it used.
+     * @param key     the key of the result in the cache.
+     */
+    private void alignmentFinished(final SwingWorker<EditScript, Void> worker,
+				   final Aligner aligner,
+				   final ResultCache.Key key) {
+	alignProgressBar.setVisible(false);
+	alignButton.setEnabled(true);
+	cancelButton.setEnabled(false);
+	alignment = null;
+	alignmentAligner = null;
+	stopProgressTimer();
+
+	if (worker.isCancelled())
+	    return;
 
-	alignmentText.setText(aligner.toString());
+	try {
+	    final EditScript script = worker.get();
+	    alignmentScrollPane.setViewportView(
+		new AlignmentView(aligner.getString1(), aligner.getString2(),
+				  script));
+	    results.put(key, aligner.getCost(), script);
+	} catch (InterruptedException exception) {
+	    return;
+	} catch (ExecutionException exception) {
+	    if (exception.getCause() instanceof CancellationException)
+		return;
+	    alignmentText.setText("Alignment failed: " +
+				  exception.getCause());
+	    alignmentScrollPane.setViewportView(alignmentText);
+	    pendingTables = null;
+	    return;
+	} catch (IOException exception) {
+	    // Never thrown: the cache is not stored
+	}
+	displayedKey = key;
+	displayedAligner = aligner;
+	pendingTables = null;
+	showTables(aligner);
+    }
+
+    /**
+     * Show the computed cost table of an alignment, and build its heatmap if
+     * its tab is open (otherwise, once it is opened).
+     *
+     * @param aligner the computed aligner, or null to clear the tables.
+     */
+    private void showTables(final Aligner aligner) {
 	tablePanel.removeAll();
-	tablePanel.add(aligner.makeTable());
+	if (aligner != null)
+	    tablePanel.add(new ComputedCostTable(aligner).makeTable());
+	tablePanel.revalidate();
+	tablePanel.repaint();
+
+	// The heatmap being built, if any, is outdated
+	if (heatmapBuilder != null)
+	    heatmapBuilder.cancel(true);
+	heatmapAligner = aligner;
+	heatmapPanel.removeAll();
+	heatmapPanel.revalidate();
+	heatmapPanel.repaint();
+	if (contentTabbedPane.getSelectedComponent() == heatmapPanel)
+	    buildHeatmap();
+    }
+
+    /**
+     * Build the heatmap of the displayed alignment in the background, unless
+     * it is built or being built.
+     */
+    private void buildHeatmap() {
+	if (heatmapAligner == null || heatmapBuilder != null)
+	    return;
+
+	final Aligner aligner = heatmapAligner;
+	heatmapBuilder = new SwingWorker<CostPyramid, Void>() {
+	    protected CostPyramid doInBackground() {
+		return new CostPyramid(aligner);
+	    }
+
+	    protected void done() {
+		heatmapFinished(this, aligner);
+	    }
+	};
+	heatmapBuilder.execute();
+	cancelButton.setEnabled(true);
+    }
+
+    /**
+     * Show a built heatmap, unless another alignment is displayed since.
+     *
+     * @param worker  the finished heatmap worker.
+     * @param aligner the aligner of the heatmap.
+     */
+    private void heatmapFinished(final SwingWorker<CostPyramid, Void> worker,
+				 final Aligner aligner) {
+	heatmapBuilder = null;
+	cancelButton.setEnabled(alignment != null);
+	if (aligner != heatmapAligner) {
+	    // Outdated: build the heatmap of the displayed alignment instead
+	    if (contentTabbedPane.getSelectedComponent() == heatmapPanel)
+		buildHeatmap();
+	    return;
+	}
+	if (worker.isCancelled())
+	    return;
+
+	try {
+	    final CostPyramid pyramid = worker.get();
+	    heatmapPanel.add(new CostHeatmap(pyramid).makeView());
+	} catch (InterruptedException exception) {
+	    return;
+	} catch (ExecutionException exception) {
+	    if (exception.getCause() instanceof CancellationException)
+		return;
+	    heatmapPanel.add(new JLabel("Heatmap failed: " +
+					exception.getCause()));
+	}
+	heatmapAligner = null;
+	heatmapPanel.revalidate();
+    }
+
+    /**
+     * Action performed when the "Cancel" button is clicked.
+     *
+     * @param e the event.
+     */
+    private void cancelButton_actionPerformed(ActionEvent e) {
+	if (alignment != null) {
+	    alignmentAligner.cancel();
+	    alignment.cancel(false);
+	}
+	if (heatmapBuilder != null)
+	    heatmapBuilder.cancel(true);
     }
 
     /**
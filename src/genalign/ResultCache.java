@@ -0,0 +1,576 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: ResultCache.java
+ *
+ * Description: Alignment Result Cache
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Content-addressed cache of alignment results: the cost and the edit script
+ * of a pair, keyed by a hash of both sequences and the fingerprint of the
+ * cost table, so that realigning the same pair with the same costs costs
+ * nothing.
+ *
+ * The results are kept in memory, the least recently used ones being evicted
+ * beyond a size limit, and optionally in a store file, memory mapped, which
+ * keeps them across runs.  The store is a log of records, each checked by a
+ * CRC-32, so that a record torn by a crash is ignored (and overwritten) when
+ * the store is opened again.  The methods are synchronized: a cache can be
+ * shared by several alignment threads.
+ */
+public final class ResultCache {
+    /**
+     * Default maximum size of the results kept in memory.
+     */
+    public final static long DEFAULT_MEMORY = 64L << 20;
+
+    /**
+     * Store file magic number ("GACH") and format version.
+     */
+    private final static int MAGIC = 0x48434147, VERSION = 1;
+
+    /**
+     * Size of the store file header, and of the header of a record (size
+     * and CRC-32 of its contents).
+     */
+    private final static int HEADER_SIZE = 16, RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Size of a key in the store.
+     */
+    private final static int KEY_SIZE = 24;
+
+    /**
+     * The store file grows by chunks of this size at least.
+     */
+    private final static int GROWTH = 1 << 20;
+
+    /**
+     * Approximate memory footprint of a cached result, besides its runs.
+     */
+    private final static int ENTRY_OVERHEAD = 160;
+
+    /**
+     * The key of a result: a hash of both sequences and the fingerprint of
+     * the costs.
+     */
+    public final static class Key {
+	/**
+	 * The first 128 bits of the SHA-256 hash of the sequences, and the
+	 * fingerprint of the costs.
+	 */
+	final long hash1, hash2, fingerprint;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param hash1       the first half of the hash.
+	 * @param hash2       the second half of the hash.
+	 * @param fingerprint the fingerprint of the costs.
+	 */
+	Key(final long hash1, final long hash2, final long fingerprint) {
+	    this.hash1 = hash1;
+	    this.hash2 = hash2;
+	    this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Check wether another object is an identical key.
+	 *
+	 * @param object the object.
+	 *
+	 * @return wether it is an identical key.
+	 */
+	public boolean equals(final Object object) {
+	    if (!(object instanceof Key))
+		return false;
+	    final Key key = (Key)object;
+	    return key.hash1 == hash1 && key.hash2 == hash2 &&
+		   key.fingerprint == fingerprint;
+	}
+
+	/**
+	 * Get the hash code of the key.
+	 *
+	 * @return the hash code.
+	 */
+	public int hashCode() {
+	    return (int)hash1;
+	}
+    }
+
+    /**
+     * A cached result.
+     */
+    public final static class Result {
+	/**
+	 * The minimum cost.
+	 */
+	private final double cost;
+
+	/**
+	 * The edit script.
+	 */
+	private final EditScript script;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cost   the minimum cost.
+	 * @param script the edit script, which is not copied.
+	 */
+	Result(final double cost, final EditScript script) {
+	    this.cost = cost;
+	    this.script = script;
+	}
+
+	/**
+	 * Get the minimum cost.
+	 *
+	 * @return the cost.
+	 */
+	public double getCost() {
+	    return cost;
+	}
+
+	/**
+	 * Get the edit script.  It is shared and must not be modified.
+	 *
+	 * @return the edit script.
+	 */
+	public EditScript getEditScript() {
+	    return script;
+	}
+
+	/**
+	 * Get the approximate memory footprint of the result.
+	 *
+	 * @return the size in bytes.
+	 */
+	long getSize() {
+	    return ENTRY_OVERHEAD + 6L * script.getRunCount();
+	}
+    }
+
+    /**
+     * The results kept in memory, least recently used first, and their total
+     * size.
+     */
+    private final LinkedHashMap<Key, Result> entries =
+	new LinkedHashMap<Key, Result>(16, 0.75f, true);
+    private final long maxSize;
+    private long size = 0;
+
+    /**
+     * The store file, its mapping, the offset of the stored results and the
+     * end of the records, if there is a store.
+     */
+    private RandomAccessFile storeFile = null;
+    private MappedByteBuffer store = null;
+    private final Map<Key, Integer> stored = new HashMap<Key, Integer>();
+    private int end = HEADER_SIZE;
+
+    /**
+     * Statistics.
+     */
+    private long hits = 0, storeHits = 0, misses = 0, evictions = 0;
+
+    /**
+     * Constructor for a cache kept in memory only.
+     *
+     * @param maxSize the maximum size of the results kept in memory, in
+     *                bytes.
+     */
+    public ResultCache(final long maxSize) {
+	this.maxSize = maxSize;
+    }
+
+    /**
+     * Constructor for a cache kept in a store file as well, created if
+     * needed.  The results already in the store are indexed, but only loaded
+     * in memory when they are used.
+     *
+     * @param maxSize the maximum size of the results kept in memory, in
+     *                bytes.
+     * @param file    the store file.
+     *
+     * @throws IOException if the store cannot be opened or is not a store.
+     */
+    public ResultCache(final long maxSize, final File file)
+	throws IOException {
+	this(maxSize);
+	storeFile = new RandomAccessFile(file, "rw");
+
+	try {
+	    if (storeFile.length() == 0) {
+		map(GROWTH);
+		store.putInt(0, MAGIC);
+		store.putInt(4, VERSION);
+	    } else {
+		if (storeFile.length() > Integer.MAX_VALUE)
+		    throw new IOException(file + ": store too large");
+		map((int)storeFile.length());
+		if (store.capacity() < HEADER_SIZE ||
+		    store.getInt(0) != MAGIC)
+		    throw new IOException(file + ": not a result store");
+		if (store.getInt(4) != VERSION)
+		    throw new IOException(file +
+					  ": unsupported result store version");
+		scan();
+	    }
+	} catch (IOException exception) {
+	    storeFile.close();
+	    throw exception;
+	}
+    }
+
+    /**
+     * Compute the key of a pair.
+     *
+     * @param string1 the first ("initial state") sequence.
+     * @param string2 the second ("target") sequence.
+     * @param costs   the costs the pair is aligned with.
+     *
+     * @return the key.
+     */
+    public static Key key(final CharSequence string1,
+			  final CharSequence string2, final CostMatrix costs) {
+	final MessageDigest digest;
+	try {
+	    digest = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException exception) {
+	    throw new IllegalStateException(exception);
+	}
+
+	final byte[] buffer = new byte[8192];
+	update(digest, buffer, string1);
+	update(digest, buffer, string2);
+	final byte[] hash = digest.digest();
+
+	return new Key(getLong(hash, 0), getLong(hash, 8),
+		       costs.getFingerprint());
+    }
+
+    /**
+     * Hash a sequence, preceded by its length so that the boundary between
+     * the sequences is hashed too.
+     *
+     * @param digest   the digest.
+     * @param buffer   a buffer for the characters.
+     * @param sequence the sequence.
+     */
+    private static void update(final MessageDigest digest, final byte[] buffer,
+			       final CharSequence sequence) {
+	final int length = sequence.length();
+	for (int shift = 24; shift >= 0; shift -= 8)
+	    digest.update((byte)(length >>> shift));
+
+	for (int start = 0; start < length; start += buffer.length / 2) {
+	    final int count = Math.min(buffer.length / 2, length - start);
+	    for (int i = 0; i < count; i++) {
+		final char chr = sequence.charAt(start + i);
+		buffer[2 * i] = (byte)(chr >>> 8);
+		buffer[2 * i + 1] = (byte)chr;
+	    }
+	    digest.update(buffer, 0, 2 * count);
+	}
+    }
+
+    /**
+     * Read a big-endian long.
+     *
+     * @param bytes  the bytes.
+     * @param offset the offset of the long.
+     *
+     * @return the long.
+     */
+    private static long getLong(final byte[] bytes, final int offset) {
+	long value = 0;
+	for (int i = 0; i < 8; i++)
+	    value = value << 8 | bytes[offset + i] & 0xff;
+	return value;
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param key the key of the pair.
+     *
+     * @return the result, or null if it is not cached.
+     */
+    public synchronized Result get(final Key key) {
+	Result result = entries.get(key);
+	if (result == null) {
+	    final Integer offset = store == null ? null : stored.get(key);
+	    if (offset == null) {
+		misses++;
+		return null;
+	    }
+	    result = read(offset.intValue());
+	    storeHits++;
+	    add(key, result);
+	}
+
+	hits++;
+	return result;
+    }
+
+    /**
+     * Cache a result.
+     *
+     * @param key    the key of the pair.
+     * @param cost   the minimum cost.
+     * @param script the edit script, which is copied.
+     *
+     * @throws IOException if the result cannot be stored; it is cached in
+     *                     memory anyway.
+     */
+    public synchronized void put(final Key key, final double cost,
+				 final EditScript script) throws IOException {
+	if (entries.containsKey(key))
+	    return;
+	final Result result = new Result(cost, script.copy());
+	add(key, result);
+	if (store != null && !stored.containsKey(key))
+	    write(key, result);
+    }
+
+    /**
+     * Add a result to the memory, evicting the least recently used ones
+     * beyond the size limit.
+     *
+     * @param key    the key of the pair.
+     * @param result the result.
+     */
+    private void add(final Key key, final Result result) {
+	entries.put(key, result);
+	size += result.getSize();
+
+	final Iterator<Result> eldest = entries.values().iterator();
+	while (size > maxSize && entries.size() > 1) {
+	    size -= eldest.next().getSize();
+	    eldest.remove();
+	    evictions++;
+	}
+    }
+
+    /**
+     * Map the store file, extending it if needed.
+     *
+     * @param capacity the size of the mapping.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    private void map(final int capacity) throws IOException {
+	if (storeFile.length() < capacity)
+	    storeFile.setLength(capacity);
+	store = storeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					   capacity);
+	store.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Index the records of the store.  The records end at the first empty,
+     * truncated or corrupted one.
+     */
+    private void scan() {
+	final CRC32 crc = new CRC32();
+	int offset = HEADER_SIZE;
+
+	while (offset + RECORD_HEADER_SIZE <= store.capacity()) {
+	    final int length = store.getInt(offset);
+	    final int start = offset + RECORD_HEADER_SIZE;
+	    if (length < KEY_SIZE + 12 || length > store.capacity() - start)
+		break;
+
+	    crc.reset();
+	    crc.update(store.slice(start, length));
+	    if ((int)crc.getValue() != store.getInt(offset + 4))
+		break;
+
+	    stored.put(new Key(store.getLong(start), store.getLong(start + 8),
+			       store.getLong(start + 16)),
+		       Integer.valueOf(offset));
+	    offset = start + length;
+	}
+
+	end = offset;
+    }
+
+    /**
+     * Read a stored result.
+     *
+     * @param offset the offset of the record.
+     *
+     * @return the result.
+     */
+    private Result read(final int offset) {
+	int pos = offset + RECORD_HEADER_SIZE + KEY_SIZE;
+	final double cost = store.getDouble(pos);
+	final int runCount = store.getInt(pos + 8);
+	final EditScript script = new EditScript(runCount);
+
+	pos += 12;
+	for (int i = 0; i < runCount; i++) {
+	    final char op = (char)store.get(pos);
+	    final int length = store.getInt(pos + 1);
+	    script.append(op, length);
+	    pos += 5;
+	}
+	return new Result(cost, script);
+    }
+
+    /**
+     * Append a result to the store.  The record header is written last, so
+     * that a record is only found once it is complete.
+     *
+     * @param key    the key of the pair.
+     * @param result the result.
+     *
+     * @throws IOException if the store cannot be extended.
+     */
+    private void write(final Key key, final Result result)
+	throws IOException {
+	final EditScript script = result.getEditScript();
+	final long length = KEY_SIZE + 12 + 5L * script.getRunCount();
+	final long required = end + RECORD_HEADER_SIZE + length;
+	if (required > Integer.MAX_VALUE)
+	    throw new IOException("result store full");
+	if (required > store.capacity())
+	    map((int)Math.min(Integer.MAX_VALUE,
+			      Math.max(required, 2L * store.capacity())));
+
+	final int start = end + RECORD_HEADER_SIZE;
+	int pos = start;
+	store.putLong(pos, key.hash1);
+	store.putLong(pos + 8, key.hash2);
+	store.putLong(pos + 16, key.fingerprint);
+	store.putDouble(pos + 24, result.getCost());
+	store.putInt(pos + 32, script.getRunCount());
+	pos += 36;
+	for (int i = 0; i < script.getRunCount(); i++) {
+	    store.put(pos, (byte)script.getOp(i));
+	    store.putInt(pos + 1, script.getLength(i));
+	    pos += 5;
+	}
+
+	final CRC32 crc = new CRC32();
+	crc.update(store.slice(start, (int)length));
+	store.putInt(end + 4, (int)crc.getValue());
+	store.putInt(end, (int)length);
+
+	stored.put(key, Integer.valueOf(end));
+	end = pos;
+    }
+
+    /**
+     * Flush the store to the disk and close it.  The cache is still usable
+     * in memory, and its statistics still count the stored results.
+     *
+     * @throws IOException if the store cannot be closed.
+     */
+    public synchronized void close() throws IOException {
+	if (store == null)
+	    return;
+	store.force();
+	store = null;
+	storeFile.close();
+	storeFile = null;
+    }
+
+    /**
+     * Get the number of lookups which found a result.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /**
+     * Get the number of lookups which found a result in the store only.
+     *
+     * @return the number of store hits.
+     */
+    public synchronized long getStoreHits() {
+	return storeHits;
+    }
+
+    /**
+     * Get the number of lookups which found no result.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /**
+     * Get the number of results evicted from the memory.
+     *
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictions() {
+	return evictions;
+    }
+
+    /**
+     * Get the statistics of the cache.
+     *
+     * @return the hits, misses, evictions and results in memory and in the
+     *         store.
+     */
+    public synchronized String toString() {
+	final long lookups = hits + misses;
+	return hits + " hits (" + storeHits + " from the store), " + misses +
+	       " misses" + (lookups > 0 ? ", " + 100 * hits / lookups +
+	       "% hit rate" : "") + ", " + evictions + " evictions, " +
+	       entries.size() + " results (" + size + " bytes) in memory" +
+	       (!stored.isEmpty() ? ", " + stored.size() + " in the store" : "");
+    }
+}
+
+// End of File
@@ -0,0 +1,88 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: Sequence.java
+ *
+ * Description: Named Gene Sequence
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+/**
+ * A gene sequence with its name, as read from a gene file.
+ */
+public final class Sequence {
+    /**
+     * The sequence name (FASTA header, file name...).
+     */
+    private final String name;
+
+    /**
+     * The sequence residues.
+     */
+    private final String residues;
+
+    /**
+     * Constructor.
+     *
+     * @param name     the sequence name.
+     * @param residues the sequence residues.
+     */
+    public Sequence(final String name, final String residues) {
+	this.name = name;
+	this.residues = residues;
+    }
+
+    /**
+     * Get the sequence name.
+     *
+     * @return the name.
+     */
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Get the sequence residues.
+     *
+     * @return the residues.
+     */
+    public String getResidues() {
+	return residues;
+    }
+
+    /**
+     * Get the sequence length.
+     *
+     * @return the number of residues.
+     */
+    public int length() {
+	return residues.length();
+    }
+}
+
+// End of File
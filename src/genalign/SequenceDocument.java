@@ -0,0 +1,713 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: SequenceDocument.java
+ *
+ * Description: Chunked Sequence Document
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Text document holding a gene sequence.
+ *
+ * The characters are stored in fixed-size chunks, so that editing a large
+ * gene only moves the characters of one chunk, and the views read the chunks
+ * directly instead of copies.  The sequence can be uppercased and stripped in
+ * place, and read through a CharSequence view without copying it into a
+ * string as getText() does.
+ */
+public final class SequenceDocument extends PlainDocument {
+    /**
+     * The chunk size, in characters.
+     */
+    private final static int CHUNK_SIZE = 4096;
+
+    /**
+     * Characters stripped from the genes (see GeneReader.stripGene()).
+     */
+    private final static String STRIPPED = " \t\n\r-";
+
+    /**
+     * Position in the content, moved when characters are inserted or
+     * removed before it.
+     */
+    private final static class Mark implements Position {
+	/**
+	 * The offset.
+	 */
+	int offset;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param offset the initial offset.
+	 */
+	Mark(final int offset) {
+	    this.offset = offset;
+	}
+
+	/**
+	 * Get the offset.
+	 *
+	 * @return the offset.
+	 */
+	public int getOffset() {
+	    return offset;
+	}
+    }
+
+    /**
+     * Document content made of chunks of characters.  Like the other
+     * contents, it ends with a newline which is not part of the document.
+     */
+    private final static class ChunkedContent
+	implements AbstractDocument.Content {
+	/**
+	 * The chunks, the number of characters in each chunk and the offset of
+	 * the first character of each chunk.
+	 */
+	private char[][] chunks = new char[1][CHUNK_SIZE];
+	private int[] sizes = new int[1];
+	private int[] starts = new int[1];
+
+	/**
+	 * The number of chunks used.
+	 */
+	private int count = 1;
+
+	/**
+	 * The total number of characters.
+	 */
+	private int length = 0;
+
+	/**
+	 * The positions, not kept alive by the content.
+	 */
+	private final ArrayList<WeakReference<Mark>> marks =
+	    new ArrayList<WeakReference<Mark>>();
+
+	/**
+	 * A copy of the whole content in a single array, made when characters
+	 * spanning several chunks are read, until the content is modified.  The
+	 * wrapped text views read the rest of the line after each row, which
+	 * would otherwise be copied again and again for long lines.
+	 */
+	private char[] flat = null;
+
+	/**
+	 * The number of positions from which the unused ones are forgotten.
+	 */
+	private int purgeSize = 64;
+
+	/**
+	 * The chunk last looked up by charAt(), which is usually read
+	 * sequentially.
+	 */
+	private int lastChunk = 0;
+
+	/**
+	 * Constructor.
+	 */
+	ChunkedContent() {
+	    chunks[0][0] = '\n';
+	    sizes[0] = 1;
+	    length = 1;
+	}
+
+	/**
+	 * Find the chunk containing an offset.
+	 *
+	 * @param offset the offset (the content length is in the last chunk).
+	 *
+	 * @return the chunk index.
+	 */
+	private int findChunk(final int offset) {
+	    int low = 0, high = count - 1;
+
+	    while (low < high) {
+		final int middle = (low + high + 1) >>> 1;
+		if (starts[middle] <= offset)
+		    low = middle;
+		else
+		    high = middle - 1;
+	    }
+	    return low;
+	}
+
+	/**
+	 * Recompute the chunk offsets from a chunk.
+	 *
+	 * @param from the first chunk whose offset may have changed.
+	 */
+	private void updateStarts(final int from) {
+	    for (int chunk = Math.max(from, 1); chunk < count; chunk++)
+		starts[chunk] = starts[chunk - 1] + sizes[chunk - 1];
+	}
+
+	/**
+	 * Make room for new chunks.
+	 *
+	 * @param index  where to insert the chunks.
+	 * @param number the number of chunks to insert.
+	 */
+	private void insertChunks(final int index, final int number) {
+	    if (count + number > chunks.length) {
+		final int capacity = Math.max(chunks.length * 2, count + number);
+		chunks = Arrays.copyOf(chunks, capacity);
+		sizes = Arrays.copyOf(sizes, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+	    }
+	    System.arraycopy(chunks, index, chunks, index + number,
+			     count - index);
+	    System.arraycopy(sizes, index, sizes, index + number,
+			     count - index);
+	    for (int chunk = index; chunk < index + number; chunk++) {
+		chunks[chunk] = new char[CHUNK_SIZE];
+		sizes[chunk] = 0;
+	    }
+	    count += number;
+	}
+
+	/**
+	 * Append characters to the chunks following a chunk, starting from its
+	 * end and moving to the next chunk when it is full.
+	 *
+	 * @param chunk the first chunk.
+	 * @param chars the characters.
+	 */
+	private void fill(int chunk, final char[] chars) {
+	    int done = 0;
+
+	    while (done < chars.length) {
+		if (sizes[chunk] == CHUNK_SIZE)
+		    chunk++;
+		final int part = Math.min(chars.length - done,
+					  CHUNK_SIZE - sizes[chunk]);
+		System.arraycopy(chars, done, chunks[chunk], sizes[chunk], part);
+		sizes[chunk] += part;
+		done += part;
+	    }
+	}
+
+	/**
+	 * Get the character at an offset.
+	 *
+	 * @param offset the offset.
+	 *
+	 * @return the character.
+	 */
+	char charAt(final int offset) {
+	    int chunk = lastChunk;
+	    if (chunk >= count || offset < starts[chunk] ||
+		offset >= starts[chunk] + sizes[chunk]) {
+		chunk = findChunk(offset);
+		lastChunk = chunk;
+	    }
+	    return chunks[chunk][offset - starts[chunk]];
+	}
+
+	/**
+	 * Copy characters to an array.
+	 *
+	 * @param where  the offset of the first character.
+	 * @param len    the number of characters.
+	 * @param array  the destination array.
+	 * @param offset the offset in the destination array.
+	 */
+	void copy(int where, int len, final char[] array, int offset) {
+	    int chunk = findChunk(where);
+
+	    while (len > 0) {
+		final int start = where - starts[chunk];
+		final int part = Math.min(len, sizes[chunk] - start);
+		System.arraycopy(chunks[chunk], start, array, offset, part);
+		where += part;
+		offset += part;
+		len -= part;
+		chunk++;
+	    }
+	}
+
+	/**
+	 * Create a position.
+	 *
+	 * @param offset the offset.
+	 *
+	 * @return the position.
+	 *
+	 * @throws BadLocationException if the offset is out of the content.
+	 */
+	public Position createPosition(final int offset)
+	    throws BadLocationException {
+	    if (offset < 0 || offset > length)
+		throw new BadLocationException("invalid position", offset);
+
+	    final Mark mark = new Mark(offset);
+	    if (marks.size() >= purgeSize) {
+		purgeMarks();
+		purgeSize = Math.max(64, marks.size() * 2);
+	    }
+	    marks.add(new WeakReference<Mark>(mark));
+	    return mark;
+	}
+
+	/**
+	 * Forget the positions which are not used anymore.
+	 */
+	private void purgeMarks() {
+	    int used = 0;
+	    for (int i = 0; i < marks.size(); i++)
+		if (marks.get(i).get() != null)
+		    marks.set(used++, marks.get(i));
+	    marks.subList(used, marks.size()).clear();
+	}
+
+	/**
+	 * Get the content length.
+	 *
+	 * @return the number of characters, including the final newline.
+	 */
+	public int length() {
+	    return length;
+	}
+
+	/**
+	 * Insert a string.
+	 *
+	 * @param where the offset.
+	 * @param str   the string.
+	 *
+	 * @return null: undo is not supported.
+	 *
+	 * @throws BadLocationException if the offset is out of the content.
+	 */
+	public UndoableEdit insertString(final int where, final String str)
+	    throws BadLocationException {
+	    if (where < 0 || where >= length)
+		throw new BadLocationException("invalid insertion", where);
+
+	    final int len = str.length();
+	    final int chunk = findChunk(where);
+	    flat = null;
+	    final int start = where - starts[chunk];
+
+	    if (sizes[chunk] + len > CHUNK_SIZE) {
+		// Split the chunk: the inserted characters and its tail fill
+		// it and as many new chunks as needed
+		final char[] tail = Arrays.copyOfRange(chunks[chunk], start,
+						       sizes[chunk]);
+		final int total = start + len + tail.length;
+
+		insertChunks(chunk + 1, (total - 1) / CHUNK_SIZE);
+		sizes[chunk] = start;
+		fill(chunk, str.toCharArray());
+		fill(chunk + (start + len) / CHUNK_SIZE, tail);
+	    } else {
+		final char[] array = chunks[chunk];
+		System.arraycopy(array, start, array, start + len,
+				 sizes[chunk] - start);
+		str.getChars(0, len, array, start);
+		sizes[chunk] += len;
+	    }
+	    length += len;
+	    updateStarts(chunk);
+
+	    // Like the other contents, the positions at the insertion offset
+	    // move, except at the beginning of the document
+	    final int from = where == 0 ? 1 : where;
+	    for (int i = 0; i < marks.size(); i++) {
+		final Mark mark = marks.get(i).get();
+		if (mark != null && mark.offset >= from)
+		    mark.offset += len;
+	    }
+	    return null;
+	}
+
+	/**
+	 * Remove characters.
+	 *
+	 * @param where  the offset of the first character.
+	 * @param nitems the number of characters.
+	 *
+	 * @return null: undo is not supported.
+	 *
+	 * @throws BadLocationException if the range is out of the content.
+	 */
+	public UndoableEdit remove(final int where, final int nitems)
+	    throws BadLocationException {
+	    if (where < 0 || nitems < 0 || where + nitems >= length)
+		throw new BadLocationException("invalid removal", where);
+
+	    final int first = findChunk(where);
+	    flat = null;
+	    int chunk = first, start = where - starts[first], left = nitems;
+
+	    while (left > 0) {
+		final int part = Math.min(left, sizes[chunk] - start);
+		System.arraycopy(chunks[chunk], start + part, chunks[chunk],
+				 start, sizes[chunk] - start - part);
+		sizes[chunk] -= part;
+		left -= part;
+		start = 0;
+		chunk++;
+	    }
+	    length -= nitems;
+	    removeEmptyChunks(first, chunk);
+
+	    final int limit = where + nitems;
+	    for (int i = 0; i < marks.size(); i++) {
+		final Mark mark = marks.get(i).get();
+		if (mark == null)
+		    continue;
+		if (mark.offset >= limit)
+		    mark.offset -= nitems;
+		else if (mark.offset >= where)
+		    mark.offset = where;
+	    }
+	    return null;
+	}
+
+	/**
+	 * Remove the empty chunks in a range, and update the chunk offsets.
+	 * The last chunk, holding the final newline, is never empty.
+	 *
+	 * @param from the first chunk of the range.
+	 * @param to   the chunk after the range.
+	 */
+	private void removeEmptyChunks(final int from, final int to) {
+	    int used = from;
+	    for (int chunk = from; chunk < count; chunk++)
+		if (chunk >= to || sizes[chunk] > 0) {
+		    chunks[used] = chunks[chunk];
+		    sizes[used] = sizes[chunk];
+		    used++;
+		}
+	    Arrays.fill(chunks, used, count, null);
+	    count = used;
+	    updateStarts(from);
+	    lastChunk = 0;
+	}
+
+	/**
+	 * Get a string.
+	 *
+	 * @param where the offset of the first character.
+	 * @param len   the number of characters.
+	 *
+	 * @return the string.
+	 *
+	 * @throws BadLocationException if the range is out of the content.
+	 */
+	public String getString(final int where, final int len)
+	    throws BadLocationException {
+	    final Segment segment = new Segment();
+	    getChars(where, len, segment);
+	    return segment.toString();
+	}
+
+	/**
+	 * Get characters.  They are not copied if they are in a single chunk,
+	 * if a partial return is allowed or if the content has not been modified
+	 * since the last copy.
+	 *
+	 * @param where the offset of the first character.
+	 * @param len   the number of characters.
+	 * @param txt   the segment to return the characters in.
+	 *
+	 * @throws BadLocationException if the range is out of the content.
+	 */
+	public void getChars(final int where, final int len,
+			     final Segment txt) throws BadLocationException {
+	    if (where < 0 || len < 0 || where + len > length)
+		throw new BadLocationException("invalid range", where);
+
+	    final int chunk = findChunk(where);
+	    final int start = where - starts[chunk];
+	    if (start + len <= sizes[chunk] || txt.isPartialReturn()) {
+		txt.array = chunks[chunk];
+		txt.offset = start;
+		txt.count = Math.min(len, sizes[chunk] - start);
+	    } else {
+		if (flat == null) {
+		    flat = new char[length];
+		    copy(0, length, flat, 0);
+		}
+		txt.array = flat;
+		txt.offset = where;
+		txt.count = len;
+	    }
+	}
+
+	/**
+	 * Uppercase the characters in place.
+	 */
+	void toUpperCase() {
+	    flat = null;
+	    for (int chunk = 0; chunk < count; chunk++) {
+		final char[] array = chunks[chunk];
+		for (int i = 0; i < sizes[chunk]; i++)
+		    array[i] = Character.toUpperCase(array[i]);
+	    }
+	}
+
+	/**
+	 * Remove some characters in place, except the final newline.  The
+	 * positions are moved along with the characters they precede.
+	 *
+	 * @param removed the characters to remove.
+	 *
+	 * @return the number of characters removed.
+	 */
+	int strip(final String removed) {
+	    purgeMarks();
+	    final Mark[] sorted = new Mark[marks.size()];
+	    int markCount = 0;
+	    for (int i = 0; i < marks.size(); i++) {
+		final Mark mark = marks.get(i).get();
+		if (mark != null)
+		    sorted[markCount++] = mark;
+	    }
+	    Arrays.sort(sorted, 0, markCount, new Comparator<Mark>() {
+		public int compare(final Mark a, final Mark b) {
+		    return a.offset - b.offset;
+		}
+	    });
+
+	    flat = null;
+	    int read = 0, written = 0, writeChunk = 0, nextMark = 0;
+	    final int end = length - 1;
+
+	    for (int chunk = 0; chunk < count; chunk++) {
+		final char[] array = chunks[chunk];
+		final int size = sizes[chunk];
+		sizes[chunk] = 0;
+
+		for (int i = 0; i < size; i++, read++) {
+		    while (nextMark < markCount &&
+			   sorted[nextMark].offset == read)
+			sorted[nextMark++].offset = written;
+
+		    final char chr = array[i];
+		    if (read < end && removed.indexOf(chr) != -1)
+			continue;
+
+		    // The write position never passes the read position
+		    if (sizes[writeChunk] == CHUNK_SIZE)
+			writeChunk++;
+		    chunks[writeChunk][sizes[writeChunk]++] = chr;
+		    written++;
+		}
+	    }
+	    while (nextMark < markCount)
+		sorted[nextMark++].offset = written;
+
+	    final int stripped = length - written;
+	    length = written;
+	    removeEmptyChunks(0, count);
+	    return stripped;
+	}
+    }
+
+    /**
+     * Read-only view of the sequence, reading the chunks directly.  It reflects
+     * the later changes of the document, and must only be used from the
+     * thread editing it.
+     */
+    private final class SequenceView implements CharSequence {
+	/**
+	 * Get the sequence length.
+	 *
+	 * @return the number of characters.
+	 */
+	public int length() {
+	    return getLength();
+	}
+
+	/**
+	 * Get a character.
+	 *
+	 * @param index the character index.
+	 *
+	 * @return the character.
+	 */
+	public char charAt(final int index) {
+	    if (index < 0 || index >= getLength())
+		throw new IndexOutOfBoundsException("index " + index);
+	    return content.charAt(index);
+	}
+
+	/**
+	 * Get a subsequence, as a string.
+	 *
+	 * @param start the first character index.
+	 * @param end   the index after the last character.
+	 *
+	 * @return the subsequence.
+	 */
+	public CharSequence subSequence(final int start, final int end) {
+	    if (start < 0 || start > end || end > getLength())
+		throw new IndexOutOfBoundsException("range " + start + "-" +
+						    end);
+	    final char[] chars = new char[end - start];
+	    content.copy(start, end - start, chars, 0);
+	    return new String(chars);
+	}
+
+	/**
+	 * Get the whole sequence as a string.
+	 *
+	 * @return the sequence.
+	 */
+	public String toString() {
+	    return subSequence(0, length()).toString();
+	}
+    }
+
+    /**
+     * The content.
+     */
+    private final ChunkedContent content;
+
+    /**
+     * The view of the sequence.
+     */
+    private final SequenceView sequence = new SequenceView();
+
+    /**
+     * Not used, but eliminates a warning.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     */
+    public SequenceDocument() {
+	this(new ChunkedContent());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param content the (empty) content.
+     */
+    private SequenceDocument(final ChunkedContent content) {
+	super(content);
+	this.content = content;
+    }
+
+    /**
+     * Get a view of the sequence which does not copy it.  It reflects the
+     * later changes of the document.
+     *
+     * @return the sequence.
+     */
+    public CharSequence getSequence() {
+	return sequence;
+    }
+
+    /**
+     * Copy the sequence into a new array.
+     *
+     * @return the characters of the sequence.
+     */
+    public char[] toCharArray() {
+	readLock();
+	try {
+	    final char[] chars = new char[getLength()];
+	    content.copy(0, chars.length, chars, 0);
+	    return chars;
+	} finally {
+	    readUnlock();
+	}
+    }
+
+    /**
+     * Uppercase the sequence in place.
+     */
+    public void toUpperCase() {
+	writeLock();
+	try {
+	    content.toUpperCase();
+
+	    final DefaultDocumentEvent event =
+		new DefaultDocumentEvent(0, getLength(),
+					 DocumentEvent.EventType.CHANGE);
+	    event.end();
+	    fireChangedUpdate(event);
+	} finally {
+	    writeUnlock();
+	}
+    }
+
+    /**
+     * Strip the sequence in place from whitespace and gaps, as
+     * GeneReader.stripGene() does.  The sequence then holds a single line.
+     */
+    public void strip() {
+	writeLock();
+	try {
+	    final int removed = content.strip(STRIPPED);
+	    if (removed == 0)
+		return;
+
+	    // The lines were merged: replace them all with a single one
+	    final BranchElement root = (BranchElement)getDefaultRootElement();
+	    final Element[] lines = new Element[root.getElementCount()];
+	    for (int i = 0; i < lines.length; i++)
+		lines[i] = root.getElement(i);
+	    final Element[] line = {
+		createLeafElement(root, null, 0, content.length())
+	    };
+	    root.replace(0, lines.length, line);
+
+	    final DefaultDocumentEvent event =
+		new DefaultDocumentEvent(0, removed,
+					 DocumentEvent.EventType.REMOVE);
+	    event.addEdit(new ElementEdit(root, 0, lines, line));
+	    event.end();
+	    fireRemoveUpdate(event);
+	} finally {
+	    writeUnlock();
+	}
+    }
+}
+
+// End of File
@@ -0,0 +1,619 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: ShardQueue.java
+ *
+ * Description: Multi-Process Sharded Job Queue
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Queue of the tiles of a command-line job sharded over several processes,
+ * so that a large batch or all-vs-all job is not bound to the heap of a
+ * single JVM.  The queue is a directory, on a local or shared (e.g. NFS) file
+ * system:
+ *
+ *     job.properties   the command-line arguments, the number of pairs and
+ *                      the number of pairs per tile
+ *     todo/tile-N      the tiles left to align
+ *     claimed/tile-N@W the tiles being aligned by the worker W
+ *     done/tile-N      the results of the aligned tiles
+ *
+ * A tile is a range of consecutive pairs, in the order the command line
+ * aligns them (see its -s option).  Workers claim the tiles by renaming them
+ * from todo/ to claimed/, which is atomic, so that each tile is claimed by a
+ * single worker; its results are written to a temporary file, then renamed
+ * into done/.  A claimed tile is touched periodically while it is aligned,
+ * so that the tiles of a crashed worker can be told and put back in the
+ * queue.  The merge concatenates the results of the tiles in order, giving
+ * the output of the job run by a single process.  With -x, the database is
+ * sketched once by the split, so that the workers only read the sketch file.
+ */
+public final class ShardQueue {
+    /**
+     * Default number of pairs per tile.
+     */
+    private final static int DEFAULT_TILE_PAIRS = 10000;
+
+    /**
+     * Maximum number of tiles, so that their names sort in order.
+     */
+    private final static long MAX_TILES = 100000000L;
+
+    /**
+     * Period of the touches of a claimed tile, in milliseconds.
+     */
+    private final static long HEARTBEAT_PERIOD = 10000L;
+
+    /**
+     * Names of the files and directories of the queue.
+     */
+    private final static String JOB_FILE = "job.properties", TODO = "todo",
+				CLAIMED = "claimed", DONE = "done";
+
+    /**
+     * Options of the command line which must not be sharded: each tile has
+     * its own output, and the cache and checkpoint files are not shared.
+     */
+    private final static String[] FORBIDDEN_OPTIONS = {
+	"-o", "-w", "-r", "-k", "-K", "-s", "-R", "-h"
+    };
+
+    /**
+     * Options of the command line which take an argument.
+     */
+    private final static String[] VALUE_OPTIONS = {
+	"-c", "-o", "-w", "-f", "-e", "-j", "-m", "-r", "-k", "-K", "-s", "-a",
+	"-x", "-l"
+    };
+
+    /**
+     * Commands.
+     */
+    private final static String[] COMMANDS = {
+	"split", "work", "requeue", "status", "merge"
+    };
+
+    /**
+     * Exit statuses.
+     */
+    private final static int EXIT_SUCCESS = 0, EXIT_FAILURE = 1,
+			     EXIT_USAGE = 2;
+
+    /**
+     * Command-line options.
+     */
+    private String command;
+    private File directory;
+    private String[] arguments;
+    private int tilePairs = DEFAULT_TILE_PAIRS;
+    private long age = 0;
+
+    /**
+     * The job: the command-line arguments, the number of pairs and the
+     * number of tiles.
+     */
+    private String[] jobArgs;
+    private long pairs;
+    private int tiles;
+
+    /**
+     * The tile being aligned by this worker, touched by the heartbeat.
+     */
+    private volatile File claimed = null;
+
+    /**
+     * Print the usage message.
+     *
+     * @param out the stream to print to.
+     */
+    private static void usage(final PrintStream out) {
+	out.println("Usage: java -cp genalign.jar genalign.ShardQueue " +
+		    "COMMAND [OPTION]... DIR ...");
+	out.println("Shard a command-line job into tiles of consecutive " +
+		    "pairs, queued in DIR,");
+	out.println("which workers in as many JVMs as needed, on this host " +
+		    "or on others sharing");
+	out.println("DIR, claim and align; then merge their results into the " +
+		    "output of the job.");
+	out.println();
+	out.println("  split [-n PAIRS] DIR ARGUMENT...");
+	out.println("             queue the job of the genalign ARGUMENTs " +
+		    "(without -o), by tiles");
+	out.println("             of PAIRS pairs (default: " +
+		    DEFAULT_TILE_PAIRS + ")");
+	out.println("  work DIR   claim and align tiles until there are none " +
+		    "left");
+	out.println("  requeue [-a SECONDS] DIR");
+	out.println("             put the claimed tiles back in the queue, " +
+		    "only those which");
+	out.println("             have not been touched for SECONDS seconds " +
+		    "with -a");
+	out.println("  status DIR print the number of tiles left, claimed " +
+		    "and done");
+	out.println("  merge DIR [FILE]");
+	out.println("             write the results of all the tiles, in " +
+		    "order, to FILE or to");
+	out.println("             the standard output");
+	out.println("  -h         display this help and exit");
+    }
+
+    /**
+     * Parse the command-line arguments.
+     *
+     * @param args the command-line arguments.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    private void parseArguments(final String[] args) {
+	if (args.length > 0 && args[0].equals("-h")) {
+	    usage(System.out);
+	    System.exit(EXIT_SUCCESS);
+	}
+	if (args.length == 0)
+	    throw new IllegalArgumentException("missing command");
+	command = args[0];
+	if (!Arrays.asList(COMMANDS).contains(command))
+	    throw new IllegalArgumentException("unknown command: " + command);
+
+	int i;
+	for (i = 1; i < args.length && args[i].startsWith("-"); i++) {
+	    final String option = args[i];
+
+	    if (option.equals("-h")) {
+		usage(System.out);
+		System.exit(EXIT_SUCCESS);
+	    } else if (i + 1 >= args.length)
+		throw new IllegalArgumentException("missing argument for " +
+						   option);
+
+	    final String value = args[++i];
+	    if (option.equals("-n") && command.equals("split"))
+		tilePairs = Integer.parseInt(value);
+	    else if (option.equals("-a") && command.equals("requeue"))
+		age = Long.parseLong(value) * 1000L;
+	    else
+		throw new IllegalArgumentException("unknown option: " + option);
+	}
+
+	if (i >= args.length)
+	    throw new IllegalArgumentException("missing queue directory");
+	directory = new File(args[i++]);
+	arguments = Arrays.copyOfRange(args, i, args.length);
+
+	if (tilePairs < 1 || age < 0)
+	    throw new IllegalArgumentException("invalid option value");
+	if (command.equals("split") ? arguments.length == 0 :
+	    arguments.length > (command.equals("merge") ? 1 : 0))
+	    throw new IllegalArgumentException(arguments.length == 0 ?
+		"missing genalign arguments" :
+		"unexpected argument: " + arguments[arguments.length - 1]);
+    }
+
+    /**
+     * Get the name of a tile.
+     *
+     * @param tile the number of the tile.
+     *
+     * @return the name of its files.
+     */
+    private static String getName(final int tile) {
+	return String.format("tile-%08d", tile);
+    }
+
+    /**
+     * Get a subdirectory of the queue.
+     *
+     * @param name the name of the subdirectory.
+     *
+     * @return the subdirectory.
+     */
+    private File getDirectory(final String name) {
+	return new File(directory, name);
+    }
+
+    /**
+     * List the tiles of a subdirectory of the queue, in order.
+     *
+     * @param name the name of the subdirectory.
+     *
+     * @return the names of the tile files.
+     *
+     * @throws IOException if the subdirectory cannot be read.
+     */
+    private String[] list(final String name) throws IOException {
+	final String[] names = getDirectory(name).list();
+	if (names == null)
+	    throw new IOException(getDirectory(name) + ": cannot read the " +
+				  "directory");
+
+	int count = 0;
+	for (int i = 0; i < names.length; i++)
+	    if (names[i].startsWith("tile-") && !names[i].endsWith(".tmp"))
+		names[count++] = names[i];
+	final String[] tileNames = Arrays.copyOf(names, count);
+	Arrays.sort(tileNames);
+	return tileNames;
+    }
+
+    /**
+     * Split the job into tiles and create the queue, sketching the database
+     * first if the job has a sketch file.  The tiles are queued before the
+     * job file is written, so that workers never see a partial queue.
+     *
+     * @throws IOException if the queue cannot be created.
+     */
+    private void split() throws IOException {
+	if (new File(directory, JOB_FILE).exists())
+	    throw new IOException(directory + ": already a queue");
+
+	// The files must be found from any working directory, or host
+	jobArgs = arguments.clone();
+	int i;
+	for (i = 0; i < jobArgs.length && jobArgs[i].startsWith("-") &&
+		    jobArgs[i].length() > 1; i++) {
+	    if (jobArgs[i].equals("--")) {
+		i++;
+		break;
+	    }
+	    if (Arrays.asList(FORBIDDEN_OPTIONS).contains(jobArgs[i]))
+		throw new IllegalArgumentException("cannot shard a job with " +
+						   jobArgs[i]);
+	    if ((jobArgs[i].equals("-c") || jobArgs[i].equals("-x")) &&
+		i + 1 < jobArgs.length)
+		jobArgs[i + 1] = new File(jobArgs[i + 1]).getAbsolutePath();
+	    if (Arrays.asList(VALUE_OPTIONS).contains(jobArgs[i]))
+		i++;
+	}
+	for (; i < jobArgs.length; i++)
+	    jobArgs[i] = new File(jobArgs[i]).getAbsolutePath();
+
+	pairs = CommandLine.countPairs(jobArgs);
+	CommandLine.sketchDatabase(jobArgs);
+	final long count = (pairs + tilePairs - 1) / tilePairs;
+	if (count > MAX_TILES)
+	    throw new IllegalArgumentException("too many tiles, use more " +
+					       "pairs per tile");
+	tiles = (int)count;
+
+	for (int d = 0; d < 3; d++) {
+	    final File subdirectory =
+		getDirectory(d == 0 ? TODO : d == 1 ? CLAIMED : DONE);
+	    if (!subdirectory.isDirectory() && !subdirectory.mkdirs())
+		throw new IOException(subdirectory + ": cannot create the " +
+				      "directory");
+	}
+	for (int tile = 0; tile < tiles; tile++)
+	    new File(getDirectory(TODO), getName(tile)).createNewFile();
+
+	final Properties properties = new Properties();
+	properties.setProperty("pairs", String.valueOf(pairs));
+	properties.setProperty("tilePairs", String.valueOf(tilePairs));
+	properties.setProperty("args", String.valueOf(jobArgs.length));
+	for (int a = 0; a < jobArgs.length; a++)
+	    properties.setProperty("arg." + a, jobArgs[a]);
+
+	final File temporary = new File(directory, JOB_FILE + ".tmp");
+	final OutputStream output = new FileOutputStream(temporary);
+	try {
+	    properties.store(output, "genalign sharded job");
+	} finally {
+	    output.close();
+	}
+	Files.move(temporary.toPath(), new File(directory, JOB_FILE).toPath(),
+		   StandardCopyOption.ATOMIC_MOVE);
+
+	System.err.println("genalign: " + pairs + " pairs in " + tiles +
+			   " tiles");
+    }
+
+    /**
+     * Read the job file of the queue.
+     *
+     * @throws IOException if the file cannot be read, or is not valid.
+     */
+    private void readJob() throws IOException {
+	final File file = new File(directory, JOB_FILE);
+	final Properties properties = new Properties();
+	final InputStream input;
+	try {
+	    input = new FileInputStream(file);
+	} catch (IOException exception) {
+	    throw new IOException(directory + ": not a queue");
+	}
+	try {
+	    properties.load(input);
+	} finally {
+	    input.close();
+	}
+
+	try {
+	    pairs = Long.parseLong(properties.getProperty("pairs"));
+	    tilePairs = Integer.parseInt(properties.getProperty("tilePairs"));
+	    jobArgs = new String[Integer.parseInt(properties.getProperty(
+		"args"))];
+	} catch (NumberFormatException exception) {
+	    throw new IOException(file + ": invalid job");
+	}
+	for (int a = 0; a < jobArgs.length; a++)
+	    if ((jobArgs[a] = properties.getProperty("arg." + a)) == null)
+		throw new IOException(file + ": invalid job");
+	tiles = (int)((pairs + tilePairs - 1) / tilePairs);
+    }
+
+    /**
+     * Get the name of this worker, unique among the workers sharing the
+     * queue.
+     *
+     * @return the host name and the process identifier.
+     */
+    private static String getWorkerName() {
+	String host;
+	try {
+	    host = InetAddress.getLocalHost().getHostName();
+	} catch (UnknownHostException exception) {
+	    host = "localhost";
+	}
+	return host + "." + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Claim a tile.
+     *
+     * @param worker the name of the worker.
+     *
+     * @return the number of the claimed tile, or -1 if none is left.
+     *
+     * @throws IOException if the queue cannot be read.
+     */
+    private int claim(final String worker) throws IOException {
+	final String[] names = list(TODO);
+
+	for (int i = 0; i < names.length; i++) {
+	    final File file = new File(getDirectory(CLAIMED),
+				       names[i] + "@" + worker);
+	    try {
+		Files.move(new File(getDirectory(TODO), names[i]).toPath(),
+			   file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	    } catch (NoSuchFileException exception) {
+		// Claimed by another worker in the meantime
+		continue;
+	    }
+
+	    file.setLastModified(System.currentTimeMillis());
+	    claimed = file;
+	    return Integer.parseInt(names[i].substring(5));
+	}
+
+	return -1;
+    }
+
+    /**
+     * Claim and align tiles until there are none left.
+     *
+     * @throws IOException if a tile cannot be aligned.
+     */
+    private void work() throws IOException {
+	final String worker = getWorkerName();
+	final Timer heartbeat = new Timer("genalign-heartbeat", true);
+	heartbeat.schedule(new TimerTask() {
+	    public void run() {
+		final File file = claimed;
+		if (file != null)
+		    file.setLastModified(System.currentTimeMillis());
+	    }
+	}, HEARTBEAT_PERIOD, HEARTBEAT_PERIOD);
+
+	int count = 0, tile;
+	try {
+	    while ((tile = claim(worker)) >= 0) {
+		final String name = getName(tile);
+		final long first = (long)tile * tilePairs;
+		final File partial = new File(getDirectory(DONE),
+					      name + "@" + worker + ".tmp");
+		final String[] args = new String[jobArgs.length + 4];
+		args[0] = "-s";
+		args[1] = first + ":" + Math.min(tilePairs, pairs - first);
+		args[2] = "-o";
+		args[3] = partial.getPath();
+		System.arraycopy(jobArgs, 0, args, 4, jobArgs.length);
+
+		if (new CommandLine().run(args) != EXIT_SUCCESS) {
+		    partial.delete();
+		    Files.move(claimed.toPath(),
+			       new File(getDirectory(TODO), name).toPath(),
+			       StandardCopyOption.ATOMIC_MOVE);
+		    throw new IOException(name + ": alignment failed");
+		}
+
+		// A tile requeued meanwhile gives the same results again
+		Files.move(partial.toPath(),
+			   new File(getDirectory(DONE), name).toPath(),
+			   StandardCopyOption.REPLACE_EXISTING,
+			   StandardCopyOption.ATOMIC_MOVE);
+		claimed.delete();
+		claimed = null;
+		count++;
+	    }
+	} finally {
+	    heartbeat.cancel();
+	}
+
+	System.err.println("genalign: worker " + worker + ": " + count +
+			   " tiles aligned");
+    }
+
+    /**
+     * Put the claimed tiles back in the queue, those of workers which
+     * crashed or were stopped.
+     *
+     * @throws IOException if a tile cannot be moved.
+     */
+    private void requeue() throws IOException {
+	final String[] names = list(CLAIMED);
+	final long now = System.currentTimeMillis();
+	int count = 0;
+
+	for (int i = 0; i < names.length; i++) {
+	    final File file = new File(getDirectory(CLAIMED), names[i]);
+	    if (now - file.lastModified() < age)
+		continue;
+
+	    final String name = names[i].substring(0, names[i].indexOf('@'));
+	    new File(getDirectory(DONE), names[i] + ".tmp").delete();
+	    try {
+		if (new File(getDirectory(DONE), name).exists())
+		    Files.delete(file.toPath());
+		else {
+		    Files.move(file.toPath(),
+			       new File(getDirectory(TODO), name).toPath(),
+			       StandardCopyOption.ATOMIC_MOVE);
+		    count++;
+		}
+	    } catch (NoSuchFileException exception) {
+		// Completed by its worker in the meantime
+	    }
+	}
+
+	System.err.println("genalign: " + count + " tiles requeued");
+    }
+
+    /**
+     * Print the state of the queue.
+     *
+     * @throws IOException if the queue cannot be read.
+     */
+    private void status() throws IOException {
+	final String[] claimedNames = list(CLAIMED);
+
+	System.out.println("pairs:   " + pairs + " (" + tilePairs +
+			   " per tile)");
+	System.out.println("tiles:   " + tiles);
+	System.out.println("todo:    " + list(TODO).length);
+	System.out.println("claimed: " + claimedNames.length);
+	for (int i = 0; i < claimedNames.length; i++)
+	    System.out.println("    " + claimedNames[i]);
+	System.out.println("done:    " + list(DONE).length);
+    }
+
+    /**
+     * Write the results of all the tiles, in order.
+     *
+     * @throws IOException if a tile is not done, or the results cannot be
+     *                     written.
+     */
+    private void merge() throws IOException {
+	int missing = 0;
+	for (int tile = 0; tile < tiles; tile++)
+	    if (!new File(getDirectory(DONE), getName(tile)).isFile())
+		missing++;
+	if (missing > 0)
+	    throw new IOException(missing + " of " + tiles +
+				  " tiles are not done");
+
+	final OutputStream output = arguments.length == 0 ? System.out :
+	    new FileOutputStream(arguments[0]);
+	try {
+	    for (int tile = 0; tile < tiles; tile++)
+		Files.copy(new File(getDirectory(DONE), getName(tile)).toPath(),
+			   output);
+	} finally {
+	    if (arguments.length == 0)
+		output.flush();
+	    else
+		output.close();
+	}
+    }
+
+    /**
+     * Run a command.
+     *
+     * @param args the command-line arguments.
+     *
+     * @return the exit status.
+     */
+    private int run(final String[] args) {
+	try {
+	    parseArguments(args);
+	    if (command.equals("split"))
+		split();
+	    else {
+		readJob();
+		if (command.equals("work"))
+		    work();
+		else if (command.equals("requeue"))
+		    requeue();
+		else if (command.equals("status"))
+		    status();
+		else
+		    merge();
+	    }
+	} catch (IllegalArgumentException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    usage(System.err);
+	    return EXIT_USAGE;
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    return EXIT_FAILURE;
+	}
+
+	return EXIT_SUCCESS;
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) {
+	final int status = new ShardQueue().run(args);
+	if (status != EXIT_SUCCESS)
+	    System.exit(status);
+    }
+}
+
+// End of File
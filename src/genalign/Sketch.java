@@ -0,0 +1,179 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: Sketch.java
+ *
+ * Description: Bottom-k MinHash Sketch of a Sequence
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.util.Arrays;
+
+/**
+ * Bottom-k MinHash sketch of the k-mers of a sequence: the smallest hashes
+ * of its distinct k-mers.  The Jaccard index of the k-mer sets of two
+ * sequences, i.e. their similarity, is estimated from their sketches in time
+ * linear in the sketch size, instead of aligning them in quadratic time.
+ * Residues are compared case-insensitively, as by the costs.
+ */
+public final class Sketch {
+    /**
+     * Default k-mer size and number of hashes.
+     */
+    public final static int DEFAULT_KMER = 12, DEFAULT_SIZE = 512;
+
+    /**
+     * Multiplier of the rolling hash of the k-mers (odd).
+     */
+    private final static long MULTIPLIER = 0x100000001b3L;
+
+    /**
+     * The smallest hashes of the distinct k-mers, in increasing order.
+     */
+    private final long[] hashes;
+
+    /**
+     * Constructor.
+     *
+     * @param hashes the hashes, in increasing order (not copied).
+     */
+    Sketch(final long[] hashes) {
+	this.hashes = hashes;
+    }
+
+    /**
+     * Sketch a sequence.
+     *
+     * @param residues the residues of the sequence.
+     * @param kmer     the k-mer size.
+     * @param size     the maximum number of hashes.
+     *
+     * @return the sketch, empty if the sequence is shorter than a k-mer.
+     */
+    public static Sketch compute(final CharSequence residues, final int kmer,
+				 final int size) {
+	final int length = residues.length();
+	if (length < kmer)
+	    return new Sketch(new long[0]);
+
+	// Rolling hash: the leading residue is removed with MULTIPLIER^kmer
+	long power = 1;
+	for (int i = 0; i < kmer; i++)
+	    power *= MULTIPLIER;
+
+	final long[] all = new long[length - kmer + 1];
+	long hash = 0;
+	for (int i = 0; i < length; i++) {
+	    hash = hash * MULTIPLIER +
+		   Character.toUpperCase(residues.charAt(i));
+	    if (i >= kmer)
+		hash -= power *
+			Character.toUpperCase(residues.charAt(i - kmer));
+	    if (i >= kmer - 1)
+		all[i - kmer + 1] = mix(hash);
+	}
+
+	// Keep the smallest distinct hashes
+	Arrays.sort(all);
+	int count = 0;
+	for (int i = 0; i < all.length && count < size; i++)
+	    if (count == 0 || all[i] != all[count - 1])
+		all[count++] = all[i];
+	return new Sketch(Arrays.copyOf(all, count));
+    }
+
+    /**
+     * Mix the bits of a hash (finalizer of MurmurHash3), so that the
+     * smallest hashes are a uniform sample of the k-mers.
+     *
+     * @param hash the hash to mix.
+     *
+     * @return the mixed hash.
+     */
+    private static long mix(long hash) {
+	hash ^= hash >>> 33;
+	hash *= 0xff51afd7ed558ccdL;
+	hash ^= hash >>> 33;
+	hash *= 0xc4ceb9fe1a85ec53L;
+	return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Estimate the Jaccard index of the k-mer sets of two sequences: the
+     * fraction of the smallest hashes of the union of their sketches which
+     * are in both.  Both sketches must have been computed with the same
+     * k-mer size and size.
+     *
+     * @param other the sketch of the other sequence.
+     * @param size  the maximum number of hashes of the sketches.
+     *
+     * @return the estimated similarity, between 0 and 1.
+     */
+    public double similarity(final Sketch other, final int size) {
+	final long[] a = hashes, b = other.hashes;
+	int i = 0, j = 0, shared = 0, union = 0;
+
+	while (union < size && i < a.length && j < b.length) {
+	    if (a[i] == b[j]) {
+		shared++;
+		i++;
+		j++;
+	    } else if (a[i] < b[j])
+		i++;
+	    else
+		j++;
+	    union++;
+	}
+	// A sketch which is not full holds all the k-mers of its sequence
+	union += Math.min(size - union, a.length - i + b.length - j);
+
+	return union == 0 ? 0.0 : (double)shared / (double)union;
+    }
+
+    /**
+     * Check wether the sketch is empty, i.e. its sequence has no k-mer.
+     *
+     * @return wether the sequence is shorter than a k-mer.
+     */
+    public boolean isEmpty() {
+	return hashes.length == 0;
+    }
+
+    /**
+     * Get the hashes.
+     *
+     * @return the hashes, in increasing order (not copied).
+     */
+    long[] getHashes() {
+	return hashes;
+    }
+}
+
+// End of File
@@ -0,0 +1,272 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: SketchIndex.java
+ *
+ * Description: Sketches of the Sequences of a Gene File
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+
+
+package genalign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The sketches of the sequences of a gene file (see Sketch), computed in
+ * parallel.  They can be saved to a file, so that a database of genes is only
+ * sketched once: the file records the size and modification time of the gene
+ * file, and the sketch parameters, so that outdated sketches are computed
+ * again.
+ *
+ * The file is binary: a header (magic number and version), the gene file
+ * identity, the k-mer size, the sketch size, the number of sketches and, for
+ * each, its number of hashes and the hashes, then a CRC-32 of everything
+ * before it.  It is replaced atomically (see CheckedFile), so that several
+ * processes sharing it never read a torn file.
+ */
+public final class SketchIndex {
+    /**
+     * File magic number ("GASK") and format version.
+     */
+    private final static int MAGIC = 0x4741534b, VERSION = 1;
+
+    /**
+     * Number of sequences sketched per task.
+     */
+    private final static int TASK_SEQUENCES = 64;
+
+    /**
+     * The size and modification time of the gene file.
+     */
+    private final long fileSize, fileTime;
+
+    /**
+     * The k-mer size and the maximum number of hashes of the sketches.
+     */
+    private final int kmer, size;
+
+    /**
+     * The sketches, in the order of the sequences.
+     */
+    private final Sketch[] sketches;
+
+    /**
+     * Constructor.
+     *
+     * @param geneFile the gene file, or null.
+     * @param kmer     the k-mer size.
+     * @param size     the maximum number of hashes of the sketches.
+     * @param sketches the sketches (not copied).
+     */
+    private SketchIndex(final File geneFile, final int kmer, final int size,
+			final Sketch[] sketches) {
+	fileSize = geneFile == null ? -1 : geneFile.length();
+	fileTime = geneFile == null ? -1 : geneFile.lastModified();
+	this.kmer = kmer;
+	this.size = size;
+	this.sketches = sketches;
+    }
+
+    /**
+     * Sketch the sequences of a gene file, in parallel.
+     *
+     * @param geneFile    the gene file, or null if the sequences were not
+     *                    read from a file.
+     * @param sequences   the sequences of the gene file.
+     * @param kmer        the k-mer size.
+     * @param size        the maximum number of hashes of the sketches.
+     * @param threadCount the number of threads.
+     *
+     * @return the sketches.
+     */
+    public static SketchIndex compute(final File geneFile,
+				      final List<Sequence> sequences,
+				      final int kmer, final int size,
+				      final int threadCount) {
+	final Sketch[] sketches = new Sketch[sequences.size()];
+	final ExecutorService executor =
+	    Executors.newFixedThreadPool(threadCount);
+
+	try {
+	    final List<Future<Object>> futures =
+		new ArrayList<Future<Object>>();
+	    for (int first = 0; first < sketches.length;
+		 first += TASK_SEQUENCES) {
+		final int from = first;
+		final int to = Math.min(first + TASK_SEQUENCES,
+					sketches.length);
+		futures.add(executor.submit(new Callable<Object>() {
+		    public Object call() {
+			for (int i = from; i < to; i++)
+			    sketches[i] = Sketch.compute(
+				sequences.get(i).getResidues(), kmer, size);
+			return null;
+		    }
+		}));
+	    }
+
+	    for (int i = 0; i < futures.size(); i++)
+		futures.get(i).get();
+	} catch (InterruptedException exception) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("interrupted");
+	} catch (ExecutionException exception) {
+	    final Throwable cause = exception.getCause();
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException)cause;
+	    throw (Error)cause;
+	} finally {
+	    executor.shutdownNow();
+	}
+
+	return new SketchIndex(geneFile, kmer, size, sketches);
+    }
+
+    /**
+     * Read the sketches of a gene file, if they are up to date.
+     *
+     * @param file     the sketch file.
+     * @param geneFile the gene file.
+     * @param kmer     the k-mer size.
+     * @param size     the maximum number of hashes of the sketches.
+     *
+     * @return the sketches, or null if the file does not exist, or was
+     *         computed from another version of the gene file or with other
+     *         parameters.
+     *
+     * @throws IOException if the file cannot be read, or is not valid.
+     */
+    public static SketchIndex read(final File file, final File geneFile,
+				   final int kmer, final int size)
+	throws IOException {
+	final DataInputStream input;
+	try {
+	    input = CheckedFile.readChecked(file, MAGIC, VERSION,
+					    "sketch file");
+	} catch (NoSuchFileException exception) {
+	    return null;
+	}
+
+	try {
+	    if (input.readLong() != geneFile.length() ||
+		input.readLong() != geneFile.lastModified() ||
+		input.readInt() != kmer || input.readInt() != size)
+		return null;
+
+	    final Sketch[] sketches = new Sketch[input.readInt()];
+	    for (int s = 0; s < sketches.length; s++) {
+		final long[] hashes = new long[input.readInt()];
+		for (int h = 0; h < hashes.length; h++)
+		    hashes[h] = input.readLong();
+		sketches[s] = new Sketch(hashes);
+	    }
+	    return new SketchIndex(geneFile, kmer, size, sketches);
+	} catch (EOFException exception) {
+	    throw new IOException(file + ": truncated sketch file");
+	} catch (NegativeArraySizeException exception) {
+	    throw new IOException(file + ": invalid sketch file");
+	}
+    }
+
+    /**
+     * Write the sketches, replacing the file atomically.
+     *
+     * @param file the file to write.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(final File file) throws IOException {
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	final DataOutputStream output = new DataOutputStream(bytes);
+
+	output.writeLong(fileSize);
+	output.writeLong(fileTime);
+	output.writeInt(kmer);
+	output.writeInt(size);
+	output.writeInt(sketches.length);
+	for (int s = 0; s < sketches.length; s++) {
+	    final long[] hashes = sketches[s].getHashes();
+	    output.writeInt(hashes.length);
+	    for (int h = 0; h < hashes.length; h++)
+		output.writeLong(hashes[h]);
+	}
+	output.close();
+
+	CheckedFile.writeAtomically(file, MAGIC, VERSION, bytes.toByteArray());
+    }
+
+    /**
+     * Get the number of sketches.
+     *
+     * @return the number of sequences of the gene file.
+     */
+    public int getCount() {
+	return sketches.length;
+    }
+
+    /**
+     * Get a sketch.
+     *
+     * @param index the index of the sequence in the gene file.
+     *
+     * @return its sketch.
+     */
+    public Sketch get(final int index) {
+	return sketches[index];
+    }
+
+    /**
+     * Estimate the similarity of two sequences.
+     *
+     * @param index1 the index of the sequence in this gene file.
+     * @param other  the sketches of the other gene file, with the same
+     *               parameters.
+     * @param index2 the index of the sequence in the other gene file.
+     *
+     * @return the estimated Jaccard index of their k-mer sets.
+     */
+    public double similarity(final int index1, final SketchIndex other,
+			     final int index2) {
+	return sketches[index1].similarity(other.sketches[index2], size);
+    }
+}
+
+// End of File
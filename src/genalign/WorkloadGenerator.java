@@ -0,0 +1,457 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: WorkloadGenerator.java
+ *
+ * Description: Synthetic Workload Generator
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Generator of synthetic gene pairs for benchmarking: random initial
+ * sequences, and target sequences mutated from them by random insertions,
+ * deletions and substitutions.  The edit script of the mutations (the
+ * "truth") is written along with the sequences.
+ *
+ * Every pair is generated from its own random generator, seeded from the
+ * global seed and the pair number, so a dataset only depends on the seed and
+ * the parameters, not on the number of threads generating it.
+ */
+public final class WorkloadGenerator {
+    /**
+     * Default parameters: alphabet, sequence length and mutation
+     * probabilities.
+     */
+    public final static String DEFAULT_ALPHABET = "ATGC";
+    public final static int DEFAULT_LENGTH = 200;
+    public final static double DEFAULT_INS = 0.1, DEFAULT_DEL = 0.1,
+			       DEFAULT_SUB = 0.05;
+
+    /**
+     * The number of pairs generated at once, in parallel, before being
+     * written in order.
+     */
+    private final static int BATCH_SIZE = 4096;
+
+    /**
+     * The FASTA line width.
+     */
+    private final static int LINE_WIDTH = 60;
+
+    /**
+     * Golden ratio increment, used to derive the seed of each pair.
+     */
+    private final static long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Exit statuses.
+     */
+    private final static int EXIT_FAILURE = 1, EXIT_USAGE = 2;
+
+    /**
+     * The residues.
+     */
+    private final char[] alphabet;
+
+    /**
+     * The mutation probabilities, at each position.
+     */
+    private final double probaIns, probaDel, probaSub;
+
+    /**
+     * A generated pair, formatted for the output files.
+     */
+    private final static class Pair {
+	/**
+	 * The FASTA records of the two sequences, and the truth line.
+	 */
+	final String record1, record2, truth;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param record1 the FASTA record of the initial sequence.
+	 * @param record2 the FASTA record of the target sequence.
+	 * @param truth   the truth line.
+	 */
+	Pair(final String record1, final String record2, final String truth) {
+	    this.record1 = record1;
+	    this.record2 = record2;
+	    this.truth = truth;
+	}
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param alphabet the residues.
+     * @param probaIns the probability of an insertion before each position.
+     * @param probaDel the probability of deleting each residue.
+     * @param probaSub the probability of substituting each residue.
+     */
+    public WorkloadGenerator(final String alphabet, final double probaIns,
+			     final double probaDel, final double probaSub) {
+	if (alphabet.length() == 0)
+	    throw new IllegalArgumentException("empty alphabet");
+	if (probaIns < 0.0 || probaDel < 0.0 || probaSub < 0.0 ||
+	    probaIns >= 1.0 || probaIns + probaDel + probaSub > 1.0)
+	    throw new IllegalArgumentException("invalid probabilities");
+
+	this.alphabet = alphabet.toCharArray();
+	this.probaIns = probaIns;
+	this.probaDel = probaDel;
+	this.probaSub = probaSub;
+    }
+
+    /**
+     * Constructor with the default parameters.
+     */
+    public WorkloadGenerator() {
+	this(DEFAULT_ALPHABET, DEFAULT_INS, DEFAULT_DEL, DEFAULT_SUB);
+    }
+
+    /**
+     * Generate a random sequence.
+     *
+     * @param random the random generator.
+     * @param length the sequence length.
+     *
+     * @return the sequence.
+     */
+    public char[] random(final SplittableRandom random, final int length) {
+	final char[] sequence = new char[length];
+	for (int i = 0; i < length; i++)
+	    sequence[i] = alphabet[random.nextInt(alphabet.length)];
+	return sequence;
+    }
+
+    /**
+     * Mutate a sequence.  Before each position (and at the end), a random
+     * residue is inserted with the insertion probability; otherwise the
+     * residue is deleted, substituted by a different one or kept.
+     *
+     * @param random the random generator.
+     * @param from   the initial sequence.
+     * @param truth  the script to append the mutations to, or null.
+     *
+     * @return the target sequence.
+     */
+    public char[] mutate(final SplittableRandom random, final char[] from,
+			 final EditScript truth) {
+	char[] to = new char[from.length + from.length / 8 + 16];
+	int pos = 0, length = 0;
+
+	while (true) {
+	    final double rand = random.nextDouble();
+	    char chr;
+
+	    if (rand < probaIns) {
+		chr = alphabet[random.nextInt(alphabet.length)];
+		if (truth != null)
+		    truth.append(EditScript.OP_INSERT);
+	    } else if (pos == from.length)
+		break;
+	    else if (rand < probaIns + probaDel) {
+		pos++;
+		if (truth != null)
+		    truth.append(EditScript.OP_DELETE);
+		continue;
+	    } else if (rand < probaIns + probaDel + probaSub &&
+		       alphabet.length > 1) {
+		chr = alphabet[random.nextInt(alphabet.length - 1)];
+		if (chr == from[pos])
+		    chr = alphabet[alphabet.length - 1];
+		if (truth != null)
+		    truth.append(chr == from[pos] ? EditScript.OP_MATCH :
+				 EditScript.OP_MISMATCH);
+		pos++;
+	    } else {
+		chr = from[pos++];
+		if (truth != null)
+		    truth.append(EditScript.OP_MATCH);
+	    }
+
+	    if (length == to.length) {
+		final char[] grown = new char[to.length * 2];
+		System.arraycopy(to, 0, grown, 0, length);
+		to = grown;
+	    }
+	    to[length++] = chr;
+	}
+
+	if (length == to.length)
+	    return to;
+	final char[] result = new char[length];
+	System.arraycopy(to, 0, result, 0, length);
+	return result;
+    }
+
+    /**
+     * Get the random generator of a pair.
+     *
+     * @param seed the dataset seed.
+     * @param pair the pair number.
+     *
+     * @return the random generator.
+     */
+    private static SplittableRandom pairRandom(final long seed,
+					       final int pair) {
+	// Mix the seed and the pair number (MurmurHash3 finalizer), so that
+	// consecutive pairs get unrelated generators
+	long z = seed + (pair + 1) * GOLDEN_GAMMA;
+	z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+	z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+	return new SplittableRandom(z ^ (z >>> 33));
+    }
+
+    /**
+     * Format a FASTA record.
+     *
+     * @param name     the sequence name.
+     * @param sequence the residues.
+     *
+     * @return the record.
+     */
+    private static String fasta(final String name, final char[] sequence) {
+	final StringBuilder record =
+	    new StringBuilder(name.length() + sequence.length +
+			      sequence.length / LINE_WIDTH + 4);
+	record.append('>').append(name).append('\n');
+	for (int i = 0; i < sequence.length; i += LINE_WIDTH)
+	    record.append(sequence, i,
+			  Math.min(LINE_WIDTH, sequence.length - i)).
+		append('\n');
+	return record.toString();
+    }
+
+    /**
+     * Generate a pair.
+     *
+     * @param seed      the dataset seed.
+     * @param pair      the pair number.
+     * @param minLength the minimum length of the initial sequence.
+     * @param maxLength the maximum length of the initial sequence.
+     *
+     * @return the formatted pair.
+     */
+    private Pair generate(final long seed, final int pair,
+			  final int minLength, final int maxLength) {
+	final SplittableRandom random = pairRandom(seed, pair);
+	final int length = minLength == maxLength ? minLength :
+			   random.nextInt(minLength, maxLength + 1);
+	final char[] from = random(random, length);
+	final EditScript truth = new EditScript(16);
+	final char[] to = mutate(random, from, truth);
+	final String name = "pair" + pair;
+
+	return new Pair(fasta(name, from), fasta(name, to),
+			name + '\t' + name + '\t' + truth + '\n');
+    }
+
+    /**
+     * Generate a dataset: PREFIX.1.fa (initial sequences), PREFIX.2.fa (target
+     * sequences, in the same order) and PREFIX.truth (the names and edit
+     * scripts of the pairs, tab-separated).
+     *
+     * @param prefix    the output files prefix.
+     * @param count     the number of pairs.
+     * @param minLength the minimum length of the initial sequences.
+     * @param maxLength the maximum length of the initial sequences.
+     * @param seed      the seed.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void generate(final String prefix, final int count,
+			 final int minLength, final int maxLength,
+			 final long seed) throws IOException {
+	final Writer out1 = open(new File(prefix + ".1.fa"));
+	final Writer out2 = open(new File(prefix + ".2.fa"));
+	final Writer truth = open(new File(prefix + ".truth"));
+
+	try {
+	    for (int start = 0; start < count; start += BATCH_SIZE) {
+		final Pair[] pairs = IntStream.range(start,
+		    Math.min(count, start + BATCH_SIZE)).parallel().
+		    mapToObj(new IntFunction<Pair>() {
+			public Pair apply(final int pair) {
+			    return generate(seed, pair, minLength, maxLength);
+			}
+		    }).toArray(new IntFunction<Pair[]>() {
+			public Pair[] apply(final int size) {
+			    return new Pair[size];
+			}
+		    });
+
+		for (int p = 0; p < pairs.length; p++) {
+		    out1.write(pairs[p].record1);
+		    out2.write(pairs[p].record2);
+		    truth.write(pairs[p].truth);
+		}
+	    }
+	} finally {
+	    out1.close();
+	    out2.close();
+	    truth.close();
+	}
+    }
+
+    /**
+     * Open an output file.
+     *
+     * @param file the file.
+     *
+     * @return the buffered writer.
+     *
+     * @throws IOException if the file cannot be created.
+     */
+    private static Writer open(final File file) throws IOException {
+	return new BufferedWriter(new OutputStreamWriter(
+	    new FileOutputStream(file), "US-ASCII"), 1 << 20);
+    }
+
+    /**
+     * Print the usage message.
+     *
+     * @param out the stream to print to.
+     */
+    private static void usage(final PrintStream out) {
+	out.println("Usage: java -cp genalign.jar genalign.WorkloadGenerator " +
+		    "[OPTION]... PREFIX");
+	out.println("Generate random gene pairs into PREFIX.1.fa and " +
+		    "PREFIX.2.fa, and their");
+	out.println("edit scripts into PREFIX.truth.  Align them with " +
+		    "genalign -p.");
+	out.println();
+	out.println("  -n PAIRS    number of pairs (default: 1000)");
+	out.println("  -l LENGTH   length of the initial sequences, or " +
+		    "MIN-MAX (default: " + DEFAULT_LENGTH + ")");
+	out.println("  -a RESIDUES alphabet (default: " + DEFAULT_ALPHABET +
+		    ")");
+	out.println("  -i PROBA    insertion probability (default: " +
+		    DEFAULT_INS + ")");
+	out.println("  -d PROBA    deletion probability (default: " +
+		    DEFAULT_DEL + ")");
+	out.println("  -s PROBA    substitution probability (default: " +
+		    DEFAULT_SUB + ")");
+	out.println("  -v RATE     divergence: scale the three probabilities " +
+		    "so that they sum");
+	out.println("              to RATE");
+	out.println("  -r SEED     random seed (default: 0)");
+	out.println("  -h          display this help and exit");
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) {
+	int count = 1000, minLength = DEFAULT_LENGTH, maxLength = DEFAULT_LENGTH;
+	String alphabet = DEFAULT_ALPHABET;
+	double probaIns = DEFAULT_INS, probaDel = DEFAULT_DEL,
+	       probaSub = DEFAULT_SUB, divergence = -1.0;
+	long seed = 0L;
+	int i;
+
+	try {
+	    for (i = 0; i < args.length && args[i].startsWith("-") &&
+			args[i].length() > 1; i++) {
+		final String option = args[i];
+
+		if (option.equals("-h")) {
+		    usage(System.out);
+		    return;
+		} else if (i + 1 >= args.length)
+		    throw new IllegalArgumentException("missing argument for " +
+						       option);
+
+		final String value = args[++i];
+		if (option.equals("-n"))
+		    count = Integer.parseInt(value);
+		else if (option.equals("-l")) {
+		    final int dash = value.indexOf('-');
+		    minLength = Integer.parseInt(dash < 0 ? value :
+						 value.substring(0, dash));
+		    maxLength = dash < 0 ? minLength :
+				Integer.parseInt(value.substring(dash + 1));
+		} else if (option.equals("-a"))
+		    alphabet = value;
+		else if (option.equals("-i"))
+		    probaIns = Double.parseDouble(value);
+		else if (option.equals("-d"))
+		    probaDel = Double.parseDouble(value);
+		else if (option.equals("-s"))
+		    probaSub = Double.parseDouble(value);
+		else if (option.equals("-v"))
+		    divergence = Double.parseDouble(value);
+		else if (option.equals("-r"))
+		    seed = Long.parseLong(value);
+		else
+		    throw new IllegalArgumentException("unknown option: " +
+						       option);
+	    }
+
+	    if (i != args.length - 1)
+		throw new IllegalArgumentException("one output prefix " +
+						   "expected");
+	    if (count < 0 || minLength < 0 || maxLength < minLength)
+		throw new IllegalArgumentException("invalid count or length");
+	    if (divergence >= 0.0) {
+		final double sum = probaIns + probaDel + probaSub;
+		if (sum == 0.0)
+		    throw new IllegalArgumentException("null probabilities");
+		probaIns *= divergence / sum;
+		probaDel *= divergence / sum;
+		probaSub *= divergence / sum;
+	    }
+
+	    new WorkloadGenerator(alphabet, probaIns, probaDel, probaSub).
+		generate(args[i], count, minLength, maxLength, seed);
+	} catch (IllegalArgumentException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    usage(System.err);
+	    System.exit(EXIT_USAGE);
+	} catch (IOException exception) {
+	    System.err.println("genalign: " + exception.getMessage());
+	    System.exit(EXIT_FAILURE);
+	}
+    }
+}
+
+// End of File
@@ -0,0 +1,174 @@
+/*
+ * -----------------------------------------------------------------------------
+ *
+ * GenAlign: A Gene Alignment Program
+ * Copyright (c) 2007 Benjamin Gaillard
+ *
+ * -----------------------------------------------------------------------------
+ *
+ *        File: Workspace.java
+ *
+ * Description: Reusable Alignment Buffers
+ *
+ * -----------------------------------------------------------------------------
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * -----------------------------------------------------------------------------
+ */
+
+
+package genalign;
+
+import java.io.CharArrayWriter;
+
+/**
+ * Buffers reused by back-to-back alignments: dynamic programming columns,
+ * operations table, edit script and output buffer.  They are grown when
+ * needed and kept from one alignment to the next, so that batch runs do not
+ * allocate tables for each pair.
+ *
+ * A workspace must only be used by one thread at a time; get() returns one
+ * per thread.  The results of an alignment computed in a workspace (its
+ * operations table and edit script) are only valid until the workspace is
+ * used again.
+ */
+public final class Workspace {
+    /**
+     * The workspace of each thread.
+     */
+    private final static ThreadLocal<Workspace> current =
+	new ThreadLocal<Workspace>() {
+	    protected Workspace initialValue() {
+		return new Workspace();
+	    }
+	};
+
+    /**
+     * The dynamic programming columns.
+     */
+    private final double[][] columns = { new double[0], new double[0] };
+
+    /**
+     * The operations table, one row per column of the dynamic programming
+     * table.  Rows are never shrunk, so they can be longer than requested.
+     */
+    private byte[][] operations = new byte[0][];
+
+    /**
+     * The edit script.
+     */
+    private final EditScript script = new EditScript(16);
+
+    /**
+     * The output buffer.
+     */
+    private final CharArrayWriter output = new CharArrayWriter();
+
+    /**
+     * Get the workspace of the current thread.
+     *
+     * @return the workspace.
+     */
+    public static Workspace get() {
+	return current.get();
+    }
+
+    /**
+     * Drop the workspace of the current thread, so that its buffers can be
+     * reclaimed, for instance after an alignment ran out of memory while
+     * growing them: the next call to get() returns a new workspace.
+     */
+    public static void discard() {
+	current.remove();
+    }
+
+    /**
+     * Get a dynamic programming column.
+     *
+     * @param which  the column number (0 or 1).
+     * @param length the minimum column length.
+     *
+     * @return the column.
+     */
+    double[] getColumn(final int which, final int length) {
+	if (columns[which].length < length) {
+	    columns[which] = new double[grow(columns[which].length, length)];
+	    AlignmentMetrics.get().addTableBytes(8L * columns[which].length);
+	}
+	return columns[which];
+    }
+
+    /**
+     * Get the operations table.
+     *
+     * @param count  the minimum number of rows.
+     * @param length the minimum row length.
+     *
+     * @return the operations table.
+     */
+    byte[][] getOperations(final int count, final int length) {
+	if (operations.length < count) {
+	    final byte[][] rows = new byte[grow(operations.length, count)][];
+	    System.arraycopy(operations, 0, rows, 0, operations.length);
+	    for (int i = operations.length; i < rows.length; i++)
+		rows[i] = new byte[0];
+	    operations = rows;
+	}
+
+	for (int i = 0; i < count; i++)
+	    if (operations[i].length < length) {
+		operations[i] = new byte[grow(operations[i].length, length)];
+		AlignmentMetrics.get().addTableBytes(operations[i].length);
+	    }
+	return operations;
+    }
+
+    /**
+     * Get the edit script, emptied.
+     *
+     * @return the edit script.
+     */
+    EditScript getScript() {
+	script.clear();
+	return script;
+    }
+
+    /**
+     * Get the output buffer, emptied.
+     *
+     * @return the output buffer.
+     */
+    public CharArrayWriter getOutput() {
+	output.reset();
+	return output;
+    }
+
+    /**
+     * Compute the new size of a growing buffer, leaving some room so that
+     * slightly longer inputs do not need a new buffer.
+     *
+     * @param size     the current size.
+     * @param required the required size.
+     *
+     * @return the new size.
+     */
+    private static int grow(final int size, final int required) {
+	final long grown = Math.max((long)required, size + (size >> 1));
+	return (int)Math.min(grown, Integer.MAX_VALUE - 8);
+    }
+}
+
+// End of File